@@ -2,30 +2,35 @@ package ru.fix.aggregating.profiler.graphite
 
 import mu.KotlinLogging
 import ru.fix.aggregating.profiler.Profiler
-import ru.fix.aggregating.profiler.ProfilerReport
+import ru.fix.aggregating.profiler.ProfilerReporter
+import ru.fix.aggregating.profiler.ReportFilter
 import ru.fix.aggregating.profiler.graphite.client.GraphiteWriter
 import ru.fix.dynamic.property.api.DynamicProperty
 import ru.fix.dynamic.property.api.PropertySubscription
+import java.util.concurrent.TimeUnit
 
 private val log = KotlinLogging.logger {}
 
 /**
- * Regularly builds and writes profiler reports to graphite
+ * Regularly builds and writes profiler reports to graphite.
+ * Metrics are written while report is built, see [GraphiteReportWriter.buildAndSaveReportToGraphite].
  *
  * @param metricPrefix will be added to each metric.
  *      Usually contains server instance id.
  *      E.g. `profiler.web1` will lead metric `http.requests.callsCountSum` to be written
  *      as `profiler.web1.http.requests.callsCountSum`
+ * @param latencyUnit unit of latency metrics written to graphite, latency unit of the profiler by default
  */
 class GraphiteProfilerReporter(
         profiler: Profiler,
         settings: DynamicProperty<GraphiteProfilerReporterSettings>,
-        private val metricPrefix: String) : AutoCloseable {
+        private val metricPrefix: String,
+        latencyUnit: TimeUnit? = null) : AutoCloseable {
 
     private val selectiveReporter: SelectiveRateReporter
 
     private val graphiteWriter = GraphiteWriter()
-    private val graphiteReportWriter = GraphiteReportWriter(metricPrefix, graphiteWriter)
+    private val graphiteReportWriter = GraphiteReportWriter(metricPrefix, graphiteWriter, latencyUnit)
     private val settingsSubn: PropertySubscription<GraphiteProfilerReporterSettings>
 
     init {
@@ -49,9 +54,9 @@ class GraphiteProfilerReporter(
     }
 
 
-    private fun saveReportInGraphite(report: ProfilerReport) {
+    private fun saveReportInGraphite(reporter: ProfilerReporter, reportFilter: ReportFilter?) {
         try {
-            graphiteReportWriter.saveProfilingReportToGraphite(report)
+            graphiteReportWriter.buildAndSaveReportToGraphite(reporter, reportFilter)
         } catch (e: Exception) {
             log.error(e) { "Failed send metrics to graphite." }
         }
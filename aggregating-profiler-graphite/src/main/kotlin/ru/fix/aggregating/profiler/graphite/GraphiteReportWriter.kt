@@ -3,9 +3,13 @@ package ru.fix.aggregating.profiler.graphite
 import mu.KotlinLogging
 import ru.fix.aggregating.profiler.Identity
 import ru.fix.aggregating.profiler.ProfilerReport
+import ru.fix.aggregating.profiler.ProfilerReporter
+import ru.fix.aggregating.profiler.ReportFilter
+import ru.fix.aggregating.profiler.ReportVisitor
 import ru.fix.aggregating.profiler.graphite.client.GraphiteEntity
 import ru.fix.aggregating.profiler.graphite.client.GraphiteWriter
 import java.util.*
+import java.util.concurrent.TimeUnit
 
 
 private val log = KotlinLogging.logger {}
@@ -14,22 +18,191 @@ private val log = KotlinLogging.logger {}
  * Writes single profiler report to graphite
  *
  * @param metricPrefix will be added as a prefix to each metrics before sending them to graphite
+ * @param latencyUnit latency metrics are converted to this unit before sending them to graphite,
+ * null to send them in latency unit of the profiler
  */
 class GraphiteReportWriter(
         private val metricPrefix: String,
-        private val graphiteWriter: GraphiteWriter) {
+        private val graphiteWriter: GraphiteWriter,
+        private val latencyUnit: TimeUnit? = null) {
 
     companion object {
         private const val INDICATOR_SUFFIX_MAX = ".indicatorMax"
         private const val INDICATOR_SUFFIX_MIN = ".indicatorMin"
+
+        /**
+         * Number of metrics that are kept in memory while report is streamed to graphite
+         */
+        private const val STREAMING_BATCH_SIZE = 1_000
+
+        /**
+         * Max number of metrics of streamed reports that failed to be written and are kept
+         * to be written together with next streamed report
+         */
+        private const val MAX_UNSENT_METRICS = 100_000
     }
 
+    /**
+     * Metrics of streamed reports that failed to be written, oldest first
+     */
+    private val unsentMetrics = ArrayDeque<GraphiteEntity>()
+
     fun saveProfilingReportToGraphite(report: ProfilerReport) {
         val metrics = convertReportToGraphiteEntity(report)
 
         graphiteWriter.write(metricPrefix, metrics)
     }
 
+    /**
+     * Builds report and writes its metrics to graphite in batches while reporter drains aggregates,
+     * so report of any number of identities does not have to fit in memory.
+     * Aggregates are drained even if graphite write fails in the middle of the report:
+     * metrics that were not written are kept up to [MAX_UNSENT_METRICS] and written before next streamed report,
+     * metrics above that limit are dropped and number of lost identities is logged.
+     *
+     * @param reportFilter null to report all metrics
+     * @throws Exception first failure of graphite write, after the report is completely drained
+     */
+    fun buildAndSaveReportToGraphite(reporter: ProfilerReporter, reportFilter: ReportFilter? = null) {
+        val visitor = StreamingGraphiteVisitor(System.currentTimeMillis() / 1000)
+        visitor.writeUnsentMetrics()
+        if (reportFilter != null) {
+            reporter.buildReportAndReset(reportFilter, visitor)
+        } else {
+            reporter.buildReportAndReset(visitor)
+        }
+        visitor.flush()
+
+        val failure = visitor.failure ?: return
+        log.error {
+            "Failed to write metrics of ${visitor.failedIdentities} identities to graphite: " +
+                    "${visitor.keptMetrics} metrics are kept to be written with next report, " +
+                    "${visitor.lostMetrics} metrics of ${visitor.lostIdentities} identities are lost."
+        }
+        throw failure
+    }
+
+    private inner class StreamingGraphiteVisitor(private val curTime: Long) : ReportVisitor {
+        private val batch = ArrayList<GraphiteEntity>(STREAMING_BATCH_SIZE)
+
+        /**
+         * Metrics of identity are visited one after another, so name of identity is converted once
+         */
+        private var lastIdentity: Identity? = null
+        private var lastCallName = ""
+
+        /**
+         * Number of identities which metrics are in the batch,
+         * identity which metrics are split between batches is counted in both of them
+         */
+        private var batchIdentities = 0
+
+        var failure: Exception? = null
+            private set
+        var failedIdentities = 0L
+            private set
+        var keptMetrics = 0L
+            private set
+        var lostMetrics = 0L
+            private set
+        var lostIdentities = 0L
+            private set
+
+        override fun getLatencyUnit(): TimeUnit? = this@GraphiteReportWriter.latencyUnit
+
+        override fun visitIndicator(identity: Identity, value: Long) {
+            val indicatorName = convertIdentityToMetricName(identity)
+            batchIdentities++
+            add(GraphiteEntity(indicatorName + INDICATOR_SUFFIX_MAX, value.toString(), curTime))
+            add(GraphiteEntity(indicatorName + INDICATOR_SUFFIX_MIN, value.toString(), curTime))
+        }
+
+        override fun visitCallMetric(identity: Identity, metric: String, value: Long) {
+            add(GraphiteEntity(callName(identity) + '.' + metric, value.toString(), curTime))
+        }
+
+        override fun visitCallMetric(identity: Identity, metric: String, value: Double) {
+            add(GraphiteEntity(callName(identity) + '.' + metric, value.toString(), curTime))
+        }
+
+        private fun callName(identity: Identity): String {
+            if (identity !== lastIdentity || batch.isEmpty()) {
+                lastIdentity = identity
+                lastCallName = convertIdentityToMetricName(identity)
+                batchIdentities++
+            }
+            return lastCallName
+        }
+
+        private fun add(entity: GraphiteEntity) {
+            batch.add(entity)
+            if (batch.size >= STREAMING_BATCH_SIZE) {
+                flush()
+            }
+        }
+
+        fun flush() {
+            if (batch.isEmpty()) {
+                return
+            }
+            if (failure == null) {
+                try {
+                    graphiteWriter.write(metricPrefix, batch)
+                } catch (e: Exception) {
+                    failure = e
+                    keep(batch)
+                }
+            } else {
+                // graphite is not available, rest of the report is not written to not wait for every batch
+                keep(batch)
+            }
+            batch.clear()
+            batchIdentities = 0
+        }
+
+        /**
+         * Writes metrics of previous reports that failed to be written, stops on first failure
+         */
+        fun writeUnsentMetrics() {
+            while (true) {
+                val unsent = synchronized(unsentMetrics) {
+                    val size = minOf(unsentMetrics.size, STREAMING_BATCH_SIZE)
+                    List(size) { unsentMetrics.pollFirst() }
+                }
+                if (unsent.isEmpty()) {
+                    return
+                }
+                try {
+                    graphiteWriter.write(metricPrefix, unsent)
+                } catch (e: Exception) {
+                    log.warn(e) { "Failed to write ${unsent.size} metrics of previous reports to graphite." }
+                    synchronized(unsentMetrics) {
+                        unsent.asReversed().forEach { unsentMetrics.addFirst(it) }
+                    }
+                    return
+                }
+            }
+        }
+
+        private fun keep(failedBatch: List<GraphiteEntity>) {
+            failedIdentities += batchIdentities
+            val kept = synchronized(unsentMetrics) {
+                if (unsentMetrics.size + failedBatch.size <= MAX_UNSENT_METRICS) {
+                    unsentMetrics.addAll(failedBatch)
+                    true
+                } else {
+                    false
+                }
+            }
+            if (kept) {
+                keptMetrics += failedBatch.size
+            } else {
+                lostMetrics += failedBatch.size
+                lostIdentities += batchIdentities
+            }
+        }
+    }
+
     private fun convertIdentityToMetricName(identity: Identity): String {
         val name = identity.name.replace(' ', '.')
 
@@ -68,7 +241,7 @@ class GraphiteReportWriter(
 
 
 
-            profilerCallReport.asMap().forEach { metricName, value ->
+            profilerCallReport.asMap(latencyUnit).forEach { metricName, value ->
 
                 metrics.add(GraphiteEntity(
                         callName + '.'.toString() + metricName,
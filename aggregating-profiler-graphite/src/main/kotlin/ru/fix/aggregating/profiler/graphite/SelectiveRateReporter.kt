@@ -3,7 +3,9 @@ package ru.fix.aggregating.profiler.graphite
 import mu.KotlinLogging
 import ru.fix.aggregating.profiler.Profiler
 import ru.fix.aggregating.profiler.ProfilerReport
+import ru.fix.aggregating.profiler.ProfilerReporter
 import ru.fix.aggregating.profiler.RegexpLabelSticker
+import ru.fix.aggregating.profiler.ReportFilter
 import ru.fix.dynamic.property.api.DynamicProperty
 import ru.fix.dynamic.property.api.PropertySubscription
 import ru.fix.stdlib.concurrency.threads.NamedExecutors
@@ -14,15 +16,42 @@ private val log = KotlinLogging.logger {}
 
 /**
  * Regularly builds and writes profiler reports to external data source
+ *
+ * @param buildAndStoreReport builds report of given reporter with given filter, null filter reports all metrics,
+ * and writes it to external data source, e.g. by [ProfilerReporter.buildReportAndReset] with visitor
+ * that serializes metrics while report is built
  */
 class SelectiveRateReporter(
         private val profiler: Profiler,
         settings: DynamicProperty<SelectiveRateProfilingConfig>,
-        private val storeMetrics: (ProfilerReport) -> Unit) : AutoCloseable {
+        private val buildAndStoreReport: (ProfilerReporter, ReportFilter?) -> Unit) : AutoCloseable {
+
+    /**
+     * @param storeMetrics writes built report to external data source,
+     * report that failed to be written is lost, since its aggregates are already reset
+     */
+    constructor(profiler: Profiler,
+                settings: DynamicProperty<SelectiveRateProfilingConfig>,
+                storeMetrics: (ProfilerReport) -> Unit) :
+            this(profiler, settings, { reporter: ProfilerReporter, reportFilter: ReportFilter? ->
+                val report = buildReport(reporter, reportFilter)
+                try {
+                    storeMetrics(report)
+                } catch (e: Exception) {
+                    log.error {
+                        "Report of ${report.profilerCallReports.size} calls " +
+                                "and ${report.indicators.size} indicators is lost."
+                    }
+                    throw e
+                }
+            })
 
     companion object {
         private const val THREAD_NAME_PREFIX = "profiler-selective-reporter"
         private const val RATE_LABEL = "logRate"
+
+        private fun buildReport(reporter: ProfilerReporter, reportFilter: ReportFilter?): ProfilerReport =
+                if (reportFilter != null) reporter.buildReportAndReset(reportFilter) else reporter.buildReportAndReset()
     }
 
     private val settingsSubn: PropertySubscription<SelectiveRateProfilingConfig>
@@ -44,7 +73,7 @@ class SelectiveRateReporter(
                 scheduler.clear()
                 scheduler.add(
                         makeScheduler(config.defaultTimeout) {
-                            buildAndSaveReportInStore { profilerReporter.buildReportAndReset() }
+                            buildAndSaveReportInStore(null)
                         }
                 )
             }
@@ -69,21 +98,17 @@ class SelectiveRateReporter(
             plainConf.keys.forEach { key ->
                 scheduler.add(
                         makeScheduler(key.toLong()) {
-                            buildAndSaveReportInStore {
-                                profilerReporter.buildReportAndReset { _, labels ->
-                                    labels[RATE_LABEL]?.let { labelValue -> labelValue == key } ?: false
-                                }
-                            }
+                            buildAndSaveReportInStore(ReportFilter { _, labels ->
+                                labels[RATE_LABEL]?.let { labelValue -> labelValue == key } ?: false
+                            })
                         })
             }
 
             scheduler.add(
                     makeScheduler(config.defaultTimeout) {
-                        buildAndSaveReportInStore {
-                            profilerReporter.buildReportAndReset { _, labels ->
-                                !labels.containsKey(RATE_LABEL)
-                            }
-                        }
+                        buildAndSaveReportInStore(ReportFilter { _, labels ->
+                            !labels.containsKey(RATE_LABEL)
+                        })
                     })
         }
     }
@@ -95,15 +120,16 @@ class SelectiveRateReporter(
         return newScheduler
     }
 
-    private fun buildAndSaveReportInStore(buildReport: () -> ProfilerReport) {
-        val report = buildReport()
-
-        if (settingsSubn.get().enableReporting) {
-            try {
-                storeMetrics(report)
-            } catch (e: Exception) {
-                log.error(e) { "Failed send metrics to graphite." }
-            }
+    private fun buildAndSaveReportInStore(reportFilter: ReportFilter?) {
+        if (!settingsSubn.get().enableReporting) {
+            // events of the period are reset even if they are not stored
+            buildReport(profilerReporter, reportFilter)
+            return
+        }
+        try {
+            buildAndStoreReport(profilerReporter, reportFilter)
+        } catch (e: Exception) {
+            log.error(e) { "Failed send metrics to graphite." }
         }
     }
 
@@ -7,10 +7,12 @@ import org.hamcrest.MatcherAssert.assertThat
 import org.hamcrest.Matchers
 import org.junit.Assert
 import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
 import org.junit.jupiter.api.extension.ExtendWith
 import org.testcontainers.shaded.com.fasterxml.jackson.databind.ObjectMapper
 import ru.fix.aggregating.profiler.AggregatingProfiler
 import ru.fix.aggregating.profiler.Identity
+import ru.fix.aggregating.profiler.ReportFilter
 import ru.fix.aggregating.profiler.graphite.client.GraphiteEntity
 import ru.fix.aggregating.profiler.graphite.client.GraphiteSettings
 import ru.fix.aggregating.profiler.graphite.client.GraphiteWriter
@@ -67,6 +69,63 @@ class GraphiteReportWriterTest {
         assertEntryExist { name == "call2.type.soft.stopSum" && value == "1" }
     }
 
+    @Test
+    fun `write metrics while report is built`() {
+        val reportWriter = GraphiteReportWriter("prefix", writer)
+
+        val profiler = AggregatingProfiler()
+        val reporter = profiler.createReporter()
+
+        profiler.attachIndicator("indicator1") { 42 }
+        profiler.profiledCall(Identity("call1", mapOf("type" to "soft"))).call()
+        profiler.profiledCall("call2").call()
+
+        // batch is reused after write, so written metrics are copied
+        val writtenMetrics = mutableListOf<GraphiteEntity>()
+        every {
+            writer.write("prefix", any())
+        } answers { writtenMetrics.addAll(secondArg<List<GraphiteEntity>>()) }
+
+        reportWriter.buildAndSaveReportToGraphite(reporter, ReportFilter { identity, _ -> identity.name != "call2" })
+
+        fun assertEntryExist(assert: GraphiteEntity.() -> Boolean) = writtenMetrics
+                .find { it.assert() }
+                .let { Assert.assertNotNull(it) }
+
+        assertEntryExist { name == "indicator1.indicatorMax" && value == "42" }
+        assertEntryExist { name == "call1.type.soft.stopSum" && value == "1" }
+        assertEntryExist { name == "call1.type.soft.payloadSum" && value == "0.0" }
+        Assert.assertTrue(writtenMetrics.none { it.name.startsWith("call2") })
+    }
+
+    @Test
+    fun `metrics of failed streamed report are written with next report`() {
+        val reportWriter = GraphiteReportWriter("prefix", writer)
+
+        val profiler = AggregatingProfiler()
+        val reporter = profiler.createReporter()
+
+        profiler.profiledCall("call1").call()
+
+        every { writer.write("prefix", any()) } throws IllegalStateException("graphite is not available")
+
+        assertThrows<IllegalStateException> {
+            reportWriter.buildAndSaveReportToGraphite(reporter)
+        }
+
+        profiler.profiledCall("call2").call()
+
+        val writtenMetrics = mutableListOf<GraphiteEntity>()
+        every {
+            writer.write("prefix", any())
+        } answers { writtenMetrics.addAll(secondArg<List<GraphiteEntity>>()) }
+
+        reportWriter.buildAndSaveReportToGraphite(reporter)
+
+        Assert.assertTrue(writtenMetrics.any { it.name == "call1.stopSum" && it.value == "1" })
+        Assert.assertTrue(writtenMetrics.any { it.name == "call2.stopSum" && it.value == "1" })
+    }
+
     @Test
     fun `serialize settings`(){
         GraphiteProfilerReporterSettings(
@@ -27,6 +27,7 @@ dependencies {
     implementation(Libs.jmh)
     implementation(Libs.jmhGeneratorAnn)
     implementation(Libs.jmhGeneratorBytecode)
+    implementation(Libs.jol)
 
     implementation(project(":aggregating-profiler"))
 }
@@ -0,0 +1,105 @@
+package ru.fix.aggregating.profiler.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import ru.fix.aggregating.profiler.*;
+
+import java.util.Map;
+
+/**
+ * Recording through {@link ProfiledCallFactory} and reused {@link ProfiledCall} should not allocate.
+ * <p>
+ * Run {@link #main(String[])} to measure benchmarks with GC profiler,
+ * it fails if any benchmark allocates more than {@link #ALLOWED_BYTES_PER_OPERATION}.
+ */
+@State(Scope.Benchmark)
+public class AllocationFreeRecordingJmh {
+
+    /**
+     * Tolerance for allocations of warmup and infrastructure amortized over operations
+     */
+    static final double ALLOWED_BYTES_PER_OPERATION = 1.0;
+
+    private static final Runnable BLOCK = () -> {
+    };
+
+    final AggregatingProfiler profiler = new AggregatingProfiler();
+    ProfilerReporter reporter;
+    ProfiledCallFactory handle;
+
+    @State(Scope.Thread)
+    public static class ThreadCall {
+        ProfiledCall call;
+
+        @Setup
+        public void setup(AllocationFreeRecordingJmh benchmark) {
+            call = benchmark.handle.profiledCall();
+        }
+    }
+
+    @Setup
+    public void setup() {
+        reporter = profiler.createReporter();
+        handle = profiler.handle(new Identity("name", "tagName", "tagValue"));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        reporter.close();
+    }
+
+    @Benchmark
+    public void handle_call() {
+        handle.call();
+    }
+
+    @Benchmark
+    public void handle_call_with_latency() {
+        handle.call(System.currentTimeMillis() - 25);
+    }
+
+    @Benchmark
+    public void reused_call_start_stop(ThreadCall threadCall) {
+        threadCall.call.start();
+        threadCall.call.stop();
+    }
+
+    @Benchmark
+    public void handle_profile_runnable() {
+        handle.profile(BLOCK);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (RunResult result : new Runner(new OptionsBuilder()
+                .include(AllocationFreeRecordingJmh.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .forks(1)
+                .warmupIterations(3)
+                .measurementIterations(5)
+                .build()
+        ).run()) {
+            String benchmark = result.getParams().getBenchmark();
+            double bytesPerOperation = allocationRateNorm(result.getSecondaryResults());
+            System.out.println(benchmark + ": " + bytesPerOperation + " B/op");
+            if (bytesPerOperation > ALLOWED_BYTES_PER_OPERATION) {
+                throw new IllegalStateException(
+                        benchmark + " allocates " + bytesPerOperation + " B/op" +
+                                ", expected no more than " + ALLOWED_BYTES_PER_OPERATION);
+            }
+        }
+    }
+
+    private static double allocationRateNorm(Map<String, Result> secondaryResults) {
+        // name of the metric is prefixed by a dot in some versions of JMH
+        return secondaryResults.entrySet().stream()
+                .filter(entry -> entry.getKey().endsWith("gc.alloc.rate.norm"))
+                .mapToDouble(entry -> entry.getValue().getScore())
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("GC profiler did not report allocation rate"));
+    }
+}
@@ -0,0 +1,74 @@
+package ru.fix.aggregating.profiler.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import ru.fix.aggregating.profiler.AggregatingProfiler;
+import ru.fix.aggregating.profiler.Identity;
+import ru.fix.aggregating.profiler.ProfiledCallFactory;
+import ru.fix.aggregating.profiler.ProfilerReporter;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recording of a batch of events by individual calls and by batch methods.
+ * Each invocation records whole batch, score divided by batchSize is the cost of single event.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BatchRecordingJmh {
+
+    @Param({"10", "100", "1000"})
+    int batchSize;
+
+    AggregatingProfiler profiler;
+    ProfilerReporter reporter;
+    ProfiledCallFactory handle;
+
+    long[] latencies;
+    long latencySum;
+
+    @Setup
+    public void setup() {
+        profiler = new AggregatingProfiler();
+        reporter = profiler.createReporter();
+        handle = profiler.handle(new Identity("batch"));
+
+        Random random = new Random(42);
+        latencies = new long[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            latencies[i] = 1 + random.nextInt(500);
+            latencySum += latencies[i];
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        reporter.close();
+    }
+
+    @Benchmark
+    public void individual_calls_with_latency() {
+        long currentTime = System.currentTimeMillis();
+        for (int i = 0; i < batchSize; i++) {
+            handle.call(currentTime - latencies[i]);
+        }
+    }
+
+    @Benchmark
+    public void record_latencies() {
+        handle.recordLatencies(latencies, batchSize);
+    }
+
+    @Benchmark
+    public void individual_calls_with_payload() {
+        for (int i = 0; i < batchSize; i++) {
+            handle.call(1.0);
+        }
+    }
+
+    @Benchmark
+    public void batch_call() {
+        handle.call(batchSize, latencySum, batchSize);
+    }
+}
@@ -0,0 +1,56 @@
+package ru.fix.aggregating.profiler.jmh;
+
+import org.openjdk.jol.info.GraphLayout;
+import ru.fix.aggregating.profiler.Identity;
+import ru.fix.aggregating.profiler.PercentileSettings;
+import ru.fix.aggregating.profiler.ProfilerClock;
+import ru.fix.aggregating.profiler.engine.AggregatingCall;
+import ru.fix.aggregating.profiler.engine.CallAggregate;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Prints retained size of single {@link CallAggregate} measured by JOL.
+ * Objects shared with the profiler are not counted.
+ */
+public class CallAggregateFootprint {
+
+    private static final Identity IDENTITY = new Identity("call");
+    private static final AtomicInteger NUMBER_OF_LONGEST_ACTIVE_CALLS_TO_TRACK = new AtomicInteger(10);
+    private static final PercentileSettings PERCENTILE_SETTINGS = new PercentileSettings();
+
+    public static void main(String[] args) {
+        CallAggregate aggregate = newAggregate();
+        print("new aggregate", aggregate);
+
+        aggregate.call(System.currentTimeMillis(), CallAggregate.NO_LATENCY, 0);
+        print("after call without latency", aggregate);
+
+        aggregate = newAggregate();
+        aggregate.call(System.currentTimeMillis(), 20, 5);
+        print("after call with latency and payload", aggregate);
+
+        CallAggregate tracked = newAggregate();
+        AggregatingCall call = new AggregatingCall(IDENTITY, (name, action) -> action.accept(tracked));
+        tracked.start(call, System.currentTimeMillis());
+        tracked.stop(call, System.currentTimeMillis(), 20, 5);
+        print("after start and stop of tracked call", tracked);
+    }
+
+    private static CallAggregate newAggregate() {
+        return new CallAggregate(IDENTITY, NUMBER_OF_LONGEST_ACTIVE_CALLS_TO_TRACK, PERCENTILE_SETTINGS);
+    }
+
+    private static void print(String state, CallAggregate aggregate) {
+        long footprint = GraphLayout.parseInstance(aggregate)
+                .subtract(GraphLayout.parseInstance(
+                        IDENTITY,
+                        NUMBER_OF_LONGEST_ACTIVE_CALLS_TO_TRACK,
+                        PERCENTILE_SETTINGS,
+                        ProfilerClock.system(),
+                        TimeUnit.MILLISECONDS))
+                .totalSize();
+        System.out.println(String.format("%-38s %5d bytes", state, footprint));
+    }
+}
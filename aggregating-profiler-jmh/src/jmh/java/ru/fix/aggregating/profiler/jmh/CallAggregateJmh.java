@@ -1,35 +1,61 @@
 package ru.fix.aggregating.profiler.jmh;
 
-import org.openjdk.jmh.annotations.Benchmark;
-import org.openjdk.jmh.annotations.Scope;
-import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
 import ru.fix.aggregating.profiler.Identity;
 import ru.fix.aggregating.profiler.PercentileSettings;
 import ru.fix.aggregating.profiler.engine.AggregatingCall;
 import ru.fix.aggregating.profiler.engine.CallAggregate;
 
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
-
+/**
+ * Run {@link #main(String[])} to compare start_stop with tracking of longest active calls
+ * against {@link #start_stop_concurrent_set_baseline()} on 1 to 64 threads.
+ */
 @State(Scope.Benchmark)
 public class CallAggregateJmh {
 
+    @Param({"0", "10", "100"})
+    int numberOfLongestActiveCallsToTrack;
+
     final long timestamp = System.currentTimeMillis();
 
-    final CallAggregate callAggregate = new CallAggregate(
-            new Identity("name"),
-            new AtomicInteger(0),
-            new PercentileSettings()
-    );
+    CallAggregate callAggregate;
+
+    /**
+     * Previous way to track active calls, size of the set is checked on each start
+     */
+    final Set<AggregatingCall> activeCallsSet = ConcurrentHashMap.newKeySet();
 
-    final AggregatingCall call = new AggregatingCall(
-            new Identity("name"),
-            (profiledCallName, updateAction) -> updateAction.accept(callAggregate));
+    @State(Scope.Thread)
+    public static class ThreadCall {
+        AggregatingCall call;
 
+        @Setup
+        public void setup(CallAggregateJmh benchmark) {
+            call = new AggregatingCall(
+                    new Identity("name"),
+                    (profiledCallName, updateAction) -> updateAction.accept(benchmark.callAggregate));
+        }
+    }
+
+    @Setup
+    public void setup() {
+        callAggregate = new CallAggregate(
+                new Identity("name"),
+                new AtomicInteger(numberOfLongestActiveCallsToTrack),
+                new PercentileSettings()
+        );
+    }
 
     @Benchmark
     public void call() {
-        callAggregate.call(timestamp, 0, 1);
+        callAggregate.call(timestamp, CallAggregate.NO_LATENCY, 1);
     }
 
     @Benchmark
@@ -38,8 +64,31 @@ public class CallAggregateJmh {
     }
 
     @Benchmark
-    public void start_stop() {
-        callAggregate.start(call, timestamp);
-        callAggregate.stop(call, timestamp, 27L, 1);
+    public void start_stop(ThreadCall threadCall) {
+        callAggregate.start(threadCall.call, timestamp);
+        callAggregate.stop(threadCall.call, timestamp, 27L, 1);
+    }
+
+    @Benchmark
+    public boolean start_stop_concurrent_set_baseline(ThreadCall threadCall) {
+        boolean added = false;
+        if (numberOfLongestActiveCallsToTrack > activeCallsSet.size()) {
+            added = activeCallsSet.add(threadCall.call);
+        }
+        return activeCallsSet.remove(threadCall.call) & added;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : new int[]{1, 4, 16, 64}) {
+            new Runner(new OptionsBuilder()
+                    .include(CallAggregateJmh.class.getSimpleName() + ".start_stop")
+                    .threads(threads)
+                    .forks(1)
+                    .warmupIterations(1)
+                    .measurementIterations(5)
+                    .output("call-aggregate-start-stop-" + threads + "-threads.txt")
+                    .build()
+            ).run();
+        }
     }
 }
@@ -0,0 +1,129 @@
+package ru.fix.aggregating.profiler.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jol.info.GraphLayout;
+import ru.fix.aggregating.profiler.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Report building of profiler with large number of identities
+ * stored in object per identity aggregates and in columnar storage.
+ * Each identity records a call before each report.
+ * <p>
+ * Run {@link #main(String[])} to print retained heap of both storages with 10k, 100k and 1M identities.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgs = "-Xmx8g")
+public class ColumnarStorageJmh {
+
+    @Param({"10000", "100000", "1000000"})
+    int identitiesCount;
+
+    @Param({"false", "true"})
+    boolean columnarStorage;
+
+    AggregatingProfiler profiler;
+    ProfilerReporter reporter;
+    ProfiledCallFactory[] handles;
+
+    static ProfiledCallFactory[] createIdentities(AggregatingProfiler profiler, int identitiesCount) {
+        ProfiledCallFactory[] handles = new ProfiledCallFactory[identitiesCount];
+        for (int i = 0; i < identitiesCount; i++) {
+            handles[i] = profiler.handle(new Identity("http.requests",
+                    "service", "service" + i % 10,
+                    "method", "method" + i));
+            handles[i].call(i % 100);
+        }
+        return handles;
+    }
+
+    @Setup
+    public void setup() {
+        profiler = new AggregatingProfiler().setColumnarStorage(columnarStorage);
+        reporter = profiler.createReporter();
+        handles = createIdentities(profiler, identitiesCount);
+        reporter.buildReportAndReset();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        reporter.close();
+    }
+
+    @Benchmark
+    public ProfilerReport record_and_build_report() {
+        for (ProfiledCallFactory handle : handles) {
+            handle.call();
+        }
+        return reporter.buildReportAndReset();
+    }
+
+    /**
+     * Storages are measured by used heap after GC and by JOL.
+     * JOL walks whole object graph and needs several times more heap than storage of 1M identities itself,
+     * so storage of 1M identities is measured only by used heap.
+     * Used heap of all storages is measured before JOL is used, and each storage is measured in a new thread,
+     * so objects retained by JOL and thread local entries of previous storage do not change used heap of next one.
+     */
+    public static void main(String[] args) throws Exception {
+        for (boolean parseGraph : new boolean[]{false, true}) {
+            for (int identitiesCount : new int[]{10_000, 100_000, 1_000_000}) {
+                if (parseGraph && identitiesCount > 100_000) {
+                    continue;
+                }
+                for (boolean columnarStorage : new boolean[]{false, true}) {
+                    Thread thread = new Thread(() -> {
+                        try {
+                            printFootprint(identitiesCount, columnarStorage, parseGraph);
+                        } catch (Exception e) {
+                            throw new IllegalStateException(e);
+                        }
+                    });
+                    thread.start();
+                    thread.join();
+                }
+            }
+        }
+    }
+
+    private static void printFootprint(int identitiesCount, boolean columnarStorage, boolean parseGraph)
+            throws Exception {
+        Identity[] identities = new Identity[identitiesCount];
+        for (int i = 0; i < identitiesCount; i++) {
+            identities[i] = new Identity("http.requests",
+                    "service", "service" + i % 10,
+                    "method", "method" + i);
+        }
+        long heapBefore = usedHeapAfterGc();
+
+        AggregatingProfiler profiler = new AggregatingProfiler().setColumnarStorage(columnarStorage);
+        try (ProfilerReporter reporter = profiler.createReporter()) {
+            for (int i = 0; i < identitiesCount; i++) {
+                profiler.handle(identities[i]).call(i % 100);
+            }
+            reporter.buildReportAndReset();
+
+            // identities are retained by both storages and are not counted
+            long footprint = parseGraph
+                    ? GraphLayout.parseInstance(profiler)
+                    .subtract(GraphLayout.parseInstance((Object[]) identities))
+                    .totalSize()
+                    : usedHeapAfterGc() - heapBefore;
+
+            System.out.println((columnarStorage ? "columnar" : "object") + " storage of "
+                    + identitiesCount + " identities, " + (parseGraph ? "JOL: " : "used heap: ")
+                    + footprint + " bytes, " + footprint / identitiesCount + " per identity");
+        }
+    }
+
+    private static long usedHeapAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,127 @@
+package ru.fix.aggregating.profiler.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jol.info.GraphLayout;
+import ru.fix.aggregating.profiler.Identity;
+import ru.fix.aggregating.profiler.IdentityPool;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookup of tagged identity in map of aggregates by equal identity, by pooled identity
+ * and by legacy identity that kept tags in {@link HashMap} and hashed them on each lookup.
+ * <p>
+ * Run {@link #main(String[])} to print memory footprint of 100k tagged identities.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class IdentityJmh {
+
+    private static final int IDENTITIES_COUNT = 100_000;
+
+    /**
+     * Layout of identity before tags were stored in sorted flat array
+     */
+    static final class LegacyIdentity {
+        final String name;
+        final HashMap<String, String> tags = new HashMap<>();
+
+        LegacyIdentity(String name, String... tags) {
+            this.name = name;
+            for (int i = 0; i < tags.length - 1; i += 2) {
+                this.tags.put(tags[i], tags[i + 1]);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            LegacyIdentity identity = (LegacyIdentity) o;
+            return name.equals(identity.name) && tags.equals(identity.tags);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, tags);
+        }
+    }
+
+    static String[] tags(int index) {
+        return new String[]{
+                "service", "service" + index % 10,
+                "filial", Integer.toString(index % 100),
+                "method", "method" + index};
+    }
+
+    final Map<Identity, Object> aggregates = new ConcurrentHashMap<>();
+    final Map<LegacyIdentity, Object> legacyAggregates = new ConcurrentHashMap<>();
+
+    Identity equalIdentity;
+    Identity pooledIdentity;
+    LegacyIdentity legacyIdentity;
+
+    @Setup
+    public void setup() {
+        IdentityPool pool = new IdentityPool(IDENTITIES_COUNT);
+        for (int i = 0; i < 1_000; i++) {
+            aggregates.put(pool.intern(new Identity("http.requests", tags(i))), new Object());
+            legacyAggregates.put(new LegacyIdentity("http.requests", tags(i)), new Object());
+        }
+        equalIdentity = new Identity("http.requests", tags(42));
+        pooledIdentity = pool.intern(new Identity("http.requests", tags(42)));
+        legacyIdentity = new LegacyIdentity("http.requests", tags(42));
+    }
+
+    @Benchmark
+    public Object lookup_by_equal_identity() {
+        return aggregates.get(equalIdentity);
+    }
+
+    @Benchmark
+    public Object lookup_by_pooled_identity() {
+        return aggregates.get(pooledIdentity);
+    }
+
+    @Benchmark
+    public Object lookup_by_legacy_identity() {
+        return legacyAggregates.get(legacyIdentity);
+    }
+
+    @Benchmark
+    public Identity create_identity() {
+        return new Identity("http.requests", "service", "billing", "filial", "12", "method", "pay");
+    }
+
+    @Benchmark
+    public LegacyIdentity create_legacy_identity() {
+        return new LegacyIdentity("http.requests", "service", "billing", "filial", "12", "method", "pay");
+    }
+
+    public static void main(String[] args) {
+        String[][] tags = new String[IDENTITIES_COUNT][];
+        for (int i = 0; i < IDENTITIES_COUNT; i++) {
+            tags[i] = tags(i);
+        }
+
+        Identity[] identities = new Identity[IDENTITIES_COUNT];
+        LegacyIdentity[] legacyIdentities = new LegacyIdentity[IDENTITIES_COUNT];
+        for (int i = 0; i < IDENTITIES_COUNT; i++) {
+            identities[i] = new Identity("http.requests", tags[i]);
+            legacyIdentities[i] = new LegacyIdentity("http.requests", tags[i]);
+        }
+
+        // tag strings are shared by both layouts and are not counted
+        GraphLayout strings = GraphLayout.parseInstance((Object[]) tags);
+        long footprint = GraphLayout.parseInstance((Object[]) identities).subtract(strings).totalSize();
+        long legacyFootprint = GraphLayout.parseInstance((Object[]) legacyIdentities).subtract(strings).totalSize();
+
+        System.out.println(IDENTITIES_COUNT + " identities with 3 tags:");
+        System.out.println("sorted flat tags: " + footprint + " bytes, " + footprint / IDENTITIES_COUNT + " per identity");
+        System.out.println("hash map tags: " + legacyFootprint + " bytes, "
+                + legacyFootprint / IDENTITIES_COUNT + " per identity");
+    }
+}
@@ -0,0 +1,79 @@
+package ru.fix.aggregating.profiler.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import ru.fix.aggregating.profiler.Identity;
+import ru.fix.aggregating.profiler.PercentileSettings;
+import ru.fix.aggregating.profiler.engine.CallAggregate;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contention of staleness tracking.
+ * All benchmark threads increment striped counter of single identity and
+ * <ul>
+ * <li>write shared timestamp on each event, as aggregate did before</li>
+ * <li>write shared coarse epoch only when it changed</li>
+ * <li>do not write anything, activity is derived from counters by reporter</li>
+ * </ul>
+ * Run {@link #main(String[])} to build scaling curve from 1 to 64 threads.
+ */
+@State(Scope.Benchmark)
+public class LastAccessTimestampJmh {
+
+    private static final long EPOCH_MS = 60_000;
+
+    final long timestamp = System.currentTimeMillis();
+
+    final LongAdder eventCount = new LongAdder();
+    final AtomicLong lastAccessTimestamp = new AtomicLong();
+    volatile long lastAccessEpoch;
+
+    final CallAggregate callAggregate = new CallAggregate(
+            new Identity("name"),
+            new AtomicInteger(0),
+            new PercentileSettings());
+
+    @Benchmark
+    public void shared_timestamp_write_on_each_event() {
+        lastAccessTimestamp.set(timestamp);
+        eventCount.increment();
+    }
+
+    @Benchmark
+    public void coarse_epoch_write_if_changed() {
+        long epoch = timestamp / EPOCH_MS;
+        if (lastAccessEpoch != epoch) {
+            lastAccessEpoch = epoch;
+        }
+        eventCount.increment();
+    }
+
+    @Benchmark
+    public void no_shared_write() {
+        eventCount.increment();
+    }
+
+    @Benchmark
+    public void call_aggregate_call() {
+        callAggregate.call(timestamp, 27L, 1);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : new int[]{1, 2, 4, 8, 16, 32, 64}) {
+            new Runner(new OptionsBuilder()
+                    .include(LastAccessTimestampJmh.class.getSimpleName())
+                    .threads(threads)
+                    .forks(1)
+                    .warmupIterations(1)
+                    .measurementIterations(5)
+                    .output("last-access-timestamp-" + threads + "-threads.txt")
+                    .build()
+            ).run();
+        }
+    }
+}
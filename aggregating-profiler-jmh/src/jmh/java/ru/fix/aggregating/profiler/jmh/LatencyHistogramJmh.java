@@ -0,0 +1,99 @@
+package ru.fix.aggregating.profiler.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jol.info.GraphLayout;
+import ru.fix.aggregating.profiler.PercentileSettings;
+import ru.fix.aggregating.profiler.engine.LatencyHistogram;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Record cost of histogram engines that could be selected by {@link PercentileSettings}.
+ * <p>
+ * Run {@link #main(String[])} to print memory footprint of single histogram of each engine.
+ */
+@State(Scope.Benchmark)
+public class LatencyHistogramJmh {
+
+    private static final int LATENCIES_COUNT = 1024;
+
+    @Param({"buckets", "hdr", "exponential"})
+    String engine;
+
+    LatencyHistogram histogram;
+
+    long[] latencies;
+
+    @State(Scope.Thread)
+    public static class LatencyCursor {
+        int position;
+    }
+
+    static PercentileSettings settings(String engine) {
+        switch (engine) {
+            case "buckets":
+                return new PercentileSettings().useBucketHistogram();
+            case "hdr":
+                return new PercentileSettings().useHdrHistogram(2, 3_600_000);
+            case "exponential":
+                return new PercentileSettings().useExponentialHistogram(0.05);
+            default:
+                throw new IllegalArgumentException(engine);
+        }
+    }
+
+    @Setup
+    public void setup() {
+        PercentileSettings settings = settings(engine);
+        histogram = settings.getHistogramFactory().create(settings, TimeUnit.MILLISECONDS);
+
+        Random random = new Random(42);
+        latencies = new long[LATENCIES_COUNT];
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = (long) Math.exp(random.nextDouble() * Math.log(120_000));
+        }
+    }
+
+    @Benchmark
+    public void accumulate(LatencyCursor cursor) {
+        histogram.accumulate(latencies[cursor.position++ & (LATENCIES_COUNT - 1)]);
+    }
+
+    @Benchmark
+    public Object accumulate_and_build_report(LatencyCursor cursor) {
+        for (int i = 0; i < 1000; i++) {
+            histogram.accumulate(latencies[cursor.position++ & (LATENCIES_COUNT - 1)]);
+        }
+        return histogram.buildAndReset(120_000);
+    }
+
+    /**
+     * Histogram of each identity allocates single stripe of counters,
+     * additional stripes are allocated only when several threads update the same histogram concurrently.
+     * Footprint is printed for empty histogram and after random latencies up to 1 second and up to 2 minutes.
+     */
+    public static void main(String[] args) {
+        for (String engine : new String[]{"buckets", "hdr", "exponential"}) {
+            StringBuilder line = new StringBuilder(engine);
+            for (long maxLatency : new long[]{0, 1_000, 120_000}) {
+                PercentileSettings settings = settings(engine);
+                LatencyHistogram histogram = settings.getHistogramFactory().create(settings, TimeUnit.MILLISECONDS);
+
+                Random random = new Random(42);
+                for (int i = 0; maxLatency > 0 && i < LATENCIES_COUNT; i++) {
+                    histogram.accumulate((long) Math.exp(random.nextDouble() * Math.log(maxLatency)));
+                }
+                line.append(", up to ").append(maxLatency).append(" ms: ")
+                        .append(footprint(histogram, settings)).append(" bytes");
+            }
+            System.out.println(line);
+        }
+    }
+
+    private static long footprint(LatencyHistogram histogram, PercentileSettings settings) {
+        return GraphLayout.parseInstance(histogram)
+                .subtract(GraphLayout.parseInstance(settings))
+                .totalSize();
+    }
+}
@@ -0,0 +1,50 @@
+package ru.fix.aggregating.profiler.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import ru.fix.aggregating.profiler.AggregatingProfiler;
+import ru.fix.aggregating.profiler.Identity;
+import ru.fix.aggregating.profiler.ProfiledCallFactory;
+import ru.fix.aggregating.profiler.ProfilerReporter;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recording of calls with latency and payload by several threads with different latency sampling rates.
+ * Rate 1 records every call into histogram and min and max accumulators.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(8)
+public class LatencySamplingJmh {
+
+    @Param({"1", "0.1", "0.01"})
+    double latencySamplingRate;
+
+    @Param({"false", "true"})
+    boolean threadLocalAggregation;
+
+    AggregatingProfiler profiler;
+    ProfilerReporter reporter;
+    ProfiledCallFactory handle;
+
+    @Setup
+    public void setup() {
+        profiler = new AggregatingProfiler()
+                .setThreadLocalAggregation(threadLocalAggregation)
+                .setLatencySamplingRate(latencySamplingRate);
+        reporter = profiler.createReporter();
+        handle = profiler.handle(new Identity("sampled"));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        reporter.close();
+    }
+
+    @Benchmark
+    public void call_with_latency_and_payload() {
+        handle.call(System.currentTimeMillis() - ThreadLocalRandom.current().nextInt(1, 500), 1.0);
+    }
+}
@@ -1,16 +1,45 @@
 package ru.fix.aggregating.profiler.jmh;
 
-import org.openjdk.jmh.annotations.Benchmark;
-import org.openjdk.jmh.annotations.Scope;
-import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
 import ru.fix.aggregating.profiler.engine.MaxThroughputPerSecondAccumulator;
+import ru.fix.aggregating.profiler.engine.ThroughputPerSecondRing;
 
+/**
+ * Compares CAS window of {@link MaxThroughputPerSecondAccumulator}
+ * with aligned per-second counters of {@link ThroughputPerSecondRing}.
+ * <p>
+ * Run {@link #main(String[])} to build scaling curve from 1 to 64 threads.
+ */
+@SuppressWarnings("deprecation")
 @State(Scope.Benchmark)
 public class MaxThrougputPerSecondAccumulatorJmh {
     MaxThroughputPerSecondAccumulator accumulator = new MaxThroughputPerSecondAccumulator();
+    ThroughputPerSecondRing ring = new ThroughputPerSecondRing();
 
     @Benchmark
     public void timestamp_and_call() {
         accumulator.call(System.currentTimeMillis(), 1);
     }
+
+    @Benchmark
+    public void ring_timestamp_and_call() {
+        ring.call(System.currentTimeMillis(), 1);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : new int[]{1, 2, 4, 8, 16, 32, 64}) {
+            new Runner(new OptionsBuilder()
+                    .include(MaxThrougputPerSecondAccumulatorJmh.class.getSimpleName())
+                    .threads(threads)
+                    .forks(1)
+                    .warmupIterations(1)
+                    .measurementIterations(5)
+                    .output("throughput-per-second-" + threads + "-threads.txt")
+                    .build()
+            ).run();
+        }
+    }
 }
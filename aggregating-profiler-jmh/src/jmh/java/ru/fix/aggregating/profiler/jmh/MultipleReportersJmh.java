@@ -0,0 +1,65 @@
+package ru.fix.aggregating.profiler.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import ru.fix.aggregating.profiler.AggregatingProfiler;
+import ru.fix.aggregating.profiler.Identity;
+import ru.fix.aggregating.profiler.ProfiledCallFactory;
+import ru.fix.aggregating.profiler.ProfilerReport;
+import ru.fix.aggregating.profiler.ProfilerReporter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Events are recorded once into aggregate shared by all reporters,
+ * recording cost should not depend on number of reporters.
+ */
+@State(Scope.Benchmark)
+public class MultipleReportersJmh {
+
+    @Param({"1", "2", "4", "8"})
+    int reportersCount;
+
+    AggregatingProfiler profiler;
+    ProfiledCallFactory handle;
+    List<ProfilerReporter> reporters;
+
+    @Setup
+    public void setup() {
+        profiler = new AggregatingProfiler();
+        reporters = new ArrayList<>();
+        for (int i = 0; i < reportersCount; i++) {
+            reporters.add(profiler.createReporter());
+        }
+        handle = profiler.handle(new Identity("handle"));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        for (ProfilerReporter reporter : reporters) {
+            reporter.close();
+        }
+    }
+
+    @Benchmark
+    public void handle_call() {
+        handle.call();
+    }
+
+    @Benchmark
+    public void profiler_call() {
+        profiler.call("name");
+    }
+
+    @Benchmark
+    public void handle_start_stop() {
+        handle.profiledCall().start().stop();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public ProfilerReport build_report_of_first_reporter() {
+        handle.call();
+        return reporters.get(0).buildReportAndReset();
+    }
+}
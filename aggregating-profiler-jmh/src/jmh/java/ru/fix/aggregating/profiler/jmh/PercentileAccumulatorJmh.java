@@ -0,0 +1,77 @@
+package ru.fix.aggregating.profiler.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import ru.fix.aggregating.profiler.PercentileSettings;
+import ru.fix.aggregating.profiler.engine.PercentileAccumulator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compares bucket search of {@link PercentileAccumulator}
+ * with previous implementation based on {@code TreeMap<Long, LongAdder>.ceilingEntry}
+ * for different count of buckets.
+ */
+@State(Scope.Benchmark)
+public class PercentileAccumulatorJmh {
+
+    private static final int LATENCIES_COUNT = 1024;
+
+    @Param({"17", "64", "256"})
+    int bucketsCount;
+
+    PercentileAccumulator accumulator;
+
+    TreeMap<Long, LongAdder> treeMapBuckets;
+    LongAdder treeMapBucketMiss;
+
+    long[] latencies;
+
+    @State(Scope.Thread)
+    public static class LatencyCursor {
+        int position;
+    }
+
+    @Setup
+    public void setup() {
+        // exponential levels from 1ms to 60s
+        List<Integer> buckets = new ArrayList<>();
+        for (int i = 0; i < bucketsCount; i++) {
+            buckets.add((int) Math.round(Math.pow(60_000, (double) (i + 1) / bucketsCount)) + i);
+        }
+        accumulator = new PercentileAccumulator(new PercentileSettings().setBuckets(buckets));
+
+        treeMapBuckets = new TreeMap<>();
+        buckets.forEach(level -> treeMapBuckets.put((long) level, new LongAdder()));
+        treeMapBucketMiss = new LongAdder();
+
+        Random random = new Random(42);
+        latencies = new long[LATENCIES_COUNT];
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = (long) Math.exp(random.nextDouble() * Math.log(70_000));
+        }
+    }
+
+    private long nextLatency(LatencyCursor cursor) {
+        return latencies[cursor.position++ & (LATENCIES_COUNT - 1)];
+    }
+
+    @Benchmark
+    public void array_accumulator(LatencyCursor cursor) {
+        accumulator.accumulate(nextLatency(cursor));
+    }
+
+    @Benchmark
+    public void tree_map_accumulator(LatencyCursor cursor) {
+        Map.Entry<Long, LongAdder> ceilingBucket = treeMapBuckets.ceilingEntry(nextLatency(cursor));
+        if (ceilingBucket != null) {
+            ceilingBucket.getValue().increment();
+        } else {
+            treeMapBucketMiss.increment();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package ru.fix.aggregating.profiler.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import ru.fix.aggregating.profiler.*;
+
+/**
+ * Compares {@link Profiler#profiledCall(Identity)} that lookups aggregate in reporter on each event
+ * with {@link Profiler#handle(Identity)} that resolves aggregate once.
+ * Unlike {@link ProfilerJmh} profiler has attached reporter, so aggregates are actually updated.
+ */
+@State(Scope.Benchmark)
+public class ProfiledCallFactoryJmh {
+
+    final Identity identity = new Identity("name", "tagName", "tagValue");
+
+    final AggregatingProfiler profiler = new AggregatingProfiler();
+    ProfilerReporter reporter;
+    ProfiledCallFactory handle;
+
+    @Setup
+    public void setup() {
+        reporter = profiler.createReporter();
+        handle = profiler.handle(identity);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        reporter.close();
+    }
+
+    @Benchmark
+    public void profiledCall_call() {
+        ProfiledCall call = profiler.profiledCall(identity);
+        call.call();
+    }
+
+    @Benchmark
+    public void handle_call() {
+        ProfiledCall call = handle.profiledCall();
+        call.call();
+    }
+
+    @Benchmark
+    public void profiledCall_start_stop() {
+        ProfiledCall call = profiler.profiledCall(identity);
+        call.start();
+        call.stop();
+    }
+
+    @Benchmark
+    public void handle_start_stop() {
+        ProfiledCall call = handle.profiledCall();
+        call.start();
+        call.stop();
+    }
+}
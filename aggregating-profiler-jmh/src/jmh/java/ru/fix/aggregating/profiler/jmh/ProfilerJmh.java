@@ -1,17 +1,43 @@
 package ru.fix.aggregating.profiler.jmh;
 
-import org.openjdk.jmh.annotations.Benchmark;
-import org.openjdk.jmh.annotations.Scope;
-import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.*;
 import ru.fix.aggregating.profiler.AggregatingProfiler;
+import ru.fix.aggregating.profiler.CachedProfilerClock;
+import ru.fix.aggregating.profiler.PercentileSettings;
 import ru.fix.aggregating.profiler.ProfiledCall;
 import ru.fix.aggregating.profiler.Profiler;
+import ru.fix.aggregating.profiler.ProfilerClock;
+
+import java.util.concurrent.TimeUnit;
 
 
 @State(Scope.Benchmark)
 public class ProfilerJmh {
 
-    final Profiler profiler = new AggregatingProfiler();
+    @Param({"MILLISECONDS", "MICROSECONDS", "NANOSECONDS"})
+    TimeUnit latencyUnit;
+
+    /**
+     * system - read system time on each event, cached - read time cached by background ticker
+     */
+    @Param({"system", "cached"})
+    String clockType;
+
+    ProfilerClock clock;
+    Profiler profiler;
+
+    @Setup
+    public void setup() {
+        clock = "cached".equals(clockType) ? new CachedProfilerClock() : ProfilerClock.system();
+        profiler = new AggregatingProfiler(new PercentileSettings(), latencyUnit).setClock(clock);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (clock instanceof CachedProfilerClock) {
+            ((CachedProfilerClock) clock).close();
+        }
+    }
 
     @Benchmark
     public long system_current_time() {
@@ -23,6 +49,11 @@ public class ProfilerJmh {
         return System.nanoTime();
     }
 
+    @Benchmark
+    public long profiler_clock_current_time() {
+        return clock.currentTimeMillis();
+    }
+
     @Benchmark
     public void profiledCall_call() {
         ProfiledCall call = profiler.profiledCall("name");
@@ -0,0 +1,54 @@
+package ru.fix.aggregating.profiler.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import ru.fix.aggregating.profiler.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Report building time of profiler with large number of identities
+ * built by reporting thread only and by partitions in parallel.
+ * Each identity records a call before each report.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgs = "-Xmx8g")
+public class ReportBuildJmh {
+
+    @Param({"10000", "100000", "500000"})
+    int identitiesCount;
+
+    @Param({"1", "4"})
+    int reportBuildParallelism;
+
+    AggregatingProfiler profiler;
+    ProfilerReporter reporter;
+    ProfiledCallFactory[] handles;
+
+    @Setup
+    public void setup() {
+        profiler = new AggregatingProfiler().setReportBuildParallelism(reportBuildParallelism);
+        reporter = profiler.createReporter();
+        handles = new ProfiledCallFactory[identitiesCount];
+        for (int i = 0; i < identitiesCount; i++) {
+            handles[i] = profiler.handle(new Identity("http.requests",
+                    "service", "service" + i % 10,
+                    "method", "method" + i));
+        }
+        record_and_build_report();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        reporter.close();
+    }
+
+    @Benchmark
+    public ProfilerReport record_and_build_report() {
+        for (ProfiledCallFactory handle : handles) {
+            handle.call();
+        }
+        return reporter.buildReportAndReset();
+    }
+}
@@ -0,0 +1,81 @@
+package ru.fix.aggregating.profiler.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import ru.fix.aggregating.profiler.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of built reports into text lines the way exporters do it:
+ * through {@link ProfiledCallReport#asMap(TimeUnit)} and through allocation free
+ * {@link ProfiledCallReport#visitMetrics(ReportVisitor)}.
+ * <p>
+ * Run with {@code -prof gc} to compare allocation per serialized report.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class ReportSerializationJmh {
+
+    @Param({"1000"})
+    int identitiesCount;
+
+    List<ProfiledCallReport> reports;
+    StringBuilder output;
+
+    @Setup
+    public void setup() throws Exception {
+        AggregatingProfiler profiler = new AggregatingProfiler();
+        try (ProfilerReporter reporter = profiler.createReporter()) {
+            for (int i = 0; i < identitiesCount; i++) {
+                profiler.handle(new Identity("http.requests", "method", "method" + i)).call(10, 1_000, 5);
+            }
+            reports = reporter.buildReportAndReset().getProfilerCallReports();
+        }
+        output = new StringBuilder(identitiesCount * 1_000);
+    }
+
+    @Benchmark
+    public int serialize_as_map() {
+        output.setLength(0);
+        for (ProfiledCallReport report : reports) {
+            for (Map.Entry<String, Number> metric : report.asMap(TimeUnit.MILLISECONDS).entrySet()) {
+                output.append(metric.getKey()).append(' ').append(metric.getValue().doubleValue()).append('\n');
+            }
+        }
+        return output.length();
+    }
+
+    @Benchmark
+    public int serialize_by_visitor() {
+        output.setLength(0);
+        for (ProfiledCallReport report : reports) {
+            report.visitMetrics(visitor);
+        }
+        return output.length();
+    }
+
+    private final ReportVisitor visitor = new ReportVisitor() {
+        @Override
+        public void visitIndicator(Identity identity, long value) {
+        }
+
+        @Override
+        public void visitCallMetric(Identity identity, String metric, long value) {
+            output.append(metric).append(' ').append((double) value).append('\n');
+        }
+
+        @Override
+        public void visitCallMetric(Identity identity, String metric, double value) {
+            output.append(metric).append(' ').append(value).append('\n');
+        }
+
+        @Override
+        public TimeUnit getLatencyUnit() {
+            return TimeUnit.MILLISECONDS;
+        }
+    };
+}
@@ -0,0 +1,47 @@
+package ru.fix.aggregating.profiler.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import ru.fix.aggregating.profiler.AggregatingProfiler;
+import ru.fix.aggregating.profiler.Identity;
+import ru.fix.aggregating.profiler.ProfiledCallFactory;
+import ru.fix.aggregating.profiler.ProfilerReport;
+import ru.fix.aggregating.profiler.ProfilerReporter;
+
+/**
+ * Reporter waits for writers that are still inside retired generation of the aggregate.
+ * Report build time and recording cost while report is built
+ * are measured with growing number of writers, e.g. by -tg 1,1 / -tg 1,3 / -tg 1,7
+ */
+@State(Scope.Group)
+public class ReportUnderContentionJmh {
+
+    AggregatingProfiler profiler;
+    ProfilerReporter reporter;
+    ProfiledCallFactory handle;
+
+    @Setup
+    public void setup() {
+        profiler = new AggregatingProfiler();
+        reporter = profiler.createReporter();
+        handle = profiler.handle(new Identity("handle"));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        reporter.close();
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public ProfilerReport build_report() {
+        return reporter.buildReportAndReset();
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public void call_with_latency() {
+        handle.call(System.currentTimeMillis() - 1);
+    }
+}
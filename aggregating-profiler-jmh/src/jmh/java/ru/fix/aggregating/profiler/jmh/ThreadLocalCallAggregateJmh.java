@@ -0,0 +1,68 @@
+package ru.fix.aggregating.profiler.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import ru.fix.aggregating.profiler.Identity;
+import ru.fix.aggregating.profiler.PercentileSettings;
+import ru.fix.aggregating.profiler.engine.AggregatingCall;
+import ru.fix.aggregating.profiler.engine.CallAggregate;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * All benchmark threads record events of single identity
+ * into shared counters or into thread-local slabs of {@link CallAggregate}.
+ * <p>
+ * Run {@link #main(String[])} to build scaling curve from 1 to 64 threads.
+ */
+@State(Scope.Benchmark)
+public class ThreadLocalCallAggregateJmh {
+
+    @Param({"false", "true"})
+    boolean threadLocalAggregation;
+
+    final long timestamp = System.currentTimeMillis();
+
+    CallAggregate callAggregate;
+    AggregatingCall call;
+
+    @Setup
+    public void setup() {
+        callAggregate = new CallAggregate(
+                new Identity("name"),
+                new AtomicInteger(0),
+                new PercentileSettings(),
+                threadLocalAggregation);
+
+        call = new AggregatingCall(
+                new Identity("name"),
+                (profiledCallName, updateAction) -> updateAction.accept(callAggregate));
+    }
+
+    @Benchmark
+    public void call_with_latency() {
+        callAggregate.call(timestamp, 27L, 1);
+    }
+
+    @Benchmark
+    public void start_stop() {
+        callAggregate.start(call, timestamp);
+        callAggregate.stop(call, timestamp, 27L, 1);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : new int[]{1, 2, 4, 8, 16, 32, 64}) {
+            new Runner(new OptionsBuilder()
+                    .include(ThreadLocalCallAggregateJmh.class.getSimpleName())
+                    .threads(threads)
+                    .forks(1)
+                    .warmupIterations(1)
+                    .measurementIterations(5)
+                    .output("thread-local-call-aggregate-" + threads + "-threads.txt")
+                    .build()
+            ).run();
+        }
+    }
+}
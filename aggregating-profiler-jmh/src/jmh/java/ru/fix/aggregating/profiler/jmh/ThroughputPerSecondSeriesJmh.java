@@ -0,0 +1,67 @@
+package ru.fix.aggregating.profiler.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import ru.fix.aggregating.profiler.*;
+import ru.fix.aggregating.profiler.engine.AggregatingReporter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drain cost of per second throughput series.
+ * Fast reporter builds report every second, slow reporter once a minute,
+ * so pending series of slow reporter grow with each drain made by fast reporter.
+ * Each identity records a call every second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class ThroughputPerSecondSeriesJmh {
+
+    @Param({"10000"})
+    int identitiesCount;
+
+    @Param({"false", "true"})
+    boolean seriesEnabled;
+
+    ManualProfilerClock clock;
+    AggregatingProfiler profiler;
+    AggregatingReporter fastReporter;
+    AggregatingReporter slowReporter;
+    ProfiledCallFactory[] handles;
+
+    @Setup
+    public void setup() {
+        clock = new ManualProfilerClock(System.currentTimeMillis());
+        profiler = new AggregatingProfiler().setClock(clock);
+        fastReporter = (AggregatingReporter) profiler.createReporter();
+        slowReporter = (AggregatingReporter) profiler.createReporter();
+        fastReporter.setThroughputPerSecondSeriesEnabled(seriesEnabled);
+        slowReporter.setThroughputPerSecondSeriesEnabled(seriesEnabled);
+        handles = new ProfiledCallFactory[identitiesCount];
+        for (int i = 0; i < identitiesCount; i++) {
+            handles[i] = profiler.handle(new Identity("http.requests", "method", "method" + i));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        fastReporter.close();
+        slowReporter.close();
+    }
+
+    /**
+     * One minute of reporting: 60 reports of fast reporter and one report of slow reporter
+     */
+    @Benchmark
+    public ProfilerReport record_and_report_minute() {
+        for (int second = 0; second < 60; second++) {
+            for (ProfiledCallFactory handle : handles) {
+                handle.call();
+            }
+            clock.advance(1, TimeUnit.SECONDS);
+            fastReporter.buildReportAndReset();
+        }
+        return slowReporter.buildReportAndReset();
+    }
+}
@@ -0,0 +1,88 @@
+package ru.fix.aggregating.profiler.prometheus
+
+import ru.fix.aggregating.profiler.CumulativeProfilerReport
+import ru.fix.aggregating.profiler.CumulativeProfilerReporter
+import java.util.concurrent.TimeUnit
+
+/**
+ * Exposes monotonic totals of [CumulativeProfilerReporter] as Prometheus counters and histograms.
+ * Building report does not reset anything, so several scrapers can read the same reporter
+ * and failed scrape does not lose events. Rates are calculated by Prometheus via `rate()`.
+ *
+ * For each profiled call `name` reporter exposes counters `name_start_total`, `name_stop_total`,
+ * `name_payload_total`, histogram `name_latency` and gauge `name_activeCalls`.
+ * Indicators are exposed as gauges.
+ *
+ * @param latencyUnit latency metrics are converted to this unit, null to expose them in latency unit of the profiler
+ */
+class PrometheusCumulativeMetricsReporter(private val reporter: CumulativeProfilerReporter,
+                                          private val reportTags: Map<String, String> = emptyMap(),
+                                          private val latencyUnit: TimeUnit? = null) : AutoCloseable {
+
+    companion object {
+        const val CONTENT_TYPE = PrometheusMetricsReporter.CONTENT_TYPE
+    }
+
+    /**
+     * Samples of metrics with the same name, exposition format requires them to follow single TYPE line
+     */
+    private class MetricFamily(val type: String) {
+        val samples = StringBuilder()
+    }
+
+    fun buildReport(): String {
+        val report = reporter.buildReport()
+        return serializeReport(report)
+    }
+
+    private fun serializeReport(report: CumulativeProfilerReport): String {
+        val families = LinkedHashMap<String, MetricFamily>()
+
+        fun appendSample(name: String, type: String, suffix: String, tags: Map<String, String>, value: Double) {
+            val familyName = PrometheusTextFormat.normalizeName(name)
+            families.getOrPut(familyName) { MetricFamily(type) }.samples
+                    .append(familyName)
+                    .append(suffix)
+                    .append(PrometheusTextFormat.serializeTags(tags + reportTags))
+                    .append(' ')
+                    .append(PrometheusTextFormat.serializeDouble(value))
+                    .append('\n')
+        }
+
+        report.indicators.forEach { identity, value ->
+            appendSample(identity.name, "gauge", "", identity.tags, value.toDouble())
+        }
+
+        report.callReports.forEach { call ->
+            val name = call.identity.name
+            val tags = call.identity.tags
+            val callLatencyUnit = latencyUnit ?: call.latencyUnit
+
+            appendSample(name + "_start_total", "counter", "", tags, call.startSum.toDouble())
+            appendSample(name + "_stop_total", "counter", "", tags, call.stopSum.toDouble())
+            appendSample(name + "_payload_total", "counter", "", tags, call.payloadSum)
+            appendSample(name + "_activeCalls", "gauge", "", tags, call.activeCallsCount.toDouble())
+
+            val levels = call.latencyBucketLevels
+            val counts = call.latencyBucketCounts
+            for (index in levels.indices) {
+                val level = PrometheusTextFormat.serializeDouble(call.convertLatency(levels[index], callLatencyUnit))
+                appendSample(name + "_latency", "histogram", "_bucket", tags + ("le" to level), counts[index].toDouble())
+            }
+            appendSample(name + "_latency", "histogram", "_bucket", tags + ("le" to "+Inf"), call.latencyCount.toDouble())
+            appendSample(name + "_latency", "histogram", "_sum", tags, call.convertLatency(call.latencySum, callLatencyUnit))
+            appendSample(name + "_latency", "histogram", "_count", tags, call.latencyCount.toDouble())
+        }
+
+        val result = StringBuilder()
+        families.forEach { familyName, family ->
+            result.append("# TYPE ").append(familyName).append(' ').append(family.type).append('\n')
+            result.append(family.samples)
+        }
+        return result.toString()
+    }
+
+    override fun close() {
+        reporter.close()
+    }
+}
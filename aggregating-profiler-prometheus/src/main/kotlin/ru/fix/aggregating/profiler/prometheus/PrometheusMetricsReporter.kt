@@ -1,127 +1,90 @@
 package ru.fix.aggregating.profiler.prometheus
 
 import ru.fix.aggregating.profiler.Identity
-import ru.fix.aggregating.profiler.ProfilerReport
 import ru.fix.aggregating.profiler.ProfilerReporter
+import ru.fix.aggregating.profiler.ReportVisitor
 import java.io.StringWriter
 import java.io.Writer
+import java.util.concurrent.TimeUnit
 
+/**
+ * @param latencyUnit latency metrics are converted to this unit, null to expose them in latency unit of the profiler
+ */
 class PrometheusMetricsReporter(private val reporter: ProfilerReporter,
-                                private val reportTags: Map<String, String> = emptyMap()) : AutoCloseable {
+                                private val reportTags: Map<String, String> = emptyMap(),
+                                private val latencyUnit: TimeUnit? = null) : AutoCloseable {
 
     companion object {
         const val CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8"
     }
 
     fun buildReportAndReset(): String {
-        val report = reporter.buildReportAndReset()
-        return serializeReport(report)
-    }
-
-    private fun isLatinLetterOrDigit(char: Char): Boolean {
-        return char in 'A'..'Z' || char in 'a'..'z' || char in '0'..'9'
-    }
-
-    private fun isLatinLetter(char: Char): Boolean {
-        return char in 'A'..'Z' || char in 'a'..'z'
+        val writer = StringWriter()
+        buildReportAndReset(writer)
+        return writer.toString()
     }
 
-    private fun normalizeName(name: String): String {
-        require(name.isNotEmpty())
-
-        val result = StringBuilder()
-        for (symbol in name) {
-            if (isLatinLetterOrDigit(symbol)) {
-                result.append(symbol)
-            } else {
-                if (result.isEmpty() || result.last() != '_') {
-                    result.append('_')
-                }
-            }
-        }
-
-        if (!isLatinLetter(result[0])) {
-            result.insert(0, '_')
-        }
-
-        return if (result.endsWith('_'))
-            result.substring(0, result.length - 1)
-        else
-            result.toString()
+    /**
+     * Writes metrics to the writer while report is built,
+     * so report of any number of identities is not kept in memory as objects
+     */
+    fun buildReportAndReset(writer: Writer) {
+        reporter.buildReportAndReset(PrometheusReportVisitor(writer))
     }
 
+    private inner class PrometheusReportVisitor(private val writer: Writer) : ReportVisitor {
 
-    private fun serializeReport(report: ProfilerReport): String {
+        private val reportedGaugeType = HashSet<String>()
 
-        val writer = StringWriter()
+        /**
+         * Metrics of identity are visited one after another, so name and tags of identity are serialized once
+         */
+        private var lastIdentity: Identity? = null
+        private var lastNamePrefix = ""
+        private var lastTags = ""
 
-        val reportedGaugeType = HashSet<String>()
+        override fun getLatencyUnit(): TimeUnit? = this@PrometheusMetricsReporter.latencyUnit
 
-        report.indicators.forEach { identity, value ->
+        override fun visitIndicator(identity: Identity, value: Long) {
             if (reportedGaugeType.add(identity.name)) {
                 writer.appendGaugeType(identity)
             }
             writer.appendGaugeValue(identity, value.toDouble())
         }
 
-        report.profilerCallReports.forEach { report ->
-            report.asMap().forEach { metric, value ->
-                val identity = Identity(report.identity.name + "_$metric", report.identity.tags)
-                if (reportedGaugeType.add(identity.name)) {
-                    writer.appendGaugeType(identity)
-                }
-                writer.appendGaugeValue(identity, value.toDouble())
+        override fun visitCallMetric(identity: Identity, metric: String, value: Long) {
+            visitCallMetric(identity, metric, value.toDouble())
+        }
+
+        override fun visitCallMetric(identity: Identity, metric: String, value: Double) {
+            if (identity !== lastIdentity) {
+                lastIdentity = identity
+                lastNamePrefix = PrometheusTextFormat.normalizeName(identity.name) + "_"
+                lastTags = PrometheusTextFormat.serializeTags(identity.tags + reportTags)
             }
+            val name = lastNamePrefix + metric
+            if (reportedGaugeType.add(name)) {
+                writer.append("# TYPE ").append(name).append(" gauge\n")
+            }
+            writer.append(name)
+                    .append(lastTags)
+                    .append(' ')
+                    .append(PrometheusTextFormat.serializeDouble(value))
+                    .append('\n')
         }
-        return writer.toString()
     }
 
     private fun Writer.appendGaugeType(identity: Identity) {
-        this.appendln("# TYPE ${normalizeName(identity.name)} gauge")
+        this.appendln("# TYPE ${PrometheusTextFormat.normalizeName(identity.name)} gauge")
     }
 
     private fun Writer.appendGaugeValue(identity: Identity, value: Double) {
-        this.appendln("${convertIdentityToMetricName(identity)} ${serializeDouble(value)}")
+        this.appendln("${convertIdentityToMetricName(identity)} ${PrometheusTextFormat.serializeDouble(value)}")
     }
 
     private fun convertIdentityToMetricName(identity: Identity): String {
-        val metricName = normalizeName(identity.name)
-        val tags = identity.tags + reportTags
-
-        if (tags.isNotEmpty()) {
-            return "$metricName" + tags.asSequence()
-                    .sortedBy { tag -> tag.key }
-                    .map { tag -> """${tag.key}="${escapeTagValue(tag.value)}"""" }
-                    .joinToString(separator = ",", prefix = "{", postfix = "}")
-        }
-        return metricName
-    }
-
-    private fun escapeTagValue(value: String): String {
-        val result = StringBuilder()
-
-        for (char in value) {
-            when (char) {
-                '\\' -> result.append("\\\\")
-                '\"' -> result.append("\\\"")
-                '\n' -> result.append("\\n")
-                else -> result.append(char)
-            }
-        }
-        return result.toString()
-    }
-
-
-    private fun serializeDouble(doubleValue: Double): String {
-        if (doubleValue == java.lang.Double.POSITIVE_INFINITY) {
-            return "+Inf"
-        }
-        if (doubleValue == java.lang.Double.NEGATIVE_INFINITY) {
-            return "-Inf"
-        }
-        return if (java.lang.Double.isNaN(doubleValue)) {
-            "NaN"
-        } else java.lang.Double.toString(doubleValue)
+        return PrometheusTextFormat.normalizeName(identity.name) +
+                PrometheusTextFormat.serializeTags(identity.tags + reportTags)
     }
 
     override fun close() {
@@ -0,0 +1,75 @@
+package ru.fix.aggregating.profiler.prometheus
+
+/**
+ * Names, labels and values of Prometheus text exposition format
+ */
+internal object PrometheusTextFormat {
+
+    private fun isLatinLetterOrDigit(char: Char): Boolean {
+        return char in 'A'..'Z' || char in 'a'..'z' || char in '0'..'9'
+    }
+
+    private fun isLatinLetter(char: Char): Boolean {
+        return char in 'A'..'Z' || char in 'a'..'z'
+    }
+
+    fun normalizeName(name: String): String {
+        require(name.isNotEmpty())
+
+        val result = StringBuilder()
+        for (symbol in name) {
+            if (isLatinLetterOrDigit(symbol)) {
+                result.append(symbol)
+            } else {
+                if (result.isEmpty() || result.last() != '_') {
+                    result.append('_')
+                }
+            }
+        }
+
+        if (!isLatinLetter(result[0])) {
+            result.insert(0, '_')
+        }
+
+        return if (result.endsWith('_'))
+            result.substring(0, result.length - 1)
+        else
+            result.toString()
+    }
+
+    fun serializeTags(tags: Map<String, String>): String {
+        if (tags.isEmpty()) {
+            return ""
+        }
+        return tags.asSequence()
+                .sortedBy { tag -> tag.key }
+                .map { tag -> """${tag.key}="${escapeTagValue(tag.value)}"""" }
+                .joinToString(separator = ",", prefix = "{", postfix = "}")
+    }
+
+    private fun escapeTagValue(value: String): String {
+        val result = StringBuilder()
+
+        for (char in value) {
+            when (char) {
+                '\\' -> result.append("\\\\")
+                '\"' -> result.append("\\\"")
+                '\n' -> result.append("\\n")
+                else -> result.append(char)
+            }
+        }
+        return result.toString()
+    }
+
+    fun serializeDouble(doubleValue: Double): String {
+        if (doubleValue == java.lang.Double.POSITIVE_INFINITY) {
+            return "+Inf"
+        }
+        if (doubleValue == java.lang.Double.NEGATIVE_INFINITY) {
+            return "-Inf"
+        }
+        return if (java.lang.Double.isNaN(doubleValue)) {
+            "NaN"
+        } else java.lang.Double.toString(doubleValue)
+    }
+}
@@ -0,0 +1,65 @@
+package ru.fix.aggregating.profiler.prometheus
+
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.containsString
+import org.hamcrest.Matchers.equalTo
+import org.junit.jupiter.api.Test
+import ru.fix.aggregating.profiler.AggregatingProfiler
+import ru.fix.aggregating.profiler.Identity
+import ru.fix.aggregating.profiler.PercentileSettings
+
+internal class PrometheusCumulativeMetricsReporterTest {
+
+    @Test
+    fun `counters and histogram are not reset by scrape`() {
+        val profiler = AggregatingProfiler(PercentileSettings().setBuckets(listOf(10, 100)))
+        val reporter = PrometheusCumulativeMetricsReporter(profiler.createCumulativeReporter(), mapOf("serverId" to "3"))
+
+        profiler.attachIndicator("my.first.indicator") { 42 }
+        profiler.profiledCall(Identity("simple.call", mapOf("type" to "hard"))).call(System.currentTimeMillis() - 1_000, 5.0)
+
+        val first = reporter.buildReport()
+        val second = reporter.buildReport()
+        assertThat(second, equalTo(first))
+
+        assertThat(first, containsString("# TYPE my_first_indicator gauge"))
+        assertThat(first, containsString("""my_first_indicator{serverId="3"} 42.0"""))
+
+        assertThat(first, containsString("# TYPE simple_call_stop_total counter"))
+        assertThat(first, containsString("""simple_call_stop_total{serverId="3",type="hard"} 1.0"""))
+        assertThat(first, containsString("""simple_call_payload_total{serverId="3",type="hard"} 5.0"""))
+
+        assertThat(first, containsString("# TYPE simple_call_latency histogram"))
+        assertThat(first, containsString("""simple_call_latency_bucket{le="10.0",serverId="3",type="hard"} 0.0"""))
+        assertThat(first, containsString("""simple_call_latency_bucket{le="+Inf",serverId="3",type="hard"} 1.0"""))
+        assertThat(first, containsString("""simple_call_latency_count{serverId="3",type="hard"} 1.0"""))
+
+        profiler.profiledCall(Identity("simple.call", mapOf("type" to "hard"))).call()
+        assertThat(reporter.buildReport(), containsString("""simple_call_stop_total{serverId="3",type="hard"} 2.0"""))
+
+        reporter.close()
+    }
+
+    @Test
+    fun `latency buckets are cumulative for each histogram implementation`() {
+        for (settings in listOf(
+                PercentileSettings().setBuckets(listOf(10, 100)).useBucketHistogram(),
+                PercentileSettings().setBuckets(listOf(10, 100)).useHdrHistogram(2, 3_600_000),
+                PercentileSettings().setBuckets(listOf(10, 100)).useExponentialHistogram(0.01))) {
+            val profiler = AggregatingProfiler(settings)
+            val reporter = PrometheusCumulativeMetricsReporter(profiler.createCumulativeReporter())
+
+            val call = profiler.profiledCall("simple.call")
+            call.call(System.currentTimeMillis() - 1)
+            call.call(System.currentTimeMillis() - 1_000)
+
+            val report = reporter.buildReport()
+            assertThat(report, containsString("""simple_call_latency_bucket{le="10.0"} 1.0"""))
+            assertThat(report, containsString("""simple_call_latency_bucket{le="100.0"} 1.0"""))
+            assertThat(report, containsString("""simple_call_latency_bucket{le="+Inf"} 2.0"""))
+            assertThat(report, containsString("""simple_call_latency_count 2.0"""))
+
+            reporter.close()
+        }
+    }
+}
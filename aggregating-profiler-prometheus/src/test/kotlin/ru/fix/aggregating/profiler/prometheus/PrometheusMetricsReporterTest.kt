@@ -6,6 +6,8 @@ import org.hamcrest.Matchers.equalTo
 import org.junit.jupiter.api.Test
 import ru.fix.aggregating.profiler.AggregatingProfiler
 import ru.fix.aggregating.profiler.Identity
+import ru.fix.aggregating.profiler.PercentileSettings
+import java.util.concurrent.TimeUnit
 
 internal class PrometheusMetricsReporterTest {
 
@@ -82,6 +84,18 @@ internal class PrometheusMetricsReporterTest {
         println(report)
     }
 
+    @Test
+    fun `latency is exposed in profiler unit by default`() {
+        val profiler = AggregatingProfiler(PercentileSettings(), TimeUnit.MICROSECONDS)
+        val reporter = PrometheusMetricsReporter(profiler.createReporter())
+        val millisecondsReporter = PrometheusMetricsReporter(profiler.createReporter(), latencyUnit = TimeUnit.MILLISECONDS)
+
+        profiler.profiledCall("batch").call(2, 3_000, TimeUnit.MICROSECONDS, 0.0)
+
+        assertThat(reporter.buildReportAndReset(), containsString("batch_latencyAvg 1500.0"))
+        assertThat(millisecondsReporter.buildReportAndReset(), containsString("batch_latencyAvg 1.5"))
+    }
+
     fun String.allIndexOf(substring: String): List<Int> {
         val result = mutableListOf<Int>()
         var index = -1
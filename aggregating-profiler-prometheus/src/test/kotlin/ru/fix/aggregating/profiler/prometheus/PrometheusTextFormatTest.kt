@@ -0,0 +1,31 @@
+package ru.fix.aggregating.profiler.prometheus
+
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.equalTo
+import org.junit.jupiter.api.Test
+
+internal class PrometheusTextFormatTest {
+
+    @Test
+    fun `names are converted to allowed symbols`() {
+        assertThat(PrometheusTextFormat.normalizeName("my.simple.call"), equalTo("my_simple_call"))
+        assertThat(PrometheusTextFormat.normalizeName("wrong--metric name."), equalTo("wrong_metric_name"))
+        assertThat(PrometheusTextFormat.normalizeName("98percentile"), equalTo("_98percentile"))
+    }
+
+    @Test
+    fun `tags are sorted and values are escaped`() {
+        assertThat(PrometheusTextFormat.serializeTags(emptyMap()), equalTo(""))
+        assertThat(
+                PrometheusTextFormat.serializeTags(mapOf("type" to "a\"b", "path" to "c:\\d\ne")),
+                equalTo("""{path="c:\\d\ne",type="a\"b"}"""))
+    }
+
+    @Test
+    fun `special doubles`() {
+        assertThat(PrometheusTextFormat.serializeDouble(1.5), equalTo("1.5"))
+        assertThat(PrometheusTextFormat.serializeDouble(Double.POSITIVE_INFINITY), equalTo("+Inf"))
+        assertThat(PrometheusTextFormat.serializeDouble(Double.NEGATIVE_INFINITY), equalTo("-Inf"))
+        assertThat(PrometheusTextFormat.serializeDouble(Double.NaN), equalTo("NaN"))
+    }
+}
@@ -28,6 +28,7 @@ dependencies {
     testImplementation(Libs.slf4j_simple)
     testImplementation(Libs.hamcrest)
     testImplementation(Libs.kotlintest)
+    testImplementation(Libs.jol)
 }
 
 
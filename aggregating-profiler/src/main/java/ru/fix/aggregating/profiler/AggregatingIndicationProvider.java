@@ -1,14 +1,22 @@
 package ru.fix.aggregating.profiler;
 
-import ru.fix.aggregating.profiler.engine.AutoLabelStickerable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+public class AggregatingIndicationProvider extends RefreshableIndication {
+    private static final Logger log = LoggerFactory.getLogger(AggregatingIndicationProvider.class);
 
-public class AggregatingIndicationProvider implements AutoLabelStickerable {
-    private final Map<String, String> autoLabels = new ConcurrentHashMap<>();
     private final IndicationProvider provider;
-    
+
+    /**
+     * Last value evaluated on executor, null if provider did not return value yet or failed
+     */
+    private volatile Long cachedValue;
+    /**
+     * Value evaluated by running evaluation, accessed only by executor thread
+     */
+    private Long evaluatedValue;
+
     public AggregatingIndicationProvider(IndicationProvider provider) {
         this.provider = provider;
     }
@@ -17,13 +25,34 @@ public class AggregatingIndicationProvider implements AutoLabelStickerable {
         return this.provider;
     }
 
+    /**
+     * Invokes provider on current thread
+     *
+     * @return null if provider failed or did not return value
+     */
+    public Long evaluate(Identity identity) {
+        try {
+            return provider.get();
+        } catch (Exception ex) {
+            log.error("Retrieve value for " + identity + " failed with '" + ex.getMessage() + "'", ex);
+            return null;
+        }
+    }
+
     @Override
-    public void setAutoLabel(String name, String value) {
-        this.autoLabels.put(name, value);
+    protected void evaluateForCache(Identity identity) {
+        evaluatedValue = evaluate(identity);
     }
 
     @Override
-    public Map<String, String> getAutoLabels() {
-        return autoLabels;
+    protected void publishCache() {
+        cachedValue = evaluatedValue;
+    }
+
+    /**
+     * @return last value evaluated by {@link #refresh}, null if there is no value or indicator is slow
+     */
+    public Long getCachedValue() {
+        return isSlow() ? null : cachedValue;
     }
 }
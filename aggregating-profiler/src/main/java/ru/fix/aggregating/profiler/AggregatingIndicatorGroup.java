@@ -0,0 +1,160 @@
+package ru.fix.aggregating.profiler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.fix.aggregating.profiler.engine.NameNormalizer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Group of indicators evaluated by single {@link MultiIndicationProvider} invocation.
+ * Values are written to sinks that are reused between reports,
+ * identities of indicators are built once per name and reused as well.
+ */
+public class AggregatingIndicatorGroup extends RefreshableIndication {
+    private static final Logger log = LoggerFactory.getLogger(AggregatingIndicatorGroup.class);
+
+    private final Identity prefix;
+    private final String namePrefix;
+    private final MultiIndicationProvider provider;
+
+    /**
+     * Identities of indicators by their names or identities relative to the prefix
+     */
+    private final Map<Object, Identity> identities = new ConcurrentHashMap<>();
+
+    /**
+     * Sink of evaluation on reporting thread, guarded by its own monitor
+     */
+    private final Sink reportingSink = new Sink();
+    /**
+     * Sink of evaluation on executor, accessed only by executor thread
+     */
+    private Sink evaluatedSink = new Sink();
+    /**
+     * Values of last evaluation on executor, guarded by monitor of the group
+     */
+    private Sink cachedSink = new Sink();
+
+    public AggregatingIndicatorGroup(Identity prefix, MultiIndicationProvider provider) {
+        this.prefix = prefix;
+        this.namePrefix = NameNormalizer.trimDots(prefix.getName()) + ".";
+        this.provider = provider;
+    }
+
+    public Identity getPrefix() {
+        return prefix;
+    }
+
+    public MultiIndicationProvider getProvider() {
+        return provider;
+    }
+
+    /**
+     * Invokes provider on current thread and passes values to the consumer.
+     * Nothing is passed if provider failed.
+     */
+    public void evaluate(ObjLongConsumer<Identity> consumer) {
+        synchronized (reportingSink) {
+            if (evaluate(reportingSink)) {
+                reportingSink.forEach(consumer);
+            }
+        }
+    }
+
+    private boolean evaluate(Sink sink) {
+        sink.clear();
+        try {
+            provider.provide(sink);
+            return true;
+        } catch (Exception ex) {
+            log.error("Retrieve values of indicator group " + prefix + " failed with '" + ex.getMessage() + "'", ex);
+            sink.clear();
+            return false;
+        }
+    }
+
+    @Override
+    protected void evaluateForCache(Identity identity) {
+        evaluate(evaluatedSink);
+    }
+
+    @Override
+    protected synchronized void publishCache() {
+        Sink published = evaluatedSink;
+        evaluatedSink = cachedSink;
+        cachedSink = published;
+    }
+
+    /**
+     * Passes values of last evaluation by {@link #refresh} to the consumer, nothing if group is slow
+     */
+    public synchronized void forEachCachedValue(ObjLongConsumer<Identity> consumer) {
+        if (!isSlow()) {
+            cachedSink.forEach(consumer);
+        }
+    }
+
+    private Identity indicatorIdentity(String name) {
+        return new Identity(namePrefix + NameNormalizer.trimDots(name), prefix.getTags());
+    }
+
+    private Identity indicatorIdentity(Identity identity) {
+        Map<String, String> tags;
+        if (identity.getTagsCount() == 0) {
+            tags = prefix.getTags();
+        } else {
+            tags = new HashMap<>(prefix.getTags());
+            tags.putAll(identity.getTags());
+        }
+        return new Identity(namePrefix + NameNormalizer.trimDots(identity.getName()), tags);
+    }
+
+    private class Sink implements IndicationSink {
+        private Identity[] indicatorIdentities = new Identity[16];
+        private long[] values = new long[16];
+        private int size;
+
+        @Override
+        public void indicate(String name, long value) {
+            Identity indicator = identities.get(name);
+            if (indicator == null) {
+                indicator = identities.computeIfAbsent(name, key -> indicatorIdentity(name));
+            }
+            add(indicator, value);
+        }
+
+        @Override
+        public void indicate(Identity identity, long value) {
+            Identity indicator = identities.get(identity);
+            if (indicator == null) {
+                indicator = identities.computeIfAbsent(identity, key -> indicatorIdentity(identity));
+            }
+            add(indicator, value);
+        }
+
+        private void add(Identity identity, long value) {
+            if (size == values.length) {
+                indicatorIdentities = Arrays.copyOf(indicatorIdentities, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            indicatorIdentities[size] = identity;
+            values[size] = value;
+            size++;
+        }
+
+        void forEach(ObjLongConsumer<Identity> consumer) {
+            for (int i = 0; i < size; i++) {
+                consumer.accept(indicatorIdentities[i], values[i]);
+            }
+        }
+
+        void clear() {
+            size = 0;
+        }
+    }
+}
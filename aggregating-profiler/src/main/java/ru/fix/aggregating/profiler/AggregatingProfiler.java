@@ -1,12 +1,14 @@
 package ru.fix.aggregating.profiler;
 
-import ru.fix.aggregating.profiler.engine.AggregatingCall;
-import ru.fix.aggregating.profiler.engine.AggregatingReporter;
-import ru.fix.aggregating.profiler.engine.NameNormalizer;
+import ru.fix.aggregating.profiler.engine.*;
 
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -16,16 +18,59 @@ import java.util.concurrent.atomic.AtomicLong;
  */
 public class AggregatingProfiler implements Profiler {
 
-    private final CopyOnWriteArrayList<AggregatingReporter> profilerReporters = new CopyOnWriteArrayList<>();
+    /**
+     * Aggregates and registered reporters.
+     * Each event is recorded once and shared by all reporters.
+     */
+    private final CallAggregateStore callAggregates;
+
+    /**
+     * Shared by all profiled calls created by {@link #profiledCall(Identity)}
+     */
+    private final CallAggregateMutator reportersMutator;
+
+    /**
+     * Shared by all profiled calls created by {@link #profiledCall(Identity)} in columnar storage mode
+     */
+    private final CallAggregateMutator columnarMutator;
 
     //TODO: move indicators to reporters, each reporter will set is's own auto tags
     private final Map<Identity, AggregatingIndicationProvider> indicators = new ConcurrentHashMap<>();
+    private final Map<Identity, AggregatingIndicatorGroup> indicatorGroups = new ConcurrentHashMap<>();
     private volatile LabelSticker labelSticker = new NoopLabelSticker();
 
     private final PercentileSettings percentileSettings;
+    private final TimeUnit latencyUnit;
 
-    public AggregatingProfiler(PercentileSettings percentileSettings) {
+    /**
+     * Identities of calls and indicators that are profiled by name,
+     * so repeated profiling of the same name does not allocate new identity
+     */
+    private final IdentityPool namedIdentities = new IdentityPool();
+
+    private final IndicatorEvaluator indicatorEvaluator = new IndicatorEvaluator(this::getClock);
+
+    /**
+     * @param latencyUnit unit of recorded latencies, use {@link TimeUnit#MICROSECONDS}
+     *                    or {@link TimeUnit#NANOSECONDS} to profile calls that are faster than millisecond.
+     *                    Latency metrics in {@link ProfiledCallReport} are reported in this unit.
+     */
+    public AggregatingProfiler(PercentileSettings percentileSettings, TimeUnit latencyUnit) {
         this.percentileSettings = percentileSettings;
+        this.latencyUnit = latencyUnit;
+        this.callAggregates = new CallAggregateStore(
+                numberOfLongestActiveCallsToTrack,
+                staleTimeoutAfterWhichProfiledCallAggregatedWillBeRemoved,
+                threadLocalAggregation,
+                percentileSettings,
+                latencyUnit,
+                this::getClock);
+        this.reportersMutator = new ReportersCallAggregateMutator(callAggregates);
+        this.columnarMutator = new ColumnarCallAggregateMutator(callAggregates);
+    }
+
+    public AggregatingProfiler(PercentileSettings percentileSettings) {
+        this(percentileSettings, TimeUnit.MILLISECONDS);
     }
 
     public AggregatingProfiler() {
@@ -37,44 +82,57 @@ public class AggregatingProfiler implements Profiler {
      */
     private final AtomicInteger numberOfLongestActiveCallsToTrack = new AtomicInteger(10);
     private final AtomicLong staleTimeoutAfterWhichProfiledCallAggregatedWillBeRemoved = new AtomicLong(15 * 60_000);
+    private final AtomicBoolean threadLocalAggregation = new AtomicBoolean(false);
+    private final AtomicBoolean columnarStorage = new AtomicBoolean(false);
+    private volatile ProfilerClock clock = ProfilerClock.system();
 
     public ProfiledCall profiledCall(String name) {
-        return profiledCall(new Identity(name));
+        return profiledCall(namedIdentities.intern(name));
     }
 
     public ProfiledCall profiledCall(Identity identity) {
         return new AggregatingCall(
                 identity,
-                (profiledCallName, updateAction) ->
-                        profilerReporters.forEach(
-                                reporter ->
-                                        reporter.updateCallAggregates(profiledCallName, updateAction)
-                        )
+                columnarStorage.get() ? columnarMutator : reportersMutator,
+                latencyUnit,
+                clock
         );
     }
 
-    private void registerReporter(AggregatingReporter reporter) {
-        profilerReporters.add(reporter);
-    }
-
-    private void unregisterReporter(AggregatingReporter reporter) {
-        profilerReporters.remove(reporter);
+    /**
+     * Factory resolves aggregate of the identity once and reuses it for all created profiled calls.
+     * Cached aggregate is resolved again when profiler removes stale aggregate of the identity.
+     */
+    @Override
+    public ProfiledCallFactory handle(Identity identity) {
+        if (columnarStorage.get()) {
+            return new AggregatingCallFactory(
+                    identity,
+                    new ColumnarCallAggregateMutator(identity, callAggregates),
+                    latencyUnit,
+                    clock);
+        }
+        return new AggregatingCallFactory(
+                new BoundCallAggregateMutator(identity, callAggregates),
+                latencyUnit,
+                clock);
     }
 
     @Override
     public void attachIndicator(String name, IndicationProvider indicationProvider) {
         String normalizedName = NameNormalizer.trimDots(name);
-        attachIndicator(new Identity(normalizedName), indicationProvider);
+        attachIndicator(namedIdentities.intern(normalizedName), indicationProvider);
     }
 
     @Override
     public void attachIndicator(Identity identity, IndicationProvider indicationProvider) {
         AggregatingIndicationProvider provider = new AggregatingIndicationProvider(indicationProvider);
         indicators.put(identity, provider);
+        indicatorEvaluator.onIndicatorAttached(identity, provider);
 
         //TODO: call back will be replaced by direct Reporter::attachIndicator invocation
         // Each report will have it's own indicator provider with populated auto labels.
-        for (AggregatingReporter reporter : profilerReporters) {
+        for (RegisteredReporter reporter : callAggregates.getReporters()) {
             reporter.onIndicatorAttached(identity, provider);
         }
     }
@@ -82,7 +140,7 @@ public class AggregatingProfiler implements Profiler {
     @Override
     public void detachIndicator(String name) {
         String normalizedName = NameNormalizer.trimDots(name);
-        detachIndicator(new Identity(normalizedName));
+        detachIndicator(namedIdentities.intern(normalizedName));
     }
 
     @Override
@@ -90,23 +148,116 @@ public class AggregatingProfiler implements Profiler {
         indicators.remove(identity);
     }
 
+    @Override
+    public void attachIndicatorGroup(Identity prefix, MultiIndicationProvider multiIndicationProvider) {
+        AggregatingIndicatorGroup group = new AggregatingIndicatorGroup(prefix, multiIndicationProvider);
+        indicatorGroups.put(prefix, group);
+        indicatorEvaluator.onIndicatorAttached(prefix, group);
+
+        for (RegisteredReporter reporter : callAggregates.getReporters()) {
+            reporter.onIndicatorAttached(prefix, group);
+        }
+    }
+
+    @Override
+    public void detachIndicatorGroup(Identity prefix) {
+        indicatorGroups.remove(prefix);
+    }
+
+
+    public TimeUnit getLatencyUnit() {
+        return latencyUnit;
+    }
+
+    /**
+     * Source of time for profiled calls, call factories and reporters.
+     * Use {@link CachedProfilerClock} to avoid reading system time on each recorded event
+     * or {@link ManualProfilerClock} in tests.
+     *
+     * Setting applies to profiled calls, call factories and reporters that are created after the change.
+     * {@link SystemProfilerClock} by default.
+     */
+    public AggregatingProfiler setClock(ProfilerClock clock) {
+        this.clock = Objects.requireNonNull(clock);
+        return this;
+    }
+
+    public ProfilerClock getClock() {
+        return clock;
+    }
 
     public Map<Identity, AggregatingIndicationProvider> getIndicators() {
         return indicators;
     }
 
+    public Map<Identity, AggregatingIndicatorGroup> getIndicatorGroups() {
+        return indicatorGroups;
+    }
+
+    public IndicatorEvaluator getIndicatorEvaluator() {
+        return indicatorEvaluator;
+    }
+
+    /**
+     * By default indicator providers are invoked by reporting thread during report building,
+     * so single blocking provider stalls all reports of the profiler.
+     * With executor providers are invoked asynchronously:
+     * report contains last values evaluated on the executor and starts next evaluation,
+     * so report building does not wait for providers.
+     * Age of reported values is available as {@link ProfilerReport#getIndicatorValueAges()}.
+     * Provider that does not return value within timeout is interrupted, logged and is not reported
+     * until it returns value within timeout again.
+     * Each indicator occupies at most one thread of the executor, bounded executor is recommended.
+     *
+     * @param executor executor of indicator providers, null to invoke providers by reporting thread
+     * @param timeoutMillis timeout of single provider evaluation in milliseconds
+     */
+    public AggregatingProfiler setIndicatorEvaluationExecutor(ExecutorService executor, long timeoutMillis) {
+        indicatorEvaluator.setExecutor(executor, timeoutMillis);
+        return this;
+    }
+
     @Override
     public ProfilerReporter createReporter() {
         AggregatingReporter[] reporter = new AggregatingReporter[1];
         reporter[0] = new AggregatingReporter(
                 this,
-                numberOfLongestActiveCallsToTrack,
-                staleTimeoutAfterWhichProfiledCallAggregatedWillBeRemoved,
+                callAggregates,
                 percentileSettings,
-                () -> this.unregisterReporter(reporter[0]),
+                () -> callAggregates.unregister(reporter[0]),
                 new NoopLabelSticker());
         reporter[0].setLabelSticker(labelSticker);
-        this.registerReporter(reporter[0]);
+        callAggregates.register(reporter[0]);
+        return reporter[0];
+    }
+
+    /**
+     * Reporter of monotonic totals that are never reset.
+     * Suitable for pull-based backends with several consumers of the same metrics, e.g. Prometheus.
+     * Reporter sees events recorded after its creation.
+     * Totals of stale identities are removed after {@link CumulativeAggregatingReporter#DEFAULT_TOTALS_IDLE_TIMEOUT}.
+     */
+    public CumulativeProfilerReporter createCumulativeReporter() {
+        return createCumulativeReporter(CumulativeAggregatingReporter.DEFAULT_TOTALS_IDLE_TIMEOUT);
+    }
+
+    /**
+     * @param totalsIdleTimeout milliseconds after which totals of identity are removed from reporter
+     *                          if they did not change and aggregate of the identity was removed as a stale one,
+     *                          see {@link #setStaleTimeoutAfterWhichProfiledCallAggregatedWillBeRemoved(long)}
+     * @see #createCumulativeReporter()
+     */
+    public CumulativeProfilerReporter createCumulativeReporter(long totalsIdleTimeout) {
+        CumulativeAggregatingReporter[] reporter = new CumulativeAggregatingReporter[1];
+        reporter[0] = new CumulativeAggregatingReporter(
+                this,
+                callAggregates,
+                percentileSettings,
+                totalsIdleTimeout,
+                () -> callAggregates.unregister(reporter[0]),
+                new NoopLabelSticker());
+        reporter[0].setLabelSticker(labelSticker);
+        callAggregates.register(reporter[0]);
         return reporter[0];
     }
 
@@ -142,4 +293,181 @@ public class AggregatingProfiler implements Profiler {
     public long getStaleTimeoutAfterWhichProfiledCallAggregatedWillBeRemoved(){
         return staleTimeoutAfterWhichProfiledCallAggregatedWillBeRemoved.get();
     }
+
+    /**
+     * In thread-local aggregation mode each thread records events into its own private slab
+     * instead of counters shared between all threads.
+     * Slabs are merged by reporter during report building.
+     * Mode removes contention between threads that profile same identity at high rate,
+     * but consumes additional memory for each pair of recording thread and identity.
+     * Calls with start and stop still update shared tracking of active calls.
+     * Slabs of threads that stop recording the identity release their buffers after couple of reports.
+     *
+     * Setting applies to aggregates that are created after the change.
+     * Disabled by default.
+     */
+    public AggregatingProfiler setThreadLocalAggregation(boolean threadLocalAggregation) {
+        this.threadLocalAggregation.set(threadLocalAggregation);
+        return this;
+    }
+
+    public boolean isThreadLocalAggregation() {
+        return threadLocalAggregation.get();
+    }
+
+    /**
+     * In columnar storage mode aggregates of all identities are kept in shared primitive arrays
+     * indexed by row of the identity instead of group of objects per identity.
+     * Mode reduces memory footprint and report building time of profilers
+     * with hundreds of thousands of identities.
+     * Columnar aggregates do not report latency of the longest active call and throughput per second,
+     * do not support thread-local aggregation and latency sampling.
+     * Rows of identities are never removed, stale rows are just not reported,
+     * so use {@link #setCardinalityLimit(int)} to bound memory of tags with unbounded values.
+     *
+     * Setting applies to profiled calls and call factories that are created after the change.
+     * Disabled by default.
+     */
+    public AggregatingProfiler setColumnarStorage(boolean columnarStorage) {
+        this.columnarStorage.set(columnarStorage);
+        return this;
+    }
+
+    public boolean isColumnarStorage() {
+        return columnarStorage.get();
+    }
+
+    /**
+     * Reporters of profiler with hundreds of thousands of identities spend seconds
+     * draining aggregates and building reports on single reporting thread.
+     * With parallelism above 1 aggregates are split into partitions that are drained and reported
+     * in parallel by {@link #setReportBuildPool(ForkJoinPool) report build pool},
+     * sorted partitions are merged into single report.
+     * Profilers with few thousands of identities are still reported by reporting thread only.
+     * {@link ReportFilter} of parallel report is invoked concurrently.
+     *
+     * 1 by default.
+     *
+     * @param parallelism max number of partitions
+     */
+    public AggregatingProfiler setReportBuildParallelism(int parallelism) {
+        callAggregates.getReportPartitioner().setParallelism(parallelism);
+        return this;
+    }
+
+    public int getReportBuildParallelism() {
+        return callAggregates.getReportPartitioner().getParallelism();
+    }
+
+    /**
+     * Pool that builds partitions of report in parallel, {@link ForkJoinPool#commonPool()} by default.
+     *
+     * @see #setReportBuildParallelism(int)
+     */
+    public AggregatingProfiler setReportBuildPool(ForkJoinPool reportBuildPool) {
+        callAggregates.getReportPartitioner().setPool(reportBuildPool);
+        return this;
+    }
+
+    /**
+     * Identities that record millions of calls per second spend most of the recording time
+     * in latency histogram and in min and max accumulators.
+     * With sampling rate below 1 only random sample of stopped calls gets into
+     * latency and payload min, max and percentiles, histogram counts are scaled to all calls.
+     * Start and stop counts, latency and payload sums and averages stay exact.
+     * Effective sample rate is reported as {@link ProfiledCallReport#getLatencySampleRate()}.
+     * Batches of calls are always recorded.
+     *
+     * Setting applies to identities without their own sampling rate, 1 by default.
+     *
+     * @param latencySamplingRate probability of stopped call to get into the sample, within (0, 1]
+     * @see #setLatencySamplingRate(Identity, double)
+     */
+    public AggregatingProfiler setLatencySamplingRate(double latencySamplingRate) {
+        callAggregates.setLatencySamplingRate(validateLatencySamplingRate(latencySamplingRate));
+        return this;
+    }
+
+    public double getLatencySamplingRate() {
+        return callAggregates.getLatencySamplingRate();
+    }
+
+    /**
+     * Sampling rate of single identity that overrides rate of the profiler.
+     *
+     * @see #setLatencySamplingRate(double)
+     */
+    public AggregatingProfiler setLatencySamplingRate(Identity identity, double latencySamplingRate) {
+        callAggregates.setLatencySamplingRate(identity, validateLatencySamplingRate(latencySamplingRate));
+        return this;
+    }
+
+    /**
+     * Identity returns to sampling rate of the profiler
+     */
+    public AggregatingProfiler resetLatencySamplingRate(Identity identity) {
+        callAggregates.setLatencySamplingRate(identity, null);
+        return this;
+    }
+
+    public double getLatencySamplingRate(Identity identity) {
+        return callAggregates.getLatencySamplingRate(identity);
+    }
+
+    private static double validateLatencySamplingRate(double latencySamplingRate) {
+        if (!(latencySamplingRate > 0 && latencySamplingRate <= 1)) {
+            throw new IllegalArgumentException(
+                    "Latency sampling rate " + latencySamplingRate + " is out of range (0, 1]");
+        }
+        return latencySamplingRate;
+    }
+
+    /**
+     * Limits number of aggregates of identities with the same name, e.g. number of distinct tag values.
+     * When limit is reached, calls of new identities with this name are recorded
+     * into single aggregate {@code <name>.__overflow__} without tags
+     * and counted in {@link #getCardinalityRejectedCount()}.
+     * Limit is checked only when new aggregate is created, so it does not affect recording cost.
+     * Rejected identities are remembered, further calls of them are redirected without checking limits.
+     *
+     * Setting applies to names without their own limit and to aggregates that are created after the change.
+     * Unlimited by default.
+     *
+     * @see #setCardinalityLimit(String, int)
+     */
+    public AggregatingProfiler setCardinalityLimit(int limit) {
+        callAggregates.getCardinalityGuard().setDefaultNameLimit(limit);
+        return this;
+    }
+
+    /**
+     * Limit of aggregates of identities with given name that overrides limit of the profiler
+     *
+     * @see #setCardinalityLimit(int)
+     */
+    public AggregatingProfiler setCardinalityLimit(String name, int limit) {
+        callAggregates.getCardinalityGuard().setNameLimit(name, limit);
+        return this;
+    }
+
+    /**
+     * Limits total number of aggregates of identities with the name prefix,
+     * e.g. all identities of {@link PrefixedProfiler} with the same prefix.
+     * New identities above the limit are recorded into single aggregate {@code <prefix>.__overflow__}.
+     *
+     * @param prefix limit applies to identities with the name equal to prefix or starting with prefix and dot
+     * @see #setCardinalityLimit(int)
+     */
+    public AggregatingProfiler setPrefixCardinalityLimit(String prefix, int limit) {
+        callAggregates.getCardinalityGuard().setPrefixLimit(NameNormalizer.trimDots(prefix), limit);
+        return this;
+    }
+
+    /**
+     * Number of distinct identities which calls were redirected to overflow aggregate
+     * because of cardinality limit
+     */
+    public long getCardinalityRejectedCount() {
+        return callAggregates.getCardinalityGuard().getRejectedCount();
+    }
 }
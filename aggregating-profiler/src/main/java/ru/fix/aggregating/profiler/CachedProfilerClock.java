@@ -0,0 +1,58 @@
+package ru.fix.aggregating.profiler;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Clock with cached millisecond time.
+ * Background daemon thread updates cached value each tick,
+ * so recording threads read volatile field instead of invoking {@link System#currentTimeMillis()}.
+ * Timestamps lag behind system time by no more than a tick and scheduling delay of the ticker thread.
+ * <p>
+ * {@link #nanoTime()} is not cached, latencies are measured with full precision.
+ * <p>
+ * Close the clock to stop the ticker thread.
+ */
+public class CachedProfilerClock implements ProfilerClock, AutoCloseable {
+
+    private volatile long currentTimeMillis = System.currentTimeMillis();
+    private volatile boolean closed;
+
+    private final Thread ticker;
+
+    public CachedProfilerClock() {
+        this(1, TimeUnit.MILLISECONDS);
+    }
+
+    public CachedProfilerClock(long tick, TimeUnit tickUnit) {
+        if (tick <= 0) {
+            throw new IllegalArgumentException("Tick should be positive: " + tick);
+        }
+        long tickNanos = tickUnit.toNanos(tick);
+
+        ticker = new Thread(() -> {
+            while (!closed) {
+                currentTimeMillis = System.currentTimeMillis();
+                LockSupport.parkNanos(this, tickNanos);
+            }
+        }, "profiler-clock-ticker");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return currentTimeMillis;
+    }
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(ticker);
+    }
+}
@@ -0,0 +1,159 @@
+package ru.fix.aggregating.profiler;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Totals of single identity since creation of {@link CumulativeProfilerReporter}.
+ * All values except {@link #getActiveCallsCount()} never decrease.
+ */
+public class CumulativeCallReport {
+
+    final Identity identity;
+
+    /**
+     * Unit of latencySum and latency bucket levels
+     */
+    TimeUnit latencyUnit = TimeUnit.MILLISECONDS;
+
+    long startSum;
+    long stopSum;
+    double payloadSum;
+
+    long latencySum;
+    /**
+     * Number of measured latencies, calls without start time do not have latency
+     */
+    long latencyCount;
+
+    /**
+     * Ascending latency levels of histogram buckets
+     */
+    long[] latencyBucketLevels = new long[0];
+    /**
+     * Number of latencies that are less or equal to the level with the same index
+     */
+    long[] latencyBucketCounts = new long[0];
+
+    long activeCallsCount;
+
+    public CumulativeCallReport(Identity identity) {
+        this.identity = identity;
+    }
+
+    public Identity getIdentity() {
+        return identity;
+    }
+
+    public TimeUnit getLatencyUnit() {
+        return latencyUnit;
+    }
+
+    public CumulativeCallReport setLatencyUnit(TimeUnit latencyUnit) {
+        this.latencyUnit = latencyUnit;
+        return this;
+    }
+
+    public long getStartSum() {
+        return startSum;
+    }
+
+    public CumulativeCallReport setStartSum(long startSum) {
+        this.startSum = startSum;
+        return this;
+    }
+
+    public long getStopSum() {
+        return stopSum;
+    }
+
+    public CumulativeCallReport setStopSum(long stopSum) {
+        this.stopSum = stopSum;
+        return this;
+    }
+
+    public double getPayloadSum() {
+        return payloadSum;
+    }
+
+    public CumulativeCallReport setPayloadSum(double payloadSum) {
+        this.payloadSum = payloadSum;
+        return this;
+    }
+
+    public long getLatencySum() {
+        return latencySum;
+    }
+
+    public CumulativeCallReport setLatencySum(long latencySum) {
+        this.latencySum = latencySum;
+        return this;
+    }
+
+    public long getLatencyCount() {
+        return latencyCount;
+    }
+
+    public CumulativeCallReport setLatencyCount(long latencyCount) {
+        this.latencyCount = latencyCount;
+        return this;
+    }
+
+    public long[] getLatencyBucketLevels() {
+        return latencyBucketLevels;
+    }
+
+    public long[] getLatencyBucketCounts() {
+        return latencyBucketCounts;
+    }
+
+    /**
+     * @param levels ascending latency levels
+     * @param counts number of latencies that are less or equal to the level with the same index
+     */
+    public CumulativeCallReport setLatencyBuckets(long[] levels, long[] counts) {
+        if (levels.length != counts.length) {
+            throw new IllegalArgumentException("Levels and counts have different length: "
+                    + levels.length + " and " + counts.length);
+        }
+        this.latencyBucketLevels = levels;
+        this.latencyBucketCounts = counts;
+        return this;
+    }
+
+    public long getActiveCallsCount() {
+        return activeCallsCount;
+    }
+
+    public CumulativeCallReport setActiveCallsCount(long activeCallsCount) {
+        this.activeCallsCount = activeCallsCount;
+        return this;
+    }
+
+    /**
+     * @return latency of this report in given unit,
+     * converted latency is a double, so latency that is less than one unit is not lost
+     */
+    public double convertLatency(long latency, TimeUnit unit) {
+        if (unit == latencyUnit) {
+            return latency;
+        }
+        return latency * ((double) latencyUnit.toNanos(1) / unit.toNanos(1));
+    }
+
+    @Override
+    public String toString() {
+        return "CumulativeCallReport{" +
+                "identity=" + identity +
+                ", latencyUnit=" + latencyUnit +
+                ", startSum=" + startSum +
+                ", stopSum=" + stopSum +
+                ", payloadSum=" + payloadSum +
+                ", latencySum=" + latencySum +
+                ", latencyCount=" + latencyCount +
+                ", latencyBucketLevels=" + Arrays.toString(latencyBucketLevels) +
+                ", latencyBucketCounts=" + Arrays.toString(latencyBucketCounts) +
+                ", activeCallsCount=" + activeCallsCount +
+                '}';
+    }
+}
@@ -0,0 +1,41 @@
+package ru.fix.aggregating.profiler;
+
+import java.util.List;
+import java.util.Map;
+
+public class CumulativeProfilerReport {
+
+    private final Map<Identity, Long> indicators;
+    private final List<CumulativeCallReport> callReports;
+
+    public CumulativeProfilerReport(Map<Identity, Long> indicators, List<CumulativeCallReport> callReports) {
+        this.indicators = indicators;
+        this.callReports = callReports;
+    }
+
+    public Map<Identity, Long> getIndicators() {
+        return indicators;
+    }
+
+    public List<CumulativeCallReport> getCallReports() {
+        return callReports;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sumReport = new StringBuilder();
+        sumReport.append("Indicators:\n");
+        indicators.forEach((key, value) ->
+                sumReport.append(key)
+                        .append(" = ")
+                        .append(value)
+                        .append('\n')
+        );
+        sumReport.append("Profilers:\n");
+        callReports.forEach(report ->
+                sumReport.append(report.toString())
+                        .append('\n')
+        );
+        return sumReport.toString();
+    }
+}
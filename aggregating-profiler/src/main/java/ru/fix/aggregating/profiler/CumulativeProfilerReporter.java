@@ -0,0 +1,18 @@
+package ru.fix.aggregating.profiler;
+
+/**
+ * Reporter that keeps monotonic totals of events since its creation.
+ * Reading report does not reset anything, so it can be read any number of times
+ * by several consumers, e.g. by several Prometheus scrapers.
+ * Rates are calculated by consumer from difference of totals.
+ */
+public interface CumulativeProfilerReporter extends AutoCloseable {
+    CumulativeProfilerReport buildReport();
+
+    /**
+     * @return empty report in case of nonexistent tag
+     */
+    CumulativeProfilerReport buildReport(ReportFilter reportFilter);
+
+    void setLabelSticker(LabelSticker labelSticker);
+}
@@ -2,14 +2,37 @@ package ru.fix.aggregating.profiler;
 
 import javax.annotation.Nonnull;
 import java.util.*;
-import java.util.stream.Collectors;
 
+/**
+ * Immutable name and tags of profiled call or indicator.
+ * <p>
+ * Tags are kept in flat array of key-value pairs sorted by key,
+ * hash is calculated once during construction.
+ * Equal identities could share single instance through {@link IdentityPool},
+ * then {@link #equals(Object)} is resolved by reference check.
+ */
 public class Identity {
+
+    private static final String[] NO_TAGS = new String[0];
+
     final String name;
-    final HashMap<String, String> tags = new HashMap<>();
+
+    /**
+     * key0, value0, key1, value1... sorted by keys, keys are unique
+     */
+    private final String[] tags;
+
+    private final int hash;
+
+    /**
+     * Built on first invocation of {@link #identityString()}
+     */
+    private String identityString;
 
     public Identity(String name) {
         this.name = name;
+        this.tags = NO_TAGS;
+        this.hash = calculateHash(name, tags);
     }
 
     /**
@@ -24,34 +47,114 @@ public class Identity {
         }
 
         this.name = name;
-
-        for (int i = 0; i < tags.length - 1; i += 2) {
-            this.tags.put(tags[i], tags[i + 1]);
-        }
+        this.tags = sortTags(tags.clone());
+        this.hash = calculateHash(name, this.tags);
     }
 
     /**
      * @param tags should not contains null values or keys
      * */
     public Identity(@Nonnull String name, @Nonnull Map<String, String> tags) {
-        if (tags.containsKey(null) || tags.containsValue(null)) {
-            throw new NullPointerException("tags must not contains null keys or values. tags = " + tags);
-        }
-
         this.name = name;
 
+        String[] pairs = new String[tags.size() * 2];
+        int index = 0;
         for (Map.Entry<String, String> tag : tags.entrySet()) {
-            this.tags.put(tag.getKey(), tag.getValue());
+            // map.containsKey(null) is not an option: TreeMap and ConcurrentHashMap throw NPE without explanation
+            if (tag.getKey() == null || tag.getValue() == null) {
+                throw new NullPointerException("tags must not contains null keys or values. tags = " + tags);
+            }
+            pairs[index++] = tag.getKey();
+            pairs[index++] = tag.getValue();
+        }
+        this.tags = sortTags(pairs);
+        this.hash = calculateHash(name, this.tags);
+    }
+
+    /**
+     * Sorts pairs by keys in place, if key is repeated then the last value of the key is kept
+     *
+     * @return sorted pairs with unique keys
+     */
+    private static String[] sortTags(String[] pairs) {
+        if (pairs.length == 0) {
+            return NO_TAGS;
+        }
+        // identities have few tags, insertion sort is stable and does not allocate
+        for (int i = 2; i < pairs.length; i += 2) {
+            String key = pairs[i];
+            String value = pairs[i + 1];
+            int j = i - 2;
+            while (j >= 0 && pairs[j].compareTo(key) > 0) {
+                pairs[j + 2] = pairs[j];
+                pairs[j + 3] = pairs[j + 1];
+                j -= 2;
+            }
+            pairs[j + 2] = key;
+            pairs[j + 3] = value;
+        }
+
+        int length = 2;
+        for (int i = 2; i < pairs.length; i += 2) {
+            if (pairs[i].equals(pairs[length - 2])) {
+                pairs[length - 1] = pairs[i + 1];
+            } else {
+                pairs[length++] = pairs[i];
+                pairs[length++] = pairs[i + 1];
+            }
         }
+        return length == pairs.length ? pairs : Arrays.copyOf(pairs, length);
     }
 
+    private static int calculateHash(String name, String[] tags) {
+        return 31 * Objects.hashCode(name) + Arrays.hashCode(tags);
+    }
 
+    /**
+     * @return read only view of tags sorted by keys
+     */
     public Map<String, String> getTags() {
-        return Collections.unmodifiableMap(this.tags);
+        if (tags.length == 0) {
+            return Collections.emptyMap();
+        }
+        return new TagsView();
     }
 
     public boolean hasTag(String tagName, String tagValue) {
-        return tags.containsKey(tagName) && tags.get(tagName).equals(tagValue);
+        int index = tagIndex(tagName);
+        return index >= 0 && tags[index + 1].equals(tagValue);
+    }
+
+    /**
+     * @return value of the tag or null if identity does not have such tag
+     */
+    public String getTag(String tagName) {
+        int index = tagIndex(tagName);
+        return index >= 0 ? tags[index + 1] : null;
+    }
+
+    public int getTagsCount() {
+        return tags.length / 2;
+    }
+
+    /**
+     * @return index of the key in {@link #tags} or negative value if there is no such key
+     */
+    private int tagIndex(String tagName) {
+        int low = 0;
+        int high = tags.length / 2 - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = tags[middle * 2].compareTo(tagName);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle * 2;
+            }
+        }
+        return -1;
     }
 
     public String getName() {
@@ -59,16 +162,26 @@ public class Identity {
     }
 
     public String identityString() {
-        if (tags.isEmpty()) {
+        String result = identityString;
+        if (result == null) {
+            result = buildIdentityString();
+            identityString = result;
+        }
+        return result;
+    }
+
+    private String buildIdentityString() {
+        if (tags.length == 0) {
             return name;
-        } else {
-            return name +
-                    tags.entrySet()
-                            .stream()
-                            .map(entry -> entry.getKey() + "=" + entry.getValue())
-                            .sorted()
-                            .collect(Collectors.joining(",", "{", "}"));
         }
+        StringBuilder builder = new StringBuilder(name).append('{');
+        for (int i = 0; i < tags.length; i += 2) {
+            if (i != 0) {
+                builder.append(',');
+            }
+            builder.append(tags[i]).append('=').append(tags[i + 1]);
+        }
+        return builder.append('}').toString();
     }
 
     @Override
@@ -76,18 +189,68 @@ public class Identity {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Identity identity = (Identity) o;
-        return name.equals(identity.name) &&
-                tags.equals(identity.tags);
+        return hash == identity.hash &&
+                Objects.equals(name, identity.name) &&
+                Arrays.equals(tags, identity.tags);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(name, tags);
+        return hash;
     }
 
     @Override
     public String toString() {
         return identityString();
     }
-}
 
+    private final class TagsView extends AbstractMap<String, String> {
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            return new AbstractSet<Entry<String, String>>() {
+                @Override
+                public Iterator<Entry<String, String>> iterator() {
+                    return new Iterator<Entry<String, String>>() {
+                        int index = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return index < tags.length;
+                        }
+
+                        @Override
+                        public Entry<String, String> next() {
+                            if (index >= tags.length) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<String, String> entry = new SimpleImmutableEntry<>(tags[index], tags[index + 1]);
+                            index += 2;
+                            return entry;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return tags.length / 2;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return tags.length / 2;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && tagIndex((String) key) >= 0;
+        }
+
+        @Override
+        public String get(Object key) {
+            return key instanceof String ? getTag((String) key) : null;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package ru.fix.aggregating.profiler;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Canonical instances of identities.
+ * Equal identities taken from the pool are the same instance,
+ * so maps keyed by them resolve equality by reference check.
+ * <p>
+ * Pool is bounded: when it is full, identities are returned as is and are not pooled.
+ * Unbounded set of identities, e.g. tags with user ids, does not turn into memory leak.
+ */
+public class IdentityPool {
+
+    private final Map<Identity, Identity> identities = new ConcurrentHashMap<>();
+    private final Map<String, Identity> untaggedIdentities = new ConcurrentHashMap<>();
+
+    private final int maxSize;
+
+    /**
+     * @param maxSize maximum number of pooled identities with tags and maximum number of pooled names
+     */
+    public IdentityPool(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public IdentityPool() {
+        this(65_536);
+    }
+
+    /**
+     * @return pooled instance equal to given identity, given identity if pool does not have it and is full
+     */
+    public Identity intern(Identity identity) {
+        Identity pooled = identities.get(identity);
+        if (pooled != null) {
+            return pooled;
+        }
+        if (identities.size() >= maxSize) {
+            return identity;
+        }
+        pooled = identities.putIfAbsent(identity, identity);
+        return pooled != null ? pooled : identity;
+    }
+
+    /**
+     * Identity without tags, does not allocate anything if pool already has the name
+     */
+    public Identity intern(String name) {
+        Identity pooled = untaggedIdentities.get(name);
+        if (pooled != null) {
+            return pooled;
+        }
+        Identity identity = intern(new Identity(name));
+        if (untaggedIdentities.size() >= maxSize) {
+            return identity;
+        }
+        pooled = untaggedIdentities.putIfAbsent(name, identity);
+        return pooled != null ? pooled : identity;
+    }
+
+    public int size() {
+        return identities.size();
+    }
+
+    public void clear() {
+        identities.clear();
+        untaggedIdentities.clear();
+    }
+}
@@ -0,0 +1,18 @@
+package ru.fix.aggregating.profiler;
+
+/**
+ * Receives values of indicators of the group from {@link MultiIndicationProvider}.
+ * Names and identities are relative to prefix of the group.
+ */
+public interface IndicationSink {
+
+    /**
+     * @param name name of indicator within the group, could be separated by dot '.'
+     */
+    void indicate(String name, long value);
+
+    /**
+     * @param identity identity of indicator within the group, tags are added to tags of the group prefix
+     */
+    void indicate(Identity identity, long value);
+}
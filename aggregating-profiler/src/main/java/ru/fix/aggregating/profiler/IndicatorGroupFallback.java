@@ -0,0 +1,79 @@
+package ru.fix.aggregating.profiler;
+
+import java.util.*;
+
+/**
+ * Default implementation of indicator groups for {@link Profiler} implementations that support only single indicators.
+ * Indicators of the group are discovered by evaluation of the provider on attachment
+ * and attached one by one, indicators that the provider reports later are not attached.
+ * All indicators share single snapshot of values, provider is invoked again when indicator
+ * that was already read from the snapshot is read once more, i.e. once per report.
+ */
+final class IndicatorGroupFallback {
+
+    /**
+     * Indicators of attached groups by profiler and prefix of the group
+     */
+    private static final Map<Profiler, Map<Identity, List<Identity>>> attachedGroups =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    private IndicatorGroupFallback() {
+    }
+
+    static void attach(Profiler profiler, Identity prefix, MultiIndicationProvider multiIndicationProvider) {
+        detach(profiler, prefix);
+
+        Snapshot snapshot = new Snapshot(new AggregatingIndicatorGroup(prefix, multiIndicationProvider));
+        List<Identity> indicators = snapshot.discoverIndicators();
+        for (Identity indicator : indicators) {
+            profiler.attachIndicator(indicator, () -> snapshot.get(indicator));
+        }
+        synchronized (attachedGroups) {
+            attachedGroups.computeIfAbsent(profiler, key -> new HashMap<>()).put(prefix, indicators);
+        }
+    }
+
+    static void detach(Profiler profiler, Identity prefix) {
+        List<Identity> indicators;
+        synchronized (attachedGroups) {
+            Map<Identity, List<Identity>> groups = attachedGroups.get(profiler);
+            indicators = groups != null ? groups.remove(prefix) : null;
+        }
+        if (indicators != null) {
+            indicators.forEach(profiler::detachIndicator);
+        }
+    }
+
+    private static class Snapshot {
+        private final AggregatingIndicatorGroup group;
+        private final Map<Identity, Long> values = new HashMap<>();
+        private final Set<Identity> readIndicators = new HashSet<>();
+
+        Snapshot(AggregatingIndicatorGroup group) {
+            this.group = group;
+        }
+
+        /**
+         * Evaluates provider and marks all values as read, so first report evaluates provider again
+         */
+        synchronized List<Identity> discoverIndicators() {
+            refresh();
+            readIndicators.addAll(values.keySet());
+            return new ArrayList<>(values.keySet());
+        }
+
+        private void refresh() {
+            values.clear();
+            readIndicators.clear();
+            group.evaluate(values::put);
+        }
+
+        synchronized Long get(Identity indicator) {
+            if (!readIndicators.add(indicator)) {
+                refresh();
+                readIndicators.add(indicator);
+            }
+            return values.get(indicator);
+        }
+    }
+}
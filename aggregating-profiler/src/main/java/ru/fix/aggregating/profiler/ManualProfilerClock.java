@@ -0,0 +1,44 @@
+package ru.fix.aggregating.profiler;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Clock that moves only when {@link #advance(long, TimeUnit)} is invoked.
+ * Allows to test time dependent metrics without sleeps.
+ */
+public class ManualProfilerClock implements ProfilerClock {
+
+    private final AtomicLong currentTimeMillis;
+    private final AtomicLong nanoTime = new AtomicLong();
+
+    public ManualProfilerClock() {
+        this(0);
+    }
+
+    public ManualProfilerClock(long currentTimeMillis) {
+        this.currentTimeMillis = new AtomicLong(currentTimeMillis);
+    }
+
+    /**
+     * Moves both wall clock and monotonic time.
+     * Wall clock time moves by whole milliseconds, fraction of millisecond is accumulated by monotonic time only.
+     */
+    public ManualProfilerClock advance(long duration, TimeUnit unit) {
+        long nanos = unit.toNanos(duration);
+        long previousNanoTime = nanoTime.getAndAdd(nanos);
+        currentTimeMillis.addAndGet(
+                TimeUnit.NANOSECONDS.toMillis(previousNanoTime + nanos) - TimeUnit.NANOSECONDS.toMillis(previousNanoTime));
+        return this;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return currentTimeMillis.get();
+    }
+
+    @Override
+    public long nanoTime() {
+        return nanoTime.get();
+    }
+}
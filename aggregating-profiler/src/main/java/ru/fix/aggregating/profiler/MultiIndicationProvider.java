@@ -0,0 +1,10 @@
+package ru.fix.aggregating.profiler;
+
+/**
+ * Provides values of group of indicators by single invocation,
+ * e.g. all statistics of connection pool, cache or queue taken from one snapshot.
+ */
+@FunctionalInterface
+public interface MultiIndicationProvider {
+    void provide(IndicationSink sink) throws Exception;
+}
@@ -1,6 +1,7 @@
 package ru.fix.aggregating.profiler;
 
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
 /**
@@ -27,6 +28,14 @@ public class NoopProfiler implements Profiler {
 
         }
 
+        @Override
+        public void call(long count, long latencySum, TimeUnit latencyUnit, double payloadSum) {
+        }
+
+        @Override
+        public void recordLatencies(long[] latencies, int length, TimeUnit latencyUnit) {
+        }
+
         @Override
         public ProfiledCall start() {
             return this;
@@ -117,4 +126,14 @@ public class NoopProfiler implements Profiler {
     public void detachIndicator(Identity identity) {
 
     }
+
+    @Override
+    public void attachIndicatorGroup(Identity prefix, MultiIndicationProvider multiIndicationProvider) {
+
+    }
+
+    @Override
+    public void detachIndicatorGroup(Identity prefix) {
+
+    }
 }
@@ -1,7 +1,13 @@
 package ru.fix.aggregating.profiler;
 
+import ru.fix.aggregating.profiler.engine.ExponentialLatencyHistogram;
+import ru.fix.aggregating.profiler.engine.HdrLatencyHistogram;
+import ru.fix.aggregating.profiler.engine.LatencyHistogramFactory;
+import ru.fix.aggregating.profiler.engine.PercentileAccumulator;
+
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class PercentileSettings {
     /**
@@ -11,7 +17,11 @@ public class PercentileSettings {
      */
     List<Integer> percentiles;
     List<Integer> buckets;
-
+    /**
+     * Unit of latencies defined in settings: buckets and highest trackable latency of HDR histogram
+     */
+    TimeUnit unit = TimeUnit.MILLISECONDS;
+    LatencyHistogramFactory histogramFactory = PercentileAccumulator::new;
 
     public PercentileSettings() {
         percentiles = Arrays.asList(90, 95, 99);
@@ -53,4 +63,61 @@ public class PercentileSettings {
         this.buckets = buckets;
         return this;
     }
+
+    public TimeUnit getUnit() {
+        return unit;
+    }
+
+    /**
+     * Unit of latencies defined in settings, milliseconds by default.
+     * Settings latencies are converted to latency unit of profiler,
+     * so default buckets keep their meaning for profiler that records latencies in microseconds.
+     */
+    public PercentileSettings setUnit(TimeUnit unit) {
+        this.unit = unit;
+        return this;
+    }
+
+    public LatencyHistogramFactory getHistogramFactory() {
+        return histogramFactory;
+    }
+
+    /**
+     * Histogram engine that accumulates latencies of each identity.
+     * By default latencies are accumulated in {@link #getBuckets()}.
+     */
+    public PercentileSettings setHistogramFactory(LatencyHistogramFactory histogramFactory) {
+        this.histogramFactory = histogramFactory;
+        return this;
+    }
+
+    /**
+     * Accumulate latencies in {@link #getBuckets()}.
+     * Latencies bigger than the largest bucket are reported as maximum latency.
+     */
+    public PercentileSettings useBucketHistogram() {
+        return setHistogramFactory(PercentileAccumulator::new);
+    }
+
+    /**
+     * Accumulate latencies in high dynamic range log-linear histogram.
+     *
+     * @param significantDigits       number of significant decimal digits of reported percentiles, from 0 to 5
+     * @param highestTrackableLatency latencies up to this value in {@link #getUnit()} are reported with given precision
+     * @see HdrLatencyHistogram
+     */
+    public PercentileSettings useHdrHistogram(int significantDigits, long highestTrackableLatency) {
+        return setHistogramFactory((settings, latencyUnit) ->
+                new HdrLatencyHistogram(settings, significantDigits, highestTrackableLatency, latencyUnit));
+    }
+
+    /**
+     * Accumulate latencies in base-2 exponential histogram that covers whole latency range.
+     *
+     * @param relativeError maximum relative error of reported percentiles, e.g. 0.05 for 5%
+     * @see ExponentialLatencyHistogram
+     */
+    public PercentileSettings useExponentialHistogram(double relativeError) {
+        return setHistogramFactory((settings, latencyUnit) -> new ExponentialLatencyHistogram(settings, relativeError));
+    }
 }
@@ -36,6 +36,16 @@ public class PrefixedProfiler implements Profiler {
         return profiler.profiledCall(prefixedIdentity(identity));
     }
 
+    @Override
+    public ProfiledCallFactory handle(Identity identity) {
+        return profiler.handle(prefixedIdentity(identity));
+    }
+
+    @Override
+    public ProfiledCallFactory handle(String name) {
+        return profiler.handle(prefixedIdentity(new Identity(name)));
+    }
+
     @Override
     public void attachIndicator(String name, IndicationProvider indicationProvider) {
         profiler.attachIndicator(prefixedIdentity(new Identity(name)), indicationProvider);
@@ -56,19 +66,29 @@ public class PrefixedProfiler implements Profiler {
         profiler.detachIndicator(prefixedIdentity(identity));
     }
 
+    @Override
+    public void attachIndicatorGroup(Identity prefix, MultiIndicationProvider multiIndicationProvider) {
+        profiler.attachIndicatorGroup(prefixedIdentity(prefix), multiIndicationProvider);
+    }
+
+    @Override
+    public void detachIndicatorGroup(Identity prefix) {
+        profiler.detachIndicatorGroup(prefixedIdentity(prefix));
+    }
+
     @Override
     public ProfilerReporter createReporter() {
         return profiler.createReporter();
     }
 
     private Identity prefixedIdentity(Identity identity){
-        HashMap<String, String> newIdentityTags;
+        Map<String, String> newIdentityTags;
         if(!this.tags.isEmpty()){
             newIdentityTags = new HashMap<>();
             newIdentityTags.putAll(this.tags);
-            newIdentityTags.putAll(identity.tags);
+            newIdentityTags.putAll(identity.getTags());
         } else {
-            newIdentityTags = identity.tags;
+            newIdentityTags = identity.getTags();
         }
 
         String newIdentityName;
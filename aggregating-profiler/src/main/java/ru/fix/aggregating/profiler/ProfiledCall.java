@@ -1,6 +1,7 @@
 package ru.fix.aggregating.profiler;
 
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
 /**
@@ -31,6 +32,68 @@ public interface ProfiledCall extends AutoCloseable {
      */
     void call(long startTime, double payload);
 
+    /**
+     * Records batch of calls at once.
+     * Report is the same as after {@code count} invocations of {@link #call(long, double)}
+     * where each call has average latency and average payload of the batch:
+     * sums and throughputs are exact, latency and payload min, max and percentiles are calculated from averages.
+     * Use {@link #recordLatencies(long[], int)} if latency of each call is known.
+     *
+     * @param latencySum sum of latencies of calls in ms, 0 if latency is not measured
+     * @param payloadSum sum of payloads of calls
+     */
+    default void call(long count, long latencySum, double payloadSum) {
+        call(count, latencySum, TimeUnit.MILLISECONDS, payloadSum);
+    }
+
+    /**
+     * Default implementation records the batch through {@link #call(double)} or {@link #call(long, double)}
+     * for each call of the batch, so average latency of the batch is truncated to ms.
+     *
+     * @param latencySum sum of latencies of calls in given unit, 0 if latency is not measured
+     * @see #call(long, long, double)
+     */
+    default void call(long count, long latencySum, TimeUnit latencyUnit, double payloadSum) {
+        if (count <= 0) {
+            return;
+        }
+        double payload = payloadSum / count;
+        if (latencySum <= 0) {
+            for (long i = 0; i < count; i++) {
+                call(payload);
+            }
+            return;
+        }
+        long startTime = System.currentTimeMillis() - latencyUnit.toMillis(latencySum / count);
+        for (long i = 0; i < count; i++) {
+            call(startTime, payload);
+        }
+    }
+
+    /**
+     * Records one call for each latency.
+     * Report is the same as after invocation of {@link #call(long)} for each latency.
+     *
+     * @param latencies latencies of calls in ms
+     * @param length    number of latencies to record from the beginning of the array
+     */
+    default void recordLatencies(long[] latencies, int length) {
+        recordLatencies(latencies, length, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Default implementation invokes {@link #call(long)} for each latency truncated to ms.
+     *
+     * @param latencies latencies of calls in given unit
+     * @see #recordLatencies(long[], int)
+     */
+    default void recordLatencies(long[] latencies, int length, TimeUnit latencyUnit) {
+        long currentTime = System.currentTimeMillis();
+        for (int i = 0; i < length; i++) {
+            call(currentTime - latencyUnit.toMillis(latencies[i]));
+        }
+    }
+
     /**
      * if you want to know some metrics then you should start and stop profiled call
      *
@@ -0,0 +1,119 @@
+package ru.fix.aggregating.profiler;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Creates {@link ProfiledCall}s for a single fixed identity.
+ * <p>
+ * Obtain instance once via {@link Profiler#handle(Identity)}, keep it in a field
+ * and create profiled calls through it on a hot path:
+ * <pre>{@code
+ * private final ProfiledCallFactory requests = profiler.handle(new Identity("http.requests"));
+ * ...
+ * requests.profile(() -> handleRequest());
+ * }</pre>
+ * Implementation could resolve and cache aggregation structures for the identity,
+ * so calls created through the factory are cheaper than {@link Profiler#profiledCall(Identity)}.
+ * <p>
+ * Factory of {@link AggregatingProfiler} records {@code call} and synchronous {@code profile} methods
+ * without allocation.
+ * Profiled call that is started and stopped explicitly can be reused the same way:
+ * after stop it can be started again.
+ */
+public interface ProfiledCallFactory {
+
+    Identity getIdentity();
+
+    /**
+     * Creates new profiled call for the identity of the factory
+     */
+    ProfiledCall profiledCall();
+
+    /**
+     * Creates and starts profiled call
+     * shortcut of {@code profiledCall().start()}
+     */
+    default ProfiledCall start() {
+        return profiledCall().start();
+    }
+
+    /**
+     * Creates and calls profiled call,
+     * shortcut of {@code profiledCall().call()}
+     */
+    default void call() {
+        profiledCall().call();
+    }
+
+    /**
+     * @see ProfiledCall#call(double)
+     */
+    default void call(double payload) {
+        profiledCall().call(payload);
+    }
+
+    /**
+     * @see ProfiledCall#call(long)
+     */
+    default void call(long startTime) {
+        profiledCall().call(startTime);
+    }
+
+    /**
+     * @see ProfiledCall#call(long, double)
+     */
+    default void call(long startTime, double payload) {
+        profiledCall().call(startTime, payload);
+    }
+
+    /**
+     * @see ProfiledCall#call(long, long, double)
+     */
+    default void call(long count, long latencySum, double payloadSum) {
+        profiledCall().call(count, latencySum, payloadSum);
+    }
+
+    /**
+     * @see ProfiledCall#call(long, long, TimeUnit, double)
+     */
+    default void call(long count, long latencySum, TimeUnit latencyUnit, double payloadSum) {
+        profiledCall().call(count, latencySum, latencyUnit, payloadSum);
+    }
+
+    /**
+     * @see ProfiledCall#recordLatencies(long[], int)
+     */
+    default void recordLatencies(long[] latencies, int length) {
+        profiledCall().recordLatencies(latencies, length);
+    }
+
+    /**
+     * @see ProfiledCall#recordLatencies(long[], int, TimeUnit)
+     */
+    default void recordLatencies(long[] latencies, int length, TimeUnit latencyUnit) {
+        profiledCall().recordLatencies(latencies, length, latencyUnit);
+    }
+
+    /**
+     * @see ProfiledCall#profile(java.util.function.Supplier)
+     */
+    default <R> R profile(Supplier<R> block) {
+        return profiledCall().profile(block);
+    }
+
+    /**
+     * @see ProfiledCall#profile(java.lang.Runnable)
+     */
+    default void profile(Runnable block) {
+        profiledCall().profile(block);
+    }
+
+    /**
+     * @see ProfiledCall#profileFuture(java.util.function.Supplier)
+     */
+    default <R> CompletableFuture<R> profileFuture(Supplier<CompletableFuture<R>> asyncInvocation) {
+        return profiledCall().profileFuture(asyncInvocation);
+    }
+}
@@ -2,6 +2,7 @@ package ru.fix.aggregating.profiler;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -11,6 +12,11 @@ public class ProfiledCallReport {
 
     final Identity identity;
 
+    /**
+     * Unit of latencyMin, latencyMax, latencyAvg, latencyPercentile and activeCallsLatencyMax
+     */
+    TimeUnit latencyUnit = TimeUnit.MILLISECONDS;
+
     long latencyMin;
     long latencyMax;
     long latencyAvg;
@@ -23,6 +29,7 @@ public class ProfiledCallReport {
     long startSum;
     double startThroughputAvg;
     long startThroughputPerSecondMax;
+    ThroughputPerSecondSeries startThroughputPerSecond = ThroughputPerSecondSeries.EMPTY;
 
 
     long reportingTimeAvg;
@@ -34,10 +41,16 @@ public class ProfiledCallReport {
     double payloadThroughputAvg;
 
     long stopThroughputPerSecondMax;
+    ThroughputPerSecondSeries stopThroughputPerSecond = ThroughputPerSecondSeries.EMPTY;
 
     long activeCallsCountMax;
     long activeCallsLatencyMax;
 
+    /**
+     * Share of stopped calls that got into latency and payload min, max and percentiles
+     */
+    double latencySampleRate = 1;
+
 
     public ProfiledCallReport(Identity identity) {
         this.identity = identity;
@@ -55,35 +68,143 @@ public class ProfiledCallReport {
     }
 
     public Map<String, Number> asMap() {
-        HashMap<String, Number> map = new HashMap<>();
-        map.put("reportingTimeAvg", reportingTimeAvg);
-
-        map.put("startSum", startSum);
-        map.put("startThroughputAvg", startThroughputAvg);
-        map.put("startThroughputPerSecondMax", startThroughputPerSecondMax);
+        return asMap(latencyUnit);
+    }
 
-        map.put("latencyMin", latencyMin);
-        map.put("latencyMax", latencyMax);
-        map.put("latencyAvg", latencyAvg);
+    /**
+     * Same as {@link #asMap()} but latency metrics are converted to given unit.
+     * Converted latencies are doubles, so latency that is less than one unit is not lost.
+     */
+    public Map<String, Number> asMap(TimeUnit latencyUnit) {
+        HashMap<String, Number> map = new HashMap<>();
+        visitMetrics(new ReportVisitor() {
+            @Override
+            public void visitIndicator(Identity identity, long value) {
+            }
+
+            @Override
+            public void visitCallMetric(Identity identity, String metric, long value) {
+                map.put(metric, value);
+            }
+
+            @Override
+            public void visitCallMetric(Identity identity, String metric, double value) {
+                map.put(metric, value);
+            }
+
+            @Override
+            public TimeUnit getLatencyUnit() {
+                return latencyUnit;
+            }
+        });
+        return map;
+    }
 
-        map.put("activeCallsCountMax", activeCallsCountMax);
-        map.put("activeCallsLatencyMax", activeCallsLatencyMax);
+    /**
+     * Passes each metric of the report to the visitor without building map of metrics
+     */
+    public void visitMetrics(ReportVisitor visitor) {
+        TimeUnit visitedLatencyUnit = visitor.getLatencyUnit();
+        double unitRatio = visitedLatencyUnit == null || visitedLatencyUnit == latencyUnit
+                ? 0
+                : (double) latencyUnit.toNanos(1) / visitedLatencyUnit.toNanos(1);
+
+        for (ReportMetric metric : ReportMetric.VALUES) {
+            if (metric.isLatency()) {
+                visitLatency(visitor, metric.getMetricName(), getLong(metric), unitRatio);
+            } else if (metric.isDouble()) {
+                // reported only by sampled aggregates, so unsampled ones do not get additional metric
+                if (metric != ReportMetric.LATENCY_SAMPLE_RATE || latencySampleRate < 1) {
+                    visitor.visitCallMetric(identity, metric.getMetricName(), getDouble(metric));
+                }
+            } else {
+                visitor.visitCallMetric(identity, metric.getMetricName(), getLong(metric));
+            }
+        }
+        if (latencyPercentile != null) {
+            for (Map.Entry<Integer, Long> percentile : latencyPercentile.entrySet()) {
+                visitLatency(visitor,
+                        ReportMetric.latencyPercentileName(percentile.getKey()),
+                        percentile.getValue(),
+                        unitRatio);
+            }
+        }
+    }
 
-        map.put("payloadMin", payloadMin);
-        map.put("payloadMax", payloadMax);
-        map.put("payloadAvg", payloadAvg);
-        map.put("payloadSum", payloadSum);
-        map.put("payloadThroughputAvg", payloadThroughputAvg);
+    /**
+     * @param unitRatio ratio of report latency unit to visited unit, 0 if latency is visited without conversion
+     */
+    private void visitLatency(ReportVisitor visitor, String metric, long latency, double unitRatio) {
+        if (unitRatio == 0) {
+            visitor.visitCallMetric(identity, metric, latency);
+        } else {
+            visitor.visitCallMetric(identity, metric, latency * unitRatio);
+        }
+    }
 
-        map.put("stopSum", stopSum);
-        map.put("stopThroughputAvg", stopThroughputAvg);
-        map.put("stopThroughputPerSecondMax", stopThroughputPerSecondMax);
+    /**
+     * @throws IllegalArgumentException if value of the metric is fractional, see {@link ReportMetric#isDouble()}
+     */
+    public long getLong(ReportMetric metric) {
+        switch (metric) {
+            case REPORTING_TIME_AVG:
+                return reportingTimeAvg;
+            case START_SUM:
+                return startSum;
+            case START_THROUGHPUT_PER_SECOND_MAX:
+                return startThroughputPerSecondMax;
+            case LATENCY_MIN:
+                return latencyMin;
+            case LATENCY_MAX:
+                return latencyMax;
+            case LATENCY_AVG:
+                return latencyAvg;
+            case ACTIVE_CALLS_COUNT_MAX:
+                return activeCallsCountMax;
+            case ACTIVE_CALLS_LATENCY_MAX:
+                return activeCallsLatencyMax;
+            case STOP_SUM:
+                return stopSum;
+            case STOP_THROUGHPUT_PER_SECOND_MAX:
+                return stopThroughputPerSecondMax;
+            default:
+                throw new IllegalArgumentException("Metric " + metric + " is not a long one");
+        }
+    }
 
-        if(latencyPercentile != null) {
-            latencyPercentile.forEach((percentile, value) -> map.put("latencyPercentile" + percentile, value));
+    /**
+     * @return value of any metric, long metrics are widened
+     */
+    public double getDouble(ReportMetric metric) {
+        switch (metric) {
+            case START_THROUGHPUT_AVG:
+                return startThroughputAvg;
+            case PAYLOAD_MIN:
+                return payloadMin;
+            case PAYLOAD_MAX:
+                return payloadMax;
+            case PAYLOAD_AVG:
+                return payloadAvg;
+            case PAYLOAD_SUM:
+                return payloadSum;
+            case PAYLOAD_THROUGHPUT_AVG:
+                return payloadThroughputAvg;
+            case STOP_THROUGHPUT_AVG:
+                return stopThroughputAvg;
+            case LATENCY_SAMPLE_RATE:
+                return latencySampleRate;
+            default:
+                return getLong(metric);
         }
+    }
 
-        return map;
+    public TimeUnit getLatencyUnit() {
+        return latencyUnit;
+    }
+
+    public ProfiledCallReport setLatencyUnit(TimeUnit latencyUnit) {
+        this.latencyUnit = latencyUnit;
+        return this;
     }
 
     public long getLatencyMin() {
@@ -125,6 +246,19 @@ public class ProfiledCallReport {
         return this;
     }
 
+    /**
+     * Number of started calls in each second of reporting period,
+     * empty unless enabled by {@link ru.fix.aggregating.profiler.engine.AggregatingReporter#setThroughputPerSecondSeriesEnabled}
+     */
+    public ThroughputPerSecondSeries getStartThroughputPerSecond() {
+        return startThroughputPerSecond;
+    }
+
+    public ProfiledCallReport setStartThroughputPerSecond(ThroughputPerSecondSeries startThroughputPerSecond) {
+        this.startThroughputPerSecond = startThroughputPerSecond;
+        return this;
+    }
+
     public long getReportingTimeAvg() {
         return reportingTimeAvg;
     }
@@ -224,6 +358,19 @@ public class ProfiledCallReport {
     }
 
 
+    /**
+     * Number of stopped calls in each second of reporting period,
+     * empty unless enabled by {@link ru.fix.aggregating.profiler.engine.AggregatingReporter#setThroughputPerSecondSeriesEnabled}
+     */
+    public ThroughputPerSecondSeries getStopThroughputPerSecond() {
+        return stopThroughputPerSecond;
+    }
+
+    public ProfiledCallReport setStopThroughputPerSecond(ThroughputPerSecondSeries stopThroughputPerSecond) {
+        this.stopThroughputPerSecond = stopThroughputPerSecond;
+        return this;
+    }
+
     public long getActiveCallsCountMax() {
         return activeCallsCountMax;
     }
@@ -250,4 +397,18 @@ public class ProfiledCallReport {
         this.latencyPercentile = latencyPercentile;
         return this;
     }
+
+    /**
+     * Effective share of stopped calls that got into latency and payload min, max and percentiles.
+     * Counts, sums and averages are exact regardless of sampling.
+     * Equals to 1 if all calls were recorded.
+     */
+    public double getLatencySampleRate() {
+        return latencySampleRate;
+    }
+
+    public ProfiledCallReport setLatencySampleRate(double latencySampleRate) {
+        this.latencySampleRate = latencySampleRate;
+        return this;
+    }
 }
@@ -16,6 +16,33 @@ public interface Profiler {
 
     ProfiledCall profiledCall(Identity identity);
 
+    /**
+     * Creates factory of profiled calls bound to given identity.
+     * Factory is intended to be created once and reused for all measurements of the identity.
+     */
+    default ProfiledCallFactory handle(Identity identity) {
+        Profiler profiler = this;
+        return new ProfiledCallFactory() {
+            @Override
+            public Identity getIdentity() {
+                return identity;
+            }
+
+            @Override
+            public ProfiledCall profiledCall() {
+                return profiler.profiledCall(identity);
+            }
+        };
+    }
+
+    /**
+     * @param name Name of profiling call
+     * @see #handle(Identity)
+     */
+    default ProfiledCallFactory handle(String name) {
+        return handle(new Identity(name));
+    }
+
     /**
      * Creates and starts profiled call
      * shortcut of {@code profiledCall(<name>).start()}
@@ -94,6 +121,7 @@ public interface Profiler {
      *     jdbcConnectionPool.getConnection().execute("select count from TABLE")
      * });
      * }</pre>
+     * {@link AggregatingProfiler#setIndicatorEvaluationExecutor} moves evaluation of providers off reporting thread.
      *
      * @param name               Name of indicator
      *                           Indicator name could be separated by dot '.'
@@ -116,6 +144,7 @@ public interface Profiler {
      *     jdbcConnectionPool.getConnection().execute("select count from TABLE")
      * });
      * }</pre>
+     * {@link AggregatingProfiler#setIndicatorEvaluationExecutor} moves evaluation of providers off reporting thread.
      * @param identity
      * @param indicationProvider
      */
@@ -129,6 +158,46 @@ public interface Profiler {
 
     void detachIndicator(Identity identity);
 
+    /**
+     * Add group of indicators which values are provided by single callback invocation per report,
+     * e.g. statistics of connection pool, cache or queue that are taken from one snapshot.
+     * Callback writes values to the sink, indicator names and tags are appended to the prefix.
+     * Same as for {@link #attachIndicator(Identity, IndicationProvider)} callback should be fast and non blocking.
+     *
+     * <p>
+     * Default implementation evaluates provider once to discover indicators of the group
+     * and attaches each of them by {@link #attachIndicator(Identity, IndicationProvider)}.
+     * Indicators that provider starts to report later are not attached.
+     *
+     * @param prefix                  Prefix of names and tags of indicators of the group
+     * @param multiIndicationProvider Provider of indicator values. Must be thread-safe.
+     */
+    default void attachIndicatorGroup(Identity prefix, MultiIndicationProvider multiIndicationProvider) {
+        IndicatorGroupFallback.attach(this, prefix, multiIndicationProvider);
+    }
+
+    /**
+     * @see #attachIndicatorGroup(Identity, MultiIndicationProvider)
+     */
+    default void attachIndicatorGroup(String prefix, MultiIndicationProvider multiIndicationProvider) {
+        attachIndicatorGroup(new Identity(prefix), multiIndicationProvider);
+    }
+
+    /**
+     * Remove group of indicators
+     *
+     * Default implementation detaches each indicator attached by default {@link #attachIndicatorGroup}.
+     *
+     * @param prefix Prefix of the group
+     */
+    default void detachIndicatorGroup(Identity prefix) {
+        IndicatorGroupFallback.detach(this, prefix);
+    }
+
+    default void detachIndicatorGroup(String prefix) {
+        detachIndicatorGroup(new Identity(prefix));
+    }
+
     /**
      * Create new instance of reporter.
      * Reporter is closable resource
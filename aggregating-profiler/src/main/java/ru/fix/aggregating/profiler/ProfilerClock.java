@@ -0,0 +1,27 @@
+package ru.fix.aggregating.profiler;
+
+/**
+ * Source of time for profiled calls and reporters.
+ *
+ * @see SystemProfilerClock
+ * @see CachedProfilerClock
+ * @see ManualProfilerClock
+ */
+public interface ProfilerClock {
+
+    /**
+     * Wall clock time in milliseconds.
+     * Used for event timestamps: throughput per second, last access time of aggregates and report periods,
+     * so millisecond precision is not required.
+     */
+    long currentTimeMillis();
+
+    /**
+     * Monotonic time in nanoseconds, used to measure latency of started calls.
+     */
+    long nanoTime();
+
+    static ProfilerClock system() {
+        return SystemProfilerClock.INSTANCE;
+    }
+}
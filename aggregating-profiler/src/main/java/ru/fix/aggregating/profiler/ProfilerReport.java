@@ -1,15 +1,24 @@
 package ru.fix.aggregating.profiler;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 public class ProfilerReport {
 
     private final Map<Identity, Long> indicators;
+    private final Map<Identity, Long> indicatorValueAges;
     private final List<ProfiledCallReport> profilerCallReports;
 
     public ProfilerReport(Map<Identity, Long> indicators, List<ProfiledCallReport> profilerCallReports) {
+        this(indicators, Collections.emptyMap(), profilerCallReports);
+    }
+
+    public ProfilerReport(Map<Identity, Long> indicators,
+                          Map<Identity, Long> indicatorValueAges,
+                          List<ProfiledCallReport> profilerCallReports) {
         this.indicators = indicators;
+        this.indicatorValueAges = indicatorValueAges;
         this.profilerCallReports = profilerCallReports;
     }
 
@@ -17,10 +26,26 @@ public class ProfilerReport {
         return indicators;
     }
 
+    /**
+     * Time in milliseconds passed since indicator values were evaluated.
+     * Values evaluated during report building have zero age,
+     * values cached by asynchronous evaluation are as old as previous evaluation.
+     *
+     * @see AggregatingProfiler#setIndicatorEvaluationExecutor
+     */
+    public Map<Identity, Long> getIndicatorValueAges() {
+        return indicatorValueAges;
+    }
+
     public List<ProfiledCallReport> getProfilerCallReports() {
         return profilerCallReports;
     }
 
+    public void accept(ReportVisitor visitor) {
+        indicators.forEach(visitor::visitIndicator);
+        profilerCallReports.forEach(report -> report.visitMetrics(visitor));
+    }
+
     @Override
     public String toString() {
         StringBuilder sumReport = new StringBuilder();
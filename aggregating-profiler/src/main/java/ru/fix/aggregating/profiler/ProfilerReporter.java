@@ -8,5 +8,17 @@ public interface ProfilerReporter extends AutoCloseable {
      */
     ProfilerReport buildReportAndReset(ReportFilter reportFilter);
 
+    /**
+     * Passes metrics of report to the visitor instead of building {@link ProfilerReport}.
+     * Unlike {@link #buildReportAndReset()} metrics of profiled calls are visited in no particular order.
+     */
+    default void buildReportAndReset(ReportVisitor visitor) {
+        buildReportAndReset().accept(visitor);
+    }
+
+    default void buildReportAndReset(ReportFilter reportFilter, ReportVisitor visitor) {
+        buildReportAndReset(reportFilter).accept(visitor);
+    }
+
     void setLabelSticker(LabelSticker labelSticker);
 }
@@ -0,0 +1,126 @@
+package ru.fix.aggregating.profiler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.fix.aggregating.profiler.engine.AutoLabelStickerable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Source of indicator values that can be evaluated on executor and cached between reports.
+ *
+ * @see AggregatingIndicationProvider
+ * @see AggregatingIndicatorGroup
+ */
+public abstract class RefreshableIndication implements AutoLabelStickerable {
+    private static final Logger log = LoggerFactory.getLogger(RefreshableIndication.class);
+
+    private final Map<String, String> autoLabels = new ConcurrentHashMap<>();
+
+    private volatile long cachedValueTimestamp;
+    private volatile boolean slow;
+
+    /**
+     * Single evaluation submitted to executor, guarded by monitor of the indication
+     */
+    private boolean evaluating;
+    private Future<?> evaluation;
+    private AtomicBoolean evaluationStarted;
+    private long evaluationSubmitTimestamp;
+
+    @Override
+    public void setAutoLabel(String name, String value) {
+        this.autoLabels.put(name, value);
+    }
+
+    @Override
+    public Map<String, String> getAutoLabels() {
+        return autoLabels;
+    }
+
+    /**
+     * Invoked on executor, evaluates values that will be cached by {@link #publishCache()}
+     */
+    protected abstract void evaluateForCache(Identity identity);
+
+    /**
+     * Invoked on executor after {@link #evaluateForCache(Identity)} to make evaluated values visible to reporters
+     */
+    protected abstract void publishCache();
+
+    /**
+     * Starts evaluation on the executor unless previous evaluation is still running.
+     * Evaluation that does not complete within timeout is interrupted and marks indication as slow
+     * until evaluation completes within timeout.
+     */
+    public synchronized void refresh(Identity identity,
+                                     ExecutorService executor,
+                                     long timeout,
+                                     ProfilerClock clock) {
+        long now = clock.currentTimeMillis();
+        if (evaluating) {
+            if (now - evaluationSubmitTimestamp < timeout) {
+                return;
+            }
+            if (evaluationStarted.compareAndSet(false, true)) {
+                // busy executor did not start evaluation within timeout, it is replaced by new one
+                evaluation.cancel(false);
+            } else {
+                if (!slow) {
+                    slow = true;
+                    evaluation.cancel(true);
+                    log.warn("Indicator {} is not evaluated within {} ms and is not reported until it gets faster",
+                            identity, timeout);
+                }
+                return;
+            }
+        }
+
+        AtomicBoolean started = new AtomicBoolean();
+        evaluationStarted = started;
+        evaluationSubmitTimestamp = now;
+        evaluating = true;
+        try {
+            evaluation = executor.submit(() -> {
+                if (!started.compareAndSet(false, true)) {
+                    return;
+                }
+                try {
+                    evaluateForCache(identity);
+                    long timestamp = clock.currentTimeMillis();
+                    cachedValueTimestamp = timestamp;
+                    publishCache();
+                    slow = timestamp - now >= timeout;
+                } finally {
+                    completeEvaluation();
+                }
+            });
+        } catch (RejectedExecutionException exc) {
+            evaluating = false;
+            log.debug("Evaluation of indicator {} is rejected by executor", identity, exc);
+        }
+    }
+
+    private synchronized void completeEvaluation() {
+        evaluating = false;
+    }
+
+    /**
+     * @return time in milliseconds when cached values were evaluated
+     */
+    public long getCachedValueTimestamp() {
+        return cachedValueTimestamp;
+    }
+
+    /**
+     * @return true if last evaluation took longer than timeout
+     */
+    public boolean isSlow() {
+        return slow;
+    }
+}
@@ -0,0 +1,95 @@
+package ru.fix.aggregating.profiler;
+
+/**
+ * Metrics of {@link ProfiledCallReport} with names that exporters use as suffixes of metric names.
+ * Latency percentiles are reported in addition to these metrics, see {@link #latencyPercentileName(int)}.
+ *
+ * @see ProfiledCallReport#getLong(ReportMetric)
+ * @see ProfiledCallReport#getDouble(ReportMetric)
+ */
+public enum ReportMetric {
+    REPORTING_TIME_AVG("reportingTimeAvg", Type.LONG),
+    START_SUM("startSum", Type.LONG),
+    START_THROUGHPUT_AVG("startThroughputAvg", Type.DOUBLE),
+    START_THROUGHPUT_PER_SECOND_MAX("startThroughputPerSecondMax", Type.LONG),
+    LATENCY_MIN("latencyMin", Type.LATENCY),
+    LATENCY_MAX("latencyMax", Type.LATENCY),
+    LATENCY_AVG("latencyAvg", Type.LATENCY),
+    ACTIVE_CALLS_COUNT_MAX("activeCallsCountMax", Type.LONG),
+    ACTIVE_CALLS_LATENCY_MAX("activeCallsLatencyMax", Type.LATENCY),
+    PAYLOAD_MIN("payloadMin", Type.DOUBLE),
+    PAYLOAD_MAX("payloadMax", Type.DOUBLE),
+    PAYLOAD_AVG("payloadAvg", Type.DOUBLE),
+    PAYLOAD_SUM("payloadSum", Type.DOUBLE),
+    PAYLOAD_THROUGHPUT_AVG("payloadThroughputAvg", Type.DOUBLE),
+    STOP_SUM("stopSum", Type.LONG),
+    STOP_THROUGHPUT_AVG("stopThroughputAvg", Type.DOUBLE),
+    STOP_THROUGHPUT_PER_SECOND_MAX("stopThroughputPerSecondMax", Type.LONG),
+    /**
+     * Reported only by aggregates with latency sampling rate below 1
+     */
+    LATENCY_SAMPLE_RATE("latencySampleRate", Type.DOUBLE);
+
+    private enum Type {
+        LONG,
+        DOUBLE,
+        /**
+         * Long metric in latency unit of the report
+         */
+        LATENCY
+    }
+
+    /**
+     * Same as {@link #values()} without copying array on each invocation
+     */
+    static final ReportMetric[] VALUES = values();
+
+    private static final String LATENCY_PERCENTILE_PREFIX = "latencyPercentile";
+
+    /**
+     * Names of all percentiles that {@link PercentileSettings} accepts
+     */
+    private static final String[] LATENCY_PERCENTILE_NAMES = new String[101];
+
+    static {
+        for (int percentile = 0; percentile < LATENCY_PERCENTILE_NAMES.length; percentile++) {
+            LATENCY_PERCENTILE_NAMES[percentile] = (LATENCY_PERCENTILE_PREFIX + percentile).intern();
+        }
+    }
+
+    private final String metricName;
+    private final Type type;
+
+    ReportMetric(String metricName, Type type) {
+        this.metricName = metricName;
+        this.type = type;
+    }
+
+    public String getMetricName() {
+        return metricName;
+    }
+
+    /**
+     * @return true if value of the metric is fractional and should be read by {@link ProfiledCallReport#getDouble}
+     */
+    public boolean isDouble() {
+        return type == Type.DOUBLE;
+    }
+
+    /**
+     * @return true if metric is measured in latency unit of the report
+     */
+    public boolean isLatency() {
+        return type == Type.LATENCY;
+    }
+
+    /**
+     * @return name of latency percentile metric, e.g. latencyPercentile99, without building new string
+     */
+    public static String latencyPercentileName(int percentile) {
+        if (percentile >= 0 && percentile < LATENCY_PERCENTILE_NAMES.length) {
+            return LATENCY_PERCENTILE_NAMES[percentile];
+        }
+        return LATENCY_PERCENTILE_PREFIX + percentile;
+    }
+}
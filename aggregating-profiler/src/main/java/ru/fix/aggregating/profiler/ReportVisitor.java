@@ -0,0 +1,30 @@
+package ru.fix.aggregating.profiler;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Receives metrics of report one by one while reporter drains aggregates,
+ * so exporter serializes report of any number of identities
+ * without building {@link ProfilerReport} and maps of metrics.
+ * Visitor is not invoked under locks of the profiler and may write metrics to network.
+ *
+ * @see ProfilerReporter#buildReportAndReset(ReportVisitor)
+ */
+public interface ReportVisitor {
+
+    void visitIndicator(Identity identity, long value);
+
+    void visitCallMetric(Identity identity, String metric, long value);
+
+    void visitCallMetric(Identity identity, String metric, double value);
+
+    /**
+     * Latency metrics that are reported in other unit are converted to this unit and visited as doubles,
+     * same as in {@link ProfiledCallReport#asMap(TimeUnit)}.
+     *
+     * @return unit of visited latency metrics, null to visit latencies in unit of the profiler
+     */
+    default TimeUnit getLatencyUnit() {
+        return null;
+    }
+}
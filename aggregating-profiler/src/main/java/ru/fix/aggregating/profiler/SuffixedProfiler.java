@@ -47,6 +47,16 @@ public class SuffixedProfiler implements Profiler {
         );
     }
 
+    @Override
+    public ProfiledCallFactory handle(Identity identity) {
+        return profiler.handle(suffixedIdentity(identity));
+    }
+
+    @Override
+    public ProfiledCallFactory handle(String name) {
+        return handle(new Identity(name));
+    }
+
     @Override
     public void attachIndicator(Identity identity, IndicationProvider indicationProvider) {
         profiler.attachIndicator(suffixedIdentity(identity), indicationProvider);
@@ -57,4 +67,14 @@ public class SuffixedProfiler implements Profiler {
         profiler.detachIndicator(suffixedIdentity(identity));
 
     }
+
+    @Override
+    public void attachIndicatorGroup(Identity prefix, MultiIndicationProvider multiIndicationProvider) {
+        profiler.attachIndicatorGroup(suffixedIdentity(prefix), multiIndicationProvider);
+    }
+
+    @Override
+    public void detachIndicatorGroup(Identity prefix) {
+        profiler.detachIndicatorGroup(suffixedIdentity(prefix));
+    }
 }
@@ -0,0 +1,22 @@
+package ru.fix.aggregating.profiler;
+
+/**
+ * Reads {@link System#currentTimeMillis()} and {@link System#nanoTime()} on each invocation
+ */
+public final class SystemProfilerClock implements ProfilerClock {
+
+    public static final SystemProfilerClock INSTANCE = new SystemProfilerClock();
+
+    private SystemProfilerClock() {
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+}
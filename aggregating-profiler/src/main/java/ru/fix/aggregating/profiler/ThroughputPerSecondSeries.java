@@ -0,0 +1,56 @@
+package ru.fix.aggregating.profiler;
+
+import java.util.Arrays;
+
+/**
+ * Number of events in each aligned second of reporting period.
+ * Shows shape of bursts that are hidden by throughput average and maximum.
+ */
+public final class ThroughputPerSecondSeries {
+
+    public static final ThroughputPerSecondSeries EMPTY = new ThroughputPerSecondSeries(0, new long[0]);
+
+    private final long startTimestamp;
+    private final long[] counts;
+
+    /**
+     * @param startTimestamp start of the first second in milliseconds, multiple of 1000
+     * @param counts         number of events in consecutive seconds starting from startTimestamp
+     */
+    public ThroughputPerSecondSeries(long startTimestamp, long[] counts) {
+        this.startTimestamp = startTimestamp;
+        this.counts = counts;
+    }
+
+    public long getStartTimestamp() {
+        return startTimestamp;
+    }
+
+    public int size() {
+        return counts.length;
+    }
+
+    /**
+     * @return number of events in second that starts at {@code getStartTimestamp() + 1000 * index}
+     */
+    public long get(int index) {
+        return counts[index];
+    }
+
+    public long[] toArray() {
+        return counts.clone();
+    }
+
+    public long max() {
+        long max = 0;
+        for (long count : counts) {
+            max = Math.max(max, count);
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return startTimestamp + ":" + Arrays.toString(counts);
+    }
+}
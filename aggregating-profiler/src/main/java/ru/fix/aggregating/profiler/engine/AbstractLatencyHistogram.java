@@ -0,0 +1,136 @@
+package ru.fix.aggregating.profiler.engine;
+
+import ru.fix.aggregating.profiler.PercentileSettings;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps bucket counters in single {@link SparseStripedLongArray} and calculates percentiles by walking buckets
+ * in ascending order of their latencies.
+ * Subclasses define mapping between latency and bucket index.
+ */
+public abstract class AbstractLatencyHistogram implements LatencyHistogram {
+
+    final PercentileSettings settings;
+
+    final SparseStripedLongArray counters;
+
+    /**
+     * Counters of all buckets are allocated on first measurement
+     */
+    protected AbstractLatencyHistogram(PercentileSettings settings, int bucketIndexCount) {
+        this(settings, bucketIndexCount, bucketIndexCount);
+    }
+
+    /**
+     * @param initialWindowLength number of bucket counters allocated around first measurement,
+     *                            window of counters grows when latency falls out of it
+     */
+    protected AbstractLatencyHistogram(PercentileSettings settings, int bucketIndexCount, int initialWindowLength) {
+        this.settings = settings;
+        this.counters = new SparseStripedLongArray(bucketIndexCount, initialWindowLength);
+    }
+
+    @Override
+    public int bucketIndexCount() {
+        return counters.length();
+    }
+
+    @Override
+    public void accumulate(long latency) {
+        counters.increment(bucketIndex(latency));
+    }
+
+    @Override
+    public void accumulateBucket(int bucketIndex, long count) {
+        counters.add(bucketIndex, count);
+    }
+
+    @Override
+    public long drainBucket(int bucketIndex) {
+        return counters.sumThenReset(bucketIndex);
+    }
+
+    @Override
+    public long bucketCount(int bucketIndex) {
+        return counters.sum(bucketIndex);
+    }
+
+    /**
+     * @param reportingPeriodMaximum maximum latency during reporting period
+     * @return latency that will be reported for percentile that falls into bucket with given index
+     */
+    protected abstract long bucketLatency(int bucketIndex, long reportingPeriodMaximum);
+
+    @Override
+    public Map<Integer, Long> buildAndReset(long reportingPeriodMaximum) {
+
+        long reportingPeriodMeasurementCount = 0;
+
+        // buckets outside of window of counters were never updated
+        int fromBucket = counters.fromIndex();
+        long[] counts = new long[counters.toIndex() - fromBucket];
+        counters.sumThenReset(fromBucket, counts);
+        for (long count : counts) {
+            reportingPeriodMeasurementCount += count;
+        }
+
+        int[] percentiles = settings.getPercentiles().stream().mapToInt(it -> it).sorted().toArray();
+        double measurementsCount = (double) reportingPeriodMeasurementCount;
+
+        double[] percentileCounts = Arrays.stream(percentiles)
+                .mapToDouble(it -> measurementsCount * it / 100)
+                .toArray();
+
+        double currentCounts = 0;
+        int percentileIndex = 0;
+
+        Map<Integer, Long> report = new HashMap<>();
+
+        // currentCounts maintain total count of measurements
+        // each bucket will increase currentCounts level
+        // if there are 200 measurement in total
+        // then 90 percentile is value of 180th measure
+        //      95 percentile is value of 190th measure
+        // suppose that our buckets holds:
+        // bucket[0] = 100
+        // bucket[1] = 40
+        // bucket[2] = 120
+        //
+        // the currentValue will be:
+        // level 0 is 100
+        // level 1 is 140
+        // level 2 is 260
+        //
+        // for level 0 and 1 currentValue is not enough to fill report
+        // for level 2 currentCounts becomes 260. It is bigger than both of percentiles: 180(for 90p) and 190(for 95p).
+        // We will set same 260th measure value for both percentiles in report.
+        // This will lead to a situation when 90 percentile is equal to 95 percentile.
+        // 90 percentile is bigger that real value. But due to inaccuracy we fill it at least with
+        // not accurate value that we have.
+        //
+        // Actual percentile value is less or equal to the one that we are reporting.
+        //
+        // TODO: add to readme
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                continue;
+            }
+            currentCounts += counts[i];
+
+            while (percentileIndex < percentiles.length && currentCounts >= percentileCounts[percentileIndex]) {
+                report.put(percentiles[percentileIndex], bucketLatency(fromBucket + i, reportingPeriodMaximum));
+                percentileIndex++;
+            }
+        }
+
+        while (percentileIndex < percentiles.length) {
+            report.put(percentiles[percentileIndex], reportingPeriodMaximum);
+            percentileIndex++;
+        }
+
+        return report;
+    }
+}
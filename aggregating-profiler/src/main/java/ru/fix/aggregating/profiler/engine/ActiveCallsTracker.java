@@ -0,0 +1,160 @@
+package ru.fix.aggregating.profiler.engine;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed capacity set of active calls.
+ * <p>
+ * Started call occupies free slot of the array, slot index is stored in the call,
+ * so stopped call frees its slot by single CAS without search.
+ * When there is no free slot tracker is marked as full and following calls are not tracked
+ * until one of tracked calls frees the slot.
+ * Since calls are tracked in order they start and stay tracked until they stop,
+ * tracker keeps oldest active calls.
+ * <p>
+ * Tracking and untracking do not allocate and are lock free.
+ * Iteration, resizing and {@link #purgeFinishedCalls()} are performed by reporter.
+ */
+class ActiveCallsTracker extends AbstractCollection<AggregatingCall> {
+
+    private volatile AtomicReferenceArray<AggregatingCall> slots;
+
+    /**
+     * Hint that there is no free slot
+     */
+    private volatile boolean full;
+
+    ActiveCallsTracker(int capacity) {
+        this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    int capacity() {
+        return slots.length();
+    }
+
+    /**
+     * @return true if call is tracked, false if there is no free slot
+     */
+    @Override
+    public boolean add(AggregatingCall call) {
+        if (full) {
+            return false;
+        }
+        AtomicReferenceArray<AggregatingCall> slots = this.slots;
+        int capacity = slots.length();
+        if (capacity == 0) {
+            return false;
+        }
+        // random start spreads concurrent calls over the array so they do not compete for the same slot
+        int start = ThreadLocalRandom.current().nextInt(capacity);
+        for (int probe = 0; probe < capacity; probe++) {
+            int slot = start + probe < capacity ? start + probe : start + probe - capacity;
+            if (slots.get(slot) == null && slots.compareAndSet(slot, null, call)) {
+                call.activeCallSlot = slot;
+                return true;
+            }
+        }
+        full = true;
+        return false;
+    }
+
+    @Override
+    public boolean remove(Object object) {
+        AggregatingCall call = (AggregatingCall) object;
+        int slot = call.activeCallSlot;
+        if (slot < 0) {
+            return false;
+        }
+        AtomicReferenceArray<AggregatingCall> slots = this.slots;
+        if (slot >= slots.length() || !slots.compareAndSet(slot, call, null)) {
+            // call is tracked by another tracker or was purged
+            return false;
+        }
+        call.activeCallSlot = -1;
+        if (full) {
+            full = false;
+        }
+        return true;
+    }
+
+    /**
+     * Changes capacity keeping oldest running calls that fit into new capacity
+     */
+    void resize(int capacity) {
+        AtomicReferenceArray<AggregatingCall> oldSlots = this.slots;
+        if (oldSlots.length() == capacity) {
+            return;
+        }
+        List<AggregatingCall> runningCalls = snapshot();
+        runningCalls.removeIf(call -> !call.isStarted());
+        runningCalls.sort(Comparator.comparingLong(AggregatingCall::startNanoTime));
+
+        AtomicReferenceArray<AggregatingCall> newSlots = new AtomicReferenceArray<>(capacity);
+        for (int slot = 0; slot < capacity && slot < runningCalls.size(); slot++) {
+            AggregatingCall call = runningCalls.get(slot);
+            call.activeCallSlot = slot;
+            newSlots.set(slot, call);
+        }
+        this.slots = newSlots;
+        full = false;
+        // calls that stopped during copying stayed in new slots
+        purgeFinishedCalls();
+    }
+
+    /**
+     * Frees slots of calls that are not running anymore but was not removed from this tracker,
+     * e.g. when same call is tracked by several trackers.
+     */
+    void purgeFinishedCalls() {
+        AtomicReferenceArray<AggregatingCall> slots = this.slots;
+        boolean hasFreeSlot = false;
+        for (int slot = 0; slot < slots.length(); slot++) {
+            AggregatingCall call = slots.get(slot);
+            if (call == null) {
+                hasFreeSlot = true;
+            } else if (!call.isStarted() && slots.compareAndSet(slot, call, null)) {
+                hasFreeSlot = true;
+            }
+        }
+        if (hasFreeSlot && full) {
+            full = false;
+        }
+    }
+
+    @Override
+    public void clear() {
+        AtomicReferenceArray<AggregatingCall> slots = this.slots;
+        for (int slot = 0; slot < slots.length(); slot++) {
+            slots.set(slot, null);
+        }
+        full = false;
+    }
+
+    @Override
+    public Iterator<AggregatingCall> iterator() {
+        return snapshot().iterator();
+    }
+
+    @Override
+    public int size() {
+        return snapshot().size();
+    }
+
+    private List<AggregatingCall> snapshot() {
+        AtomicReferenceArray<AggregatingCall> slots = this.slots;
+        List<AggregatingCall> calls = new ArrayList<>();
+        for (int slot = 0; slot < slots.length(); slot++) {
+            AggregatingCall call = slots.get(slot);
+            if (call != null) {
+                calls.add(call);
+            }
+        }
+        return calls;
+    }
+}
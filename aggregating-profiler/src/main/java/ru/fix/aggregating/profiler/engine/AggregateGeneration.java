@@ -0,0 +1,494 @@
+package ru.fix.aggregating.profiler.engine;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Counters of {@link CallAggregate} that are recorded during single reporting period.
+ * <p>
+ * Writer registers itself in {@link #entered} before recording.
+ * Start, stop and call counters are the last writes of the writer,
+ * they count the event and mark that writer left generation in the same increment,
+ * writer that does not update them leaves generation through {@link #exited}.
+ * When generation is retired by reporter and no writer remains inside it,
+ * reporter reads and resets counters without racing with recording threads.
+ * <p>
+ * Latency and payload accumulators and latency histogram are created on first call that needs them,
+ * so generations of identities that record only counters stay small.
+ */
+class AggregateGeneration {
+
+    /**
+     * Number of times reporter yields to writers that are still inside generation before it starts to park
+     */
+    private static final int AWAIT_WRITERS_YIELDS = 32;
+    private static final long AWAIT_WRITERS_MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+    private static final long AWAIT_WRITERS_MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    final LongAdder entered = new LongAdder();
+    final LongAdder exited = new LongAdder();
+
+    final LongAdder startSumAdder = new LongAdder();
+
+    final LongAdder stopSumAdder = new LongAdder();
+
+    /**
+     * Calls recorded with start and stop at once.
+     * Drained into both start and stop counters of target generations.
+     */
+    final LongAdder callSumAdder = new LongAdder();
+
+    /**
+     * Writers that left generation through start, stop and call counters, which were drained since then.
+     * Accessed only by reporter.
+     */
+    private long drainedExits;
+
+    /**
+     * Stopped calls that were counted but did not get into min, max and percentiles
+     */
+    final LongAdder skippedStopSumAdder = new LongAdder();
+
+    /**
+     * Null until first stopped call with non zero latency
+     */
+    volatile LatencyAccumulators latencies;
+
+    /**
+     * Null until first stopped call with non zero payload
+     */
+    volatile PayloadAccumulators payloads;
+
+    /**
+     * Null until first stopped call with recorded latency
+     */
+    volatile LatencyHistogram latencyPercentile;
+
+    /**
+     * Set by sampled stopped call without latency, such call lowers latency min to zero.
+     * Set once per reporting period, other calls without latency only read it.
+     */
+    volatile boolean callsWithoutLatency;
+
+    /**
+     * Set by sampled stopped call without payload, such call lowers payload min to zero
+     */
+    volatile boolean callsWithoutPayload;
+
+    private final LatencyHistogramSource histogramSource;
+
+    AggregateGeneration(LatencyHistogramSource histogramSource) {
+        this.histogramSource = histogramSource;
+    }
+
+    /**
+     * Single rule of all recording paths: measured latency is not negative, zero latency of fast call
+     * gets into percentiles. Call without start time passes {@link CallAggregate#NO_LATENCY}
+     * and gets only into latency min through {@link #callsWithoutLatency}.
+     */
+    static boolean hasLatency(long latency) {
+        return latency >= 0;
+    }
+
+    /**
+     * Single rule of all recording paths: call has payload if it is positive.
+     * Other calls get only into payload min through {@link #callsWithoutPayload}.
+     */
+    static boolean hasPayload(double payload) {
+        return payload > 0;
+    }
+
+    /**
+     * Latency counters of calls with {@link #hasLatency measured latency}.
+     * Calls without latency are not accumulated, see {@link #callsWithoutLatency}.
+     */
+    static final class LatencyAccumulators {
+        final LongAdder sum = new LongAdder();
+        final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+        final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+        /**
+         * Calls with measured latency that were not sampled into min, max and percentiles
+         */
+        final LongAdder skippedCount = new LongAdder();
+
+        void accumulate(long latency, long latencySum) {
+            sum.add(latencySum);
+            min.accumulate(latency);
+            max.accumulate(latency);
+        }
+
+        void add(long sum, long min, long max) {
+            this.sum.add(sum);
+            this.min.accumulate(min);
+            this.max.accumulate(max);
+        }
+    }
+
+    /**
+     * Payload counters of calls with {@link #hasPayload payload}.
+     * Calls without payload are not accumulated, see {@link #callsWithoutPayload}.
+     */
+    static final class PayloadAccumulators {
+        final DoubleAdder sum = new DoubleAdder();
+        final DoubleAccumulator min = new DoubleAccumulator(Math::min, Long.MAX_VALUE);
+        final DoubleAccumulator max = new DoubleAccumulator(Math::max, 0L);
+
+        void accumulate(double payload, double payloadSum) {
+            sum.add(payloadSum);
+            min.accumulate(payload);
+            max.accumulate(payload);
+        }
+
+        void add(double sum, double min, double max) {
+            this.sum.add(sum);
+            this.min.accumulate(min);
+            this.max.accumulate(max);
+        }
+    }
+
+    void markCallsWithoutLatency() {
+        if (!callsWithoutLatency) {
+            callsWithoutLatency = true;
+        }
+    }
+
+    void markCallsWithoutPayload() {
+        if (!callsWithoutPayload) {
+            callsWithoutPayload = true;
+        }
+    }
+
+    LatencyAccumulators latencies() {
+        LatencyAccumulators current = latencies;
+        if (current == null) {
+            synchronized (this) {
+                current = latencies;
+                if (current == null) {
+                    current = new LatencyAccumulators();
+                    latencies = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    PayloadAccumulators payloads() {
+        PayloadAccumulators current = payloads;
+        if (current == null) {
+            synchronized (this) {
+                current = payloads;
+                if (current == null) {
+                    current = new PayloadAccumulators();
+                    payloads = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    LatencyHistogram latencyHistogram() {
+        LatencyHistogram current = latencyPercentile;
+        if (current == null) {
+            synchronized (this) {
+                current = latencyPercentile;
+                if (current == null) {
+                    current = histogramSource.newLatencyHistogram();
+                    latencyPercentile = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Records latency and payload of stopped call, stop itself is counted by {@link #exitWithStop()}
+     * or {@link #exitWithCalls(long)}.
+     */
+    void recordStop(long latency, double payload) {
+        if (hasLatency(latency)) {
+            latencies().accumulate(latency, latency);
+            latencyHistogram().accumulate(latency);
+        } else {
+            markCallsWithoutLatency();
+        }
+
+        if (hasPayload(payload)) {
+            payloads().accumulate(payload, payload);
+        } else {
+            markCallsWithoutPayload();
+        }
+    }
+
+    /**
+     * Records stopped call that was not sampled.
+     * Sums stay exact, min, max and percentiles are left to sampled calls.
+     */
+    void recordSkip(long latency, double payload) {
+        skippedStopSumAdder.increment();
+
+        if (hasLatency(latency)) {
+            LatencyAccumulators latencies = latencies();
+            latencies.sum.add(latency);
+            latencies.skippedCount.increment();
+        }
+        if (hasPayload(payload)) {
+            payloads().sum.add(payload);
+        }
+    }
+
+    /**
+     * Same as {@code count} invocations of {@link #recordStop(long, double)}
+     * with equal latency and payload
+     *
+     * @param latencySum exact sum of latencies of the batch
+     * @param payloadSum exact sum of payloads of the batch
+     */
+    void recordCalls(long count, long latency, long latencySum, double payload, double payloadSum) {
+        if (hasLatency(latency)) {
+            latencies().accumulate(latency, latencySum);
+            LatencyHistogram histogram = latencyHistogram();
+            histogram.accumulateBucket(histogram.bucketIndex(latency), count);
+        } else {
+            markCallsWithoutLatency();
+        }
+
+        if (hasPayload(payload)) {
+            payloads().accumulate(payload, payloadSum);
+        } else {
+            markCallsWithoutPayload();
+        }
+    }
+
+    /**
+     * Same as invocation of {@link #recordStop(long, double)} without payload
+     * for each latency.
+     * Consecutive latencies of the same bucket are accumulated into histogram at once.
+     *
+     * @param latencies latencies in given unit, converted to latency unit of aggregate
+     */
+    void recordLatencies(long[] latencies, int length, TimeUnit unit, TimeUnit latencyUnit) {
+        LatencyHistogram latencyPercentile = null;
+        long latencyMin = Long.MAX_VALUE;
+        long latencyMax = 0;
+        long latencySumValue = 0;
+        long latencyCount = 0;
+
+        int runBucketIndex = -1;
+        long runCount = 0;
+        for (int i = 0; i < length; i++) {
+            long latency = Math.max(0, latencyUnit.convert(latencies[i], unit));
+            latencyMin = Math.min(latencyMin, latency);
+            if (hasLatency(latency)) {
+                latencySumValue += latency;
+                latencyMax = Math.max(latencyMax, latency);
+                latencyCount++;
+
+                if (latencyPercentile == null) {
+                    latencyPercentile = latencyHistogram();
+                }
+                int bucketIndex = latencyPercentile.bucketIndex(latency);
+                if (bucketIndex != runBucketIndex) {
+                    if (runCount != 0) {
+                        latencyPercentile.accumulateBucket(runBucketIndex, runCount);
+                    }
+                    runBucketIndex = bucketIndex;
+                    runCount = 0;
+                }
+                runCount++;
+            }
+        }
+        if (runCount != 0) {
+            latencyPercentile.accumulateBucket(runBucketIndex, runCount);
+        }
+
+        if (latencyCount != 0) {
+            // zero latencies of the batch are already in latency min
+            latencies().add(latencySumValue, latencyMin, latencyMax);
+        } else {
+            markCallsWithoutLatency();
+        }
+        markCallsWithoutPayload();
+    }
+
+    boolean isEmpty() {
+        return startSumAdder.sum() == 0 && stopSumAdder.sum() == 0 && callSumAdder.sum() == 0;
+    }
+
+    /**
+     * Number of stopped calls, including calls recorded with start and stop at once
+     */
+    long stopSum() {
+        return stopSumAdder.sum() + callSumAdder.sum();
+    }
+
+    /**
+     * Number of exits that {@link #drainInto(AggregateGeneration...)} adds to counters of target generation
+     */
+    long drainedExitCount() {
+        return startSumAdder.sum() + stopSumAdder.sum() + 2 * callSumAdder.sum();
+    }
+
+    /**
+     * Moves counters into each of given generations.
+     * There should be no writers inside this generation.
+     */
+    void drainInto(AggregateGeneration... targets) {
+        drainInto(false, targets);
+    }
+
+    /**
+     * Moves counters into each of given generations.
+     * There should be no writers inside this generation.
+     *
+     * @param restoreSampledLatencies if true then histogram counts of sampled calls are multiplied
+     *                                by inverse of effective sample rate of calls with measured latency,
+     *                                so histograms of generations with different sample rates can be merged
+     *                                and histogram counts estimate number of all calls with measured latency.
+     *                                Calls without latency do not get into histogram and do not affect the scale.
+     */
+    void drainInto(boolean restoreSampledLatencies, AggregateGeneration... targets) {
+        long callSum = callSumAdder.sumThenReset();
+        long startSum = startSumAdder.sumThenReset() + callSum;
+        long stopSum = stopSumAdder.sumThenReset() + callSum;
+        long skippedStopSum = skippedStopSumAdder.sumThenReset();
+
+        for (AggregateGeneration target : targets) {
+            target.startSumAdder.add(startSum);
+            target.stopSumAdder.add(stopSum);
+            target.skippedStopSumAdder.add(skippedStopSum);
+        }
+
+        if (callsWithoutLatency) {
+            callsWithoutLatency = false;
+            for (AggregateGeneration target : targets) {
+                target.markCallsWithoutLatency();
+            }
+        }
+        if (callsWithoutPayload) {
+            callsWithoutPayload = false;
+            for (AggregateGeneration target : targets) {
+                target.markCallsWithoutPayload();
+            }
+        }
+
+        long skippedLatencyCount = 0;
+        LatencyAccumulators latencies = this.latencies;
+        if (latencies != null) {
+            long latencySum = latencies.sum.sumThenReset();
+            long latencyMin = latencies.min.getThenReset();
+            long latencyMax = latencies.max.getThenReset();
+            skippedLatencyCount = latencies.skippedCount.sumThenReset();
+            if (latencyMin != Long.MAX_VALUE || latencySum != 0 || skippedLatencyCount != 0) {
+                for (AggregateGeneration target : targets) {
+                    LatencyAccumulators targetLatencies = target.latencies();
+                    targetLatencies.add(latencySum, latencyMin, latencyMax);
+                    if (!restoreSampledLatencies) {
+                        // histogram of target is not scaled yet
+                        targetLatencies.skippedCount.add(skippedLatencyCount);
+                    }
+                }
+            }
+        }
+
+        PayloadAccumulators payloads = this.payloads;
+        if (payloads != null) {
+            double payloadSum = payloads.sum.sumThenReset();
+            double payloadMin = payloads.min.getThenReset();
+            double payloadMax = payloads.max.getThenReset();
+            if (payloadMin != Long.MAX_VALUE || payloadSum != 0) {
+                for (AggregateGeneration target : targets) {
+                    target.payloads().add(payloadSum, payloadMin, payloadMax);
+                }
+            }
+        }
+
+        LatencyHistogram latencyPercentile = this.latencyPercentile;
+        if (latencyPercentile == null) {
+            return;
+        }
+
+        double sampleScale = 1;
+        if (restoreSampledLatencies && skippedLatencyCount != 0) {
+            long sampledLatencyCount = 0;
+            for (int bucketIndex = 0; bucketIndex < latencyPercentile.bucketIndexCount(); bucketIndex++) {
+                sampledLatencyCount += latencyPercentile.bucketCount(bucketIndex);
+            }
+            if (sampledLatencyCount != 0) {
+                sampleScale = (double) (sampledLatencyCount + skippedLatencyCount) / sampledLatencyCount;
+            }
+        }
+
+        for (int bucketIndex = 0; bucketIndex < latencyPercentile.bucketIndexCount(); bucketIndex++) {
+            long count = latencyPercentile.drainBucket(bucketIndex);
+            if (count != 0) {
+                if (sampleScale != 1) {
+                    count = Math.round(count * sampleScale);
+                }
+                for (AggregateGeneration target : targets) {
+                    target.latencyHistogram().accumulateBucket(bucketIndex, count);
+                }
+            }
+        }
+    }
+
+    /**
+     * Leaves generation without counting any event
+     */
+    void exit() {
+        exited.increment();
+    }
+
+    /**
+     * Counts started call and leaves generation
+     */
+    void exitWithStart() {
+        startSumAdder.increment();
+    }
+
+    /**
+     * Counts stopped call and leaves generation
+     */
+    void exitWithStop() {
+        stopSumAdder.increment();
+    }
+
+    /**
+     * Counts calls recorded with start and stop at once and leaves generation.
+     * Writer should enter generation with weight equal to number of calls.
+     */
+    void exitWithCalls(long count) {
+        callSumAdder.add(count);
+    }
+
+    /**
+     * Waits until all writers that entered generation leave it.
+     * Writer stays inside generation for a few instructions, so reporter yields to it first.
+     * Writer that is descheduled inside generation could keep reporter waiting for a whole time slice,
+     * so after {@link #AWAIT_WRITERS_YIELDS} attempts reporter parks with exponential backoff
+     * instead of burning CPU that writers need.
+     * Generation should be already retired, so new writers do not stay inside it.
+     * Start, stop and call counters should be drained before generation is awaited next time.
+     */
+    void awaitWriters() {
+        int attempt = 0;
+        long parkNanos = AWAIT_WRITERS_MIN_PARK_NANOS;
+        while (true) {
+            // Exits are read before entered and they only grow until reporter drains them:
+            // if they are equal then there was no writer inside generation at the moment of reading.
+            long counted = startSumAdder.sum() + stopSumAdder.sum() + callSumAdder.sum();
+            long exits = exited.sum() + counted + drainedExits;
+            if (exits == entered.sum()) {
+                drainedExits += counted;
+                return;
+            }
+            if (attempt < AWAIT_WRITERS_YIELDS) {
+                attempt++;
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(this, parkNanos);
+                parkNanos = Math.min(parkNanos * 2, AWAIT_WRITERS_MAX_PARK_NANOS);
+            }
+        }
+    }
+}
@@ -4,10 +4,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.fix.aggregating.profiler.Identity;
 import ru.fix.aggregating.profiler.ProfiledCall;
+import ru.fix.aggregating.profiler.ProfilerClock;
 import ru.fix.aggregating.profiler.ThrowableRunnable;
 import ru.fix.aggregating.profiler.ThrowableSupplier;
 
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
@@ -26,41 +28,76 @@ public class AggregatingCall implements ProfiledCall {
 
     final Identity identity;
 
+    /**
+     * Index of slot in {@link ActiveCallsTracker} that tracks this call, -1 if call is not tracked
+     */
+    int activeCallSlot = -1;
+
+    /**
+     * Unit of latencies that call passes to aggregate
+     */
+    final TimeUnit latencyUnit;
+
+    final ProfilerClock clock;
+
     public AggregatingCall(Identity identity, CallAggregateMutator aggregateMutator) {
+        this(identity, aggregateMutator, TimeUnit.MILLISECONDS);
+    }
+
+    public AggregatingCall(Identity identity, CallAggregateMutator aggregateMutator, TimeUnit latencyUnit) {
+        this(identity, aggregateMutator, latencyUnit, ProfilerClock.system());
+    }
+
+    public AggregatingCall(Identity identity,
+                           CallAggregateMutator aggregateMutator,
+                           TimeUnit latencyUnit,
+                           ProfilerClock clock) {
         this.aggregateMutator = aggregateMutator;
         this.identity = identity;
+        this.latencyUnit = latencyUnit;
+        this.clock = clock;
     }
 
     @Override
     public void call() {
-        aggregateMutator.updateAggregate(
-                identity,
-                aggregate -> aggregate.call(System.currentTimeMillis(), 0, 0));
+        long currentTime = clock.currentTimeMillis();
+        aggregateMutator.call(identity, currentTime, CallAggregate.NO_LATENCY, 0);
     }
 
     @Override
     public void call(double payload) {
-        aggregateMutator.updateAggregate(
-                identity,
-                aggregate -> aggregate.call(System.currentTimeMillis(), 0, payload));
+        long currentTime = clock.currentTimeMillis();
+        aggregateMutator.call(identity, currentTime, CallAggregate.NO_LATENCY, payload);
     }
 
     @Override
     public void call(long startTime) {
-        Long currentTime = System.currentTimeMillis();
+        long currentTime = clock.currentTimeMillis();
+        // coarse clock can lag behind system time that was used to get start time
+        long latency = latencyUnit.convert(Math.max(0, currentTime - startTime), TimeUnit.MILLISECONDS);
 
-        aggregateMutator.updateAggregate(
-                identity,
-                aggregate -> aggregate.call(currentTime, currentTime - startTime, 0));
+        aggregateMutator.call(identity, currentTime, latency, 0);
     }
 
     @Override
     public void call(long startTime, double payload) {
-        Long currentTime = System.currentTimeMillis();
+        long currentTime = clock.currentTimeMillis();
+        // coarse clock can lag behind system time that was used to get start time
+        long latency = latencyUnit.convert(Math.max(0, currentTime - startTime), TimeUnit.MILLISECONDS);
 
-        aggregateMutator.updateAggregate(
-                identity,
-                aggregate -> aggregate.call(currentTime, currentTime - startTime, payload));
+        aggregateMutator.call(identity, currentTime, latency, payload);
+    }
+
+    @Override
+    public void call(long count, long latencySum, TimeUnit latencyUnit, double payloadSum) {
+        long currentTime = clock.currentTimeMillis();
+        aggregateMutator.call(identity, currentTime, count, this.latencyUnit.convert(latencySum, latencyUnit), payloadSum);
+    }
+
+    @Override
+    public void recordLatencies(long[] latencies, int length, TimeUnit latencyUnit) {
+        long currentTime = clock.currentTimeMillis();
+        aggregateMutator.recordLatencies(identity, currentTime, latencies, length, latencyUnit);
     }
 
     @Override
@@ -69,11 +106,10 @@ public class AggregatingCall implements ProfiledCall {
             throw new IllegalStateException("Start method was already called." +
                     " Profiled call: " + identity);
         }
-        startNanoTime.set(System.nanoTime());
+        startNanoTime.set(clock.nanoTime());
+        long currentTime = clock.currentTimeMillis();
 
-        aggregateMutator.updateAggregate(
-                identity,
-                aggregate -> aggregate.start(this, System.currentTimeMillis()));
+        aggregateMutator.start(identity, this, currentTime);
         return this;
     }
 
@@ -98,21 +134,27 @@ public class AggregatingCall implements ProfiledCall {
     }
 
     private void updateCountersOnStop(double payload) {
-        long latencyValue = (System.nanoTime() - startNanoTime.get()) / 1000000;
+        long latencyValue = latencyUnit.convert(clock.nanoTime() - startNanoTime.get(), TimeUnit.NANOSECONDS);
+        long currentTime = clock.currentTimeMillis();
 
-        aggregateMutator.updateAggregate(
-                identity,
-                aggregate -> aggregate.stop(this, System.currentTimeMillis(), latencyValue, payload));
+        aggregateMutator.stop(identity, this, currentTime, latencyValue, payload);
     }
 
 
 
+    boolean isStarted() {
+        return started.get();
+    }
+
     public long startNanoTime() {
         return startNanoTime.get();
     }
 
+    /**
+     * @return time from call start in latency unit
+     */
     public long timeFromCallStart() {
-        return (System.nanoTime() - startNanoTime.get()) / 1000000;
+        return latencyUnit.convert(clock.nanoTime() - startNanoTime.get(), TimeUnit.NANOSECONDS);
     }
 
     @Override
@@ -215,9 +257,7 @@ public class AggregatingCall implements ProfiledCall {
             // do nothing, if not started or stopped already
             return;
         }
-        aggregateMutator.updateAggregate(
-                identity,
-                aggregate -> aggregate.close(this));
+        aggregateMutator.close(identity, this);
     }
 
     @Override
@@ -0,0 +1,121 @@
+package ru.fix.aggregating.profiler.engine;
+
+import ru.fix.aggregating.profiler.Identity;
+import ru.fix.aggregating.profiler.ProfiledCallFactory;
+import ru.fix.aggregating.profiler.ProfilerClock;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+public class AggregatingCallFactory implements ProfiledCallFactory {
+
+    private final Identity identity;
+    private final CallAggregateMutator aggregateMutator;
+    private final TimeUnit latencyUnit;
+    private final ProfilerClock clock;
+
+    /**
+     * Stopped call of the thread that is started again by synchronous profile methods
+     */
+    private final ThreadLocal<AggregatingCall> reusableCall = ThreadLocal.withInitial(this::profiledCall);
+
+    public AggregatingCallFactory(BoundCallAggregateMutator aggregateMutator, TimeUnit latencyUnit) {
+        this(aggregateMutator, latencyUnit, ProfilerClock.system());
+    }
+
+    public AggregatingCallFactory(BoundCallAggregateMutator aggregateMutator,
+                                  TimeUnit latencyUnit,
+                                  ProfilerClock clock) {
+        this(aggregateMutator.getIdentity(), aggregateMutator, latencyUnit, clock);
+    }
+
+    /**
+     * @param aggregateMutator mutator that records all events of the factory into aggregate of given identity
+     */
+    public AggregatingCallFactory(Identity identity,
+                                  CallAggregateMutator aggregateMutator,
+                                  TimeUnit latencyUnit,
+                                  ProfilerClock clock) {
+        this.identity = identity;
+        this.aggregateMutator = aggregateMutator;
+        this.latencyUnit = latencyUnit;
+        this.clock = clock;
+    }
+
+    @Override
+    public Identity getIdentity() {
+        return identity;
+    }
+
+    @Override
+    public AggregatingCall profiledCall() {
+        return new AggregatingCall(identity, aggregateMutator, latencyUnit, clock);
+    }
+
+    @Override
+    public void call() {
+        aggregateMutator.call(identity, clock.currentTimeMillis(), CallAggregate.NO_LATENCY, 0);
+    }
+
+    @Override
+    public void call(double payload) {
+        aggregateMutator.call(identity, clock.currentTimeMillis(), CallAggregate.NO_LATENCY, payload);
+    }
+
+    @Override
+    public void call(long startTime) {
+        call(startTime, 0);
+    }
+
+    @Override
+    public void call(long startTime, double payload) {
+        long currentTime = clock.currentTimeMillis();
+        long latency = latencyUnit.convert(Math.max(0, currentTime - startTime), TimeUnit.MILLISECONDS);
+        aggregateMutator.call(identity, currentTime, latency, payload);
+    }
+
+    @Override
+    public void call(long count, long latencySum, double payloadSum) {
+        call(count, latencySum, TimeUnit.MILLISECONDS, payloadSum);
+    }
+
+    @Override
+    public void call(long count, long latencySum, TimeUnit latencyUnit, double payloadSum) {
+        aggregateMutator.call(identity, clock.currentTimeMillis(),
+                count, this.latencyUnit.convert(latencySum, latencyUnit), payloadSum);
+    }
+
+    @Override
+    public void recordLatencies(long[] latencies, int length) {
+        recordLatencies(latencies, length, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void recordLatencies(long[] latencies, int length, TimeUnit latencyUnit) {
+        aggregateMutator.recordLatencies(identity, clock.currentTimeMillis(),
+                latencies, length, latencyUnit);
+    }
+
+    @Override
+    public <R> R profile(Supplier<R> block) {
+        return stoppedCall().profile(block);
+    }
+
+    @Override
+    public void profile(Runnable block) {
+        stoppedCall().profile(block);
+    }
+
+    /**
+     * @return call of the thread if it is not running, new call if profiled block is nested in the same identity
+     */
+    private AggregatingCall stoppedCall() {
+        AggregatingCall call = reusableCall.get();
+        return call.isStarted() ? profiledCall() : call;
+    }
+
+    @Override
+    public String toString() {
+        return identity.toString();
+    }
+}
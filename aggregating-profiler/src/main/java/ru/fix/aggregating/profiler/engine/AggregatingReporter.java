@@ -1,75 +1,137 @@
 package ru.fix.aggregating.profiler.engine;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import ru.fix.aggregating.profiler.*;
 
-import java.util.AbstractMap.SimpleEntry;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
-public class AggregatingReporter implements ProfilerReporter {
-    private static final Logger log = LoggerFactory.getLogger(AggregatingReporter.class);
+/**
+ * Reports events of aggregates shared by all reporters of the profiler.
+ * Events drained from {@link CallAggregateStore} are kept in pending aggregates of the reporter
+ * until reporter builds report, so each reporter has its own reporting period.
+ * <p>
+ * Pending events of identity that is rejected by every report filter during stale timeout are dropped
+ * and the identity is not drained into the reporter until one of its reports selects it again,
+ * so filtered out identities do not keep pending aggregates forever.
+ */
+public class AggregatingReporter implements ProfilerReporter, RegisteredReporter {
 
+    private static final Comparator<ProfiledCallReport> REPORT_ORDER =
+            Comparator.comparing(report -> report.getIdentity().getName());
 
-    private final Map<Identity, CallAggregate> sharedCounters = new ConcurrentHashMap<>();
+    /**
+     * Number of reports that streaming report building keeps in memory before passing them to the visitor
+     */
+    static final int VISIT_BATCH_SIZE = 1024;
+
+
+    private final Map<Identity, PendingCallAggregate> pendingCallAggregates = new ConcurrentHashMap<>();
+
+    /**
+     * Labels of identities that reporter does not report, see {@link #reselectIdentities(Optional)}
+     */
+    private final Map<Identity, Map<String, String>> unselectedIdentities = new ConcurrentHashMap<>();
+    private final ColumnarPendingAggregates columnarPendingAggregates;
 
     private final AggregatingProfiler profiler;
+    private final CallAggregateStore callAggregates;
 
     private final AtomicLong lastReportTimestamp;
 
-    private final AtomicInteger numberOfLongestActiveCallsToTrack;
-    private final AtomicLong staleTimeoutAfterWhichProfiledCallAggregatedWillBeRemoved;
     private final ClosingCallback closingCallback;
     private final PercentileSettings percentileSettings;
     private volatile LabelSticker labelSticker;
+    private volatile boolean throughputPerSecondSeriesEnabled;
 
 
     public AggregatingReporter(AggregatingProfiler profiler,
-                               AtomicInteger numberOfLongestActiveCallsToTrack,
-                               AtomicLong staleTimeoutAfterWhichProfiledCallAggregatedWillBeRemoved,
+                               CallAggregateStore callAggregates,
                                PercentileSettings percentileSettings,
                                ClosingCallback closingCallback,
                                LabelSticker labelSticker) {
         this.profiler = profiler;
-        this.numberOfLongestActiveCallsToTrack = numberOfLongestActiveCallsToTrack;
-        this.staleTimeoutAfterWhichProfiledCallAggregatedWillBeRemoved = staleTimeoutAfterWhichProfiledCallAggregatedWillBeRemoved;
+        this.callAggregates = callAggregates;
 
         this.closingCallback = closingCallback;
         this.labelSticker = labelSticker;
         this.percentileSettings = percentileSettings;
-        lastReportTimestamp = new AtomicLong(System.currentTimeMillis());
+        this.columnarPendingAggregates = new ColumnarPendingAggregates(callAggregates.getColumnarStore());
+        lastReportTimestamp = new AtomicLong(profiler.getClock().currentTimeMillis());
     }
 
     public void setLabelSticker(LabelSticker labelSticker) {
         Objects.requireNonNull(labelSticker);
         this.labelSticker = labelSticker;
 
-        this.sharedCounters.forEach((identity, aggregate) ->
+        this.pendingCallAggregates.forEach((identity, aggregate) ->
                 labelSticker.buildLabels(identity.getName()).forEach(aggregate::setAutoLabel));
+        synchronized (callAggregates) {
+            columnarPendingAggregates.resetAutoLabels();
+            // labels of unselected identities are outdated, filters will reject them again after stale timeout
+            unselectedIdentities.clear();
+        }
 
         profiler.getIndicators().forEach((indicatorIdentity, indicatorProvider) ->
                 labelSticker.buildLabels(indicatorIdentity.getName()).forEach(indicatorProvider::setAutoLabel));
+        profiler.getIndicatorGroups().forEach((prefix, group) ->
+                labelSticker.buildLabels(prefix.getName()).forEach(group::setAutoLabel));
+    }
+
+    /**
+     * Reports contain per second series {@link ProfiledCallReport#getStartThroughputPerSecond()}
+     * and {@link ProfiledCallReport#getStopThroughputPerSecond()} only if enabled.
+     * Otherwise only maximums of the series are calculated and series are empty.
+     * Disabled by default.
+     */
+    public void setThroughputPerSecondSeriesEnabled(boolean enabled) {
+        synchronized (callAggregates) {
+            this.throughputPerSecondSeriesEnabled = enabled;
+            pendingCallAggregates.forEach((identity, aggregate) -> aggregate.setThroughputPerSecondSeriesKept(enabled));
+        }
     }
 
     public void updateCallAggregates(Identity callIdentity, Consumer<CallAggregate> updateAction) {
-        CallAggregate sharedCounter = sharedCounters.computeIfAbsent(
+        updateAction.accept(resolveCallAggregate(callIdentity));
+    }
+
+    /**
+     * @return shared aggregate of given identity, creates new one if profiler does not have it yet
+     */
+    public CallAggregate resolveCallAggregate(Identity callIdentity) {
+        return callAggregates.resolve(callIdentity);
+    }
+
+    /**
+     * @return pending aggregate of given identity, creates new one if reporter does not have it yet
+     */
+    @Override
+    public PendingCallAggregate resolvePendingCallAggregate(Identity callIdentity) {
+        PendingCallAggregate existing = pendingCallAggregates.get(callIdentity);
+        if (existing != null) {
+            return existing;
+        }
+        if (unselectedIdentities.containsKey(callIdentity)) {
+            return null;
+        }
+        return pendingCallAggregates.computeIfAbsent(
                 callIdentity,
                 key -> {
-                    CallAggregate aggregate = new CallAggregate(
+                    PendingCallAggregate aggregate = new PendingCallAggregate(
                             callIdentity,
-                            numberOfLongestActiveCallsToTrack,
-                            percentileSettings);
+                            percentileSettings,
+                            profiler.getLatencyUnit());
                     labelSticker.buildLabels(callIdentity.getName()).forEach(aggregate::setAutoLabel);
+                    aggregate.setThroughputPerSecondSeriesKept(throughputPerSecondSeriesEnabled);
+                    aggregate.selectedTimestamp = profiler.getClock().currentTimeMillis();
                     return aggregate;
                 });
+    }
 
-        updateAction.accept(sharedCounter);
+    @Override
+    public ColumnarPendingAggregates getColumnarPendingAggregates() {
+        return columnarPendingAggregates;
     }
 
     @Override
@@ -84,99 +146,160 @@ public class AggregatingReporter implements ProfilerReporter {
 
 
     private ProfilerReport buildReportAndReset(Optional<ReportFilter> reportFilter) {
-        long timestamp = System.currentTimeMillis();
+        long timestamp = profiler.getClock().currentTimeMillis();
+        long spentTime = timestamp - lastReportTimestamp.getAndSet(timestamp);
+
+
+        Map<Identity, Long> indicatorValueAges = new HashMap<>();
+        Map<Identity, Long> indicators = profiler.getIndicatorEvaluator()
+                .evaluate(profiler.getIndicators(), profiler.getIndicatorGroups(), reportFilter, indicatorValueAges);
+
+        List<List<ProfiledCallReport>> sortedPartitions;
+
+        synchronized (callAggregates) {
+            reselectIdentities(reportFilter);
+            callAggregates.drain(timestamp);
+
+            PendingCallAggregate[] pending = pendingCallAggregates.values().toArray(new PendingCallAggregate[0]);
+
+            sortedPartitions = callAggregates.getReportPartitioner().process(pending.length, (from, to) -> {
+                List<ProfiledCallReport> partition = new ArrayList<>(to - from);
+                for (int i = from; i < to; i++) {
+                    buildReportAndReset(pending[i], reportFilter, spentTime, timestamp, partition::add);
+                }
+                partition.sort(REPORT_ORDER);
+                return partition;
+            });
+
+            List<ProfiledCallReport> columnarReports = new ArrayList<>();
+            columnarPendingAggregates.buildReportsAndReset(
+                    spentTime,
+                    timestamp,
+                    callAggregates.getStaleTimeout(),
+                    reportFilter,
+                    labelSticker,
+                    columnarReports::add);
+            columnarReports.sort(REPORT_ORDER);
+            sortedPartitions.add(columnarReports);
+        }
+
+        List<ProfiledCallReport> collect = ReportPartitioner.mergeSorted(sortedPartitions, REPORT_ORDER);
+
+        return new ProfilerReport(indicators, indicatorValueAges, collect);
+    }
+
+    @Override
+    public void buildReportAndReset(ReportVisitor visitor) {
+        buildReportAndReset(Optional.empty(), visitor);
+    }
+
+    @Override
+    public void buildReportAndReset(ReportFilter reportFilter, ReportVisitor visitor) {
+        buildReportAndReset(Optional.of(reportFilter), visitor);
+    }
+
+    /**
+     * Reports are built in batches of {@link #VISIT_BATCH_SIZE} under monitor of {@link CallAggregateStore}
+     * and each batch is passed to the visitor after monitor is released,
+     * so slow visitor, e.g. one that writes metrics to network, does not block other reporters,
+     * and memory of report building does not depend on number of identities.
+     */
+    private void buildReportAndReset(Optional<ReportFilter> reportFilter, ReportVisitor visitor) {
+        long timestamp = profiler.getClock().currentTimeMillis();
         long spentTime = timestamp - lastReportTimestamp.getAndSet(timestamp);
 
+        profiler.getIndicatorEvaluator()
+                .evaluate(profiler.getIndicators(), profiler.getIndicatorGroups(), reportFilter, new HashMap<>())
+                .forEach(visitor::visitIndicator);
 
-        Stream<Map.Entry<Identity, AggregatingIndicationProvider>> indicatorsStream = profiler.getIndicators()
-                .entrySet()
-                .stream();
+        List<ProfiledCallReport> batch = new ArrayList<>(VISIT_BATCH_SIZE);
 
-        if (reportFilter.isPresent()) {
-            indicatorsStream = indicatorsStream.filter(
-                    entry -> reportFilter.get().filter(
-                            entry.getKey(),
-                            entry.getValue().getAutoLabels()
-                    )
-            );
+        synchronized (callAggregates) {
+            reselectIdentities(reportFilter);
+            callAggregates.drain(timestamp);
         }
 
-        Map<Identity, Long> indicators = indicatorsStream
-                .map(entry -> {
-                    Identity name = entry.getKey();
-                    try {
-                        return new SimpleEntry<>(name, entry.getValue().getProvider().get());
-                    } catch (Exception ex) {
-                        log.error("Retrieve value for "
-                                        + entry.getKey()
-                                        + " failed with '"
-                                        + ex.getMessage()
-                                        + "'",
-                                ex);
-                        return new SimpleEntry<Identity, Long>(name, null);
-                    }
-                })
-                .filter(entry -> entry.getValue() != null)
-                .collect(
-                        Collectors.toMap(
-                                SimpleEntry::getKey,
-                                SimpleEntry::getValue));
-
-        List<ProfiledCallReport> collect = new ArrayList<>();
-
-        for (Iterator<Map.Entry<Identity, CallAggregate>> iterator = sharedCounters.entrySet().iterator();
-             iterator.hasNext(); ) {
-
-            Map.Entry<Identity, CallAggregate> entry = iterator.next();
-            CallAggregate callAggregate = entry.getValue();
-
-            if (reportFilter.isPresent() && !reportFilter.get().filter(entry.getKey(), callAggregate.getAutoLabels())) {
-                continue;
+        Iterator<PendingCallAggregate> pendingAggregates = pendingCallAggregates.values().iterator();
+        while (pendingAggregates.hasNext()) {
+            synchronized (callAggregates) {
+                while (batch.size() < VISIT_BATCH_SIZE && pendingAggregates.hasNext()) {
+                    buildReportAndReset(pendingAggregates.next(), reportFilter, spentTime, timestamp, batch::add);
+                }
             }
+            visitAndClear(batch, visitor);
+        }
 
-            ProfiledCallReport counterReport = callAggregate.buildReportAndReset(spentTime);
-
-            // Skip and remove empty counter that was not accessed for a long time.
-            // There are always a lot of ProfiledCalls that are rarely active, or active only during short period of time
-            // during application startup or first launch of long running tasks.
-            // Removing empty aggregates reduce amount of memory consumed by profiler in this cases.
-            //
-            // TODO: We can lose some metrics
-            // Edge case when we can lose metric: Metric was not active for a long time and then suddenly became active.
-            // Reporter sees empty CallAggregate that was not accessed for a long time and removes it from map.
-            // And there is a ProfiledCall that already obtained reference to this CallAggregate.
-            // But not yet incremented counters in it.
-            // ProfiledCall is not aware that he holds reference to CallAggregate that was removed from sharedCounters.
-            // ProfiledCall will increment counters in CallAggregate that will be destroyed by GC,
-            // and will never be accessed by ProfilerReporter.
-            // As a result we lose metric.
-
-            // We need to check if stamped lock could help us not to lose performance
-            // and in a same time save us in this situation
-
-            boolean noActiveCalls = counterReport.getActiveCallsCountMax() == 0;
-            boolean noCallsBetweenPreviousAndCurrentReporting = counterReport.getStopSum() == 0;
-            long lastAccessTimestamp = callAggregate.lastAccessTimestamp.get();
-            boolean wasAccessedAtLeastOnce = lastAccessTimestamp != 0;
-            boolean noCallsForALongTime = (System.currentTimeMillis() - lastAccessTimestamp) >=
-                    staleTimeoutAfterWhichProfiledCallAggregatedWillBeRemoved.get();
-
-            if (noActiveCalls &&
-                    noCallsBetweenPreviousAndCurrentReporting &&
-                    wasAccessedAtLeastOnce &&
-                    noCallsForALongTime) {
-
-                iterator.remove();
-                continue;
+        int row = 0;
+        while (row >= 0) {
+            synchronized (callAggregates) {
+                row = columnarPendingAggregates.buildReportsAndReset(
+                        row,
+                        VISIT_BATCH_SIZE,
+                        spentTime,
+                        timestamp,
+                        callAggregates.getStaleTimeout(),
+                        reportFilter,
+                        labelSticker,
+                        batch::add);
             }
+            visitAndClear(batch, visitor);
+        }
+    }
 
-            collect.add(counterReport);
+    private static void visitAndClear(List<ProfiledCallReport> batch, ReportVisitor visitor) {
+        for (ProfiledCallReport report : batch) {
+            report.visitMetrics(visitor);
+        }
+        batch.clear();
+    }
+
+    /**
+     * Identities that are selected by the report are drained into the reporter again,
+     * identities of removed shared aggregates are forgotten.
+     * Invoked under monitor of {@link CallAggregateStore} before drain.
+     */
+    private void reselectIdentities(Optional<ReportFilter> reportFilter) {
+        if (unselectedIdentities.isEmpty()) {
+            return;
+        }
+        if (!reportFilter.isPresent()) {
+            unselectedIdentities.clear();
+            return;
         }
+        unselectedIdentities.entrySet().removeIf(unselected ->
+                callAggregates.get(unselected.getKey()) == null ||
+                        reportFilter.get().filter(unselected.getKey(), unselected.getValue()));
+    }
 
+    private void buildReportAndReset(PendingCallAggregate pendingAggregate,
+                                     Optional<ReportFilter> reportFilter,
+                                     long spentTime,
+                                     long timestamp,
+                                     Consumer<ProfiledCallReport> reports) {
+        Identity identity = pendingAggregate.callIdentity;
+
+        if (reportFilter.isPresent() &&
+                !reportFilter.get().filter(identity, pendingAggregate.getAutoLabels())) {
+            if (timestamp - pendingAggregate.selectedTimestamp >= callAggregates.getStaleTimeout()) {
+                // none of the reports selected identity for a long time, its pending events are dropped
+                pendingCallAggregates.remove(identity, pendingAggregate);
+                unselectedIdentities.put(identity, pendingAggregate.getAutoLabels());
+            }
+            return;
+        }
+        pendingAggregate.selectedTimestamp = timestamp;
 
-        collect.sort(Comparator.comparing(report -> report.getIdentity().getName()));
+        CallAggregate callAggregate = callAggregates.get(identity);
+        if (callAggregate == null && pendingAggregate.isEmpty()) {
+            // shared aggregate was removed as a stale one and all its events are already reported
+            pendingCallAggregates.remove(identity, pendingAggregate);
+            return;
+        }
 
-        return new ProfilerReport(indicators, collect);
+        reports.accept(pendingAggregate.buildReportAndReset(
+                spentTime,
+                callAggregate != null ? callAggregate.activeCallsCount() : 0,
+                callAggregate != null ? callAggregate.calculateActiveCallsMaxLatency() : 0));
     }
 
     @Override
@@ -184,7 +307,8 @@ public class AggregatingReporter implements ProfilerReporter {
         closingCallback.closed();
     }
 
-    public void onIndicatorAttached(Identity identity, AggregatingIndicationProvider provider) {
-        labelSticker.buildLabels(identity.getName()).forEach(provider::setAutoLabel);
+    @Override
+    public void onIndicatorAttached(Identity identity, AutoLabelStickerable indication) {
+        labelSticker.buildLabels(identity.getName()).forEach(indication::setAutoLabel);
     }
 }
@@ -0,0 +1,110 @@
+package ru.fix.aggregating.profiler.engine;
+
+import ru.fix.aggregating.profiler.Identity;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Mutator bound to single identity.
+ * Resolves shared {@link CallAggregate} of the identity once and caches it,
+ * so recording does not lookup aggregates map on each event.
+ * <p>
+ * Cached aggregate is resolved again when it was removed as a stale one.
+ * Events are not recorded while profiler does not have registered reporters.
+ */
+public class BoundCallAggregateMutator implements CallAggregateMutator {
+
+    private final Identity identity;
+    private final CallAggregateStore callAggregates;
+
+    private volatile CallAggregate aggregate;
+
+    public BoundCallAggregateMutator(Identity identity, CallAggregateStore callAggregates) {
+        this.identity = identity;
+        this.callAggregates = callAggregates;
+    }
+
+    public Identity getIdentity() {
+        return identity;
+    }
+
+    @Override
+    public void updateAggregate(Identity profiledCallName, Consumer<CallAggregate> updateAction) {
+        CallAggregate aggregate = resolveAggregate();
+        if (aggregate != null) {
+            updateAction.accept(aggregate);
+        }
+    }
+
+    @Override
+    public void call(Identity profiledCallName, long currentTimestamp, long latency, double payload) {
+        CallAggregate aggregate = resolveAggregate();
+        if (aggregate != null) {
+            aggregate.call(currentTimestamp, latency, payload);
+        }
+    }
+
+    @Override
+    public void call(Identity profiledCallName, long currentTimestamp, long count, long latencySum, double payloadSum) {
+        CallAggregate aggregate = resolveAggregate();
+        if (aggregate != null) {
+            aggregate.call(currentTimestamp, count, latencySum, payloadSum);
+        }
+    }
+
+    @Override
+    public void recordLatencies(Identity profiledCallName,
+                                long currentTimestamp,
+                                long[] latencies,
+                                int length,
+                                TimeUnit unit) {
+        CallAggregate aggregate = resolveAggregate();
+        if (aggregate != null) {
+            aggregate.recordLatencies(currentTimestamp, latencies, length, unit);
+        }
+    }
+
+    @Override
+    public void start(Identity profiledCallName, AggregatingCall profiledCall, long currentTimestamp) {
+        CallAggregate aggregate = resolveAggregate();
+        if (aggregate != null) {
+            aggregate.start(profiledCall, currentTimestamp);
+        }
+    }
+
+    @Override
+    public void stop(Identity profiledCallName,
+                     AggregatingCall profiledCall,
+                     long currentTimestamp,
+                     long latency,
+                     double payload) {
+        CallAggregate aggregate = resolveAggregate();
+        if (aggregate != null) {
+            aggregate.stop(profiledCall, currentTimestamp, latency, payload);
+        }
+    }
+
+    @Override
+    public void close(Identity profiledCallName, AggregatingCall profiledCall) {
+        CallAggregate aggregate = resolveAggregate();
+        if (aggregate != null) {
+            aggregate.close(profiledCall);
+        }
+    }
+
+    /**
+     * @return null if profiler does not have registered reporters
+     */
+    CallAggregate resolveAggregate() {
+        if (!callAggregates.hasReporters()) {
+            return null;
+        }
+        CallAggregate current = aggregate;
+        if (current == null || current.isRemoved()) {
+            current = callAggregates.resolve(identity);
+            aggregate = current;
+        }
+        return current;
+    }
+}
@@ -3,198 +3,574 @@ package ru.fix.aggregating.profiler.engine;
 import ru.fix.aggregating.profiler.Identity;
 import ru.fix.aggregating.profiler.PercentileSettings;
 import ru.fix.aggregating.profiler.ProfiledCallReport;
+import ru.fix.aggregating.profiler.ProfilerClock;
+import ru.fix.aggregating.profiler.ThroughputPerSecondSeries;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
-import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.*;
+import java.util.function.Function;
 
 /**
+ * Counters of events are recorded in current {@link AggregateGeneration}.
+ * During report building current generation is swapped with spare one,
+ * retired generation is read after all writers leave it,
+ * so each report is built from consistent set of events.
+ * <p>
+ * Single aggregate of the identity is shared by all reporters of the profiler,
+ * retired generation is drained into {@link PendingCallAggregate} of each reporter.
+ * <p>
+ * Tracker of active calls is created by the first started call,
+ * identities that record only calls without start do not allocate it.
+ *
  * @author Kamil Asfandiyarov
  */
-public class CallAggregate implements AutoLabelStickerable {
+public class CallAggregate implements LatencyHistogramSource {
 
-    final Identity callIdentity;
-
-    final LongAdder startSumAdder = new LongAdder();
+    /**
+     * Latency of call without start time, passed to {@link #call(long, long, double)}.
+     * Such call gets only into latency min, measured latency including zero gets into percentiles.
+     */
+    public static final long NO_LATENCY = -1;
 
-    final LongAdder stopSumAdder = new LongAdder();
-    final LongAdder latencySum = new LongAdder();
+    final Identity callIdentity;
 
-    final LongAccumulator latencyMinAcc = new LongAccumulator(Math::min, Long.MAX_VALUE);
-    final LongAccumulator latencyMaxAcc = new LongAccumulator(Math::max, 0L);
+    /**
+     * Unit of latencies passed to {@link #call(long, long, double)} and {@link #stop(AggregatingCall, long, long, double)}
+     */
+    final TimeUnit latencyUnit;
 
+    /**
+     * Generation that accepts events of current reporting period
+     */
+    volatile AggregateGeneration currentGeneration;
 
-    final DoubleAdder payloadSumAdder = new DoubleAdder();
-    final DoubleAccumulator payloadMin = new DoubleAccumulator(Math::min, Long.MAX_VALUE);
-    final DoubleAccumulator payloadMax = new DoubleAccumulator(Math::max, 0L);
+    /**
+     * Generation that becomes current during next report building.
+     * Accessed only by reporter.
+     */
+    AggregateGeneration spareGeneration;
 
-    final MaxThroughputPerSecondAccumulator startMaxThroughputPerSecondAcc = new MaxThroughputPerSecondAccumulator();
-    final MaxThroughputPerSecondAccumulator stopMaxThroughputPerSecondAcc = new MaxThroughputPerSecondAccumulator();
+    final ThroughputPerSecondRing startThroughputPerSecond = new ThroughputPerSecondRing();
+    final ThroughputPerSecondRing stopThroughputPerSecond = new ThroughputPerSecondRing();
 
     final AtomicInteger numberOfLongestActiveCallsToTrack;
 
     final LongAdder activeCallsCountSumAdder = new LongAdder();
-    final Set<AggregatingCall> activeCalls = ConcurrentHashMap.newKeySet();
 
-    final Map<String, String> autoLabels = new ConcurrentHashMap<>();
-
-    final PercentileAccumulator latencyPercentile;
-
-    final AtomicLong lastAccessTimestamp = new AtomicLong(0L);
+    /**
+     * Null until first started call
+     */
+    volatile ActiveCallsTracker activeCalls;
+
+    /**
+     * Not null if aggregate records events in thread-local mode
+     */
+    final ThreadLocalCallAggregation threadLocalAggregation;
+
+    /**
+     * Time of the last report that found events or active calls in the aggregate, 0 if there was no such report.
+     * Activity is derived from drained counters by reporter,
+     * so recording threads do not write shared timestamp on each event.
+     */
+    volatile long lastActivityTimestamp;
+
+    final ProfilerClock clock;
+
+    final PercentileSettings percentileSettings;
+
+    /**
+     * Engine of histograms of the aggregate, chosen when aggregate is created
+     */
+    private final LatencyHistogramFactory histogramFactory;
+
+    /**
+     * Stopped call gets into latency and payload min, max and percentiles
+     * if unsigned 31 bits of thread-local random number are less than threshold.
+     * {@link #SAMPLE_ALL} turns sampling off, so random number is not generated at all.
+     */
+    private volatile int latencySamplingThreshold = SAMPLE_ALL;
+
+    private static final int SAMPLE_ALL = Integer.MAX_VALUE;
+
+    /**
+     * Slots of cardinality limits taken by the aggregate, returned when aggregate is evicted.
+     * Null if identity is not covered by any limit.
+     *
+     * @see CardinalityGuard
+     */
+    AtomicInteger[] cardinalitySlots;
+
+    /**
+     * Pending aggregate of {@link #buildReportAndReset(long)}, created on first invocation
+     */
+    private PendingCallAggregate standaloneReport;
+
+    /**
+     * Tombstone, set by reporter when aggregate is evicted from reporter as a stale one.
+     * Resolves live aggregate of the same identity.
+     */
+    private volatile Function<Identity, CallAggregate> successorResolver;
 
     public CallAggregate(
             Identity callIdentity,
             AtomicInteger numberOfLongestActiveCallsToTrack,
             PercentileSettings percentileSettings
     ) {
-        this.callIdentity = callIdentity;
-        this.numberOfLongestActiveCallsToTrack = numberOfLongestActiveCallsToTrack;
-        this.latencyPercentile = new PercentileAccumulator(percentileSettings);
+        this(callIdentity, numberOfLongestActiveCallsToTrack, percentileSettings, false);
+    }
 
+    /**
+     * @param threadLocalAggregation if true then each thread records events into its own slab
+     *                               and slabs are merged during report building.
+     * @see ThreadLocalCallAggregation
+     */
+    public CallAggregate(
+            Identity callIdentity,
+            AtomicInteger numberOfLongestActiveCallsToTrack,
+            PercentileSettings percentileSettings,
+            boolean threadLocalAggregation
+    ) {
+        this(callIdentity, numberOfLongestActiveCallsToTrack, percentileSettings, threadLocalAggregation,
+                TimeUnit.MILLISECONDS);
     }
 
-    @Override
-    public void setAutoLabel(String name, String value) {
-        this.autoLabels.put(name, value);
+    public CallAggregate(
+            Identity callIdentity,
+            AtomicInteger numberOfLongestActiveCallsToTrack,
+            PercentileSettings percentileSettings,
+            boolean threadLocalAggregation,
+            TimeUnit latencyUnit
+    ) {
+        this(callIdentity, numberOfLongestActiveCallsToTrack, percentileSettings, threadLocalAggregation,
+                latencyUnit, ProfilerClock.system());
     }
 
-    @Override
-    public Map<String, String> getAutoLabels() {
-        return this.autoLabels;
+    /**
+     * @param clock source of timestamps for events without timestamp and for report building
+     */
+    public CallAggregate(
+            Identity callIdentity,
+            AtomicInteger numberOfLongestActiveCallsToTrack,
+            PercentileSettings percentileSettings,
+            boolean threadLocalAggregation,
+            TimeUnit latencyUnit,
+            ProfilerClock clock
+    ) {
+        this.clock = clock;
+        this.percentileSettings = percentileSettings;
+        this.callIdentity = callIdentity;
+        this.numberOfLongestActiveCallsToTrack = numberOfLongestActiveCallsToTrack;
+        this.latencyUnit = latencyUnit;
+
+        this.histogramFactory = percentileSettings.getHistogramFactory();
+        this.currentGeneration = new AggregateGeneration(this);
+        this.spareGeneration = new AggregateGeneration(this);
+        this.threadLocalAggregation = threadLocalAggregation ?
+                new ThreadLocalCallAggregation(
+                        this, startThroughputPerSecond, stopThroughputPerSecond,
+                        lateEvents -> absorb(lateEvents, 0, Collections.emptyList())) :
+                null;
     }
 
+    /**
+     * Creates histogram of generation on its first latency
+     */
+    @Override
+    public LatencyHistogram newLatencyHistogram() {
+        return histogramFactory.create(percentileSettings, latencyUnit);
+    }
 
     public void call(long currentTimestamp, long latency, double payload) {
-        updateLastAccessTimestamp();
+        if (threadLocalAggregation != null) {
+            // slab of the thread is not shared with other writers, generations are not entered
+            if (!threadLocalAggregation.call(currentTimestamp, latency, payload, isSampled())) {
+                successor().call(currentTimestamp, latency, payload);
+            }
+            return;
+        }
 
-        startSumAdder.increment();
-        stopSumAdder.increment();
+        AggregateGeneration generation = enterGeneration(1);
+        if (generation == null) {
+            successor().call(currentTimestamp, latency, payload);
+            return;
+        }
+        try {
+            if (isSampled()) {
+                generation.recordStop(latency, payload);
+            } else {
+                generation.recordSkip(latency, payload);
+            }
+        } finally {
+            generation.exitWithCalls(1);
+        }
+        startThroughputPerSecond.call(currentTimestamp, 1);
+        stopThroughputPerSecond.call(currentTimestamp, 1);
+    }
 
-        latencyMinAcc.accumulate(latency);
-        if (latency > 0) {
-            latencySum.add(latency);
-            latencyMaxAcc.accumulate(latency);
-            latencyPercentile.accumulate(latency);
+    /**
+     * Records batch of calls with equal latency and payload
+     *
+     * @param latencySum sum of latencies in latency unit of aggregate
+     * @see ru.fix.aggregating.profiler.ProfiledCall#call(long, long, double)
+     */
+    public void call(long currentTimestamp, long count, long latencySum, double payloadSum) {
+        if (count <= 0) {
+            return;
+        }
+        long positiveLatencySum = Math.max(0, latencySum);
+        // batch is measured if it has latency sum, its average latency could be truncated to zero
+        long latency = positiveLatencySum > 0 ? positiveLatencySum / count : NO_LATENCY;
+        double payload = payloadSum / count;
+
+        if (threadLocalAggregation != null) {
+            if (!threadLocalAggregation.call(currentTimestamp, count, latency, positiveLatencySum,
+                    payload, payloadSum)) {
+                successor().call(currentTimestamp, count, latencySum, payloadSum);
+            }
+            return;
         }
 
-        payloadMin.accumulate(payload);
-        if (payload > 0) {
-            payloadSumAdder.add(payload);
-            payloadMax.accumulate(payload);
+        AggregateGeneration generation = enterGeneration(count);
+        if (generation == null) {
+            successor().call(currentTimestamp, count, latencySum, payloadSum);
+            return;
         }
+        try {
+            generation.recordCalls(count, latency, positiveLatencySum, payload, payloadSum);
+        } finally {
+            generation.exitWithCalls(count);
+        }
+        startThroughputPerSecond.call(currentTimestamp, count);
+        stopThroughputPerSecond.call(currentTimestamp, count);
+    }
 
-        startMaxThroughputPerSecondAcc.call(currentTimestamp, 1);
-        stopMaxThroughputPerSecondAcc.call(currentTimestamp, 1);
+    /**
+     * Records one call for each latency
+     *
+     * @param latencies latencies in given unit
+     * @see ru.fix.aggregating.profiler.ProfiledCall#recordLatencies(long[], int)
+     */
+    public void recordLatencies(long currentTimestamp, long[] latencies, int length, TimeUnit unit) {
+        if (length <= 0) {
+            return;
+        }
+        if (threadLocalAggregation != null) {
+            if (!threadLocalAggregation.recordLatencies(currentTimestamp, latencies, length, unit, latencyUnit)) {
+                successor().recordLatencies(currentTimestamp, latencies, length, unit);
+            }
+            return;
+        }
 
+        AggregateGeneration generation = enterGeneration(length);
+        if (generation == null) {
+            successor().recordLatencies(currentTimestamp, latencies, length, unit);
+            return;
+        }
+        try {
+            generation.recordLatencies(latencies, length, unit, latencyUnit);
+        } finally {
+            generation.exitWithCalls(length);
+        }
+        startThroughputPerSecond.call(currentTimestamp, length);
+        stopThroughputPerSecond.call(currentTimestamp, length);
     }
 
     public void start(AggregatingCall profiledCall, long currentTimestamp) {
-        updateLastAccessTimestamp();
+        AggregateGeneration generation = enterGeneration(1);
+        if (generation == null) {
+            successor().start(profiledCall, currentTimestamp);
+            return;
+        }
+        try {
+            activeCallsCountSumAdder.increment();
+            activeCalls().add(profiledCall);
+
+            if (threadLocalAggregation != null) {
+                threadLocalAggregation.start(currentTimestamp);
+            } else {
+                startThroughputPerSecond.call(currentTimestamp, 1);
+            }
+        } finally {
+            if (threadLocalAggregation != null) {
+                generation.exit();
+            } else {
+                generation.exitWithStart();
+            }
+        }
+        // writer that hands counters over waits for reporter, that merges slabs after writers leave generation
+        if (threadLocalAggregation != null) {
+            threadLocalAggregation.handOverIfDetached();
+        }
+    }
 
-        startSumAdder.increment();
-        startMaxThroughputPerSecondAcc.call(currentTimestamp, 1);
+    public void stop(AggregatingCall profiledCall, long currentTimestamp, long latency, double payload) {
+        AggregateGeneration generation = enterGeneration(1);
+        if (generation == null) {
+            successor().stop(profiledCall, currentTimestamp, latency, payload);
+            return;
+        }
+        try {
+            untrack(profiledCall);
+            activeCallsCountSumAdder.decrement();
+
+            if (threadLocalAggregation != null) {
+                threadLocalAggregation.stop(currentTimestamp, latency, payload, isSampled());
+            } else {
+                if (isSampled()) {
+                    generation.recordStop(latency, payload);
+                } else {
+                    generation.recordSkip(latency, payload);
+                }
+                stopThroughputPerSecond.call(currentTimestamp, 1);
+            }
+        } finally {
+            if (threadLocalAggregation != null) {
+                generation.exit();
+            } else {
+                generation.exitWithStop();
+            }
+        }
+        // writer that hands counters over waits for reporter, that merges slabs after writers leave generation
+        if (threadLocalAggregation != null) {
+            threadLocalAggregation.handOverIfDetached();
+        }
+    }
 
-        activeCallsCountSumAdder.increment();
-        if (numberOfLongestActiveCallsToTrack.get() > activeCalls.size()) {
-            activeCalls.add(profiledCall);
+    public void close(AggregatingCall call) {
+        AggregateGeneration generation = enterGeneration(1);
+        if (generation == null) {
+            successor().close(call);
+            return;
+        }
+        try {
+            untrack(call);
+            activeCallsCountSumAdder.decrement();
+        } finally {
+            generation.exit();
         }
+    }
 
+    private ActiveCallsTracker activeCalls() {
+        ActiveCallsTracker current = activeCalls;
+        if (current == null) {
+            synchronized (this) {
+                current = activeCalls;
+                if (current == null) {
+                    current = new ActiveCallsTracker(numberOfLongestActiveCallsToTrack.get());
+                    activeCalls = current;
+                }
+            }
+        }
+        return current;
     }
 
-    public void stop(AggregatingCall profiledCall, long currentTimestamp, long latency, double payload) {
-        updateLastAccessTimestamp();
+    private void untrack(AggregatingCall call) {
+        ActiveCallsTracker current = activeCalls;
+        if (current != null) {
+            current.remove(call);
+        }
+    }
 
-        stopSumAdder.increment();
+    private boolean isSampled() {
+        int threshold = latencySamplingThreshold;
+        return threshold == SAMPLE_ALL || (ThreadLocalRandom.current().nextInt() >>> 1) < threshold;
+    }
 
-        latencyMinAcc.accumulate(latency);
-        if (latency > 0) {
-            latencySum.add(latency);
-            latencyMaxAcc.accumulate(latency);
-            latencyPercentile.accumulate(latency);
-        }
+    /**
+     * Latency and payload min, max and percentiles of single calls are calculated from random sample of stopped calls.
+     * Start and stop counts, latency and payload sums are exact.
+     * Batches of calls are not sampled.
+     *
+     * @param latencySamplingRate probability of stopped call to get into the sample, within (0, 1]
+     */
+    public void setLatencySamplingRate(double latencySamplingRate) {
+        this.latencySamplingThreshold = latencySamplingRate >= 1 ?
+                SAMPLE_ALL :
+                Math.max(1, (int) (latencySamplingRate * (1L << 31)));
+    }
 
-        payloadMin.accumulate(payload);
-        if (payload > 0) {
-            payloadMax.accumulate(payload);
-            payloadSumAdder.add(payload);
+    /**
+     * Registers writer in current generation.
+     * If generation was retired before registration, writer leaves it and tries again with new current one.
+     * Caller have to leave returned generation after recording:
+     * through {@link AggregateGeneration#exit()} or by counting events that add up to given weight.
+     *
+     * @param weight number of exits that writer makes, see {@link AggregateGeneration#exitWithCalls(long)}
+     * @return null if aggregate was evicted, writer should record event in {@link #successor()}
+     */
+    AggregateGeneration enterGeneration(long weight) {
+        while (true) {
+            AggregateGeneration generation = currentGeneration;
+            generation.entered.add(weight);
+            if (generation == currentGeneration) {
+                if (successorResolver != null) {
+                    generation.exited.add(weight);
+                    return null;
+                }
+                return generation;
+            }
+            generation.exited.add(weight);
         }
+    }
 
+    /**
+     * Removes aggregate from recording.
+     * Writers that notice removal forward their events to live aggregate of the same identity
+     * provided by successor resolver.
+     * Events that writers recorded before they noticed removal are handed over to live aggregate too.
+     * Throughput per second of these late events is not handed over.
+     * <p>
+     * Should not be invoked concurrently with {@link #drainInto(PendingCallAggregate...)}
+     *
+     * @param successorResolver provides live aggregate by identity,
+     *                          evicted aggregate should be already removed from the place where resolver looks for it
+     */
+    void evict(Function<Identity, CallAggregate> successorResolver) {
+        this.successorResolver = successorResolver;
+
+        // Writers that entered generation before eviction became visible to them are still recording into it.
+        // Other writers see eviction after entering any generation and do not record anything.
+        AggregateGeneration generation = currentGeneration;
+        currentGeneration = spareGeneration;
+        generation.awaitWriters();
+
+        // Thread-local writers do not enter generations,
+        // they see closed aggregation before recording into slab or hand counters over after it.
+        if (threadLocalAggregation != null) {
+            threadLocalAggregation.close(generation);
+        }
 
-        stopMaxThroughputPerSecondAcc.call(currentTimestamp, 1);
+        long lateActiveCallsCount = activeCallsCountSumAdder.sum();
+        if (generation.isEmpty() && lateActiveCallsCount == 0) {
+            return;
+        }
+        ActiveCallsTracker lateActiveCalls = activeCalls;
+        successor().absorb(generation, lateActiveCallsCount,
+                lateActiveCalls != null ? lateActiveCalls : Collections.emptyList());
+    }
 
+    /**
+     * Records events of evicted aggregate of the same identity
+     */
+    private void absorb(AggregateGeneration lateEvents,
+                        long lateActiveCallsCount,
+                        Collection<AggregatingCall> lateActiveCalls) {
+        // counters drained from late events leave generation together with exit of the writer
+        AggregateGeneration generation = enterGeneration(lateEvents.drainedExitCount() + 1);
+        if (generation == null) {
+            successor().absorb(lateEvents, lateActiveCallsCount, lateActiveCalls);
+            return;
+        }
+        try {
+            lateEvents.drainInto(generation);
 
-        activeCalls.remove(profiledCall);
-        activeCallsCountSumAdder.decrement();
+            activeCallsCountSumAdder.add(lateActiveCallsCount);
+            for (AggregatingCall call : lateActiveCalls) {
+                activeCalls().add(call);
+            }
+        } finally {
+            generation.exit();
+        }
     }
 
-    public void close(AggregatingCall call) {
-        updateLastAccessTimestamp();
-        activeCalls.remove(call);
-        activeCallsCountSumAdder.decrement();
+    private CallAggregate successor() {
+        return successorResolver.apply(callIdentity);
     }
 
-    private void updateLastAccessTimestamp() {
-        lastAccessTimestamp.set(System.currentTimeMillis());
+    public boolean isRemoved() {
+        return successorResolver != null;
     }
 
     private Optional<AggregatingCall> findLongestActiveCall() {
-        if (numberOfLongestActiveCallsToTrack.get() == 0) {
+        ActiveCallsTracker activeCalls = this.activeCalls;
+        if (activeCalls == null) {
+            return Optional.empty();
+        }
+        int numberOfLongestActiveCallsToTrack = this.numberOfLongestActiveCallsToTrack.get();
+        if (numberOfLongestActiveCallsToTrack == 0) {
             if (!activeCalls.isEmpty()) {
                 activeCalls.clear();
                 activeCallsCountSumAdder.reset();
             }
+            activeCalls.resize(0);
             return Optional.empty();
         }
 
+        activeCalls.resize(numberOfLongestActiveCallsToTrack);
+        activeCalls.purgeFinishedCalls();
         return activeCalls.stream().min(Comparator.comparingLong(AggregatingCall::startNanoTime));
     }
 
-    public ProfiledCallReport buildReportAndReset(long elapsed) {
-        long startSum = AdderDrainer.drain(startSumAdder);
-        long stopSum = AdderDrainer.drain(stopSumAdder);
-
-        ProfiledCallReport report = new ProfiledCallReport(this.callIdentity)
-                .setReportingTimeAvg(elapsed)
+    /**
+     * Moves events recorded since previous drain into each of given pending aggregates.
+     * Should not be invoked concurrently
+     *
+     * @return number of calls stopped since previous drain
+     */
+    long drainInto(PendingCallAggregate... targets) {
+        AggregateGeneration generation = currentGeneration;
+        currentGeneration = spareGeneration;
+        generation.awaitWriters();
+        try {
+            long currentTimestamp = clock.currentTimeMillis();
+            if (threadLocalAggregation != null) {
+                threadLocalAggregation.mergeInto(generation, currentTimestamp);
+            }
 
-                .setStartSum(startSum)
-                .setStartThroughputPerSecondMax(startMaxThroughputPerSecondAcc.getAndReset(System.currentTimeMillis()))
-                .setStartThroughputAvg(elapsed != 0 ? ((double) startSum * 1000) / elapsed : 0)
+            long stopSum = generation.stopSum();
+            if (!generation.isEmpty() || activeCallsCount() != 0) {
+                lastActivityTimestamp = currentTimestamp;
+            }
 
-                .setActiveCallsCountMax(activeCallsCountSumAdder.sum())
-                .setActiveCallsLatencyMax(calculateActiveCallsMaxLatency());
+            boolean seriesKept = false;
+            AggregateGeneration[] targetEvents = new AggregateGeneration[targets.length];
+            for (int i = 0; i < targets.length; i++) {
+                targetEvents[i] = targets[i].events;
+                seriesKept |= targets[i].isThroughputPerSecondSeriesKept();
+            }
 
-        if (stopSum == 0) {
-            return report;
+            if (seriesKept) {
+                ThroughputPerSecondSeries startSeries = startThroughputPerSecond.buildAndReset(currentTimestamp);
+                ThroughputPerSecondSeries stopSeries = stopThroughputPerSecond.buildAndReset(currentTimestamp);
+                for (PendingCallAggregate target : targets) {
+                    target.appendThroughputPerSecond(startSeries, stopSeries);
+                }
+            } else {
+                long startMax = startThroughputPerSecond.maxAndReset(currentTimestamp);
+                long stopMax = stopThroughputPerSecond.maxAndReset(currentTimestamp);
+                for (PendingCallAggregate target : targets) {
+                    target.appendThroughputPerSecondMax(startMax, stopMax);
+                }
+            }
+            generation.drainInto(true, targetEvents);
+            return stopSum;
+        } finally {
+            spareGeneration = generation;
         }
+    }
 
-        double payloadSum = AdderDrainer.drain(payloadSumAdder);
-
-        long latencyMin = latencyMinAcc.getThenReset();
-        long latencyMax = latencyMaxAcc.getThenReset();
-
-        return report
-                .setLatencyMin(latencyMin)
-                .setLatencyMax(latencyMax)
-                .setLatencyAvg(AdderDrainer.drain(latencySum) / stopSum)
-
-                .setLatencyPercentile(latencyPercentile.buildAndReset(latencyMax))
-
-                .setPayloadMin(payloadMin.getThenReset())
-                .setPayloadMax(payloadMax.getThenReset())
-                .setPayloadSum(payloadSum)
-                .setPayloadAvg(payloadSum / stopSum)
-                .setPayloadThroughputAvg(elapsed != 0 ? (payloadSum * 1000) / elapsed : 0)
+    /**
+     * Builds report of events recorded since previous report without any reporter.
+     * Should not be invoked concurrently
+     */
+    public ProfiledCallReport buildReportAndReset(long elapsed) {
+        if (standaloneReport == null) {
+            standaloneReport = new PendingCallAggregate(callIdentity, percentileSettings, latencyUnit);
+        }
+        drainInto(standaloneReport);
+        return standaloneReport.buildReportAndReset(elapsed, activeCallsCount(), calculateActiveCallsMaxLatency());
+    }
 
-                .setStopSum(stopSum)
-                .setStopThroughputAvg(elapsed != 0 ? ((double) stopSum * 1000) / elapsed : 0)
-                .setStopThroughputPerSecondMax(stopMaxThroughputPerSecondAcc.getAndReset(System.currentTimeMillis()))
-                ;
+    long activeCallsCount() {
+        return activeCallsCountSumAdder.sum();
     }
 
-    private long calculateActiveCallsMaxLatency() {
+    long calculateActiveCallsMaxLatency() {
         Optional<AggregatingCall> longestCall = findLongestActiveCall();
         return longestCall
                 .map(AggregatingCall::timeFromCallStart)
@@ -2,9 +2,50 @@ package ru.fix.aggregating.profiler.engine;
 
 import ru.fix.aggregating.profiler.Identity;
 
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
+/**
+ * Applies events of profiled calls to aggregates of the identity.
+ * <p>
+ * Event methods delegate to {@link #updateAggregate(Identity, Consumer)} with new update action.
+ * Mutators of the profiler override them, so recording of the event does not allocate.
+ */
 @FunctionalInterface
 public interface CallAggregateMutator {
     void updateAggregate(Identity profiledCallName, Consumer<CallAggregate> updateAction);
+
+    default void call(Identity profiledCallName, long currentTimestamp, long latency, double payload) {
+        updateAggregate(profiledCallName, aggregate -> aggregate.call(currentTimestamp, latency, payload));
+    }
+
+    default void call(Identity profiledCallName, long currentTimestamp, long count, long latencySum, double payloadSum) {
+        updateAggregate(profiledCallName, aggregate -> aggregate.call(currentTimestamp, count, latencySum, payloadSum));
+    }
+
+    default void recordLatencies(Identity profiledCallName,
+                                 long currentTimestamp,
+                                 long[] latencies,
+                                 int length,
+                                 TimeUnit unit) {
+        updateAggregate(profiledCallName,
+                aggregate -> aggregate.recordLatencies(currentTimestamp, latencies, length, unit));
+    }
+
+    default void start(Identity profiledCallName, AggregatingCall profiledCall, long currentTimestamp) {
+        updateAggregate(profiledCallName, aggregate -> aggregate.start(profiledCall, currentTimestamp));
+    }
+
+    default void stop(Identity profiledCallName,
+                      AggregatingCall profiledCall,
+                      long currentTimestamp,
+                      long latency,
+                      double payload) {
+        updateAggregate(profiledCallName,
+                aggregate -> aggregate.stop(profiledCall, currentTimestamp, latency, payload));
+    }
+
+    default void close(Identity profiledCallName, AggregatingCall profiledCall) {
+        updateAggregate(profiledCallName, aggregate -> aggregate.close(profiledCall));
+    }
 }
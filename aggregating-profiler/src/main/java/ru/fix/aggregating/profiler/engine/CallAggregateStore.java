@@ -0,0 +1,287 @@
+package ru.fix.aggregating.profiler.engine;
+
+import ru.fix.aggregating.profiler.Identity;
+import ru.fix.aggregating.profiler.PercentileSettings;
+import ru.fix.aggregating.profiler.ProfilerClock;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Aggregates of the profiler shared by all registered reporters.
+ * <p>
+ * Each event is recorded once into single {@link CallAggregate} of the identity,
+ * so cost of recording does not depend on number of reporters.
+ * When any reporter builds report, store drains all aggregates
+ * and adds drained events to {@link PendingCallAggregate} of each registered reporter that reports the identity.
+ * Reporter reports and resets only its own pending aggregates.
+ * <p>
+ * Drain and report building are performed under monitor of the store.
+ */
+public class CallAggregateStore {
+
+    private final Map<Identity, CallAggregate> aggregates = new ConcurrentHashMap<>();
+
+    /**
+     * Copy on write array of registered reporters.
+     * Events are not recorded while there is no registered reporter.
+     */
+    private volatile RegisteredReporter[] reporters = new RegisteredReporter[0];
+
+    private final AtomicInteger numberOfLongestActiveCallsToTrack;
+    private final AtomicLong staleTimeoutAfterWhichProfiledCallAggregatedWillBeRemoved;
+    private final AtomicBoolean threadLocalAggregation;
+    private final PercentileSettings percentileSettings;
+    private final TimeUnit latencyUnit;
+    private final Supplier<ProfilerClock> clock;
+
+    private final CardinalityGuard cardinalityGuard = new CardinalityGuard();
+
+    private final ColumnarCallAggregateStore columnarStore;
+
+    private final ReportPartitioner reportPartitioner = new ReportPartitioner();
+
+    private volatile double latencySamplingRate = 1;
+    private final Map<Identity, Double> identityLatencySamplingRates = new ConcurrentHashMap<>();
+
+    public CallAggregateStore(AtomicInteger numberOfLongestActiveCallsToTrack,
+                              AtomicLong staleTimeoutAfterWhichProfiledCallAggregatedWillBeRemoved,
+                              AtomicBoolean threadLocalAggregation,
+                              PercentileSettings percentileSettings,
+                              TimeUnit latencyUnit,
+                              Supplier<ProfilerClock> clock) {
+        this.numberOfLongestActiveCallsToTrack = numberOfLongestActiveCallsToTrack;
+        this.staleTimeoutAfterWhichProfiledCallAggregatedWillBeRemoved =
+                staleTimeoutAfterWhichProfiledCallAggregatedWillBeRemoved;
+        this.threadLocalAggregation = threadLocalAggregation;
+        this.percentileSettings = percentileSettings;
+        this.latencyUnit = latencyUnit;
+        this.clock = clock;
+        this.columnarStore = new ColumnarCallAggregateStore(percentileSettings, latencyUnit, cardinalityGuard);
+    }
+
+    public CardinalityGuard getCardinalityGuard() {
+        return cardinalityGuard;
+    }
+
+    /**
+     * Rows of identities recorded with columnar storage, drained together with aggregates of the store
+     */
+    public ColumnarCallAggregateStore getColumnarStore() {
+        return columnarStore;
+    }
+
+    /**
+     * Parallelism of drain and report building shared by all reporters of the store
+     */
+    public ReportPartitioner getReportPartitioner() {
+        return reportPartitioner;
+    }
+
+    long getStaleTimeout() {
+        return staleTimeoutAfterWhichProfiledCallAggregatedWillBeRemoved.get();
+    }
+
+    public boolean hasReporters() {
+        return reporters.length != 0;
+    }
+
+    public RegisteredReporter[] getReporters() {
+        return reporters;
+    }
+
+    /**
+     * Events that were recorded before registration are reported only by already registered reporters.
+     */
+    public synchronized void register(RegisteredReporter reporter) {
+        drain(clock.get().currentTimeMillis());
+
+        RegisteredReporter[] registered = Arrays.copyOf(reporters, reporters.length + 1);
+        registered[registered.length - 1] = reporter;
+        reporters = registered;
+    }
+
+    public synchronized void unregister(RegisteredReporter reporter) {
+        reporters = Arrays.stream(reporters)
+                .filter(registered -> registered != reporter)
+                .toArray(RegisteredReporter[]::new);
+    }
+
+    /**
+     * @return aggregate of given identity, creates new one if store does not have it yet
+     */
+    public CallAggregate resolve(Identity callIdentity) {
+        CallAggregate existing = aggregates.get(callIdentity);
+        if (existing != null) {
+            return existing;
+        }
+        // cardinality limits and capturing mapping function are checked and allocated only when aggregate is missing
+        CardinalityGuard.Admission admission = cardinalityGuard.admit(callIdentity);
+        if (admission.overflowIdentity != null) {
+            return resolveUnguarded(admission.overflowIdentity);
+        }
+        if (admission.acquired.length == 0) {
+            return resolveUnguarded(callIdentity);
+        }
+
+        CallAggregate[] created = new CallAggregate[1];
+        CallAggregate aggregate = aggregates.computeIfAbsent(callIdentity, key -> {
+            created[0] = createAggregate(key);
+            created[0].cardinalitySlots = admission.acquired;
+            return created[0];
+        });
+        if (created[0] == null) {
+            // other writer created aggregate of the same identity concurrently
+            cardinalityGuard.release(admission.acquired);
+        }
+        return aggregate;
+    }
+
+    private CallAggregate resolveUnguarded(Identity callIdentity) {
+        CallAggregate existing = aggregates.get(callIdentity);
+        if (existing != null) {
+            return existing;
+        }
+        return aggregates.computeIfAbsent(callIdentity, this::createAggregate);
+    }
+
+    private CallAggregate createAggregate(Identity callIdentity) {
+        CallAggregate aggregate = new CallAggregate(
+                callIdentity,
+                numberOfLongestActiveCallsToTrack,
+                percentileSettings,
+                threadLocalAggregation.get(),
+                latencyUnit,
+                clock.get());
+        aggregate.setLatencySamplingRate(getLatencySamplingRate(callIdentity));
+        return aggregate;
+    }
+
+    /**
+     * Sampling rate of identities that do not have their own rate
+     *
+     * @see CallAggregate#setLatencySamplingRate(double)
+     */
+    public void setLatencySamplingRate(double latencySamplingRate) {
+        this.latencySamplingRate = latencySamplingRate;
+        aggregates.forEach((identity, aggregate) ->
+                aggregate.setLatencySamplingRate(getLatencySamplingRate(identity)));
+    }
+
+    public double getLatencySamplingRate() {
+        return latencySamplingRate;
+    }
+
+    /**
+     * @param latencySamplingRate sampling rate of the identity, null to use rate of the store
+     * @see CallAggregate#setLatencySamplingRate(double)
+     */
+    public void setLatencySamplingRate(Identity identity, Double latencySamplingRate) {
+        if (latencySamplingRate != null) {
+            identityLatencySamplingRates.put(identity, latencySamplingRate);
+        } else {
+            identityLatencySamplingRates.remove(identity);
+        }
+        CallAggregate aggregate = aggregates.get(identity);
+        if (aggregate != null) {
+            aggregate.setLatencySamplingRate(getLatencySamplingRate(identity));
+        }
+    }
+
+    public double getLatencySamplingRate(Identity identity) {
+        return identityLatencySamplingRates.getOrDefault(identity, latencySamplingRate);
+    }
+
+    /**
+     * @return aggregate of given identity or null if store does not have it
+     */
+    CallAggregate get(Identity callIdentity) {
+        return aggregates.get(callIdentity);
+    }
+
+    /**
+     * Moves events of all aggregates into pending aggregates of registered reporters
+     * and removes stale aggregates.
+     * Large stores are drained in partitions in parallel, see {@link ReportPartitioner}.
+     */
+    synchronized void drain(long timestamp) {
+        RegisteredReporter[] currentReporters = reporters;
+
+        ColumnarPendingAggregates[] columnarTargets = new ColumnarPendingAggregates[currentReporters.length];
+        for (int i = 0; i < currentReporters.length; i++) {
+            columnarTargets[i] = currentReporters[i].getColumnarPendingAggregates();
+        }
+        columnarStore.drainInto(timestamp, columnarTargets);
+
+        if (reportPartitioner.partitionsCount(aggregates.size()) == 1) {
+            PendingCallAggregate[] targets = new PendingCallAggregate[currentReporters.length];
+            for (CallAggregate callAggregate : aggregates.values()) {
+                drain(callAggregate, currentReporters, targets, timestamp);
+            }
+            return;
+        }
+
+        CallAggregate[] snapshot = aggregates.values().toArray(new CallAggregate[0]);
+        reportPartitioner.process(snapshot.length, (from, to) -> {
+            PendingCallAggregate[] targets = new PendingCallAggregate[currentReporters.length];
+            for (int i = from; i < to; i++) {
+                drain(snapshot[i], currentReporters, targets, timestamp);
+            }
+            return null;
+        });
+    }
+
+    private void drain(CallAggregate callAggregate,
+                       RegisteredReporter[] currentReporters,
+                       PendingCallAggregate[] targets,
+                       long timestamp) {
+        int targetsCount = 0;
+        for (RegisteredReporter reporter : currentReporters) {
+            PendingCallAggregate target = reporter.resolvePendingCallAggregate(callAggregate.callIdentity);
+            if (target != null) {
+                targets[targetsCount++] = target;
+            }
+        }
+        // aggregate is drained even without targets, so events of unselected identities do not pile up
+        long stopSum = callAggregate.drainInto(
+                targetsCount == targets.length ? targets : Arrays.copyOf(targets, targetsCount));
+
+        // Remove empty aggregate that was not accessed for a long time.
+        // There are always a lot of ProfiledCalls that are rarely active, or active only during short period of time
+        // during application startup or first launch of long running tasks.
+        // Removing empty aggregates reduce amount of memory consumed by profiler in this cases.
+        //
+        // ProfiledCall or ProfiledCallFactory could already hold reference to removed aggregate
+        // and record events into it after removal.
+        // Evicted aggregate forwards such events to a new aggregate of the same identity,
+        // events that were recorded before writer noticed eviction are handed over to the new aggregate.
+        // So no events are lost and next report will contain them.
+
+        boolean noActiveCalls = callAggregate.activeCallsCount() == 0;
+        boolean noCallsBetweenPreviousAndCurrentDrain = stopSum == 0;
+        // activity is known with precision of reporting period that is much shorter than stale timeout
+        long lastActivityTimestamp = callAggregate.lastActivityTimestamp;
+        boolean wasAccessedAtLeastOnce = lastActivityTimestamp != 0;
+        boolean noCallsForALongTime = (timestamp - lastActivityTimestamp) >=
+                staleTimeoutAfterWhichProfiledCallAggregatedWillBeRemoved.get();
+
+        if (noActiveCalls &&
+                noCallsBetweenPreviousAndCurrentDrain &&
+                wasAccessedAtLeastOnce &&
+                noCallsForALongTime) {
+
+            // aggregate is removed from map first, so resolver creates new aggregate for late writers
+            aggregates.remove(callAggregate.callIdentity, callAggregate);
+            if (callAggregate.cardinalitySlots != null) {
+                cardinalityGuard.release(callAggregate.cardinalitySlots);
+            }
+            callAggregate.evict(this::resolve);
+        }
+    }
+}
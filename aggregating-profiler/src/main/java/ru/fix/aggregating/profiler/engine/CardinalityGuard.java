@@ -0,0 +1,302 @@
+package ru.fix.aggregating.profiler.engine;
+
+import ru.fix.aggregating.profiler.Identity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits number of aggregates of identities with the same name or with the same name prefix.
+ * <p>
+ * Tag with unbounded set of values, e.g. request id, creates new aggregate for each value.
+ * When limit of the name or of the prefix is reached,
+ * new identities are recorded into single overflow aggregate of the limit instead.
+ * <p>
+ * Guard is consulted only when store does not have aggregate of the identity yet,
+ * recording into existing aggregates is not affected.
+ * Rejected identities are remembered, so further events of rejected identity
+ * are redirected to overflow aggregate without checking limits again.
+ * Remembered rejections of a limit are forgotten when the limit changes or its slot is released,
+ * least recently used rejections are forgotten when number of remembered rejections reaches its maximum.
+ */
+public class CardinalityGuard {
+
+    /**
+     * Suffix of the name of overflow aggregate, e.g. {@code http.requests.__overflow__}
+     */
+    public static final String OVERFLOW = "__overflow__";
+
+    /**
+     * Maximum number of remembered rejected identities,
+     * least recently used half of remembered identities is forgotten when it is reached
+     */
+    static final int REJECTED_IDENTITIES_CACHE_SIZE = 65_536;
+
+    private static final AtomicInteger[] NO_COUNTS = new AtomicInteger[0];
+
+    private volatile int defaultNameLimit = Integer.MAX_VALUE;
+    private final Map<String, Integer> nameLimits = new ConcurrentHashMap<>();
+    private final Map<String, Integer> prefixLimits = new ConcurrentHashMap<>();
+
+    /**
+     * Number of aggregates of names and prefixes that have limit
+     */
+    private final Map<String, LimitCount> nameCounts = new ConcurrentHashMap<>();
+    private final Map<String, LimitCount> prefixCounts = new ConcurrentHashMap<>();
+
+    private final LongAdder rejectedCount = new LongAdder();
+
+    /**
+     * Rejections of each exceeded limit share single instance of overflow identity
+     */
+    private final Map<String, Overflow> rejections = new ConcurrentHashMap<>();
+
+    /**
+     * Rejections of identities, valid while epoch of the overflow of the limit does not change
+     */
+    private final Map<Identity, RejectedIdentity> rejectedIdentities = new ConcurrentHashMap<>();
+
+    /**
+     * Incremented by each remembered rejection, used as access time of remembered rejections
+     */
+    private final AtomicLong rejectionTick = new AtomicLong();
+
+    public void setDefaultNameLimit(int limit) {
+        this.defaultNameLimit = limit;
+        // default limit applies to all names without own limit
+        rejectedIdentities.clear();
+    }
+
+    public int getDefaultNameLimit() {
+        return defaultNameLimit;
+    }
+
+    public void setNameLimit(String name, int limit) {
+        nameLimits.put(name, limit);
+        forgetRejections(name);
+    }
+
+    public void removeNameLimit(String name) {
+        nameLimits.remove(name);
+        forgetRejections(name);
+    }
+
+    /**
+     * @param prefix limit applies to identities with the name equal to prefix or starting with prefix and dot
+     */
+    public void setPrefixLimit(String prefix, int limit) {
+        prefixLimits.put(prefix, limit);
+        forgetRejections(prefix);
+    }
+
+    public void removePrefixLimit(String prefix) {
+        prefixLimits.remove(prefix);
+        forgetRejections(prefix);
+    }
+
+    /**
+     * Number of distinct identities redirected to overflow aggregate.
+     * Identity is counted again if it is rejected after remembered rejections were forgotten.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    /**
+     * Takes slot in each limit that applies to the identity.
+     * If any limit is exceeded, slots that were already taken are returned
+     * and identity should be recorded into overflow aggregate of the exceeded limit.
+     */
+    Admission admit(Identity identity) {
+        String name = identity.getName();
+        if (name == null) {
+            return Admission.UNGUARDED;
+        }
+
+        RejectedIdentity rejected = rejectedIdentities.get(identity);
+        if (rejected != null) {
+            if (rejected.isValid()) {
+                rejected.touch(rejectionTick.get());
+                return rejected.overflow.admission;
+            }
+            rejectedIdentities.remove(identity, rejected);
+        }
+
+        List<AtomicInteger> acquired = null;
+
+        int nameLimit = nameLimits.getOrDefault(name, defaultNameLimit);
+        if (nameLimit != Integer.MAX_VALUE) {
+            AtomicInteger count = nameCounts.computeIfAbsent(name, LimitCount::new);
+            if (count.incrementAndGet() > nameLimit) {
+                count.decrementAndGet();
+                return reject(identity, name);
+            }
+            acquired = new ArrayList<>(2);
+            acquired.add(count);
+        }
+
+        for (Map.Entry<String, Integer> prefixLimit : prefixLimits.entrySet()) {
+            String prefix = prefixLimit.getKey();
+            if (!hasPrefix(name, prefix)) {
+                continue;
+            }
+            AtomicInteger count = prefixCounts.computeIfAbsent(prefix, LimitCount::new);
+            if (count.incrementAndGet() > prefixLimit.getValue()) {
+                count.decrementAndGet();
+                if (acquired != null) {
+                    release(acquired.toArray(NO_COUNTS));
+                }
+                return reject(identity, prefix);
+            }
+            if (acquired == null) {
+                acquired = new ArrayList<>(1);
+            }
+            acquired.add(count);
+        }
+
+        return acquired != null ? new Admission(acquired.toArray(NO_COUNTS), null) : Admission.UNGUARDED;
+    }
+
+    /**
+     * @param limitKey name or prefix of exceeded limit
+     */
+    private Admission reject(Identity identity, String limitKey) {
+        Overflow overflow = rejections.computeIfAbsent(limitKey, Overflow::new);
+        if (rejectedIdentities.size() >= REJECTED_IDENTITIES_CACHE_SIZE) {
+            forgetLeastRecentlyUsedRejections();
+        }
+        RejectedIdentity rejected = new RejectedIdentity(overflow, rejectionTick.incrementAndGet());
+        RejectedIdentity previous = rejectedIdentities.put(identity, rejected);
+        if (previous == null || !previous.isValid()) {
+            rejectedCount.increment();
+        }
+        return overflow.admission;
+    }
+
+    /**
+     * Forgets remembered rejections by the limit, other remembered rejections stay valid
+     *
+     * @param limitKey name or prefix of the limit
+     */
+    private void forgetRejections(String limitKey) {
+        Overflow overflow = rejections.get(limitKey);
+        if (overflow != null) {
+            overflow.epoch.incrementAndGet();
+        }
+    }
+
+    /**
+     * Forgets rejections that are no longer valid and rejections that were not used recently,
+     * window of recent use is halved until at least half of remembered rejections is forgotten
+     */
+    private synchronized void forgetLeastRecentlyUsedRejections() {
+        if (rejectedIdentities.size() < REJECTED_IDENTITIES_CACHE_SIZE) {
+            // forgotten by concurrent rejection
+            return;
+        }
+        long currentTick = rejectionTick.get();
+        long window = REJECTED_IDENTITIES_CACHE_SIZE;
+        do {
+            window /= 2;
+            long lastUsedTick = currentTick - window;
+            rejectedIdentities.values().removeIf(rejected -> !rejected.isValid() || rejected.lastAccess < lastUsedTick);
+        } while (window > 0 && rejectedIdentities.size() > REJECTED_IDENTITIES_CACHE_SIZE / 2);
+    }
+
+    /**
+     * Returns slots of limits, so remembered rejected identities of these limits are admitted again
+     * if they fit into limits. Remembered rejections by other limits are kept.
+     */
+    void release(AtomicInteger[] acquired) {
+        for (AtomicInteger count : acquired) {
+            count.decrementAndGet();
+            forgetRejections(((LimitCount) count).limitKey);
+        }
+    }
+
+    private static boolean hasPrefix(String name, String prefix) {
+        return name.startsWith(prefix) &&
+                (name.length() == prefix.length() || name.charAt(prefix.length()) == '.');
+    }
+
+    /**
+     * Number of aggregates of the limit
+     */
+    private static final class LimitCount extends AtomicInteger {
+        /**
+         * Name or prefix of the limit
+         */
+        final String limitKey;
+
+        LimitCount(String limitKey) {
+            this.limitKey = limitKey;
+        }
+    }
+
+    /**
+     * Overflow aggregate of exceeded limit
+     */
+    private static final class Overflow {
+        final Admission admission;
+
+        /**
+         * Changed when remembered rejections by the limit should be forgotten
+         */
+        final AtomicInteger epoch = new AtomicInteger();
+
+        Overflow(String limitKey) {
+            this.admission = new Admission(NO_COUNTS, new Identity(limitKey + "." + OVERFLOW));
+        }
+    }
+
+    private static final class RejectedIdentity {
+        final Overflow overflow;
+        final int epoch;
+
+        /**
+         * Value of {@link #rejectionTick} when rejection was used last time
+         */
+        volatile long lastAccess;
+
+        RejectedIdentity(Overflow overflow, long lastAccess) {
+            this.overflow = overflow;
+            this.epoch = overflow.epoch.get();
+            this.lastAccess = lastAccess;
+        }
+
+        boolean isValid() {
+            return epoch == overflow.epoch.get();
+        }
+
+        void touch(long currentTick) {
+            // rejection of frequently recorded identity is not written on each event
+            if (lastAccess != currentTick) {
+                lastAccess = currentTick;
+            }
+        }
+    }
+
+    static final class Admission {
+        static final Admission UNGUARDED = new Admission(NO_COUNTS, null);
+
+        /**
+         * Slots of limits taken by admitted identity
+         */
+        final AtomicInteger[] acquired;
+
+        /**
+         * Not null if identity is rejected: name of exceeded limit with {@link #OVERFLOW} suffix and without tags
+         */
+        final Identity overflowIdentity;
+
+        Admission(AtomicInteger[] acquired, Identity overflowIdentity) {
+            this.acquired = acquired;
+            this.overflowIdentity = overflowIdentity;
+        }
+    }
+}
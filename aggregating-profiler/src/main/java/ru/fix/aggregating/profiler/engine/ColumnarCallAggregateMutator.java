@@ -0,0 +1,106 @@
+package ru.fix.aggregating.profiler.engine;
+
+import ru.fix.aggregating.profiler.Identity;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Mutator that records events into rows of {@link ColumnarCallAggregateStore}.
+ * Mutator bound to identity resolves row of the identity once and caches it,
+ * unbound mutator resolves row on each event and serves profiled calls of all identities.
+ * Events are not recorded while profiler does not have registered reporters.
+ * <p>
+ * Columnar rows are not {@link CallAggregate}s, so {@link #updateAggregate(Identity, Consumer)} is not supported.
+ */
+public class ColumnarCallAggregateMutator implements CallAggregateMutator {
+
+    private static final int UNRESOLVED = -1;
+
+    private final CallAggregateStore callAggregates;
+    private final ColumnarCallAggregateStore store;
+
+    /**
+     * Null if mutator is not bound to identity
+     */
+    private final Identity identity;
+
+    private volatile int row = UNRESOLVED;
+
+    public ColumnarCallAggregateMutator(CallAggregateStore callAggregates) {
+        this(null, callAggregates);
+    }
+
+    public ColumnarCallAggregateMutator(Identity identity, CallAggregateStore callAggregates) {
+        this.identity = identity;
+        this.callAggregates = callAggregates;
+        this.store = callAggregates.getColumnarStore();
+    }
+
+    @Override
+    public void updateAggregate(Identity profiledCallName, Consumer<CallAggregate> updateAction) {
+        throw new UnsupportedOperationException("Columnar storage does not keep aggregate of " + profiledCallName);
+    }
+
+    @Override
+    public void call(Identity profiledCallName, long currentTimestamp, long latency, double payload) {
+        if (callAggregates.hasReporters()) {
+            store.call(resolveRow(profiledCallName), latency, payload);
+        }
+    }
+
+    @Override
+    public void call(Identity profiledCallName, long currentTimestamp, long count, long latencySum, double payloadSum) {
+        if (callAggregates.hasReporters()) {
+            store.call(resolveRow(profiledCallName), count, latencySum, payloadSum);
+        }
+    }
+
+    @Override
+    public void recordLatencies(Identity profiledCallName,
+                                long currentTimestamp,
+                                long[] latencies,
+                                int length,
+                                TimeUnit unit) {
+        if (callAggregates.hasReporters()) {
+            store.recordLatencies(resolveRow(profiledCallName), latencies, length, unit);
+        }
+    }
+
+    @Override
+    public void start(Identity profiledCallName, AggregatingCall profiledCall, long currentTimestamp) {
+        if (callAggregates.hasReporters()) {
+            store.start(resolveRow(profiledCallName));
+        }
+    }
+
+    @Override
+    public void stop(Identity profiledCallName,
+                     AggregatingCall profiledCall,
+                     long currentTimestamp,
+                     long latency,
+                     double payload) {
+        if (callAggregates.hasReporters()) {
+            store.stop(resolveRow(profiledCallName), latency, payload);
+        }
+    }
+
+    @Override
+    public void close(Identity profiledCallName, AggregatingCall profiledCall) {
+        if (callAggregates.hasReporters()) {
+            store.close(resolveRow(profiledCallName));
+        }
+    }
+
+    private int resolveRow(Identity profiledCallName) {
+        if (identity == null) {
+            return store.resolve(profiledCallName);
+        }
+        int current = row;
+        if (current == UNRESOLVED) {
+            current = store.resolve(identity);
+            row = current;
+        }
+        return current;
+    }
+}
@@ -0,0 +1,212 @@
+package ru.fix.aggregating.profiler.engine;
+
+import ru.fix.aggregating.profiler.Identity;
+import ru.fix.aggregating.profiler.PercentileSettings;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static ru.fix.aggregating.profiler.engine.ColumnarSlab.ROW_MASK;
+import static ru.fix.aggregating.profiler.engine.ColumnarSlab.SHIFT;
+
+/**
+ * Storage engine that keeps aggregates of all identities in {@link ColumnarSlab}s of primitive columns
+ * instead of graph of objects per identity.
+ * Identity is mapped to int row once, writers cache row and update cells of the row.
+ * Reporters drain rows sequentially into their {@link ColumnarPendingAggregates}.
+ * <p>
+ * Designed for hundreds of thousands of identities:
+ * aggregate takes few cells in shared arrays, so footprint and GC marking time do not grow
+ * with number of objects per identity.
+ * In return engine does not track latency of the longest active call and throughput per second,
+ * does not support latency sampling and thread-local aggregation.
+ * Counters of the row are drained one by one, so event that is recorded during drain
+ * could be split between two consecutive reports.
+ * <p>
+ * Rows are never removed or reused, so cached rows of writers are always valid.
+ * Rows of stale identities are not reported, use {@link CardinalityGuard} to bound number of rows.
+ */
+public class ColumnarCallAggregateStore {
+
+    private final Map<Identity, Integer> rows = new ConcurrentHashMap<>();
+
+    private volatile ColumnarSlab[] slabs = new ColumnarSlab[0];
+
+    /**
+     * Written after slab of the new row is published
+     */
+    private volatile int rowCount;
+
+    /**
+     * Maps latencies to buckets of the rows, never accumulates latencies itself
+     */
+    private final LatencyHistogram bucketIndexer;
+
+    private final PercentileSettings percentileSettings;
+    private final TimeUnit latencyUnit;
+    private final CardinalityGuard cardinalityGuard;
+
+    /**
+     * Reused for each drained row, accessed under monitor of {@link CallAggregateStore}
+     */
+    private final ColumnarRow drainedRow;
+
+    public ColumnarCallAggregateStore(PercentileSettings percentileSettings,
+                                      TimeUnit latencyUnit,
+                                      CardinalityGuard cardinalityGuard) {
+        this.percentileSettings = percentileSettings;
+        this.latencyUnit = latencyUnit;
+        this.cardinalityGuard = cardinalityGuard;
+        this.bucketIndexer = percentileSettings.getHistogramFactory().create(percentileSettings, latencyUnit);
+        this.drainedRow = new ColumnarRow(bucketIndexer.bucketIndexCount());
+    }
+
+    /**
+     * @return row of given identity, allocates new row if store does not have it yet
+     */
+    public int resolve(Identity identity) {
+        Integer existing = rows.get(identity);
+        if (existing != null) {
+            return existing;
+        }
+
+        CardinalityGuard.Admission admission = cardinalityGuard.admit(identity);
+        if (admission.overflowIdentity != null) {
+            return rows.computeIfAbsent(admission.overflowIdentity, this::allocateRow);
+        }
+
+        boolean[] allocated = new boolean[1];
+        int row = rows.computeIfAbsent(identity, key -> {
+            allocated[0] = true;
+            return allocateRow(key);
+        });
+        if (!allocated[0]) {
+            // other writer allocated row of the same identity concurrently
+            cardinalityGuard.release(admission.acquired);
+        }
+        return row;
+    }
+
+    private synchronized int allocateRow(Identity identity) {
+        int row = rowCount;
+        int slabIndex = row >>> SHIFT;
+        if (slabIndex == slabs.length) {
+            ColumnarSlab[] grown = Arrays.copyOf(slabs, slabIndex + 1);
+            grown[slabIndex] = new ColumnarSlab(bucketIndexer.bucketIndexCount());
+            slabs = grown;
+        }
+        slabs[slabIndex].identities[row & ROW_MASK] = identity;
+        rowCount = row + 1;
+        return row;
+    }
+
+    private ColumnarSlab slab(int row) {
+        return slabs[row >>> SHIFT];
+    }
+
+    /**
+     * @return bucket of latency, zero for call without latency that does not get into percentiles
+     */
+    private int bucketIndex(long latency) {
+        return AggregateGeneration.hasLatency(latency) ? bucketIndexer.bucketIndex(latency) : 0;
+    }
+
+    public void call(int row, long latency, double payload) {
+        ColumnarSlab slab = slab(row);
+        slab.start(row & ROW_MASK);
+        slab.stop(row & ROW_MASK, bucketIndex(latency), latency, payload);
+    }
+
+    /**
+     * @see CallAggregate#call(long, long, long, double)
+     */
+    public void call(int row, long count, long latencySum, double payloadSum) {
+        if (count <= 0) {
+            return;
+        }
+        latencySum = Math.max(0, latencySum);
+        // batch is measured if it has latency sum, its average latency could be truncated to zero
+        long latency = latencySum > 0 ? latencySum / count : CallAggregate.NO_LATENCY;
+
+        slab(row).call(row & ROW_MASK, count, bucketIndex(latency), latency, latencySum, payloadSum / count, payloadSum);
+    }
+
+    /**
+     * @see CallAggregate#recordLatencies(long, long[], int, TimeUnit)
+     */
+    public void recordLatencies(int row, long[] latencies, int length, TimeUnit unit) {
+        ColumnarSlab slab = slab(row);
+        for (int i = 0; i < length; i++) {
+            long latency = Math.max(0, latencyUnit.convert(latencies[i], unit));
+            slab.start(row & ROW_MASK);
+            slab.stop(row & ROW_MASK, bucketIndex(latency), latency, 0);
+        }
+    }
+
+    public void start(int row) {
+        ColumnarSlab slab = slab(row);
+        slab.start(row & ROW_MASK);
+        slab.addActiveCalls(row & ROW_MASK, 1);
+    }
+
+    public void stop(int row, long latency, double payload) {
+        ColumnarSlab slab = slab(row);
+        slab.stop(row & ROW_MASK, bucketIndex(latency), latency, payload);
+        slab.addActiveCalls(row & ROW_MASK, -1);
+    }
+
+    public void close(int row) {
+        slab(row).addActiveCalls(row & ROW_MASK, -1);
+    }
+
+    /**
+     * Moves events of all rows into each of given pending aggregates.
+     * Invoked under monitor of {@link CallAggregateStore}.
+     */
+    void drainInto(long timestamp, ColumnarPendingAggregates... targets) {
+        int count = rowCount;
+        ColumnarSlab[] currentSlabs = slabs;
+        for (int row = 0; row < count; row++) {
+            ColumnarSlab slab = currentSlabs[row >>> SHIFT];
+            if (slab.drainInto(row & ROW_MASK, drainedRow)) {
+                slab.lastActivityTimestamps[row & ROW_MASK] = timestamp;
+                for (ColumnarPendingAggregates target : targets) {
+                    target.accumulate(row, drainedRow);
+                }
+            }
+        }
+    }
+
+    int rowCount() {
+        return rowCount;
+    }
+
+    Identity identity(int row) {
+        return slab(row).identities[row & ROW_MASK];
+    }
+
+    long activeCallsCount(int row) {
+        return slab(row).counters.sum(ColumnarSlab.ACTIVE_CALLS * ColumnarSlab.ROWS + (row & ROW_MASK));
+    }
+
+    /**
+     * Accessed under monitor of {@link CallAggregateStore}
+     */
+    long lastActivityTimestamp(int row) {
+        return slab(row).lastActivityTimestamps[row & ROW_MASK];
+    }
+
+    LatencyHistogram bucketIndexer() {
+        return bucketIndexer;
+    }
+
+    PercentileSettings percentileSettings() {
+        return percentileSettings;
+    }
+
+    TimeUnit latencyUnit() {
+        return latencyUnit;
+    }
+}
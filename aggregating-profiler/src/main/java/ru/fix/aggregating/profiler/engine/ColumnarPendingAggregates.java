@@ -0,0 +1,274 @@
+package ru.fix.aggregating.profiler.engine;
+
+import ru.fix.aggregating.profiler.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import static ru.fix.aggregating.profiler.engine.ColumnarSlab.ROWS;
+import static ru.fix.aggregating.profiler.engine.ColumnarSlab.ROW_MASK;
+import static ru.fix.aggregating.profiler.engine.ColumnarSlab.SHIFT;
+
+/**
+ * Events of rows of {@link ColumnarCallAggregateStore} that were drained but are not reported by the reporter yet.
+ * Same role as {@link PendingCallAggregate}s of the reporter, but kept in plain primitive columns
+ * indexed by row of the store, so building report walks arrays sequentially.
+ * <p>
+ * Accessed under monitor of {@link CallAggregateStore}.
+ */
+public class ColumnarPendingAggregates {
+
+    private static final class PendingSlab {
+        final long[] startSum = new long[ROWS];
+        final long[] stopSum = new long[ROWS];
+        final long[] latencySum = new long[ROWS];
+        final long[] latencyMin = new long[ROWS];
+        final long[] latencyMax = new long[ROWS];
+        final double[] payloadSum = new double[ROWS];
+        final double[] payloadMin = new double[ROWS];
+        final double[] payloadMax = new double[ROWS];
+
+        /**
+         * Bucket count of the row is at {@code bucketIndex * ROWS + row}
+         */
+        final long[] latencyBuckets;
+
+        /**
+         * Labels of the row built by label sticker of the reporter, built when filter needs them
+         */
+        final List<Map<String, String>> autoLabels = new ArrayList<>(Collections.nCopies(ROWS, null));
+
+        PendingSlab(int bucketIndexCount) {
+            latencyBuckets = new long[bucketIndexCount * ROWS];
+            resetValues();
+        }
+
+        void resetValues() {
+            Arrays.fill(latencyMin, ColumnarSlab.LATENCY_MIN_INITIAL);
+            Arrays.fill(payloadMin, Double.longBitsToDouble(ColumnarSlab.PAYLOAD_MIN_INITIAL));
+        }
+    }
+
+    private final ColumnarCallAggregateStore store;
+    private final int bucketIndexCount;
+
+    /**
+     * Histogram that builds percentiles of single row from its bucket counts
+     */
+    private final LatencyHistogram percentileBuilder;
+
+    private PendingSlab[] slabs = new PendingSlab[0];
+
+    public ColumnarPendingAggregates(ColumnarCallAggregateStore store) {
+        this.store = store;
+        this.bucketIndexCount = store.bucketIndexer().bucketIndexCount();
+        this.percentileBuilder = store.percentileSettings().getHistogramFactory()
+                .create(store.percentileSettings(), store.latencyUnit());
+    }
+
+    private PendingSlab slab(int row) {
+        int slabIndex = row >>> SHIFT;
+        if (slabIndex >= slabs.length) {
+            int length = slabs.length;
+            slabs = Arrays.copyOf(slabs, slabIndex + 1);
+            for (int i = length; i < slabs.length; i++) {
+                slabs[i] = new PendingSlab(bucketIndexCount);
+            }
+        }
+        return slabs[slabIndex];
+    }
+
+    void accumulate(int row, ColumnarRow drained) {
+        PendingSlab slab = slab(row);
+        int r = row & ROW_MASK;
+
+        slab.startSum[r] += drained.startSum;
+        if (drained.stopSum == 0) {
+            return;
+        }
+        slab.stopSum[r] += drained.stopSum;
+        slab.latencySum[r] += drained.latencySum;
+        slab.latencyMin[r] = Math.min(slab.latencyMin[r], drained.latencyMin);
+        slab.latencyMax[r] = Math.max(slab.latencyMax[r], drained.latencyMax);
+        slab.payloadSum[r] += drained.payloadSum;
+        slab.payloadMin[r] = Math.min(slab.payloadMin[r], drained.payloadMin);
+        slab.payloadMax[r] = Math.max(slab.payloadMax[r], drained.payloadMax);
+
+        long[] bucketCounts = drained.latencyBucketCounts;
+        for (int bucketIndex = 0; bucketIndex < bucketCounts.length; bucketIndex++) {
+            slab.latencyBuckets[bucketIndex * ROWS + r] += bucketCounts[bucketIndex];
+        }
+    }
+
+    /**
+     * Rebuilds labels of all rows with new label sticker on next filtered report
+     */
+    void resetAutoLabels() {
+        for (PendingSlab slab : slabs) {
+            Collections.fill(slab.autoLabels, null);
+        }
+    }
+
+    private boolean isFiltered(int row, Identity identity,
+                               Optional<ReportFilter> reportFilter, LabelSticker labelSticker) {
+        if (!reportFilter.isPresent()) {
+            return false;
+        }
+        PendingSlab slab = slab(row);
+        Map<String, String> labels = slab.autoLabels.get(row & ROW_MASK);
+        if (labels == null) {
+            labels = labelSticker.buildLabels(identity.getName());
+            slab.autoLabels.set(row & ROW_MASK, labels);
+        }
+        return !reportFilter.get().filter(identity, labels);
+    }
+
+    /**
+     * Passes reports of rows that have pending events or were active within stale timeout to the consumer.
+     * Pending events of reported rows are reset.
+     */
+    void buildReportsAndReset(long elapsed,
+                              long timestamp,
+                              long staleTimeout,
+                              Optional<ReportFilter> reportFilter,
+                              LabelSticker labelSticker,
+                              Consumer<ProfiledCallReport> reports) {
+        buildReportsAndReset(0, Integer.MAX_VALUE, elapsed, timestamp, staleTimeout, reportFilter, labelSticker, reports);
+    }
+
+    /**
+     * Same as {@link #buildReportsAndReset(long, long, long, Optional, LabelSticker, Consumer)}
+     * for rows starting from given one, stops after given number of reports
+     *
+     * @return row to continue from, -1 if all rows are reported
+     */
+    int buildReportsAndReset(int fromRow,
+                             int maxReports,
+                             long elapsed,
+                             long timestamp,
+                             long staleTimeout,
+                             Optional<ReportFilter> reportFilter,
+                             LabelSticker labelSticker,
+                             Consumer<ProfiledCallReport> reports) {
+        int rowCount = store.rowCount();
+        int reportCount = 0;
+        for (int row = fromRow; row < rowCount; row++) {
+            if (reportCount == maxReports) {
+                return row;
+            }
+            PendingSlab slab = slab(row);
+            int r = row & ROW_MASK;
+
+            long lastActivityTimestamp = store.lastActivityTimestamp(row);
+            if (lastActivityTimestamp == 0) {
+                // row was allocated but events of the row were not drained yet
+                continue;
+            }
+            long startSum = slab.startSum[r];
+            long stopSum = slab.stopSum[r];
+            if (startSum == 0 && stopSum == 0 && timestamp - lastActivityTimestamp >= staleTimeout) {
+                continue;
+            }
+
+            Identity identity = store.identity(row);
+            if (isFiltered(row, identity, reportFilter, labelSticker)) {
+                continue;
+            }
+
+            slab.startSum[r] = 0;
+            ProfiledCallReport report = new ProfiledCallReport(identity)
+                    .setReportingTimeAvg(elapsed)
+                    .setLatencyUnit(store.latencyUnit())
+                    .setStartSum(startSum)
+                    .setStartThroughputAvg(elapsed != 0 ? ((double) startSum * 1000) / elapsed : 0)
+                    .setActiveCallsCountMax(store.activeCallsCount(row));
+
+            reportCount++;
+            if (stopSum == 0) {
+                reports.accept(report);
+                continue;
+            }
+
+            for (int bucketIndex = 0; bucketIndex < bucketIndexCount; bucketIndex++) {
+                int index = bucketIndex * ROWS + r;
+                if (slab.latencyBuckets[index] != 0) {
+                    percentileBuilder.accumulateBucket(bucketIndex, slab.latencyBuckets[index]);
+                    slab.latencyBuckets[index] = 0;
+                }
+            }
+
+            long latencyMax = slab.latencyMax[r];
+            double payloadSum = slab.payloadSum[r];
+            report.setLatencyMin(slab.latencyMin[r])
+                    .setLatencyMax(latencyMax)
+                    .setLatencyAvg(slab.latencySum[r] / stopSum)
+                    .setLatencyPercentile(percentileBuilder.buildAndReset(latencyMax))
+
+                    .setPayloadMin(slab.payloadMin[r])
+                    .setPayloadMax(slab.payloadMax[r])
+                    .setPayloadSum(payloadSum)
+                    .setPayloadAvg(payloadSum / stopSum)
+                    .setPayloadThroughputAvg(elapsed != 0 ? (payloadSum * 1000) / elapsed : 0)
+
+                    .setStopSum(stopSum)
+                    .setStopThroughputAvg(elapsed != 0 ? ((double) stopSum * 1000) / elapsed : 0);
+
+            slab.stopSum[r] = 0;
+            slab.latencySum[r] = 0;
+            slab.latencyMin[r] = ColumnarSlab.LATENCY_MIN_INITIAL;
+            slab.latencyMax[r] = 0;
+            slab.payloadSum[r] = 0;
+            slab.payloadMin[r] = Double.longBitsToDouble(ColumnarSlab.PAYLOAD_MIN_INITIAL);
+            slab.payloadMax[r] = 0;
+
+            reports.accept(report);
+        }
+        return -1;
+    }
+
+    /**
+     * Adds reports of totals of all rows that ever had events, totals are not reset.
+     *
+     * @see CumulativeCallAggregate#buildReport(long[], long)
+     */
+    void buildCumulativeReports(long[] latencyBucketLevels,
+                                Optional<ReportFilter> reportFilter,
+                                LabelSticker labelSticker,
+                                List<CumulativeCallReport> reports) {
+        int rowCount = store.rowCount();
+        for (int row = 0; row < rowCount; row++) {
+            PendingSlab slab = slab(row);
+            int r = row & ROW_MASK;
+
+            if (store.lastActivityTimestamp(row) == 0) {
+                continue;
+            }
+            Identity identity = store.identity(row);
+            if (isFiltered(row, identity, reportFilter, labelSticker)) {
+                continue;
+            }
+
+            long[] counts = new long[latencyBucketLevels.length];
+            long latencyCount = CumulativeCallAggregate.countLatencyLevels(
+                    store.bucketIndexer(),
+                    bucketIndex -> slab.latencyBuckets[bucketIndex * ROWS + r],
+                    latencyBucketLevels,
+                    counts);
+
+            reports.add(new CumulativeCallReport(identity)
+                    .setLatencyUnit(store.latencyUnit())
+                    .setStartSum(slab.startSum[r])
+                    .setStopSum(slab.stopSum[r])
+                    .setPayloadSum(slab.payloadSum[r])
+                    .setLatencySum(slab.latencySum[r])
+                    .setLatencyCount(latencyCount)
+                    .setLatencyBuckets(latencyBucketLevels.clone(), counts)
+                    .setActiveCallsCount(store.activeCallsCount(row)));
+        }
+    }
+}
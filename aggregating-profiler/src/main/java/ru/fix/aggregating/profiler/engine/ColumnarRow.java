@@ -0,0 +1,25 @@
+package ru.fix.aggregating.profiler.engine;
+
+/**
+ * Counters of single row drained from {@link ColumnarSlab}.
+ * Single instance is reused for all rows during drain.
+ */
+final class ColumnarRow {
+    long startSum;
+    long stopSum;
+    long activeCallsCount;
+
+    long latencySum;
+    long latencyMin;
+    long latencyMax;
+
+    double payloadSum;
+    double payloadMin;
+    double payloadMax;
+
+    final long[] latencyBucketCounts;
+
+    ColumnarRow(int bucketIndexCount) {
+        this.latencyBucketCounts = new long[bucketIndexCount];
+    }
+}
@@ -0,0 +1,179 @@
+package ru.fix.aggregating.profiler.engine;
+
+import ru.fix.aggregating.profiler.Identity;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters of {@link #ROWS} identities of {@link ColumnarCallAggregateStore} kept as struct of arrays.
+ * Each metric is a column of primitive cells, cell of the row is at {@code column * ROWS + row}.
+ * <p>
+ * Additive counters and histogram buckets are {@link StripedLongArray}s, so concurrent updates of the same row
+ * are spread between stripes. Minimums and maximums are updated by compare and set only when value improves.
+ * Payload sum is kept as bits of double and updated by compare and set.
+ */
+final class ColumnarSlab {
+
+    static final int SHIFT = 10;
+    static final int ROWS = 1 << SHIFT;
+    static final int ROW_MASK = ROWS - 1;
+
+    static final int START_SUM = 0;
+    static final int STOP_SUM = 1;
+    static final int LATENCY_SUM = 2;
+    static final int ACTIVE_CALLS = 3;
+    static final int COUNTERS = 4;
+
+    static final int LATENCY_MIN = 0;
+    static final int LATENCY_MAX = 1;
+    static final int PAYLOAD_MIN = 2;
+    static final int PAYLOAD_MAX = 3;
+    static final int PAYLOAD_SUM = 4;
+    static final int VALUES = 5;
+
+    static final long LATENCY_MIN_INITIAL = Long.MAX_VALUE;
+    static final long PAYLOAD_MIN_INITIAL = Double.doubleToRawLongBits(Long.MAX_VALUE);
+    static final long ZERO_BITS = Double.doubleToRawLongBits(0);
+
+    final StripedLongArray counters = new StripedLongArray(COUNTERS * ROWS);
+    final AtomicLongArray values = new AtomicLongArray(VALUES * ROWS);
+    final StripedLongArray latencyBuckets;
+
+    /**
+     * Identity of each row, written before row becomes visible to writers and reporters
+     */
+    final Identity[] identities = new Identity[ROWS];
+
+    /**
+     * Time of the last drain that found events or active calls in the row, 0 if there was no such drain.
+     * Accessed under monitor of {@link CallAggregateStore}.
+     */
+    final long[] lastActivityTimestamps = new long[ROWS];
+
+    ColumnarSlab(int bucketIndexCount) {
+        this.latencyBuckets = new StripedLongArray(bucketIndexCount * ROWS);
+        for (int row = 0; row < ROWS; row++) {
+            values.set(LATENCY_MIN * ROWS + row, LATENCY_MIN_INITIAL);
+            values.set(PAYLOAD_MIN * ROWS + row, PAYLOAD_MIN_INITIAL);
+        }
+    }
+
+    /**
+     * Moves counters of the row into given row values, active calls count is read without reset.
+     * Histogram buckets are drained only if row has stopped calls.
+     *
+     * @return false if row does not have events and active calls
+     */
+    boolean drainInto(int row, ColumnarRow drained) {
+        drained.startSum = counters.sumThenReset(START_SUM * ROWS + row);
+        drained.stopSum = counters.sumThenReset(STOP_SUM * ROWS + row);
+        drained.activeCallsCount = counters.sum(ACTIVE_CALLS * ROWS + row);
+        if (drained.startSum == 0 && drained.stopSum == 0) {
+            return drained.activeCallsCount != 0;
+        }
+
+        drained.latencySum = counters.sumThenReset(LATENCY_SUM * ROWS + row);
+        drained.latencyMin = values.getAndSet(LATENCY_MIN * ROWS + row, LATENCY_MIN_INITIAL);
+        drained.latencyMax = values.getAndSet(LATENCY_MAX * ROWS + row, 0);
+        drained.payloadSum = Double.longBitsToDouble(values.getAndSet(PAYLOAD_SUM * ROWS + row, ZERO_BITS));
+        drained.payloadMin = Double.longBitsToDouble(values.getAndSet(PAYLOAD_MIN * ROWS + row, PAYLOAD_MIN_INITIAL));
+        drained.payloadMax = Double.longBitsToDouble(values.getAndSet(PAYLOAD_MAX * ROWS + row, ZERO_BITS));
+
+        long[] bucketCounts = drained.latencyBucketCounts;
+        if (drained.stopSum != 0) {
+            for (int bucketIndex = 0; bucketIndex < bucketCounts.length; bucketIndex++) {
+                bucketCounts[bucketIndex] = latencyBuckets.sumThenReset(bucketIndex * ROWS + row);
+            }
+        } else {
+            Arrays.fill(bucketCounts, 0);
+        }
+        return true;
+    }
+
+    void start(int row) {
+        counters.increment(START_SUM * ROWS + row);
+    }
+
+    /**
+     * Same rules as {@link AggregateGeneration#recordStop(long, double)},
+     * calls without latency or payload lower min columns to zero directly
+     */
+    void stop(int row, int bucketIndex, long latency, double payload) {
+        counters.increment(STOP_SUM * ROWS + row);
+
+        accumulateMin(LATENCY_MIN * ROWS + row, Math.max(0, latency));
+        if (AggregateGeneration.hasLatency(latency)) {
+            counters.add(LATENCY_SUM * ROWS + row, latency);
+            accumulateMax(LATENCY_MAX * ROWS + row, latency);
+            latencyBuckets.increment(bucketIndex * ROWS + row);
+        }
+
+        accumulatePayload(row, payload, payload);
+    }
+
+    /**
+     * Same rules as {@link AggregateGeneration#recordCalls(long, long, long, double, double)}
+     */
+    void call(int row, long count, int bucketIndex, long latency, long latencySum,
+              double payload, double payloadSum) {
+        counters.add(START_SUM * ROWS + row, count);
+        counters.add(STOP_SUM * ROWS + row, count);
+
+        accumulateMin(LATENCY_MIN * ROWS + row, Math.max(0, latency));
+        if (AggregateGeneration.hasLatency(latency)) {
+            counters.add(LATENCY_SUM * ROWS + row, latencySum);
+            accumulateMax(LATENCY_MAX * ROWS + row, latency);
+            latencyBuckets.add(bucketIndex * ROWS + row, count);
+        }
+
+        accumulatePayload(row, payload, payloadSum);
+    }
+
+    void addActiveCalls(int row, long delta) {
+        counters.add(ACTIVE_CALLS * ROWS + row, delta);
+    }
+
+    private void accumulatePayload(int row, double payload, double payloadSum) {
+        accumulateMinDouble(PAYLOAD_MIN * ROWS + row, Math.max(0, payload));
+        if (AggregateGeneration.hasPayload(payload)) {
+            int sumIndex = PAYLOAD_SUM * ROWS + row;
+            long bits;
+            do {
+                bits = values.get(sumIndex);
+            } while (!values.compareAndSet(sumIndex, bits,
+                    Double.doubleToRawLongBits(Double.longBitsToDouble(bits) + payloadSum)));
+            accumulateMaxDouble(PAYLOAD_MAX * ROWS + row, payload);
+        }
+    }
+
+    private void accumulateMin(int index, long value) {
+        long current = values.get(index);
+        while (value < current && !values.compareAndSet(index, current, value)) {
+            current = values.get(index);
+        }
+    }
+
+    private void accumulateMax(int index, long value) {
+        long current = values.get(index);
+        while (value > current && !values.compareAndSet(index, current, value)) {
+            current = values.get(index);
+        }
+    }
+
+    private void accumulateMinDouble(int index, double value) {
+        long current = values.get(index);
+        while (value < Double.longBitsToDouble(current) &&
+                !values.compareAndSet(index, current, Double.doubleToRawLongBits(value))) {
+            current = values.get(index);
+        }
+    }
+
+    private void accumulateMaxDouble(int index, double value) {
+        long current = values.get(index);
+        while (value > Double.longBitsToDouble(current) &&
+                !values.compareAndSet(index, current, Double.doubleToRawLongBits(value))) {
+            current = values.get(index);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package ru.fix.aggregating.profiler.engine;
+
+import ru.fix.aggregating.profiler.*;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps totals of events drained from {@link CallAggregateStore} since creation of the reporter.
+ * Building report drains shared aggregates, so other reporters are not affected,
+ * and reads totals without reset.
+ * <p>
+ * Totals of identity are kept after shared aggregate of the identity is removed as a stale one,
+ * until they stay unchanged during totals idle timeout, so memory of the reporter is bounded
+ * by identities that were active recently. Expired totals of identity that becomes active again start from zero,
+ * consumers see it as counter reset.
+ */
+public class CumulativeAggregatingReporter implements CumulativeProfilerReporter, RegisteredReporter {
+
+    public static final long DEFAULT_TOTALS_IDLE_TIMEOUT = TimeUnit.HOURS.toMillis(1);
+
+    private static final Comparator<CumulativeCallReport> REPORT_ORDER =
+            Comparator.comparing(report -> report.getIdentity().getName());
+
+    private final Map<Identity, CumulativeCallAggregate> cumulativeCallAggregates = new ConcurrentHashMap<>();
+    private final ColumnarPendingAggregates columnarCallAggregates;
+
+    private final AggregatingProfiler profiler;
+    private final CallAggregateStore callAggregates;
+
+    private final ClosingCallback closingCallback;
+    private final PercentileSettings percentileSettings;
+
+    /**
+     * Milliseconds after which unchanged totals of identity without shared aggregate are removed
+     */
+    private final long totalsIdleTimeout;
+
+    /**
+     * Ascending levels of exported histogram buckets in profiler latency unit
+     */
+    private final long[] latencyBucketLevels;
+
+    private volatile LabelSticker labelSticker;
+
+    public CumulativeAggregatingReporter(AggregatingProfiler profiler,
+                                         CallAggregateStore callAggregates,
+                                         PercentileSettings percentileSettings,
+                                         long totalsIdleTimeout,
+                                         ClosingCallback closingCallback,
+                                         LabelSticker labelSticker) {
+        this.profiler = profiler;
+        this.callAggregates = callAggregates;
+        this.percentileSettings = percentileSettings;
+        this.totalsIdleTimeout = totalsIdleTimeout;
+        this.closingCallback = closingCallback;
+        this.labelSticker = labelSticker;
+        this.columnarCallAggregates = new ColumnarPendingAggregates(callAggregates.getColumnarStore());
+        this.latencyBucketLevels = percentileSettings.getBuckets().stream()
+                .mapToLong(level -> profiler.getLatencyUnit().convert(level, percentileSettings.getUnit()))
+                .sorted()
+                .distinct()
+                .toArray();
+    }
+
+    @Override
+    public void setLabelSticker(LabelSticker labelSticker) {
+        Objects.requireNonNull(labelSticker);
+        this.labelSticker = labelSticker;
+
+        this.cumulativeCallAggregates.forEach((identity, aggregate) ->
+                labelSticker.buildLabels(identity.getName()).forEach(aggregate::setAutoLabel));
+        synchronized (callAggregates) {
+            columnarCallAggregates.resetAutoLabels();
+        }
+
+        profiler.getIndicators().forEach((indicatorIdentity, indicatorProvider) ->
+                labelSticker.buildLabels(indicatorIdentity.getName()).forEach(indicatorProvider::setAutoLabel));
+        profiler.getIndicatorGroups().forEach((prefix, group) ->
+                labelSticker.buildLabels(prefix.getName()).forEach(group::setAutoLabel));
+    }
+
+    @Override
+    public PendingCallAggregate resolvePendingCallAggregate(Identity callIdentity) {
+        CumulativeCallAggregate existing = cumulativeCallAggregates.get(callIdentity);
+        if (existing != null) {
+            return existing;
+        }
+        return cumulativeCallAggregates.computeIfAbsent(
+                callIdentity,
+                key -> {
+                    CumulativeCallAggregate aggregate = new CumulativeCallAggregate(
+                            callIdentity,
+                            percentileSettings,
+                            profiler.getLatencyUnit());
+                    labelSticker.buildLabels(callIdentity.getName()).forEach(aggregate::setAutoLabel);
+                    return aggregate;
+                });
+    }
+
+    /**
+     * Pending events of columnar rows are never reset and serve as totals
+     */
+    @Override
+    public ColumnarPendingAggregates getColumnarPendingAggregates() {
+        return columnarCallAggregates;
+    }
+
+    @Override
+    public CumulativeProfilerReport buildReport() {
+        return buildReport(Optional.empty());
+    }
+
+    @Override
+    public CumulativeProfilerReport buildReport(ReportFilter reportFilter) {
+        return buildReport(Optional.of(reportFilter));
+    }
+
+    private CumulativeProfilerReport buildReport(Optional<ReportFilter> reportFilter) {
+        Map<Identity, Long> indicators = profiler.getIndicatorEvaluator()
+                .evaluate(profiler.getIndicators(), profiler.getIndicatorGroups(), reportFilter, new HashMap<>());
+
+        List<List<CumulativeCallReport>> sortedPartitions;
+
+        synchronized (callAggregates) {
+            long timestamp = profiler.getClock().currentTimeMillis();
+            callAggregates.drain(timestamp);
+            expireIdleTotals(timestamp);
+
+            CumulativeCallAggregate[] cumulative =
+                    cumulativeCallAggregates.values().toArray(new CumulativeCallAggregate[0]);
+
+            sortedPartitions = callAggregates.getReportPartitioner().process(cumulative.length, (from, to) -> {
+                List<CumulativeCallReport> partition = new ArrayList<>(to - from);
+                for (int i = from; i < to; i++) {
+                    CumulativeCallAggregate aggregate = cumulative[i];
+                    if (reportFilter.isPresent() &&
+                            !reportFilter.get().filter(aggregate.callIdentity, aggregate.getAutoLabels())) {
+                        continue;
+                    }
+                    CallAggregate callAggregate = callAggregates.get(aggregate.callIdentity);
+                    partition.add(aggregate.buildReport(
+                            latencyBucketLevels,
+                            callAggregate != null ? callAggregate.activeCallsCount() : 0));
+                }
+                partition.sort(REPORT_ORDER);
+                return partition;
+            });
+
+            List<CumulativeCallReport> columnarReports = new ArrayList<>();
+            columnarCallAggregates.buildCumulativeReports(
+                    latencyBucketLevels, reportFilter, labelSticker, columnarReports);
+            columnarReports.sort(REPORT_ORDER);
+            sortedPartitions.add(columnarReports);
+        }
+
+        List<CumulativeCallReport> collect = ReportPartitioner.mergeSorted(sortedPartitions, REPORT_ORDER);
+
+        return new CumulativeProfilerReport(indicators, collect);
+    }
+
+    /**
+     * Removes totals that did not change during idle timeout if shared aggregate of their identity
+     * was removed as a stale one, totals of identities with shared aggregate are still resolved on every drain
+     */
+    private void expireIdleTotals(long timestamp) {
+        cumulativeCallAggregates.values().removeIf(aggregate ->
+                aggregate.isIdle(timestamp, totalsIdleTimeout) &&
+                        callAggregates.get(aggregate.callIdentity) == null);
+    }
+
+    @Override
+    public void close() {
+        closingCallback.closed();
+    }
+
+    @Override
+    public void onIndicatorAttached(Identity identity, AutoLabelStickerable indication) {
+        labelSticker.buildLabels(identity.getName()).forEach(indication::setAutoLabel);
+    }
+}
@@ -0,0 +1,112 @@
+package ru.fix.aggregating.profiler.engine;
+
+import ru.fix.aggregating.profiler.CumulativeCallReport;
+import ru.fix.aggregating.profiler.Identity;
+import ru.fix.aggregating.profiler.PercentileSettings;
+import ru.fix.aggregating.profiler.ThroughputPerSecondSeries;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Totals of events of single identity drained from shared {@link CallAggregate}.
+ * Totals are never reset, report is built by reading them.
+ * Throughput per second series are not kept, consumer calculates rates from totals.
+ * <p>
+ * Accessed under monitor of {@link CallAggregateStore}.
+ */
+public class CumulativeCallAggregate extends PendingCallAggregate {
+
+    /**
+     * Sum of start and stop totals at previous idle check, -1 before first check
+     */
+    private long checkedEventsSum = -1;
+    private long lastChangeTimestamp;
+
+    public CumulativeCallAggregate(Identity callIdentity, PercentileSettings percentileSettings, TimeUnit latencyUnit) {
+        super(callIdentity, percentileSettings, latencyUnit);
+    }
+
+    /**
+     * Totals change only by drain, so they are compared with totals of previous check
+     *
+     * @return true if totals did not change during given idle timeout
+     */
+    boolean isIdle(long timestamp, long idleTimeout) {
+        long eventsSum = events.startSumAdder.sum() + events.stopSumAdder.sum();
+        if (eventsSum != checkedEventsSum) {
+            checkedEventsSum = eventsSum;
+            lastChangeTimestamp = timestamp;
+            return false;
+        }
+        return timestamp - lastChangeTimestamp >= idleTimeout;
+    }
+
+    @Override
+    void appendThroughputPerSecondMax(long startMax, long stopMax) {
+    }
+
+    @Override
+    void appendThroughputPerSecond(ThroughputPerSecondSeries startSeries, ThroughputPerSecondSeries stopSeries) {
+    }
+
+    /**
+     * Histogram buckets are mapped to given levels by their upper bounds:
+     * latencies of the bucket are counted in the smallest level that is greater or equal to upper bound of the bucket.
+     * Histogram counts of sampled aggregate are estimated from sample, so latency count could slightly differ
+     * from number of stopped calls with latency.
+     *
+     * @param latencyBucketLevels ascending levels of exported histogram buckets in latency unit of the aggregate
+     * @param activeCallsCount    number of active calls of shared aggregate at the moment of reporting
+     */
+    public CumulativeCallReport buildReport(long[] latencyBucketLevels, long activeCallsCount) {
+        long[] counts = new long[latencyBucketLevels.length];
+        LatencyHistogram histogram = events.latencyPercentile;
+        long latencyCount = histogram != null ?
+                countLatencyLevels(histogram, histogram::bucketCount, latencyBucketLevels, counts) :
+                0;
+        AggregateGeneration.LatencyAccumulators latencies = events.latencies;
+        AggregateGeneration.PayloadAccumulators payloads = events.payloads;
+
+        return new CumulativeCallReport(callIdentity)
+                .setLatencyUnit(latencyUnit)
+                .setStartSum(events.startSumAdder.sum())
+                .setStopSum(events.stopSumAdder.sum())
+                .setPayloadSum(payloads != null ? payloads.sum.sum() : 0)
+                .setLatencySum(latencies != null ? latencies.sum.sum() : 0)
+                .setLatencyCount(latencyCount)
+                .setLatencyBuckets(latencyBucketLevels.clone(), counts)
+                .setActiveCallsCount(activeCallsCount);
+    }
+
+    /**
+     * Adds counts of histogram buckets to cumulative counts of the levels
+     *
+     * @param bounds      provides upper bounds of the buckets
+     * @param bucketCount provides count of the bucket by bucket index
+     * @return total count of all buckets
+     */
+    static long countLatencyLevels(LatencyHistogram bounds, IntToLongFunction bucketCount,
+                                   long[] latencyBucketLevels, long[] counts) {
+        long latencyCount = 0;
+        for (int bucketIndex = 0; bucketIndex < bounds.bucketIndexCount(); bucketIndex++) {
+            long count = bucketCount.applyAsLong(bucketIndex);
+            if (count == 0) {
+                continue;
+            }
+            latencyCount += count;
+            int level = Arrays.binarySearch(latencyBucketLevels, bounds.bucketUpperBound(bucketIndex));
+            if (level < 0) {
+                level = -level - 1;
+            }
+            if (level < counts.length) {
+                counts[level] += count;
+            }
+        }
+        for (int level = 1; level < counts.length; level++) {
+            counts[level] += counts[level - 1];
+        }
+        return latencyCount;
+    }
+}
@@ -0,0 +1,103 @@
+package ru.fix.aggregating.profiler.engine;
+
+import ru.fix.aggregating.profiler.PercentileSettings;
+
+/**
+ * Base-2 exponential histogram in the style of DDSketch and OpenTelemetry exponential histogram.
+ * <p>
+ * Bucket with index {@code i} holds latencies within {@code (base^(i-1), base^i]}
+ * where {@code base = 2^(2^-scale)}.
+ * Scale is the smallest one that guarantees requested relative error,
+ * so each power of two range is split into {@code 2^scale} buckets.
+ * Buckets cover whole range of positive long values, so there is no need to configure
+ * latency range and there is no bucket miss.
+ * Counters are allocated only for window of buckets around observed latencies,
+ * window starts with two power of two ranges and grows when latency falls out of it.
+ * Zero and negative latencies are counted in separate bucket and reported as zero.
+ * <p>
+ * Reported percentile is the value within bucket that has minimal relative error to any latency of the bucket,
+ * but not bigger than maximum latency of reporting period.
+ */
+public class ExponentialLatencyHistogram extends AbstractLatencyHistogram {
+
+    public static final int MAX_SCALE = 8;
+
+    final int scale;
+    final double base;
+
+    /**
+     * {@code 2^scale / ln(2)}, {@code log_base(latency) = ln(latency) * scaleFactor}
+     */
+    final double scaleFactor;
+
+    /**
+     * @param relativeError maximum relative error of reported percentile, e.g. 0.05 for 5%.
+     *                      Histogram with smaller error uses more buckets:
+     *                      there are {@code 63 * 2^scale + 2} buckets: 506 buckets for 5%, 4034 buckets for 1%,
+     *                      but only {@code 2^scale} counters per power of two range of observed latencies are allocated.
+     */
+    public ExponentialLatencyHistogram(PercentileSettings settings, double relativeError) {
+        this(settings, scale(relativeError));
+    }
+
+    private ExponentialLatencyHistogram(PercentileSettings settings, int scale) {
+        super(settings, (63 << scale) + 2, 2 << scale);
+        this.scale = scale;
+        this.base = Math.pow(2, Math.pow(2, -scale));
+        this.scaleFactor = (1 << scale) / Math.log(2);
+    }
+
+    static int scale(double relativeError) {
+        if (!(relativeError > 0 && relativeError < 1)) {
+            throw new IllegalArgumentException("relativeError " + relativeError + " is out of range (0, 1)");
+        }
+        // relative error of base is (base - 1) / (base + 1)
+        double maxBase = (1 + relativeError) / (1 - relativeError);
+        int scale = (int) Math.ceil(-Math.log(Math.log(maxBase) / Math.log(2)) / Math.log(2));
+        return Math.min(Math.max(scale, 0), MAX_SCALE);
+    }
+
+    /**
+     * @return maximum relative error of reported percentile
+     */
+    public double relativeError() {
+        return (base - 1) / (base + 1);
+    }
+
+    @Override
+    public int bucketIndex(long latency) {
+        if (latency <= 0) {
+            return 0;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(latency);
+        int index;
+        if ((latency & (latency - 1)) == 0) {
+            // exact power of two is the upper bound of bucket
+            index = exponent << scale;
+        } else {
+            // logarithm is not exact, keep index within power of two range of the latency
+            index = (int) Math.ceil(Math.log(latency) * scaleFactor);
+            index = Math.min(Math.max(index, (exponent << scale) + 1), (exponent + 1) << scale);
+        }
+        return index + 1;
+    }
+
+    @Override
+    public long bucketUpperBound(int bucketIndex) {
+        if (bucketIndex == 0) {
+            return 0;
+        }
+        // cast saturates to Long.MAX_VALUE for buckets above range of long
+        return (long) Math.floor(Math.pow(2, (double) (bucketIndex - 1) / (1 << scale)));
+    }
+
+    @Override
+    protected long bucketLatency(int bucketIndex, long reportingPeriodMaximum) {
+        if (bucketIndex == 0) {
+            return 0;
+        }
+        double upperBound = Math.pow(2, (double) (bucketIndex - 1) / (1 << scale));
+        long latency = Math.round(2 * upperBound / (1 + base));
+        return Math.min(latency, reportingPeriodMaximum);
+    }
+}
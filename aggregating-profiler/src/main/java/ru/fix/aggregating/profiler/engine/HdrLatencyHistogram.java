@@ -0,0 +1,123 @@
+package ru.fix.aggregating.profiler.engine;
+
+import ru.fix.aggregating.profiler.PercentileSettings;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * High dynamic range log-linear histogram in the style of HdrHistogram.
+ * <p>
+ * Latency range is split into power of two magnitudes, each magnitude is split into equal linear sub-buckets.
+ * Number of sub-buckets is chosen so any latency up to {@code highestTrackableLatency}
+ * is reported with given number of significant decimal digits.
+ * Bucket index is calculated by few bit operations without any search.
+ * Latencies bigger than {@code highestTrackableLatency} are counted in separate overflow bucket
+ * and reported as maximum latency of reporting period.
+ * <p>
+ * Reported percentile is the highest latency of bucket that holds the percentile,
+ * but not bigger than maximum latency of reporting period.
+ */
+public class HdrLatencyHistogram extends AbstractLatencyHistogram {
+
+    public static final int MAX_SIGNIFICANT_DIGITS = 5;
+
+    final int subBucketHalfCountMagnitude;
+    final int subBucketHalfCount;
+    final long subBucketMask;
+    final int leadingZeroCountBase;
+
+    /**
+     * Index of bucket that counts latencies bigger than highest trackable latency
+     */
+    final int overflowBucketIndex;
+
+    /**
+     * @param significantDigits       number of significant decimal digits to preserve, from 0 to 5
+     * @param highestTrackableLatency latency that still has to be reported with given precision
+     */
+    public HdrLatencyHistogram(PercentileSettings settings, int significantDigits, long highestTrackableLatency) {
+        this(settings, significantDigits, highestTrackableLatency, settings.getUnit());
+    }
+
+    /**
+     * @param highestTrackableLatency latency in {@link PercentileSettings#getUnit()}
+     *                                that still has to be reported with given precision
+     * @param latencyUnit             unit of accumulated latencies
+     */
+    public HdrLatencyHistogram(PercentileSettings settings,
+                               int significantDigits,
+                               long highestTrackableLatency,
+                               TimeUnit latencyUnit) {
+        super(settings, countsLength(
+                subBucketCountMagnitude(significantDigits),
+                latencyUnit.convert(highestTrackableLatency, settings.getUnit())) + 1);
+        int subBucketCountMagnitude = subBucketCountMagnitude(significantDigits);
+        this.subBucketHalfCountMagnitude = subBucketCountMagnitude - 1;
+        this.subBucketHalfCount = 1 << subBucketHalfCountMagnitude;
+        this.subBucketMask = (1L << subBucketCountMagnitude) - 1;
+        this.leadingZeroCountBase = 63 - subBucketHalfCountMagnitude;
+        this.overflowBucketIndex = bucketIndexCount() - 1;
+    }
+
+    private static int subBucketCountMagnitude(int significantDigits) {
+        if (significantDigits < 0 || significantDigits > MAX_SIGNIFICANT_DIGITS) {
+            throw new IllegalArgumentException(
+                    "significantDigits " + significantDigits + " is out of range [0, " + MAX_SIGNIFICANT_DIGITS + "]");
+        }
+        long largestValueWithSingleUnitResolution = 2 * (long) Math.pow(10, significantDigits);
+        return Math.max(1, 64 - Long.numberOfLeadingZeros(largestValueWithSingleUnitResolution - 1));
+    }
+
+    private static int countsLength(int subBucketCountMagnitude, long highestTrackableLatency) {
+        if (highestTrackableLatency < 1) {
+            throw new IllegalArgumentException(
+                    "highestTrackableLatency " + highestTrackableLatency + " should be positive");
+        }
+        long smallestUntrackableValue = 1L << subBucketCountMagnitude;
+        int magnitudesCount = 1;
+        while (smallestUntrackableValue <= highestTrackableLatency) {
+            if (smallestUntrackableValue > Long.MAX_VALUE / 2) {
+                magnitudesCount++;
+                break;
+            }
+            smallestUntrackableValue <<= 1;
+            magnitudesCount++;
+        }
+        return (magnitudesCount + 1) << (subBucketCountMagnitude - 1);
+    }
+
+    @Override
+    public int bucketIndex(long latency) {
+        long value = Math.max(latency, 0);
+        int magnitude = leadingZeroCountBase - Long.numberOfLeadingZeros(value | subBucketMask);
+        int subBucketIndex = (int) (value >>> magnitude);
+        int index = ((magnitude + 1) << subBucketHalfCountMagnitude) + subBucketIndex - subBucketHalfCount;
+        return Math.min(index, overflowBucketIndex);
+    }
+
+    @Override
+    public long bucketUpperBound(int bucketIndex) {
+        if (bucketIndex == overflowBucketIndex) {
+            return Long.MAX_VALUE;
+        }
+        return highestEquivalentLatency(bucketIndex);
+    }
+
+    @Override
+    protected long bucketLatency(int bucketIndex, long reportingPeriodMaximum) {
+        if (bucketIndex == overflowBucketIndex) {
+            return reportingPeriodMaximum;
+        }
+        return Math.min(highestEquivalentLatency(bucketIndex), reportingPeriodMaximum);
+    }
+
+    private long highestEquivalentLatency(int bucketIndex) {
+        int magnitude = (bucketIndex >> subBucketHalfCountMagnitude) - 1;
+        int subBucketIndex = (bucketIndex & (subBucketHalfCount - 1)) + subBucketHalfCount;
+        if (magnitude < 0) {
+            subBucketIndex -= subBucketHalfCount;
+            magnitude = 0;
+        }
+        return ((long) subBucketIndex << magnitude) + (1L << magnitude) - 1;
+    }
+}
@@ -0,0 +1,122 @@
+package ru.fix.aggregating.profiler.engine;
+
+import ru.fix.aggregating.profiler.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
+
+/**
+ * Evaluates indicators of the profiler for reporters.
+ * <p>
+ * By default providers are invoked by reporting thread during report building.
+ * In asynchronous mode providers are invoked on the executor:
+ * report contains last cached values of indicators, and each report starts refresh of cached values.
+ * Slow providers do not delay report building, indicators that are not evaluated within timeout
+ * are not reported until their providers get faster.
+ */
+public class IndicatorEvaluator {
+
+    private final Supplier<ProfilerClock> clock;
+
+    /**
+     * Null in synchronous mode
+     */
+    private volatile ExecutorService executor;
+    private volatile long timeout;
+
+    public IndicatorEvaluator(Supplier<ProfilerClock> clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * @param executor executor of providers, null to invoke providers by reporting thread
+     * @param timeout  timeout of provider evaluation in milliseconds
+     */
+    public void setExecutor(ExecutorService executor, long timeout) {
+        if (executor != null && timeout <= 0) {
+            throw new IllegalArgumentException("Timeout should be positive, but was " + timeout);
+        }
+        this.timeout = timeout;
+        this.executor = executor;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Starts evaluation of just attached indicator or indicator group, so first report already has its values
+     */
+    public void onIndicatorAttached(Identity identity, RefreshableIndication indication) {
+        ExecutorService currentExecutor = executor;
+        if (currentExecutor != null) {
+            indication.refresh(identity, currentExecutor, timeout, clock.get());
+        }
+    }
+
+    /**
+     * @param valueAges is filled with age in milliseconds of each reported value
+     * @return values of indicators and indicators of groups that pass the filter
+     */
+    public Map<Identity, Long> evaluate(Map<Identity, AggregatingIndicationProvider> indicatorProviders,
+                                        Map<Identity, AggregatingIndicatorGroup> indicatorGroups,
+                                        Optional<ReportFilter> reportFilter,
+                                        Map<Identity, Long> valueAges) {
+        ExecutorService currentExecutor = executor;
+        long currentTimeout = timeout;
+        ProfilerClock currentClock = clock.get();
+        long timestamp = currentClock.currentTimeMillis();
+
+        Map<Identity, Long> indicators = new HashMap<>();
+        indicatorProviders.forEach((identity, provider) -> {
+            if (reportFilter.isPresent() && !reportFilter.get().filter(identity, provider.getAutoLabels())) {
+                return;
+            }
+
+            if (currentExecutor == null) {
+                Long value = provider.evaluate(identity);
+                if (value != null) {
+                    indicators.put(identity, value);
+                    valueAges.put(identity, 0L);
+                }
+                return;
+            }
+
+            Long value = provider.getCachedValue();
+            if (value != null) {
+                indicators.put(identity, value);
+                valueAges.put(identity, Math.max(0, timestamp - provider.getCachedValueTimestamp()));
+            }
+            provider.refresh(identity, currentExecutor, currentTimeout, currentClock);
+        });
+
+        indicatorGroups.forEach((prefix, group) -> {
+            if (currentExecutor == null) {
+                group.evaluate((identity, value) -> {
+                    if (!reportFilter.isPresent() || reportFilter.get().filter(identity, group.getAutoLabels())) {
+                        indicators.put(identity, value);
+                        valueAges.put(identity, 0L);
+                    }
+                });
+                return;
+            }
+
+            Long age = Math.max(0, timestamp - group.getCachedValueTimestamp());
+            group.forEachCachedValue((identity, value) -> {
+                if (!reportFilter.isPresent() || reportFilter.get().filter(identity, group.getAutoLabels())) {
+                    indicators.put(identity, value);
+                    valueAges.put(identity, age);
+                }
+            });
+            group.refresh(prefix, currentExecutor, currentTimeout, currentClock);
+        });
+        return indicators;
+    }
+}
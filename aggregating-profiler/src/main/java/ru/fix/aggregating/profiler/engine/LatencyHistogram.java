@@ -0,0 +1,66 @@
+package ru.fix.aggregating.profiler.engine;
+
+import ru.fix.aggregating.profiler.PercentileSettings;
+
+import java.util.Map;
+
+/**
+ * Accumulates latency measurements of single identity and calculates percentiles
+ * defined by {@link PercentileSettings#getPercentiles()}.
+ * <p>
+ * Histogram maps each latency to one of {@link #bucketIndexCount()} buckets,
+ * so measurements can be counted in a buffer outside of histogram
+ * (see {@link ThreadLocalCallAggregation}) and added via {@link #accumulateBucket(int, long)}.
+ * <p>
+ * Implementation is chosen by {@link PercentileSettings#setHistogramFactory(LatencyHistogramFactory)}.
+ */
+public interface LatencyHistogram {
+
+    /**
+     * @return count of bucket indexes
+     */
+    int bucketIndexCount();
+
+    /**
+     * @return index of bucket within {@code [0, bucketIndexCount())} that counts given latency
+     */
+    int bucketIndex(long latency);
+
+    /**
+     * Accumulate given count of measurements into bucket with given index
+     *
+     * @see #bucketIndex(long)
+     */
+    void accumulateBucket(int bucketIndex, long count);
+
+    /**
+     * @return count of measurements in bucket with given index, bucket is set to zero
+     */
+    long drainBucket(int bucketIndex);
+
+    /**
+     * Used by cumulative reporter that reads histogram without reset
+     *
+     * @return count of measurements in bucket with given index, bucket is not changed
+     */
+    long bucketCount(int bucketIndex);
+
+    /**
+     * Used by cumulative reporter to export buckets with fixed boundaries
+     *
+     * @return highest latency that is counted in bucket with given index,
+     * {@link Long#MAX_VALUE} for bucket of latencies that are out of histogram range
+     */
+    long bucketUpperBound(int bucketIndex);
+
+    default void accumulate(long latency) {
+        accumulateBucket(bucketIndex(latency), 1);
+    }
+
+    /**
+     * @param reportingPeriodMaximum maximum value of the metric that Reporter saw during reporting period
+     *                               minor optimization so histogram do not need to track this value by itself
+     * @return percentile to latency map
+     */
+    Map<Integer, Long> buildAndReset(long reportingPeriodMaximum);
+}
@@ -0,0 +1,17 @@
+package ru.fix.aggregating.profiler.engine;
+
+import ru.fix.aggregating.profiler.PercentileSettings;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates {@link LatencyHistogram} for each new call aggregate.
+ */
+@FunctionalInterface
+public interface LatencyHistogramFactory {
+    /**
+     * @param latencyUnit unit of latencies that histogram will accumulate and report,
+     *                    latencies in settings are defined in {@link PercentileSettings#getUnit()}
+     */
+    LatencyHistogram create(PercentileSettings settings, TimeUnit latencyUnit);
+}
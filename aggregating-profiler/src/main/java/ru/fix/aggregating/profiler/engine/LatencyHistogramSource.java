@@ -0,0 +1,10 @@
+package ru.fix.aggregating.profiler.engine;
+
+/**
+ * Creates histograms of {@link AggregateGeneration} with engine of the owner of generations.
+ * Implemented by owners themselves, so identity does not keep separate factory object.
+ */
+interface LatencyHistogramSource {
+
+    LatencyHistogram newLatencyHistogram();
+}
@@ -4,6 +4,13 @@ import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.LongAccumulator;
 import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Maximum number of events in one second window that starts at first event after previous window.
+ *
+ * @deprecated aggregate counts events in aligned seconds by {@link ThroughputPerSecondRing}.
+ * Kept for comparison in benchmarks.
+ */
+@Deprecated
 public class MaxThroughputPerSecondAccumulator {
     private static final long ONE_SECOND_MS = 1_000;
 
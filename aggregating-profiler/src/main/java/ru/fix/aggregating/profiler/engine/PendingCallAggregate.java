@@ -0,0 +1,217 @@
+package ru.fix.aggregating.profiler.engine;
+
+import ru.fix.aggregating.profiler.Identity;
+import ru.fix.aggregating.profiler.PercentileSettings;
+import ru.fix.aggregating.profiler.ProfiledCallReport;
+import ru.fix.aggregating.profiler.ThroughputPerSecondSeries;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Events of single identity that were drained from shared {@link CallAggregate}
+ * but are not reported by the reporter yet.
+ * <p>
+ * Each reporter has its own pending aggregate of the identity.
+ * Shared aggregate is drained once and its events are added to pending aggregates of all reporters,
+ * so each reporter sees every event once regardless of reporting periods and filters of other reporters.
+ * <p>
+ * Accessed under monitor of {@link CallAggregateStore}.
+ */
+public class PendingCallAggregate implements AutoLabelStickerable, LatencyHistogramSource {
+
+    final Identity callIdentity;
+    final TimeUnit latencyUnit;
+    final PercentileSettings percentileSettings;
+    private final LatencyHistogramFactory histogramFactory;
+
+    final AggregateGeneration events;
+
+    private long startThroughputPerSecondMax;
+    private long stopThroughputPerSecondMax;
+
+    /**
+     * Per second series are concatenated on every drain, so they are kept only if reporter asks for them
+     */
+    private volatile boolean throughputPerSecondSeriesKept;
+    private ThroughputPerSecondSeries startThroughputPerSecond = ThroughputPerSecondSeries.EMPTY;
+    private ThroughputPerSecondSeries stopThroughputPerSecond = ThroughputPerSecondSeries.EMPTY;
+
+    /**
+     * Time of the last report that selected the identity, accessed only by reporter
+     */
+    long selectedTimestamp;
+
+    /**
+     * Null until first label is set, most of the profilers do not use label sticker
+     */
+    private volatile Map<String, String> autoLabels;
+
+    public PendingCallAggregate(Identity callIdentity, PercentileSettings percentileSettings, TimeUnit latencyUnit) {
+        this.callIdentity = callIdentity;
+        this.latencyUnit = latencyUnit;
+        this.percentileSettings = percentileSettings;
+        this.histogramFactory = percentileSettings.getHistogramFactory();
+        this.events = new AggregateGeneration(this);
+    }
+
+    @Override
+    public LatencyHistogram newLatencyHistogram() {
+        return histogramFactory.create(percentileSettings, latencyUnit);
+    }
+
+    @Override
+    public synchronized void setAutoLabel(String name, String value) {
+        if (autoLabels == null) {
+            autoLabels = new ConcurrentHashMap<>();
+        }
+        autoLabels.put(name, value);
+    }
+
+    @Override
+    public Map<String, String> getAutoLabels() {
+        Map<String, String> labels = this.autoLabels;
+        return labels != null ? labels : Collections.emptyMap();
+    }
+
+    boolean isThroughputPerSecondSeriesKept() {
+        return throughputPerSecondSeriesKept;
+    }
+
+    void setThroughputPerSecondSeriesKept(boolean throughputPerSecondSeriesKept) {
+        this.throughputPerSecondSeriesKept = throughputPerSecondSeriesKept;
+        if (!throughputPerSecondSeriesKept) {
+            startThroughputPerSecond = ThroughputPerSecondSeries.EMPTY;
+            stopThroughputPerSecond = ThroughputPerSecondSeries.EMPTY;
+        }
+    }
+
+    /**
+     * Seconds of consecutive drains do not overlap, so maximum of the period is maximum of drained maximums
+     */
+    void appendThroughputPerSecondMax(long startMax, long stopMax) {
+        startThroughputPerSecondMax = Math.max(startThroughputPerSecondMax, startMax);
+        stopThroughputPerSecondMax = Math.max(stopThroughputPerSecondMax, stopMax);
+    }
+
+    void appendThroughputPerSecond(ThroughputPerSecondSeries startSeries, ThroughputPerSecondSeries stopSeries) {
+        appendThroughputPerSecondMax(startSeries.max(), stopSeries.max());
+        if (throughputPerSecondSeriesKept) {
+            startThroughputPerSecond = ThroughputPerSecondRing.concat(startThroughputPerSecond, startSeries);
+            stopThroughputPerSecond = ThroughputPerSecondRing.concat(stopThroughputPerSecond, stopSeries);
+        }
+    }
+
+    boolean isEmpty() {
+        return events.isEmpty();
+    }
+
+    /**
+     * @param activeCallsCount      number of active calls of shared aggregate at the moment of reporting
+     * @param activeCallsLatencyMax latency of the longest active call of shared aggregate
+     */
+    public ProfiledCallReport buildReportAndReset(long elapsed, long activeCallsCount, long activeCallsLatencyMax) {
+        long startSum = events.startSumAdder.sumThenReset();
+        long stopSum = events.stopSumAdder.sumThenReset();
+
+        long startMax = startThroughputPerSecondMax;
+        long stopMax = stopThroughputPerSecondMax;
+        ThroughputPerSecondSeries startSeries = startThroughputPerSecond;
+        ThroughputPerSecondSeries stopSeries = stopThroughputPerSecond;
+        startThroughputPerSecondMax = 0;
+        stopThroughputPerSecondMax = 0;
+        startThroughputPerSecond = ThroughputPerSecondSeries.EMPTY;
+        stopThroughputPerSecond = ThroughputPerSecondSeries.EMPTY;
+
+        ProfiledCallReport report = new ProfiledCallReport(this.callIdentity)
+                .setReportingTimeAvg(elapsed)
+                .setLatencyUnit(latencyUnit)
+
+                .setStartSum(startSum)
+                .setStartThroughputPerSecondMax(startMax)
+                .setStartThroughputPerSecond(startSeries)
+                .setStartThroughputAvg(elapsed != 0 ? ((double) startSum * 1000) / elapsed : 0)
+
+                // second in progress during previous report is reported now even if there are no new stops
+                .setStopThroughputPerSecondMax(stopMax)
+                .setStopThroughputPerSecond(stopSeries)
+
+                .setActiveCallsCountMax(activeCallsCount)
+                .setActiveCallsLatencyMax(activeCallsLatencyMax);
+
+        if (stopSum == 0) {
+            return report;
+        }
+
+        long sampledStopSum = stopSum - events.skippedStopSumAdder.sumThenReset();
+
+        long latencySum = 0;
+        long latencyMin = 0;
+        long latencyMax = 0;
+        AggregateGeneration.LatencyAccumulators latencies = events.latencies;
+        if (latencies != null) {
+            latencySum = latencies.sum.sumThenReset();
+            latencyMin = latencies.min.getThenReset();
+            latencyMax = latencies.max.getThenReset();
+        }
+        if (events.callsWithoutLatency) {
+            events.callsWithoutLatency = false;
+            latencyMin = Math.min(latencyMin, 0);
+        }
+
+        double payloadSum = 0;
+        double payloadMin = 0;
+        double payloadMax = 0;
+        AggregateGeneration.PayloadAccumulators payloads = events.payloads;
+        if (payloads != null) {
+            payloadSum = payloads.sum.sumThenReset();
+            payloadMin = payloads.min.getThenReset();
+            payloadMax = payloads.max.getThenReset();
+        }
+        if (events.callsWithoutPayload) {
+            events.callsWithoutPayload = false;
+            payloadMin = Math.min(payloadMin, 0);
+        }
+        if (sampledStopSum == 0) {
+            // none of the calls got into the sample, accumulators keep their initial values
+            latencyMin = 0;
+            payloadMin = 0;
+        }
+
+        return report
+                .setLatencyMin(latencyMin)
+                .setLatencyMax(latencyMax)
+                .setLatencyAvg(latencySum / stopSum)
+
+                // histogram counts of sampled calls are already scaled to all calls during drain
+                .setLatencyPercentile(buildPercentilesAndReset(latencyMax))
+                .setLatencySampleRate((double) sampledStopSum / stopSum)
+
+                .setPayloadMin(payloadMin)
+                .setPayloadMax(payloadMax)
+                .setPayloadSum(payloadSum)
+                .setPayloadAvg(payloadSum / stopSum)
+                .setPayloadThroughputAvg(elapsed != 0 ? (payloadSum * 1000) / elapsed : 0)
+
+                .setStopSum(stopSum)
+                .setStopThroughputAvg(elapsed != 0 ? ((double) stopSum * 1000) / elapsed : 0);
+    }
+
+    /**
+     * Histogram without recorded latencies reports all percentiles equal to latency max
+     */
+    private Map<Integer, Long> buildPercentilesAndReset(long latencyMax) {
+        LatencyHistogram histogram = events.latencyPercentile;
+        if (histogram != null) {
+            return histogram.buildAndReset(latencyMax);
+        }
+        Map<Integer, Long> percentiles = new HashMap<>();
+        for (Integer percentile : percentileSettings.getPercentiles()) {
+            percentiles.put(percentile, latencyMax);
+        }
+        return percentiles;
+    }
+}
@@ -2,111 +2,81 @@ package ru.fix.aggregating.profiler.engine;
 
 import ru.fix.aggregating.profiler.PercentileSettings;
 
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.TreeMap;
-import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.TimeUnit;
 
-public class PercentileAccumulator {
-
-    final PercentileSettings settings;
-
-    final TreeMap<Long, LongAdder> buckets;
-    final LongAdder bucketMiss = new LongAdder();
+/**
+ * Accumulates latency measurements in buckets defined by {@link PercentileSettings#getBuckets()}.
+ * <p>
+ * Bucket levels are kept in a sorted array and bucket of a measurement is found by branch-free binary search.
+ * Last bucket counts measurements that are bigger than all bucket levels,
+ * such measurements are reported as maximum latency of reporting period.
+ */
+public class PercentileAccumulator extends AbstractLatencyHistogram {
 
+    /**
+     * Ascending unique bucket levels
+     */
+    final long[] levels;
 
     public PercentileAccumulator(PercentileSettings settings) {
-        this.settings = settings;
-        buckets = buildBuckets(settings);
+        this(settings, settings.getUnit());
     }
 
-    public void accumulate(long latency) {
-        Map.Entry<Long, LongAdder> ceilingBucket = buckets.ceilingEntry(latency);
-        if (ceilingBucket != null) {
-            ceilingBucket.getValue().increment();
-        } else {
-            bucketMiss.increment();
-        }
+    /**
+     * @param latencyUnit unit of accumulated latencies, bucket levels are converted from {@link PercentileSettings#getUnit()}
+     */
+    public PercentileAccumulator(PercentileSettings settings, TimeUnit latencyUnit) {
+        this(settings, buildLevels(settings, latencyUnit));
     }
 
-    private TreeMap<Long, LongAdder> buildBuckets(PercentileSettings settings) {
-        TreeMap<Long, LongAdder> buckets = new TreeMap<>();
+    /**
+     * Bucket with index {@code i} counts measurements that are bigger than {@code levels[i-1]}
+     * and less or equal to {@code levels[i]}.
+     * Bucket with index {@code levels.length} counts measurements that missed all buckets.
+     */
+    private PercentileAccumulator(PercentileSettings settings, long[] levels) {
+        super(settings, levels.length + 1);
+        this.levels = levels;
+    }
 
-        for (int level : settings.getBuckets()) {
-            buckets.put((long) level, new LongAdder());
-        }
-        return buckets;
+    private static long[] buildLevels(PercentileSettings settings, TimeUnit latencyUnit) {
+        return settings.getBuckets().stream()
+                .mapToLong(level -> latencyUnit.convert(level, settings.getUnit()))
+                .sorted()
+                .distinct()
+                .toArray();
     }
 
     /**
-     * @param reportingPeriodMaximum maximum value of the metric that Reporter saw during reporting period
-     *                               minor optimization so PercentileAccumulator do not need to track this value by itself
+     * @return index of smallest bucket level that is greater or equal to latency,
+     * {@code bucketIndexCount() - 1} if latency is bigger than all bucket levels
      */
-    public Map<Integer, Long> buildAndReset(long reportingPeriodMaximum) {
-
-        long reportingPeriodMeasurementCount = AdderDrainer.drain(bucketMiss);
-
-        TreeMap<Long, Long> counts = new TreeMap<>();
-        for (Map.Entry<Long, LongAdder> level : buckets.entrySet()) {
-            long count = AdderDrainer.drain(level.getValue());
-            if (count > 0) {
-                counts.put(level.getKey(), count);
-                reportingPeriodMeasurementCount += count;
-            }
+    @Override
+    public int bucketIndex(long latency) {
+        long[] levels = this.levels;
+        int size = levels.length;
+        if (size == 0) {
+            return 0;
         }
-
-        int[] percentiles = settings.getPercentiles().stream().mapToInt(it -> it).sorted().toArray();
-        double measurementsCount = (double) reportingPeriodMeasurementCount;
-
-        double[] percentileCounts = Arrays.stream(percentiles)
-                .mapToDouble(it -> measurementsCount * it / 100)
-                .toArray();
-
-        double currentCounts = 0;
-        int percentileIndex = 0;
-
-        Map<Integer, Long> report = new HashMap<>();
-
-        // currentCounts maintain total count of measurements
-        // each bucket will increase currentCounts level
-        // if there are 200 measurement in total
-        // then 90 percentile is value of 180th measure
-        //      95 percentile is value of 190th measure
-        // suppose that our buckets holds:
-        // bucket[0] = 100
-        // bucket[1] = 40
-        // bucket[2] = 120
-        //
-        // the currentValue will be:
-        // level 0 is 100
-        // level 1 is 140
-        // level 2 is 260
-        //
-        // for level 0 and 1 currentValue is not enough to fill report
-        // for level 2 currentCounts becomes 260. It is bigger than both of percentiles: 180(for 90p) and 190(for 95p).
-        // We will set same 260th measure value for both percentiles in report.
-        // This will lead to a situation when 90 percentile is equal to 95 percentile.
-        // 90 percentile is bigger that real value. But due to inaccuracy we fill it at least with
-        // not accurate value that we have.
-        //
-        // Actual percentile value is less or equal to the one that we are reporting.
-        //
-        // TODO: add to readme
-        for (Map.Entry<Long, Long> level : counts.entrySet()) {
-            currentCounts += level.getValue();
-
-            while (percentileIndex < percentiles.length && currentCounts >= percentileCounts[percentileIndex]) {
-                report.put(percentiles[percentileIndex], level.getKey());
-                percentileIndex++;
-            }
+        // branch-free lower bound search:
+        // loop makes same number of iterations for any latency
+        // and conditional inside the loop compiles to conditional move
+        int base = 0;
+        while (size > 1) {
+            int half = size >>> 1;
+            base = levels[base + half] < latency ? base + half : base;
+            size -= half;
         }
+        return base + (levels[base] < latency ? 1 : 0);
+    }
 
-        while (percentileIndex < percentiles.length) {
-            report.put(percentiles[percentileIndex], reportingPeriodMaximum);
-            percentileIndex++;
-        }
+    @Override
+    public long bucketUpperBound(int bucketIndex) {
+        return bucketIndex < levels.length ? levels[bucketIndex] : Long.MAX_VALUE;
+    }
 
-        return report;
+    @Override
+    protected long bucketLatency(int bucketIndex, long reportingPeriodMaximum) {
+        return bucketIndex < levels.length ? levels[bucketIndex] : reportingPeriodMaximum;
     }
 }
@@ -0,0 +1,29 @@
+package ru.fix.aggregating.profiler.engine;
+
+import ru.fix.aggregating.profiler.Identity;
+
+/**
+ * Reporter registered in {@link CallAggregateStore} that receives events drained from shared aggregates.
+ */
+public interface RegisteredReporter {
+
+    /**
+     * Invoked under monitor of {@link CallAggregateStore}
+     *
+     * @return pending aggregate of given identity, creates new one if reporter does not have it yet,
+     * null if reporter does not report the identity, then drained events of the identity are not kept for it
+     */
+    PendingCallAggregate resolvePendingCallAggregate(Identity callIdentity);
+
+    /**
+     * Invoked under monitor of {@link CallAggregateStore}
+     *
+     * @return pending events of rows of {@link ColumnarCallAggregateStore}
+     */
+    ColumnarPendingAggregates getColumnarPendingAggregates();
+
+    /**
+     * Invoked when indicator or indicator group is attached to the profiler
+     */
+    void onIndicatorAttached(Identity identity, AutoLabelStickerable indication);
+}
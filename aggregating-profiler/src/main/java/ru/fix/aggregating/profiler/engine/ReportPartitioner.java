@@ -0,0 +1,157 @@
+package ru.fix.aggregating.profiler.engine;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Splits drain and report building of large number of aggregates into partitions
+ * that are processed in parallel by {@link ForkJoinPool}.
+ * Reporting thread processes first partition itself and waits for the rest.
+ * <p>
+ * Each partition produces reports sorted by name, sorted partitions are joined by k-way merge.
+ * Small stores are processed by reporting thread in single partition.
+ */
+public class ReportPartitioner {
+
+    /**
+     * Stores with fewer aggregates per partition are not worth to be processed in parallel
+     */
+    static final int MIN_PARTITION_SIZE = 4096;
+
+    private volatile int parallelism = 1;
+    private volatile ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    @FunctionalInterface
+    public interface PartitionTask<R> {
+        /**
+         * @param from inclusive index of first item of the partition
+         * @param to   exclusive index of last item of the partition
+         */
+        R process(int from, int to);
+    }
+
+    /**
+     * @param parallelism max number of partitions, 1 to process all aggregates by reporting thread
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism should be positive, but was " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setPool(ForkJoinPool pool) {
+        this.pool = Objects.requireNonNull(pool);
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    int partitionsCount(int size) {
+        return Math.max(1, Math.min(parallelism, size / MIN_PARTITION_SIZE));
+    }
+
+    /**
+     * Splits range of items into partitions and processes them in parallel
+     *
+     * @return results of partitions in order of their ranges
+     */
+    public <R> List<R> process(int size, PartitionTask<R> task) {
+        int partitions = partitionsCount(size);
+        List<R> results = new ArrayList<>(partitions);
+        if (partitions == 1) {
+            results.add(task.process(0, size));
+            return results;
+        }
+
+        List<ForkJoinTask<R>> forked = new ArrayList<>(partitions - 1);
+        for (int partition = 1; partition < partitions; partition++) {
+            int from = partitionBound(size, partitions, partition);
+            int to = partitionBound(size, partitions, partition + 1);
+            forked.add(pool.submit(() -> task.process(from, to)));
+        }
+
+        try {
+            results.add(task.process(0, partitionBound(size, partitions, 1)));
+        } finally {
+            // partitions should not outlive the report even if reporting thread failed
+            forked.forEach(ForkJoinTask::quietlyJoin);
+        }
+        for (ForkJoinTask<R> partition : forked) {
+            results.add(partition.join());
+        }
+        return results;
+    }
+
+    private static int partitionBound(int size, int partitions, int partition) {
+        return (int) ((long) size * partition / partitions);
+    }
+
+    /**
+     * Joins sorted lists into single sorted list
+     */
+    public static <T> List<T> mergeSorted(List<List<T>> sortedRuns, Comparator<? super T> comparator) {
+        int totalSize = 0;
+        List<T> single = null;
+        int nonEmptyRuns = 0;
+        for (List<T> run : sortedRuns) {
+            if (!run.isEmpty()) {
+                totalSize += run.size();
+                single = run;
+                nonEmptyRuns++;
+            }
+        }
+        if (nonEmptyRuns == 0) {
+            return new ArrayList<>();
+        }
+        if (nonEmptyRuns == 1) {
+            return single;
+        }
+
+        PriorityQueue<RunCursor<T>> heads = new PriorityQueue<>(
+                nonEmptyRuns,
+                (left, right) -> comparator.compare(left.head(), right.head()));
+        for (List<T> run : sortedRuns) {
+            if (!run.isEmpty()) {
+                heads.add(new RunCursor<>(run));
+            }
+        }
+
+        List<T> merged = new ArrayList<>(totalSize);
+        while (!heads.isEmpty()) {
+            RunCursor<T> cursor = heads.poll();
+            merged.add(cursor.head());
+            if (cursor.advance()) {
+                heads.add(cursor);
+            }
+        }
+        return merged;
+    }
+
+    private static final class RunCursor<T> {
+        final List<T> run;
+        int position;
+
+        RunCursor(List<T> run) {
+            this.run = run;
+        }
+
+        T head() {
+            return run.get(position);
+        }
+
+        boolean advance() {
+            return ++position < run.size();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package ru.fix.aggregating.profiler.engine;
+
+import ru.fix.aggregating.profiler.Identity;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Mutator that resolves shared aggregate of the identity on each event.
+ * Single instance serves profiled calls of all identities.
+ * Events are not recorded while profiler does not have registered reporters.
+ */
+public class ReportersCallAggregateMutator implements CallAggregateMutator {
+
+    private final CallAggregateStore callAggregates;
+
+    public ReportersCallAggregateMutator(CallAggregateStore callAggregates) {
+        this.callAggregates = callAggregates;
+    }
+
+    @Override
+    public void updateAggregate(Identity profiledCallName, Consumer<CallAggregate> updateAction) {
+        if (callAggregates.hasReporters()) {
+            updateAction.accept(callAggregates.resolve(profiledCallName));
+        }
+    }
+
+    @Override
+    public void call(Identity profiledCallName, long currentTimestamp, long latency, double payload) {
+        if (callAggregates.hasReporters()) {
+            callAggregates.resolve(profiledCallName).call(currentTimestamp, latency, payload);
+        }
+    }
+
+    @Override
+    public void call(Identity profiledCallName, long currentTimestamp, long count, long latencySum, double payloadSum) {
+        if (callAggregates.hasReporters()) {
+            callAggregates.resolve(profiledCallName).call(currentTimestamp, count, latencySum, payloadSum);
+        }
+    }
+
+    @Override
+    public void recordLatencies(Identity profiledCallName,
+                                long currentTimestamp,
+                                long[] latencies,
+                                int length,
+                                TimeUnit unit) {
+        if (callAggregates.hasReporters()) {
+            callAggregates.resolve(profiledCallName).recordLatencies(currentTimestamp, latencies, length, unit);
+        }
+    }
+
+    @Override
+    public void start(Identity profiledCallName, AggregatingCall profiledCall, long currentTimestamp) {
+        if (callAggregates.hasReporters()) {
+            callAggregates.resolve(profiledCallName).start(profiledCall, currentTimestamp);
+        }
+    }
+
+    @Override
+    public void stop(Identity profiledCallName,
+                     AggregatingCall profiledCall,
+                     long currentTimestamp,
+                     long latency,
+                     double payload) {
+        if (callAggregates.hasReporters()) {
+            callAggregates.resolve(profiledCallName).stop(profiledCall, currentTimestamp, latency, payload);
+        }
+    }
+
+    @Override
+    public void close(Identity profiledCallName, AggregatingCall profiledCall) {
+        if (callAggregates.hasReporters()) {
+            callAggregates.resolve(profiledCallName).close(profiledCall);
+        }
+    }
+}
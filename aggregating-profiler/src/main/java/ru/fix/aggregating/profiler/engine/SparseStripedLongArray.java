@@ -0,0 +1,173 @@
+package ru.fix.aggregating.profiler.engine;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Array of striped counters that allocates only window of indexes that were updated.
+ * <p>
+ * Window is allocated on first update and grows towards updated indexes, at least by half unless it reaches bounds of array.
+ * Each new window covers all indexes of the previous one, writers that still see previous window
+ * keep updating it, so previous windows are kept and value of counter is a sum of counters
+ * with same index in all windows, so total size of windows stays proportional to size of the last window.
+ * Writers never wait: window is replaced by CAS and each window is a {@link StripedLongArray}.
+ */
+public class SparseStripedLongArray {
+
+    private static final AtomicReferenceFieldUpdater<SparseStripedLongArray, Window> WINDOW =
+            AtomicReferenceFieldUpdater.newUpdater(SparseStripedLongArray.class, Window.class, "window");
+
+    /**
+     * Counters of window extend {@link StripedLongArray}, so writer does not load separate array object
+     */
+    private static final class Window extends StripedLongArray {
+        final int offset;
+        final int end;
+        final Window previous;
+
+        Window(int offset, int length, Window previous) {
+            super(length);
+            this.offset = offset;
+            this.end = offset + length;
+            this.previous = previous;
+        }
+
+        boolean contains(int index) {
+            return index >= offset && index < end;
+        }
+    }
+
+    private final int length;
+    private final int initialWindowLength;
+
+    /**
+     * Last window, null until first update
+     */
+    private volatile Window window;
+
+    /**
+     * @param initialWindowLength number of counters allocated around first updated index
+     */
+    public SparseStripedLongArray(int length, int initialWindowLength) {
+        this.length = length;
+        this.initialWindowLength = Math.max(1, Math.min(initialWindowLength, length));
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public void increment(int index) {
+        Window current = window(index);
+        current.increment(index - current.offset);
+    }
+
+    public void add(int index, long delta) {
+        Window current = window(index);
+        current.add(index - current.offset, delta);
+    }
+
+    /**
+     * @return sum of counter with given index in all windows, counter is set to zero.
+     */
+    public long sumThenReset(int index) {
+        long sum = 0;
+        for (Window current = window; current != null; current = current.previous) {
+            if (current.contains(index)) {
+                sum += current.sumThenReset(index - current.offset);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Adds counters with indexes starting from {@code fromIndex} to {@code sums}, counters are set to zero.
+     * Each window is visited once, so it is cheaper than {@link #sumThenReset(int)} of each index.
+     */
+    public void sumThenReset(int fromIndex, long[] sums) {
+        for (Window current = window; current != null; current = current.previous) {
+            int from = Math.max(fromIndex, current.offset);
+            int to = Math.min(fromIndex + sums.length, current.end);
+            for (int index = from; index < to; index++) {
+                sums[index - fromIndex] += current.sumThenReset(index - current.offset);
+            }
+        }
+    }
+
+    public long sum(int index) {
+        long sum = 0;
+        for (Window current = window; current != null; current = current.previous) {
+            if (current.contains(index)) {
+                sum += current.sum(index - current.offset);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Counters outside of {@code [fromIndex(), toIndex())} were never updated
+     */
+    public int fromIndex() {
+        Window current = window;
+        return current != null ? current.offset : 0;
+    }
+
+    public int toIndex() {
+        Window current = window;
+        return current != null ? current.end : 0;
+    }
+
+    /**
+     * @return number of counters allocated in all windows of single stripe
+     */
+    int allocatedLength() {
+        int allocated = 0;
+        for (Window current = window; current != null; current = current.previous) {
+            allocated += current.length();
+        }
+        return allocated;
+    }
+
+    private Window window(int index) {
+        Window current = window;
+        if (current != null && current.contains(index)) {
+            return current;
+        }
+        return grownWindow(current, index);
+    }
+
+    /**
+     * Kept apart from {@link #window(int)}, so update of counter inside of the window stays small enough to be inlined
+     */
+    private Window grownWindow(Window current, int index) {
+        while (current == null || !current.contains(index)) {
+            Window grown = grow(current, index);
+            if (WINDOW.compareAndSet(this, current, grown)) {
+                return grown;
+            }
+            current = window;
+        }
+        return current;
+    }
+
+    private Window grow(Window current, int index) {
+        if (current == null) {
+            // spare counters of first window are split between both sides of the index
+            int from = Math.max(0, Math.min(index - initialWindowLength / 2, length - initialWindowLength));
+            return new Window(from, initialWindowLength, null);
+        }
+        // window grows at least by half, so total size of windows stays proportional to size of the last one
+        int spare = Math.max(initialWindowLength, current.length() / 2);
+        // spare counters are added on the side of the index, so window grows towards observed values
+        if (index < current.offset) {
+            return newWindow(index - spare, current.end, current);
+        } else {
+            return newWindow(current.offset, index + 1 + spare, current);
+        }
+    }
+
+    private Window newWindow(int from, int to, Window previous) {
+        from = Math.max(0, from);
+        to = Math.min(length, to);
+        return new Window(from, to - from, previous);
+    }
+}
@@ -0,0 +1,99 @@
+package ru.fix.aggregating.profiler.engine;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Array of counters that spreads updates of different threads between stripes.
+ * <p>
+ * Starts with single stripe. When increment detects contention on a counter
+ * number of stripes is doubled until it reaches number of available processors.
+ * Thread selects stripe by its id, so each thread tends to update its own stripe.
+ * Value of counter is a sum of counters with same index in all stripes.
+ */
+public class StripedLongArray {
+
+    private static final int MAX_STRIPES = Integer.highestOneBit(
+            Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1));
+
+    private final int length;
+
+    /**
+     * Size is always a power of two.
+     * Stripes are never removed, growing creates new array with same old stripes and additional new ones.
+     */
+    private volatile AtomicLongArray[] stripes;
+
+    public StripedLongArray(int length) {
+        this.length = length;
+        this.stripes = new AtomicLongArray[]{new AtomicLongArray(length)};
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public void increment(int index) {
+        AtomicLongArray[] currentStripes = stripes;
+        AtomicLongArray stripe = currentStripes[stripeIndex(currentStripes.length)];
+
+        long value = stripe.get(index);
+        if (!stripe.compareAndSet(index, value, value + 1)) {
+            stripe.incrementAndGet(index);
+            grow(currentStripes);
+        }
+    }
+
+    public void add(int index, long delta) {
+        AtomicLongArray[] currentStripes = stripes;
+        currentStripes[stripeIndex(currentStripes.length)].addAndGet(index, delta);
+    }
+
+    /**
+     * @return sum of counter with given index in all stripes, counter is set to zero.
+     */
+    public long sumThenReset(int index) {
+        long sum = 0;
+        for (AtomicLongArray stripe : stripes) {
+            // most counters stay zero between reports, reading them is cheaper than atomic reset
+            long value = stripe.get(index);
+            if (value != 0) {
+                stripe.addAndGet(index, -value);
+                sum += value;
+            }
+        }
+        return sum;
+    }
+
+    public long sum(int index) {
+        long sum = 0;
+        for (AtomicLongArray stripe : stripes) {
+            sum += stripe.get(index);
+        }
+        return sum;
+    }
+
+    int stripesCount() {
+        return stripes.length;
+    }
+
+    private static int stripeIndex(int stripesCount) {
+        return (int) Thread.currentThread().getId() & (stripesCount - 1);
+    }
+
+    private void grow(AtomicLongArray[] observedStripes) {
+        if (observedStripes.length >= MAX_STRIPES) {
+            return;
+        }
+        synchronized (this) {
+            if (stripes != observedStripes) {
+                return;
+            }
+            AtomicLongArray[] newStripes = new AtomicLongArray[observedStripes.length * 2];
+            System.arraycopy(observedStripes, 0, newStripes, 0, observedStripes.length);
+            for (int stripe = observedStripes.length; stripe < newStripes.length; stripe++) {
+                newStripes[stripe] = new AtomicLongArray(length);
+            }
+            stripes = newStripes;
+        }
+    }
+}
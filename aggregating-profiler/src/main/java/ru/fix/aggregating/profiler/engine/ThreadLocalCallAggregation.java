@@ -0,0 +1,864 @@
+package ru.fix.aggregating.profiler.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Thread-local recording mode of {@link CallAggregate}.
+ * <p>
+ * Each recording thread is the single writer of its own {@link Slab}. Writer does not acquire monitors
+ * and does not use compare and set on each event: counters of the slab only grow and are written
+ * by ordered writes of {@link AtomicLongArray#lazySet(int, long)}, including counts of aligned seconds.
+ * Reporter never writes counters of the slab: it keeps values that it already merged and merges the difference,
+ * so event that writer records during merge is merged by the next report.
+ * Writer makes version of the slab odd before event and even after it, reporter copies counters
+ * between two reads of the same even version, so each report is built from complete events.
+ * Slab which writer is recording an event during all attempts is merged by the next report.
+ * Latency and payload min and max are reset by writer when it sees that reporter started a new report period.
+ * Completed seconds are handed over to reporter through single producer single consumer queue of the slab.
+ * So calls recorded without start and stop do not write anything shared with other recording threads:
+ * neither counters of {@link AggregateGeneration} nor {@link ThroughputPerSecondRing}.
+ * Started and stopped calls still update tracking of active calls shared by all threads.
+ * <p>
+ * Slabs of a thread are kept in single thread local array and are found by {@link #index} of aggregation.
+ * Index is returned to the pool when aggregation is closed.
+ * Latency histogram that maps latencies to buckets is created on first recorded latency.
+ * <p>
+ * During report building reporter merges all slabs into retired generation of {@link CallAggregate}
+ * and hands completed seconds over to throughput rings of the aggregate.
+ * Slab of terminated thread and slab that was idle during {@link #IDLE_MERGES_BEFORE_DETACH} reports
+ * are detached from aggregation, all slabs are detached when aggregation is closed.
+ * Writer that sees detached slab records into a new one or into successor of closed aggregation.
+ * Writer that recorded into slab while it was detached notices it after recording,
+ * waits until reporter merges the slab for the last time and hands counters that reporter did not merge
+ * over to the aggregate, or to its successor, as late events.
+ */
+public class ThreadLocalCallAggregation {
+
+    static final int IDLE_MERGES_BEFORE_DETACH = 2;
+
+    /**
+     * Pause of reporter between detaching slabs and their last merge,
+     * so ordered writes of writers that did not notice detachment become visible to reporter
+     */
+    private static final long DETACH_GRACE_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+
+    /**
+     * Attempts of reporter to copy counters between events of the writer before merge of the slab is postponed
+     */
+    private static final int SNAPSHOT_ATTEMPTS = 8;
+
+    // counters of the slab, they only grow
+    // stop sum and count of sampled stopped calls with payload are derived from them, so events do not write them
+    private static final int START_SUM = 0;
+    private static final int SKIPPED_STOP_SUM = 1;
+    /**
+     * Sampled stopped calls with measured latency
+     */
+    private static final int LATENCY_COUNT = 2;
+    private static final int LATENCY_SUM = 3;
+    /**
+     * Not sampled stopped calls with measured latency
+     */
+    private static final int SKIPPED_LATENCY_COUNT = 4;
+    /**
+     * Sampled stopped calls without measured latency
+     */
+    private static final int CALLS_WITHOUT_LATENCY = 5;
+    /**
+     * Bits of double
+     */
+    private static final int PAYLOAD_SUM = 6;
+    /**
+     * Sampled stopped calls without payload
+     */
+    private static final int CALLS_WITHOUT_PAYLOAD = 7;
+    private static final int COUNTERS = 8;
+
+    // min and max of report period of the slab, reset by writer when it sees new period
+    private static final int PERIOD = 8;
+    private static final int LATENCY_MIN = 9;
+    private static final int LATENCY_MAX = 10;
+    private static final int PAYLOAD_MIN = 11;
+    private static final int PAYLOAD_MAX = 12;
+    private static final int SNAPSHOT_VALUES = 13;
+
+    // second in progress and count of its events
+    private static final int START_SECOND = 13;
+    private static final int STOP_SECOND = 15;
+
+    /**
+     * Odd while writer records an event
+     */
+    private static final int VERSION = 17;
+    private static final int VALUES = 18;
+
+    private static final long PAYLOAD_MIN_INITIAL = Double.doubleToRawLongBits(Long.MAX_VALUE);
+    private static final long ZERO_BITS = Double.doubleToRawLongBits(0);
+
+    private static final long NO_SECOND = Long.MIN_VALUE;
+
+    private static final long[] NO_COUNTS = new long[0];
+    private static final Slab[] NO_SLABS = new Slab[0];
+
+    private static final int OPEN = 0;
+    private static final int CLOSING = 1;
+    private static final int CLOSED = 2;
+
+    /**
+     * Slabs of the thread indexed by {@link #index} of aggregation
+     */
+    private static final ThreadLocal<Slab[]> THREAD_SLABS = ThreadLocal.withInitial(() -> NO_SLABS);
+
+    private static final IndexPool INDEXES = new IndexPool();
+
+    private final int index = INDEXES.acquire();
+
+    private final LatencyHistogramSource histogramSource;
+
+    /**
+     * Maps latencies to buckets, null until first recorded latency
+     */
+    private volatile LatencyHistogram latencyPercentile;
+
+    private final ThroughputPerSecondRing startThroughputPerSecond;
+    private final ThroughputPerSecondRing stopThroughputPerSecond;
+
+    private final Consumer<AggregateGeneration> lateEventsHandler;
+
+    private final Queue<Slab> slabs = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Number of report period, incremented by reporter after merge
+     */
+    private volatile long period;
+
+    /**
+     * Becomes {@link #CLOSING} when aggregate is evicted, writers record events into successor of the aggregate
+     */
+    private volatile int state = OPEN;
+
+    /**
+     * @param histogramSource   creates histogram that maps latencies to buckets
+     * @param lateEventsHandler records events that writer hands over after its slab was detached
+     */
+    ThreadLocalCallAggregation(LatencyHistogramSource histogramSource,
+                               ThroughputPerSecondRing startThroughputPerSecond,
+                               ThroughputPerSecondRing stopThroughputPerSecond,
+                               Consumer<AggregateGeneration> lateEventsHandler) {
+        this.histogramSource = histogramSource;
+        this.startThroughputPerSecond = startThroughputPerSecond;
+        this.stopThroughputPerSecond = stopThroughputPerSecond;
+        this.lateEventsHandler = lateEventsHandler;
+    }
+
+    /**
+     * Should be invoked inside of generation of {@link CallAggregate}, so aggregation can not be closed.
+     * Caller should invoke {@link #handOverIfDetached()} after it leaves generation.
+     */
+    public void start(long currentTimestamp) {
+        Slab slab = slab();
+        if (slab == null) {
+            return;
+        }
+        slab.beginEvent();
+        try {
+            slab.add(START_SUM, 1);
+            slab.startSeconds.add(ThroughputPerSecondRing.secondOf(currentTimestamp), 1);
+        } finally {
+            slab.endEvent();
+        }
+    }
+
+    /**
+     * @param sampled if false then call is counted as skipped, see {@link AggregateGeneration#recordSkip(long, double)}
+     * @return false if aggregation is closed and call should be recorded by successor of the aggregate
+     */
+    public boolean call(long currentTimestamp, long latency, double payload, boolean sampled) {
+        Slab slab = slab();
+        if (slab == null) {
+            return false;
+        }
+        slab.beginEvent();
+        try {
+            slab.add(START_SUM, 1);
+            if (sampled) {
+                slab.stop(1, latency, latency, payload, payload);
+            } else {
+                slab.skip(latency, payload);
+            }
+            long second = ThroughputPerSecondRing.secondOf(currentTimestamp);
+            slab.startSeconds.add(second, 1);
+            slab.stopSeconds.add(second, 1);
+        } finally {
+            slab.endEvent();
+        }
+        handOverIfDetached(slab);
+        return true;
+    }
+
+    /**
+     * @return false if aggregation is closed and calls should be recorded by successor of the aggregate
+     * @see AggregateGeneration#recordCalls(long, long, long, double, double)
+     */
+    public boolean call(long currentTimestamp, long count, long latency, long latencySum,
+                        double payload, double payloadSum) {
+        Slab slab = slab();
+        if (slab == null) {
+            return false;
+        }
+        slab.beginEvent();
+        try {
+            slab.add(START_SUM, count);
+            slab.stop(count, latency, latencySum, payload, payloadSum);
+            long second = ThroughputPerSecondRing.secondOf(currentTimestamp);
+            slab.startSeconds.add(second, count);
+            slab.stopSeconds.add(second, count);
+        } finally {
+            slab.endEvent();
+        }
+        handOverIfDetached(slab);
+        return true;
+    }
+
+    /**
+     * @return false if aggregation is closed and latencies should be recorded by successor of the aggregate
+     * @see AggregateGeneration#recordLatencies(long[], int, TimeUnit, TimeUnit)
+     */
+    public boolean recordLatencies(long currentTimestamp, long[] latencies, int length,
+                                   TimeUnit unit, TimeUnit latencyUnit) {
+        Slab slab = slab();
+        if (slab == null) {
+            return false;
+        }
+        slab.beginEvent();
+        try {
+            slab.add(START_SUM, length);
+            for (int i = 0; i < length; i++) {
+                long latency = Math.max(0, latencyUnit.convert(latencies[i], unit));
+                slab.stop(1, latency, latency, 0, 0);
+            }
+            long second = ThroughputPerSecondRing.secondOf(currentTimestamp);
+            slab.startSeconds.add(second, length);
+            slab.stopSeconds.add(second, length);
+        } finally {
+            slab.endEvent();
+        }
+        handOverIfDetached(slab);
+        return true;
+    }
+
+    /**
+     * Should be invoked inside of generation of {@link CallAggregate}, so aggregation can not be closed.
+     * Caller should invoke {@link #handOverIfDetached()} after it leaves generation.
+     *
+     * @param sampled if false then call is counted as skipped, see {@link AggregateGeneration#recordSkip(long, double)}
+     */
+    public void stop(long currentTimestamp, long latency, double payload, boolean sampled) {
+        Slab slab = slab();
+        if (slab == null) {
+            return;
+        }
+        slab.beginEvent();
+        try {
+            if (sampled) {
+                slab.stop(1, latency, latency, payload, payload);
+            } else {
+                slab.skip(latency, payload);
+            }
+            slab.stopSeconds.add(ThroughputPerSecondRing.secondOf(currentTimestamp), 1);
+        } finally {
+            slab.endEvent();
+        }
+    }
+
+    /**
+     * Hands over counters of the slab of current thread if slab was detached while thread recorded into it.
+     * Should be invoked outside of generation of {@link CallAggregate}:
+     * writer waits for the last merge of the slab and reporter merges slabs after writers leave generation.
+     */
+    public void handOverIfDetached() {
+        Slab[] threadSlabs = THREAD_SLABS.get();
+        if (index < threadSlabs.length) {
+            Slab slab = threadSlabs[index];
+            if (slab != null && slab.aggregation == this) {
+                handOverIfDetached(slab);
+            }
+        }
+    }
+
+    private Slab slab() {
+        Slab[] threadSlabs = THREAD_SLABS.get();
+        if (index < threadSlabs.length) {
+            Slab slab = threadSlabs[index];
+            if (slab != null && slab.aggregation == this && !slab.detached) {
+                return slab;
+            }
+        }
+        return attachSlab(threadSlabs);
+    }
+
+    /**
+     * @return null if aggregation is closed
+     */
+    private Slab attachSlab(Slab[] threadSlabs) {
+        if (state != OPEN) {
+            return null;
+        }
+        if (index >= threadSlabs.length) {
+            threadSlabs = Arrays.copyOf(threadSlabs, Math.max(index + 1, threadSlabs.length * 2));
+            THREAD_SLABS.set(threadSlabs);
+        }
+        Slab slab = new Slab(this, Thread.currentThread());
+        threadSlabs[index] = slab;
+        slabs.add(slab);
+        return slab;
+    }
+
+    private void handOverIfDetached(Slab slab) {
+        if ((slab.detached || state != OPEN) && !slab.handedOver) {
+            handOver(slab);
+        }
+    }
+
+    /**
+     * Invoked by writer that recorded events into detached slab
+     */
+    private void handOver(Slab slab) {
+        // slab that was attached after aggregation started closing is not detached by reporter
+        slab.detached = true;
+        slab.handedOver = true;
+
+        // after the last merge counters of the slab are not accessed by reporter
+        while (!slab.merged && state != CLOSED) {
+            Thread.yield();
+        }
+        // throughput per second of late events is not handed over
+        AggregateGeneration lateEvents = new AggregateGeneration(histogramSource);
+        if (slab.mergeInto(lateEvents, period, true)) {
+            lateEventsHandler.accept(lateEvents);
+        }
+    }
+
+    private LatencyHistogram latencyPercentile() {
+        LatencyHistogram histogram = latencyPercentile;
+        if (histogram == null) {
+            // histograms created by concurrent writers map latencies to the same buckets
+            histogram = histogramSource.newLatencyHistogram();
+            latencyPercentile = histogram;
+        }
+        return histogram;
+    }
+
+    /**
+     * Moves counters of all thread slabs into given generation
+     * and seconds completed before current timestamp into throughput rings.
+     */
+    void mergeInto(AggregateGeneration aggregate, long currentTimestamp) {
+        long currentSecond = ThroughputPerSecondRing.secondOf(currentTimestamp);
+        long currentPeriod = period;
+        List<Slab> detached = null;
+
+        for (Slab slab : slabs) {
+            // terminated thread will not write to the slab anymore
+            boolean ownerTerminated = !slab.owner.isAlive();
+
+            boolean recorded = slab.mergeInto(aggregate, currentPeriod, false);
+            recorded |= slab.moveSeconds(ownerTerminated ? Long.MAX_VALUE : currentSecond);
+            if (recorded) {
+                slab.idleMerges = 0;
+            }
+            if (ownerTerminated || !recorded && ++slab.idleMerges >= IDLE_MERGES_BEFORE_DETACH) {
+                slab.detached = true;
+                if (detached == null) {
+                    detached = new ArrayList<>();
+                }
+                detached.add(slab);
+            }
+        }
+
+        if (detached != null) {
+            LockSupport.parkNanos(this, DETACH_GRACE_NANOS);
+            for (Slab slab : detached) {
+                // second in progress of detached slab is complete, writer counts next events in a new slab
+                slab.mergeInto(aggregate, currentPeriod, true);
+                slab.moveSeconds(Long.MAX_VALUE);
+                slab.merged = true;
+                slabs.remove(slab);
+            }
+        }
+        period = currentPeriod + 1;
+    }
+
+    /**
+     * Moves counters of all slabs into given generation for the last time.
+     * Events that are recorded after that return false, so writers record them into successor of the aggregate.
+     */
+    void close(AggregateGeneration aggregate) {
+        state = CLOSING;
+        for (Slab slab : slabs) {
+            slab.detached = true;
+        }
+        LockSupport.parkNanos(this, DETACH_GRACE_NANOS);
+
+        long currentPeriod = period;
+        for (Slab slab : slabs) {
+            slab.mergeInto(aggregate, currentPeriod, true);
+            slab.merged = true;
+        }
+        slabs.clear();
+        state = CLOSED;
+        INDEXES.release(index);
+    }
+
+    int slabsCount() {
+        return slabs.size();
+    }
+
+    /**
+     * Indexes of aggregations in thread local arrays of slabs.
+     * Slab of closed aggregation stays in array of the thread until index is acquired by a new aggregation
+     * and the thread records event into it.
+     */
+    private static final class IndexPool {
+        private int next;
+        private int[] released = new int[0];
+        private int releasedSize;
+
+        synchronized int acquire() {
+            return releasedSize != 0 ? released[--releasedSize] : next++;
+        }
+
+        synchronized void release(int index) {
+            if (releasedSize == released.length) {
+                released = Arrays.copyOf(released, Math.max(8, releasedSize * 2));
+            }
+            released[releasedSize++] = index;
+        }
+    }
+
+    /**
+     * Second completed by writer, element of single producer single consumer queue
+     */
+    private static final class CompletedSecond {
+        private static final AtomicReferenceFieldUpdater<CompletedSecond, CompletedSecond> NEXT =
+                AtomicReferenceFieldUpdater.newUpdater(CompletedSecond.class, CompletedSecond.class, "next");
+
+        final long second;
+        final long count;
+        volatile CompletedSecond next;
+
+        CompletedSecond(long second, long count) {
+            this.second = second;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Counts of events in aligned seconds recorded by owner of the slab.
+     * Second in progress and its count are kept in values of the slab,
+     * completed seconds are appended to the queue by writer and taken by reporter.
+     */
+    private static final class SecondCounts {
+        final Slab slab;
+        final AtomicLongArray values;
+        final int second;
+        final int count;
+
+        /**
+         * Last appended second, accessed by writer
+         */
+        CompletedSecond tail = new CompletedSecond(NO_SECOND, 0);
+
+        /**
+         * Last taken second, accessed by reporter
+         */
+        CompletedSecond head = tail;
+
+        /**
+         * Second in progress of idle writer and its count that reporter moved to the ring before it completed,
+         * accessed by reporter
+         */
+        long movedSecond = NO_SECOND;
+        long movedCount;
+
+        SecondCounts(Slab slab, int second) {
+            this.slab = slab;
+            this.values = slab.values;
+            this.second = second;
+            this.count = second + 1;
+            slab.set(second, NO_SECOND);
+        }
+
+        void add(long eventSecond, long eventCount) {
+            long currentSecond = slab.written[second];
+            // events that are late for the current second of the slab are counted in it,
+            // same as late events of the ring
+            if (eventSecond > currentSecond) {
+                long currentCount = slab.written[count];
+                if (currentCount != 0) {
+                    CompletedSecond completed = new CompletedSecond(currentSecond, currentCount);
+                    CompletedSecond.NEXT.lazySet(tail, completed);
+                    tail = completed;
+                }
+                // second is written before its count, so reporter detects switch by reading second twice
+                slab.set(second, eventSecond);
+                slab.set(count, eventCount);
+            } else {
+                slab.add(count, eventCount);
+            }
+        }
+
+        /**
+         * Moves completed seconds and second in progress that is before current second into the ring
+         *
+         * @return true if there were any counts
+         */
+        boolean moveTo(ThroughputPerSecondRing ring, long currentSecond) {
+            boolean moved = false;
+            for (CompletedSecond completed = head.next; completed != null; completed = completed.next) {
+                long completedCount = completed.count;
+                if (completed.second == movedSecond) {
+                    completedCount -= movedCount;
+                    movedSecond = NO_SECOND;
+                }
+                if (completedCount != 0) {
+                    ring.addCompletedSecond(completed.second, completedCount);
+                }
+                head = completed;
+                moved = true;
+            }
+
+            long inProgress = values.get(second);
+            long inProgressCount = values.get(count);
+            // second of idle writer is moved unless writer switched to new second while it was read
+            // or previously moved second is not taken from the queue yet
+            if (inProgress < currentSecond && inProgress == values.get(second)
+                    && (movedSecond == NO_SECOND || movedSecond == inProgress)) {
+                long alreadyMoved = movedSecond == inProgress ? movedCount : 0;
+                if (inProgressCount > alreadyMoved) {
+                    ring.addCompletedSecond(inProgress, inProgressCount - alreadyMoved);
+                    movedSecond = inProgress;
+                    movedCount = inProgressCount;
+                    moved = true;
+                }
+            }
+            return moved;
+        }
+    }
+
+    private static final class Slab {
+        final ThreadLocalCallAggregation aggregation;
+        final Thread owner;
+
+        /**
+         * Written only by owner
+         */
+        final AtomicLongArray values = new AtomicLongArray(VALUES);
+
+        /**
+         * Copy of {@link #values} accessed by owner, so owner does not read its own values by volatile reads
+         */
+        final long[] written = new long[VALUES];
+
+        /**
+         * Allocated by owner on first recorded latency
+         */
+        volatile AtomicLongArray latencyBuckets;
+
+        /**
+         * Latency buckets and histogram that maps latencies to them, accessed by owner
+         */
+        AtomicLongArray ownerLatencyBuckets;
+        LatencyHistogram ownerLatencyPercentile;
+
+        final SecondCounts startSeconds;
+        final SecondCounts stopSeconds;
+
+        /**
+         * Set by reporter that detaches slab, or by writer that recorded into slab of closing aggregation
+         */
+        volatile boolean detached;
+
+        /**
+         * Set by reporter after the last merge of detached slab
+         */
+        volatile boolean merged;
+
+        /**
+         * Accessed by owner
+         */
+        boolean handedOver;
+
+        /**
+         * Copy of counters and buckets, and their values that are already merged.
+         * Accessed by reporter, and by owner after the last merge.
+         */
+        final long[] snapshot = new long[SNAPSHOT_VALUES];
+        long[] snapshotBuckets = NO_COUNTS;
+        final long[] mergedCounters = new long[COUNTERS];
+        long[] mergedBuckets = NO_COUNTS;
+        int idleMerges;
+
+        Slab(ThreadLocalCallAggregation aggregation, Thread owner) {
+            this.aggregation = aggregation;
+            this.owner = owner;
+            set(PAYLOAD_SUM, ZERO_BITS);
+            set(PERIOD, -1);
+            startSeconds = new SecondCounts(this, START_SECOND);
+            stopSeconds = new SecondCounts(this, STOP_SECOND);
+        }
+
+        /**
+         * Ordered write of odd version is visible before writes of the event
+         */
+        void beginEvent() {
+            add(VERSION, 1);
+        }
+
+        void endEvent() {
+            add(VERSION, 1);
+        }
+
+        void set(int index, long value) {
+            written[index] = value;
+            values.lazySet(index, value);
+        }
+
+        void add(int counter, long delta) {
+            set(counter, written[counter] + delta);
+        }
+
+        private void addDouble(int counter, double delta) {
+            set(counter, Double.doubleToRawLongBits(Double.longBitsToDouble(written[counter]) + delta));
+        }
+
+        /**
+         * Resets min and max when writer sees new report period
+         */
+        private void startPeriod() {
+            long currentPeriod = aggregation.period;
+            if (written[PERIOD] != currentPeriod) {
+                set(LATENCY_MIN, Long.MAX_VALUE);
+                set(LATENCY_MAX, 0);
+                set(PAYLOAD_MIN, PAYLOAD_MIN_INITIAL);
+                set(PAYLOAD_MAX, ZERO_BITS);
+                set(PERIOD, currentPeriod);
+            }
+        }
+
+        private void countLatencyBucket(long latency, long count) {
+            AtomicLongArray buckets = ownerLatencyBuckets;
+            if (buckets == null) {
+                ownerLatencyPercentile = aggregation.latencyPercentile();
+                buckets = new AtomicLongArray(ownerLatencyPercentile.bucketIndexCount());
+                ownerLatencyBuckets = buckets;
+                latencyBuckets = buckets;
+            }
+            int bucketIndex = ownerLatencyPercentile.bucketIndex(latency);
+            buckets.lazySet(bucketIndex, buckets.get(bucketIndex) + count);
+        }
+
+        /**
+         * Same rules as {@link AggregateGeneration#recordCalls(long, long, long, double, double)}
+         */
+        void stop(long count, long latency, long latencySum, double payload, double payloadSum) {
+            boolean hasLatency = AggregateGeneration.hasLatency(latency);
+            boolean hasPayload = AggregateGeneration.hasPayload(payload);
+            if (hasLatency || hasPayload) {
+                startPeriod();
+            }
+
+            // min and max are written only when they change, so steady flow of calls writes only counters
+            if (hasLatency) {
+                if (latency < written[LATENCY_MIN]) {
+                    set(LATENCY_MIN, latency);
+                }
+                if (latency > written[LATENCY_MAX]) {
+                    set(LATENCY_MAX, latency);
+                }
+                countLatencyBucket(latency, count);
+                add(LATENCY_SUM, latencySum);
+                add(LATENCY_COUNT, count);
+            } else {
+                add(CALLS_WITHOUT_LATENCY, count);
+            }
+
+            if (hasPayload) {
+                if (payload < Double.longBitsToDouble(written[PAYLOAD_MIN])) {
+                    set(PAYLOAD_MIN, Double.doubleToRawLongBits(payload));
+                }
+                if (payload > Double.longBitsToDouble(written[PAYLOAD_MAX])) {
+                    set(PAYLOAD_MAX, Double.doubleToRawLongBits(payload));
+                }
+                addDouble(PAYLOAD_SUM, payloadSum);
+            } else {
+                add(CALLS_WITHOUT_PAYLOAD, count);
+            }
+        }
+
+        /**
+         * Same rules as {@link AggregateGeneration#recordSkip(long, double)}
+         */
+        void skip(long latency, double payload) {
+            if (AggregateGeneration.hasLatency(latency)) {
+                add(LATENCY_SUM, latency);
+                add(SKIPPED_LATENCY_COUNT, 1);
+            }
+            if (AggregateGeneration.hasPayload(payload)) {
+                addDouble(PAYLOAD_SUM, payload);
+            }
+            add(SKIPPED_STOP_SUM, 1);
+        }
+
+        /**
+         * Copies counters and buckets recorded by complete events
+         *
+         * @param awaitWriter if true then reporter waits until writer completes event
+         * @return false if writer was recording event during all attempts
+         */
+        private boolean takeSnapshot(boolean awaitWriter) {
+            for (int attempt = 1; ; attempt++) {
+                long version = values.get(VERSION);
+                if ((version & 1) == 0) {
+                    for (int index = 0; index < SNAPSHOT_VALUES; index++) {
+                        snapshot[index] = values.get(index);
+                    }
+                    AtomicLongArray buckets = latencyBuckets;
+                    if (buckets != null) {
+                        if (snapshotBuckets.length == 0) {
+                            snapshotBuckets = new long[buckets.length()];
+                            mergedBuckets = new long[buckets.length()];
+                        }
+                        for (int bucketIndex = 0; bucketIndex < snapshotBuckets.length; bucketIndex++) {
+                            snapshotBuckets[bucketIndex] = buckets.get(bucketIndex);
+                        }
+                    }
+                    if (values.get(VERSION) == version) {
+                        return true;
+                    }
+                }
+                if (!awaitWriter && attempt >= SNAPSHOT_ATTEMPTS) {
+                    return false;
+                }
+                Thread.yield();
+            }
+        }
+
+        private long take(int counter) {
+            long value = snapshot[counter];
+            long delta = value - mergedCounters[counter];
+            mergedCounters[counter] = value;
+            return delta;
+        }
+
+        private double takeDouble(int counter) {
+            long bits = snapshot[counter];
+            double delta = Double.longBitsToDouble(bits) - Double.longBitsToDouble(mergedCounters[counter]);
+            mergedCounters[counter] = bits;
+            return delta;
+        }
+
+        /**
+         * Moves counters of events recorded since previous merge into given generation.
+         * Min and max of events that writer recorded in previous period after reporter read them are lost,
+         * if there are no other min and max of the period, they are approximated by average.
+         *
+         * @param currentPeriod period which min and max are merged
+         * @param awaitWriter   if false and writer is recording event, merge is postponed till next report
+         * @return false if slab did not record anything since previous merge
+         */
+        boolean mergeInto(AggregateGeneration aggregate, long currentPeriod, boolean awaitWriter) {
+            if (!takeSnapshot(awaitWriter)) {
+                return true;
+            }
+            long startSum = take(START_SUM);
+            long skippedStopSum = take(SKIPPED_STOP_SUM);
+            long latencyCount = take(LATENCY_COUNT);
+            long latencySum = take(LATENCY_SUM);
+            long skippedLatencyCount = take(SKIPPED_LATENCY_COUNT);
+            long callsWithoutLatency = take(CALLS_WITHOUT_LATENCY);
+            double payloadSum = takeDouble(PAYLOAD_SUM);
+            long callsWithoutPayload = take(CALLS_WITHOUT_PAYLOAD);
+            long stopSum = latencyCount + callsWithoutLatency + skippedStopSum;
+            long payloadCount = latencyCount + callsWithoutLatency - callsWithoutPayload;
+            boolean periodRecorded = snapshot[PERIOD] == currentPeriod;
+
+            if (startSum != 0) {
+                aggregate.startSumAdder.add(startSum);
+            }
+            if (stopSum != 0) {
+                aggregate.stopSumAdder.add(stopSum);
+            }
+            if (skippedStopSum != 0) {
+                aggregate.skippedStopSumAdder.add(skippedStopSum);
+            }
+
+            if (latencyCount != 0 || latencySum != 0) {
+                long latencyMin = Long.MAX_VALUE;
+                long latencyMax = 0;
+                if (latencyCount != 0) {
+                    latencyMin = periodRecorded ? snapshot[LATENCY_MIN] : Long.MAX_VALUE;
+                    latencyMax = periodRecorded ? snapshot[LATENCY_MAX] : 0;
+                    if (latencyMin > latencyMax) {
+                        latencyMin = latencyMax = latencySum / (latencyCount + skippedLatencyCount);
+                    }
+                }
+                AggregateGeneration.LatencyAccumulators latencies = aggregate.latencies();
+                latencies.add(latencySum, latencyMin, latencyMax);
+                latencies.skippedCount.add(skippedLatencyCount);
+            }
+            if (callsWithoutLatency != 0) {
+                aggregate.markCallsWithoutLatency();
+            }
+
+            if (payloadCount != 0 || payloadSum != 0) {
+                double payloadMin = Long.MAX_VALUE;
+                double payloadMax = 0;
+                if (payloadCount != 0) {
+                    payloadMin = periodRecorded ? Double.longBitsToDouble(snapshot[PAYLOAD_MIN]) : Long.MAX_VALUE;
+                    payloadMax = periodRecorded ? Double.longBitsToDouble(snapshot[PAYLOAD_MAX]) : 0;
+                    if (payloadMin > payloadMax) {
+                        payloadMin = payloadMax = payloadSum / payloadCount;
+                    }
+                }
+                aggregate.payloads().add(payloadSum, payloadMin, payloadMax);
+            }
+            if (callsWithoutPayload != 0) {
+                aggregate.markCallsWithoutPayload();
+            }
+
+            boolean bucketsRecorded = mergeBuckets(aggregate);
+
+            return startSum != 0 || stopSum != 0 || latencyCount != 0 || latencySum != 0
+                    || payloadCount != 0 || payloadSum != 0 || bucketsRecorded;
+        }
+
+        private boolean mergeBuckets(AggregateGeneration aggregate) {
+            boolean recorded = false;
+            for (int bucketIndex = 0; bucketIndex < snapshotBuckets.length; bucketIndex++) {
+                long value = snapshotBuckets[bucketIndex];
+                if (value != mergedBuckets[bucketIndex]) {
+                    aggregate.latencyHistogram().accumulateBucket(bucketIndex, value - mergedBuckets[bucketIndex]);
+                    mergedBuckets[bucketIndex] = value;
+                    recorded = true;
+                }
+            }
+            return recorded;
+        }
+
+        boolean moveSeconds(long currentSecond) {
+            boolean moved = startSeconds.moveTo(aggregation.startThroughputPerSecond, currentSecond);
+            moved |= stopSeconds.moveTo(aggregation.stopThroughputPerSecond, currentSecond);
+            return moved;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package ru.fix.aggregating.profiler.engine;
+
+import ru.fix.aggregating.profiler.ThroughputPerSecondSeries;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Counts events in aligned seconds.
+ * <p>
+ * Writer counts events in the cell of its stripe, cell is tagged with the second it counts.
+ * Writer that is the first to record event of a newer second replaces the cell of the stripe by CAS
+ * and pushes replaced cell to the lock-free stack of retired cells, so writers never wait for each other
+ * or for the reporter. Late event of a second older than second of the cell is pushed to the stack
+ * in its own cell, so it is counted in its own second.
+ * Reporter detaches cells of completed seconds from stripes, takes retired cells
+ * and closes each cell by swapping its count with {@link #CLOSED}:
+ * writer that still holds reference to detached cell either adds to it before it is closed,
+ * or sees closed cell and counts event in a new cell, so no event is lost.
+ * Stripes are selected by thread id and their number grows on contention, same as in {@link StripedLongArray}.
+ * <p>
+ * Report contains all completed seconds since previous report, second that is in progress goes to the next report.
+ */
+public class ThroughputPerSecondRing {
+    private static final AtomicReferenceFieldUpdater<ThroughputPerSecondRing, Stripe[]> STRIPES =
+            AtomicReferenceFieldUpdater.newUpdater(ThroughputPerSecondRing.class, Stripe[].class, "stripes");
+    private static final AtomicReferenceFieldUpdater<ThroughputPerSecondRing, SecondCount> RETIRED =
+            AtomicReferenceFieldUpdater.newUpdater(ThroughputPerSecondRing.class, SecondCount.class, "retired");
+
+    private static final long ONE_SECOND_MS = 1_000;
+
+    private static final long FREE = -1;
+
+    /**
+     * Count of the cell that was collected by reporter and does not accept events anymore
+     */
+    private static final long CLOSED = Long.MIN_VALUE;
+
+    private static final int MAX_STRIPES = Integer.highestOneBit(
+            Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1));
+
+    /**
+     * Longest series in single report, seconds before that are summed into the first second of the series
+     */
+    static final int MAX_SERIES_LENGTH = 3_600;
+
+    /**
+     * Arrays of completed seconds are allocated when first second completes
+     */
+    private static final long[] NO_SECONDS = new long[0];
+
+    /**
+     * Count of events of single second, next links retired cells in the stack
+     */
+    private static final class SecondCount extends AtomicLong {
+        final long second;
+        SecondCount next;
+
+        SecondCount(long second, long count) {
+            super(count);
+            this.second = second;
+        }
+    }
+
+    /**
+     * Holds cell of the second that is counted by threads of the stripe, null until first event
+     */
+    private static final class Stripe extends AtomicReference<SecondCount> {
+    }
+
+    /**
+     * Size is always a power of two, growing creates new array with same old stripes and additional new ones.
+     * Null until first event, so ring of identity without events allocates nothing else.
+     */
+    private volatile Stripe[] stripes;
+
+    /**
+     * Head of the stack of cells replaced by writers that are not collected by reporter yet
+     */
+    private volatile SecondCount retired;
+
+    /**
+     * Completed seconds that are not reported yet, guarded by this
+     */
+    private long[] completedSeconds = NO_SECONDS;
+    private long[] completedCounts = NO_SECONDS;
+    private int completedSize;
+
+    /**
+     * First second that is not reported yet, {@link #FREE} before first report with events
+     */
+    private long reportedUpToSecond = FREE;
+
+    /**
+     * Counts of seconds collected by last report, buffer is reused between reports, guarded by this
+     */
+    private long[] reportCounts = NO_SECONDS;
+    private int reportSize;
+    private long reportFromSecond;
+
+    public void call(long currentTimestamp, long eventCount) {
+        long second = currentTimestamp / ONE_SECOND_MS;
+        Stripe[] currentStripes = stripes;
+        if (currentStripes == null) {
+            currentStripes = firstStripes();
+        }
+        Stripe stripe = currentStripes[(int) Thread.currentThread().getId() & (currentStripes.length - 1)];
+
+        while (true) {
+            SecondCount cell = stripe.get();
+            if (cell == null || cell.second < second) {
+                if (stripe.compareAndSet(cell, new SecondCount(second, eventCount))) {
+                    if (cell != null) {
+                        retire(cell);
+                    }
+                    return;
+                }
+            } else if (cell.second > second) {
+                retire(new SecondCount(second, eventCount));
+                return;
+            } else {
+                long count = cell.get();
+                if (count != CLOSED) {
+                    if (cell.compareAndSet(count, count + eventCount)) {
+                        return;
+                    }
+                    grow(currentStripes);
+                }
+                // closed cell is already detached from the stripe, next attempt reads new cell
+            }
+        }
+    }
+
+    private Stripe[] firstStripes() {
+        // thread that lost the race uses stripes of the winner
+        STRIPES.compareAndSet(this, null, new Stripe[]{new Stripe()});
+        return stripes;
+    }
+
+    private void retire(SecondCount cell) {
+        SecondCount head;
+        do {
+            head = retired;
+            cell.next = head;
+        } while (!RETIRED.compareAndSet(this, head, cell));
+    }
+
+    private void grow(Stripe[] observedStripes) {
+        if (observedStripes.length >= MAX_STRIPES) {
+            return;
+        }
+        Stripe[] newStripes = Arrays.copyOf(observedStripes, observedStripes.length * 2);
+        for (int stripe = observedStripes.length; stripe < newStripes.length; stripe++) {
+            newStripes[stripe] = new Stripe();
+        }
+        // thread that lost the race uses stripes of the winner
+        STRIPES.compareAndSet(this, observedStripes, newStripes);
+    }
+
+    /**
+     * @return number of aligned second of given timestamp
+     */
+    static long secondOf(long timestamp) {
+        return timestamp / ONE_SECOND_MS;
+    }
+
+    /**
+     * Adds count of the second that was counted outside of the ring, e.g. by {@link ThreadLocalCallAggregation}.
+     * Second should be completed, counts of the same second are summed in report.
+     * Invoked by reporter.
+     */
+    void addCompletedSecond(long second, long count) {
+        complete(second, count);
+    }
+
+    private synchronized void complete(long second, long count) {
+        if (count == 0) {
+            return;
+        }
+        if (completedSize == completedSeconds.length) {
+            int capacity = Math.max(8, completedSize * 2);
+            completedSeconds = Arrays.copyOf(completedSeconds, capacity);
+            completedCounts = Arrays.copyOf(completedCounts, capacity);
+        }
+        completedSeconds[completedSize] = second;
+        completedCounts[completedSize] = count;
+        completedSize++;
+    }
+
+    /**
+     * Should not be invoked concurrently
+     *
+     * @return counts of seconds that completed since previous invocation, empty series if there were no events
+     */
+    public ThroughputPerSecondSeries buildAndReset(long currentTimestamp) {
+        long currentSecond = currentTimestamp / ONE_SECOND_MS;
+        collectCompletedCells(currentSecond);
+
+        synchronized (this) {
+            if (!collectAndReset(currentSecond)) {
+                return ThroughputPerSecondSeries.EMPTY;
+            }
+            return new ThroughputPerSecondSeries(
+                    reportFromSecond * ONE_SECOND_MS,
+                    Arrays.copyOf(reportCounts, reportSize));
+        }
+    }
+
+    /**
+     * Same as max of the series built by {@link #buildAndReset(long)}, but series is not allocated.
+     * Should not be invoked concurrently
+     *
+     * @return maximum count of seconds that completed since previous invocation
+     */
+    public long maxAndReset(long currentTimestamp) {
+        long currentSecond = currentTimestamp / ONE_SECOND_MS;
+        collectCompletedCells(currentSecond);
+
+        synchronized (this) {
+            if (!collectAndReset(currentSecond)) {
+                return 0;
+            }
+            long max = 0;
+            for (int i = 0; i < reportSize; i++) {
+                max = Math.max(max, reportCounts[i]);
+            }
+            return max;
+        }
+    }
+
+    /**
+     * Detaches cells of completed seconds from stripes and closes them together with retired cells
+     */
+    private void collectCompletedCells(long currentSecond) {
+        Stripe[] currentStripes = stripes;
+        if (currentStripes == null) {
+            return;
+        }
+        for (Stripe stripe : currentStripes) {
+            SecondCount cell = stripe.get();
+            if (cell != null && cell.second < currentSecond && stripe.compareAndSet(cell, null)) {
+                close(cell);
+            }
+        }
+        SecondCount cell = RETIRED.getAndSet(this, null);
+        while (cell != null) {
+            close(cell);
+            cell = cell.next;
+        }
+    }
+
+    private void close(SecondCount cell) {
+        complete(cell.second, cell.getAndSet(CLOSED));
+    }
+
+    /**
+     * Moves counts of completed seconds before current second to {@link #reportCounts}
+     *
+     * @return false if there are no completed seconds
+     */
+    private boolean collectAndReset(long currentSecond) {
+        if (completedSize == 0) {
+            if (reportedUpToSecond != FREE) {
+                reportedUpToSecond = Math.max(reportedUpToSecond, currentSecond);
+            }
+            return false;
+        }
+        long fromSecond = reportedUpToSecond;
+        if (fromSecond == FREE) {
+            fromSecond = completedSeconds[0];
+            for (int i = 1; i < completedSize; i++) {
+                fromSecond = Math.min(fromSecond, completedSeconds[i]);
+            }
+        }
+        long toSecond = Math.max(fromSecond, currentSecond);
+        fromSecond = Math.max(fromSecond, toSecond - MAX_SERIES_LENGTH);
+
+        int size = (int) (toSecond - fromSecond);
+        if (reportCounts.length < size) {
+            reportCounts = new long[size];
+        } else {
+            Arrays.fill(reportCounts, 0, size, 0);
+        }
+        for (int i = 0; i < completedSize; i++) {
+            long second = completedSeconds[i];
+            if (second >= toSecond) {
+                // event with timestamp from the future, keep it for the next report
+                continue;
+            }
+            int index = (int) Math.max(0, second - fromSecond);
+            if (index < size) {
+                reportCounts[index] += completedCounts[i];
+            }
+        }
+
+        int keptSize = 0;
+        for (int i = 0; i < completedSize; i++) {
+            if (completedSeconds[i] >= toSecond) {
+                completedSeconds[keptSize] = completedSeconds[i];
+                completedCounts[keptSize] = completedCounts[i];
+                keptSize++;
+            }
+        }
+        completedSize = keptSize;
+        reportedUpToSecond = toSecond;
+        reportFromSecond = fromSecond;
+        reportSize = size;
+        return true;
+    }
+
+    /**
+     * @return series that covers seconds of both series, counts of the same second are summed
+     */
+    static ThroughputPerSecondSeries concat(ThroughputPerSecondSeries earlier, ThroughputPerSecondSeries later) {
+        if (later.size() == 0) {
+            return earlier;
+        }
+        if (earlier.size() == 0) {
+            return later;
+        }
+        long toSecond = Math.max(
+                earlier.getStartTimestamp() / ONE_SECOND_MS + earlier.size(),
+                later.getStartTimestamp() / ONE_SECOND_MS + later.size());
+        long fromSecond = Math.min(earlier.getStartTimestamp(), later.getStartTimestamp()) / ONE_SECOND_MS;
+        fromSecond = Math.max(fromSecond, toSecond - MAX_SERIES_LENGTH);
+
+        long[] counts = new long[(int) (toSecond - fromSecond)];
+        for (ThroughputPerSecondSeries series : new ThroughputPerSecondSeries[]{earlier, later}) {
+            long seriesFromSecond = series.getStartTimestamp() / ONE_SECOND_MS;
+            for (int i = 0; i < series.size(); i++) {
+                counts[(int) Math.max(0, seriesFromSecond + i - fromSecond)] += series.get(i);
+            }
+        }
+        return new ThroughputPerSecondSeries(fromSecond * ONE_SECOND_MS, counts);
+    }
+}
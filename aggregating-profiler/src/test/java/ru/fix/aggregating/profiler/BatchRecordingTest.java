@@ -0,0 +1,193 @@
+package ru.fix.aggregating.profiler;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BatchRecordingTest {
+
+    private interface Recorder {
+        void record(AggregatingProfiler profiler, ManualProfilerClock clock, ProfiledCallFactory handle);
+    }
+
+    private static Map<String, Number> report(boolean threadLocalAggregation, Recorder recorder) throws Exception {
+        ManualProfilerClock clock = new ManualProfilerClock(1_000_000);
+        AggregatingProfiler profiler = new AggregatingProfiler()
+                .setClock(clock)
+                .setThreadLocalAggregation(threadLocalAggregation);
+
+        try (ProfilerReporter reporter = profiler.createReporter()) {
+            recorder.record(profiler, clock, profiler.handle(new Identity("batch")));
+            clock.advance(1, TimeUnit.SECONDS);
+            return reporter.buildReportAndReset().getProfilerCallReports().get(0).asMap();
+        }
+    }
+
+    @Test
+    public void recorded_latencies_are_reported_as_individual_calls() throws Exception {
+        long[] latencies = new long[100];
+        Random random = new Random(42);
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = random.nextInt(1_000);
+        }
+        latencies[7] = 0;
+
+        for (boolean threadLocalAggregation : new boolean[]{false, true}) {
+            Map<String, Number> individual = report(threadLocalAggregation, (profiler, clock, handle) -> {
+                for (int i = 0; i < 90; i++) {
+                    handle.call(clock.currentTimeMillis() - latencies[i]);
+                }
+            });
+            Map<String, Number> batch = report(threadLocalAggregation, (profiler, clock, handle) ->
+                    handle.recordLatencies(latencies, 90));
+
+            assertEquals(individual, batch);
+            assertEquals(90L, batch.get("stopSum"));
+        }
+    }
+
+    @Test
+    public void batch_of_calls_is_reported_as_individual_calls_with_average_latency_and_payload() throws Exception {
+        for (boolean threadLocalAggregation : new boolean[]{false, true}) {
+            Map<String, Number> individual = report(threadLocalAggregation, (profiler, clock, handle) -> {
+                for (int i = 0; i < 10; i++) {
+                    handle.call(clock.currentTimeMillis() - 30, 4);
+                }
+            });
+            Map<String, Number> batch = report(threadLocalAggregation, (profiler, clock, handle) ->
+                    profiler.profiledCall("batch").call(10, 300, 40));
+
+            assertEquals(individual, batch);
+            assertEquals(30L, batch.get("latencyAvg"));
+            assertEquals(40.0, batch.get("payloadSum"));
+        }
+    }
+
+    @Test
+    public void batch_latencies_are_converted_to_profiler_unit() throws Exception {
+        AggregatingProfiler profiler = new AggregatingProfiler(new PercentileSettings(), TimeUnit.MICROSECONDS);
+        try (ProfilerReporter reporter = profiler.createReporter()) {
+            ProfiledCallFactory handle = profiler.handle(new Identity("batch"));
+            handle.recordLatencies(new long[]{1_500, 2_500}, 2, TimeUnit.NANOSECONDS);
+            handle.call(2, 6, TimeUnit.MILLISECONDS, 0);
+
+            ProfiledCallReport report = reporter.buildReportAndReset().getProfilerCallReports().get(0);
+            assertEquals(4, report.getStopSum());
+            assertEquals(1, report.getLatencyMin());
+            assertEquals(3_000, report.getLatencyMax());
+        }
+    }
+
+    /**
+     * Implementation of the interface outside of the library that does not know batch methods
+     */
+    private static class PerCallProfiledCall implements ProfiledCall {
+        final ProfiledCall delegate;
+
+        PerCallProfiledCall(ProfiledCall delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void call() {
+            delegate.call();
+        }
+
+        @Override
+        public void call(double payload) {
+            delegate.call(payload);
+        }
+
+        @Override
+        public void call(long startTime) {
+            delegate.call(startTime);
+        }
+
+        @Override
+        public void call(long startTime, double payload) {
+            delegate.call(startTime, payload);
+        }
+
+        @Override
+        public ProfiledCall start() {
+            delegate.start();
+            return this;
+        }
+
+        @Override
+        public void stop() {
+            delegate.stop();
+        }
+
+        @Override
+        public void stop(double payload) {
+            delegate.stop(payload);
+        }
+
+        @Override
+        public void stopIfRunning(double payload) {
+            delegate.stopIfRunning(payload);
+        }
+
+        @Override
+        public <R> R profile(Supplier<R> block) {
+            return delegate.profile(block);
+        }
+
+        @Override
+        public <R, T extends Throwable> R profileThrowable(ThrowableSupplier<R, T> block) throws T {
+            return delegate.profileThrowable(block);
+        }
+
+        @Override
+        public <T extends Throwable> void profileThrowable(ThrowableRunnable<T> block) throws T {
+            delegate.profileThrowable(block);
+        }
+
+        @Override
+        public void profile(Runnable block) {
+            delegate.profile(block);
+        }
+
+        @Override
+        public <R> CompletableFuture<R> profileFuture(Supplier<CompletableFuture<R>> asyncInvocation) {
+            return delegate.profileFuture(asyncInvocation);
+        }
+
+        @Override
+        public <R, T extends Throwable> CompletableFuture<R> profileFutureThrowable(
+                ThrowableSupplier<CompletableFuture<R>, T> asyncInvocation) throws T {
+            return delegate.profileFutureThrowable(asyncInvocation);
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+        }
+    }
+
+    @Test
+    public void implementation_without_batch_methods_records_batch_call_by_call() throws Exception {
+        AggregatingProfiler profiler = new AggregatingProfiler();
+        try (ProfilerReporter reporter = profiler.createReporter()) {
+            ProfiledCall call = new PerCallProfiledCall(profiler.profiledCall("batch"));
+            call.call(10, 300, 40);
+            call.call(5, 0, TimeUnit.MILLISECONDS, 0);
+            call.recordLatencies(new long[]{20_000, 40_000}, 2, TimeUnit.MICROSECONDS);
+
+            ProfiledCallReport report = reporter.buildReportAndReset().getProfilerCallReports().get(0);
+            assertEquals(17, report.getStopSum());
+            assertEquals(40.0, report.getPayloadSum());
+            assertEquals(0, report.getLatencyMin());
+            // clock could tick between start time calculation and recording
+            assertTrue(report.getLatencyMax() >= 40 && report.getLatencyMax() <= 41, report::toString);
+        }
+    }
+}
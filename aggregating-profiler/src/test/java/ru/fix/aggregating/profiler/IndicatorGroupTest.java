@@ -0,0 +1,197 @@
+package ru.fix.aggregating.profiler;
+
+import org.junit.jupiter.api.Test;
+import ru.fix.aggregating.profiler.engine.AggregatingReporter;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IndicatorGroupTest {
+
+    @Test
+    public void group_values_are_reported_with_prefix_and_evaluated_once_per_report() throws Exception {
+        AggregatingProfiler profiler = new AggregatingProfiler();
+        AtomicInteger invocations = new AtomicInteger();
+
+        try (ProfilerReporter reporter = profiler.createReporter()) {
+            profiler.attachIndicatorGroup(new Identity("pool", "db", "main"), sink -> {
+                invocations.incrementAndGet();
+                sink.indicate("active", 3);
+                sink.indicate("idle", 7);
+                sink.indicate(new Identity("waiting", "queue", "fair"), 1);
+            });
+
+            Map<Identity, Long> indicators = reporter.buildReportAndReset().getIndicators();
+            assertEquals(1, invocations.get());
+            assertEquals(3, indicators.size());
+            assertEquals(3L, indicators.get(new Identity("pool.active", "db", "main")).longValue());
+            assertEquals(7L, indicators.get(new Identity("pool.idle", "db", "main")).longValue());
+            assertEquals(1L, indicators.get(new Identity("pool.waiting", "db", "main", "queue", "fair")).longValue());
+
+            profiler.detachIndicatorGroup(new Identity("pool", "db", "main"));
+            assertTrue(reporter.buildReportAndReset().getIndicators().isEmpty());
+            assertEquals(1, invocations.get());
+        }
+    }
+
+    @Test
+    public void failed_group_is_not_reported() throws Exception {
+        AggregatingProfiler profiler = new AggregatingProfiler();
+        try (ProfilerReporter reporter = profiler.createReporter()) {
+            profiler.attachIndicatorGroup("cache", sink -> {
+                sink.indicate("size", 10);
+                throw new IllegalStateException("cache is closed");
+            });
+            profiler.attachIndicator("queue.size", () -> 5L);
+
+            Map<Identity, Long> indicators = reporter.buildReportAndReset().getIndicators();
+            assertEquals(Collections.singleton(new Identity("queue.size")), indicators.keySet());
+        }
+    }
+
+    @Test
+    public void group_values_are_filtered_by_labels_of_prefix() throws Exception {
+        AggregatingProfiler profiler = new AggregatingProfiler();
+        Map<String, Set<Pattern>> rules = new HashMap<>();
+        rules.put("storage", Collections.singleton(Pattern.compile("cache.*")));
+
+        try (AggregatingReporter reporter = (AggregatingReporter) profiler.createReporter()) {
+            reporter.setLabelSticker(new RegexpLabelSticker("type", rules));
+            profiler.attachIndicatorGroup("cache", sink -> sink.indicate("size", 10));
+            profiler.attachIndicatorGroup("queue", sink -> sink.indicate("size", 20));
+
+            Map<Identity, Long> indicators = reporter
+                    .buildReportAndReset(ReportFilters.containsLabel("type", "storage"))
+                    .getIndicators();
+            assertEquals(Collections.singletonMap(new Identity("cache.size"), 10L), indicators);
+        }
+    }
+
+    @Test
+    public void prefixed_profiler_attaches_group_with_its_prefix() throws Exception {
+        AggregatingProfiler profiler = new AggregatingProfiler();
+        try (ProfilerReporter reporter = profiler.createReporter()) {
+            new PrefixedProfiler(profiler, "service").attachIndicatorGroup("queue", sink -> sink.indicate("size", 2));
+
+            assertEquals(
+                    Collections.singletonMap(new Identity("service.queue.size"), 2L),
+                    reporter.buildReportAndReset().getIndicators());
+        }
+    }
+
+    @Test
+    public void group_is_evaluated_on_executor() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        ManualProfilerClock clock = new ManualProfilerClock(1_000_000);
+        AggregatingProfiler profiler = new AggregatingProfiler()
+                .setClock(clock)
+                .setIndicatorEvaluationExecutor(executor, 1_000);
+
+        try (ProfilerReporter reporter = profiler.createReporter()) {
+            profiler.attachIndicatorGroup("queue", sink -> {
+                sink.indicate("size", 4);
+                sink.indicate("capacity", 16);
+            });
+            AggregatingIndicatorGroup group = profiler.getIndicatorGroups().get(new Identity("queue"));
+            long deadline = System.currentTimeMillis() + 10_000;
+            Map<Identity, Long> cachedValues = new HashMap<>();
+            while (cachedValues.isEmpty()) {
+                assertTrue(System.currentTimeMillis() < deadline, "Indicator group is not evaluated");
+                Thread.sleep(5);
+                group.forEachCachedValue(cachedValues::put);
+            }
+
+            clock.advance(3, TimeUnit.SECONDS);
+            ProfilerReport report = reporter.buildReportAndReset();
+
+            assertEquals(4L, report.getIndicators().get(new Identity("queue.size")).longValue());
+            assertEquals(16L, report.getIndicators().get(new Identity("queue.capacity")).longValue());
+            assertEquals(3_000L, report.getIndicatorValueAges().get(new Identity("queue.size")).longValue());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Implementation of the interface outside of the library that does not know indicator groups
+     */
+    private static class SingleIndicatorProfiler implements Profiler {
+        final Profiler delegate;
+
+        SingleIndicatorProfiler(Profiler delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public ProfiledCall profiledCall(String name) {
+            return delegate.profiledCall(name);
+        }
+
+        @Override
+        public ProfiledCall profiledCall(Identity identity) {
+            return delegate.profiledCall(identity);
+        }
+
+        @Override
+        public void attachIndicator(String name, IndicationProvider indicationProvider) {
+            delegate.attachIndicator(name, indicationProvider);
+        }
+
+        @Override
+        public void attachIndicator(Identity identity, IndicationProvider indicationProvider) {
+            delegate.attachIndicator(identity, indicationProvider);
+        }
+
+        @Override
+        public void detachIndicator(String name) {
+            delegate.detachIndicator(name);
+        }
+
+        @Override
+        public void detachIndicator(Identity identity) {
+            delegate.detachIndicator(identity);
+        }
+
+        @Override
+        public ProfilerReporter createReporter() {
+            return delegate.createReporter();
+        }
+    }
+
+    @Test
+    public void profiler_without_group_support_attaches_each_indicator_of_group() throws Exception {
+        AggregatingProfiler aggregatingProfiler = new AggregatingProfiler();
+        Profiler profiler = new SingleIndicatorProfiler(aggregatingProfiler);
+        AtomicInteger invocations = new AtomicInteger();
+
+        try (ProfilerReporter reporter = profiler.createReporter()) {
+            profiler.attachIndicatorGroup(new Identity("pool", "db", "main"), sink -> {
+                int invocation = invocations.incrementAndGet();
+                sink.indicate("active", invocation);
+                sink.indicate(new Identity("idle", "state", "free"), 10 * invocation);
+            });
+            assertTrue(aggregatingProfiler.getIndicatorGroups().isEmpty());
+
+            Map<Identity, Long> indicators = reporter.buildReportAndReset().getIndicators();
+            assertEquals(2, invocations.get());
+            assertEquals(2, indicators.size());
+            assertEquals(2L, indicators.get(new Identity("pool.active", "db", "main")).longValue());
+            assertEquals(20L, indicators.get(new Identity("pool.idle", "db", "main", "state", "free")).longValue());
+
+            indicators = reporter.buildReportAndReset().getIndicators();
+            assertEquals(3, invocations.get());
+            assertEquals(3L, indicators.get(new Identity("pool.active", "db", "main")).longValue());
+            assertEquals(30L, indicators.get(new Identity("pool.idle", "db", "main", "state", "free")).longValue());
+
+            profiler.detachIndicatorGroup(new Identity("pool", "db", "main"));
+            assertTrue(reporter.buildReportAndReset().getIndicators().isEmpty());
+            assertEquals(3, invocations.get());
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package ru.fix.aggregating.profiler;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencySamplingTest {
+
+    private static final int CALLS = 100_000;
+
+    private static ProfiledCallReport report(AggregatingProfiler profiler,
+                                             ManualProfilerClock clock,
+                                             String name) throws Exception {
+        try (ProfilerReporter reporter = profiler.createReporter()) {
+            ProfiledCallFactory handle = profiler.handle(new Identity(name));
+            for (int i = 0; i < CALLS; i++) {
+                // latencies are uniformly distributed within [1, 100]
+                handle.call(clock.currentTimeMillis() - (1 + i % 100), 2);
+            }
+            clock.advance(1, TimeUnit.SECONDS);
+            return reporter.buildReportAndReset().getProfilerCallReports().stream()
+                    .filter(report -> report.getIdentity().getName().equals(name))
+                    .findAny()
+                    .get();
+        }
+    }
+
+    @Test
+    public void counts_and_sums_are_exact_and_percentiles_are_estimated_from_sample() throws Exception {
+        ManualProfilerClock exactClock = new ManualProfilerClock(1_000_000);
+        ProfiledCallReport exact = report(new AggregatingProfiler().setClock(exactClock), exactClock, "exact");
+
+        for (boolean threadLocalAggregation : new boolean[]{false, true}) {
+            ManualProfilerClock clock = new ManualProfilerClock(1_000_000);
+            AggregatingProfiler profiler = new AggregatingProfiler()
+                    .setClock(clock)
+                    .setThreadLocalAggregation(threadLocalAggregation)
+                    .setLatencySamplingRate(0.1);
+
+            ProfiledCallReport report = report(profiler, clock, "sampled");
+
+            assertEquals(CALLS, report.getStartSum());
+            assertEquals(CALLS, report.getStopSum());
+            assertEquals(2.0 * CALLS, report.getPayloadSum());
+            assertEquals(50, report.getLatencyAvg());
+
+            assertEquals(0.1, report.getLatencySampleRate(), 0.01);
+            assertEquals(report.getLatencySampleRate(), report.asMap().get("latencySampleRate"));
+
+            assertEquals(1, report.getLatencyMin(), 1);
+            assertEquals(100, report.getLatencyMax(), 1);
+            assertEquals(2.0, report.getPayloadMin());
+            assertEquals(exact.getLatencyPercentile(), report.getLatencyPercentile());
+        }
+    }
+
+    @Test
+    public void identity_rate_overrides_profiler_rate() throws Exception {
+        ManualProfilerClock clock = new ManualProfilerClock(1_000_000);
+        AggregatingProfiler profiler = new AggregatingProfiler()
+                .setClock(clock)
+                .setLatencySamplingRate(0.5)
+                .setLatencySamplingRate(new Identity("exact"), 1);
+
+        ProfiledCallReport exact = report(profiler, clock, "exact");
+        assertEquals(1.0, exact.getLatencySampleRate());
+        assertFalse(exact.asMap().containsKey("latencySampleRate"));
+
+        assertEquals(0.5, report(profiler, clock, "sampled").getLatencySampleRate(), 0.02);
+
+        profiler.resetLatencySamplingRate(new Identity("exact"));
+        assertEquals(0.5, profiler.getLatencySamplingRate(new Identity("exact")));
+        assertThrows(IllegalArgumentException.class, () -> profiler.setLatencySamplingRate(0));
+    }
+
+    @Test
+    public void sampled_histogram_counts_are_scaled_to_all_calls() throws Exception {
+        ManualProfilerClock clock = new ManualProfilerClock(1_000_000);
+        AggregatingProfiler profiler = new AggregatingProfiler()
+                .setClock(clock)
+                .setLatencySamplingRate(0.25);
+
+        try (CumulativeProfilerReporter reporter = profiler.createCumulativeReporter()) {
+            ProfiledCallFactory handle = profiler.handle(new Identity("sampled"));
+            for (int i = 0; i < CALLS; i++) {
+                handle.call(clock.currentTimeMillis() - 10);
+            }
+            CumulativeCallReport report = reporter.buildReport().getCallReports().get(0);
+
+            assertEquals(CALLS, report.getStopSum());
+            assertEquals(CALLS, report.getLatencyCount(), CALLS * 0.01);
+        }
+    }
+
+    @Test
+    public void calls_without_latency_do_not_affect_scale_of_histogram_counts() throws Exception {
+        for (boolean threadLocalAggregation : new boolean[]{false, true}) {
+            ManualProfilerClock clock = new ManualProfilerClock(1_000_000);
+            AggregatingProfiler profiler = new AggregatingProfiler()
+                    .setClock(clock)
+                    .setThreadLocalAggregation(threadLocalAggregation)
+                    .setLatencySamplingRate(0.25);
+
+            try (CumulativeProfilerReporter reporter = profiler.createCumulativeReporter()) {
+                ProfiledCallFactory handle = profiler.handle(new Identity("sampled"));
+                for (int i = 0; i < CALLS; i++) {
+                    handle.call(clock.currentTimeMillis() - 10);
+                    handle.call();
+                }
+                CumulativeCallReport report = reporter.buildReport().getCallReports().get(0);
+
+                assertEquals(2 * CALLS, report.getStopSum());
+                // all calls with latency are in the single bucket, scaled count is exact
+                assertEquals(CALLS, report.getLatencyCount());
+            }
+        }
+    }
+}
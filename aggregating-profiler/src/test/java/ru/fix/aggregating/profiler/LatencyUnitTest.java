@@ -0,0 +1,118 @@
+package ru.fix.aggregating.profiler;
+
+import org.junit.jupiter.api.Test;
+import ru.fix.aggregating.profiler.engine.AggregatingCall;
+import ru.fix.aggregating.profiler.engine.CallAggregate;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyUnitTest {
+
+    @Test
+    public void sub_millisecond_calls_are_reported_in_microseconds() throws Exception {
+        AggregatingProfiler profiler = new AggregatingProfiler(new PercentileSettings(), TimeUnit.MICROSECONDS);
+        try (ProfilerReporter reporter = profiler.createReporter()) {
+
+            for (int i = 0; i < 10; i++) {
+                profiler.profiledCall("fast").profile(() -> busyWait(TimeUnit.MICROSECONDS.toNanos(200)));
+            }
+
+            ProfiledCallReport report = reporter.buildReportAndReset().getProfilerCallReports().get(0);
+
+            assertEquals(TimeUnit.MICROSECONDS, report.getLatencyUnit());
+            assertTrue(report.getLatencyMin() >= 200, "latencyMin " + report.getLatencyMin());
+            assertTrue(report.getLatencyAvg() >= 200, "latencyAvg " + report.getLatencyAvg());
+
+            // default buckets are defined in milliseconds and converted to microseconds
+            report.getLatencyPercentile().values().forEach(percentile ->
+                    assertTrue(percentile >= 3_000 && percentile % 1_000 == 0,
+                            "percentile " + percentile));
+
+            double latencyMinMs = report.asMap(TimeUnit.MILLISECONDS).get("latencyMin").doubleValue();
+            assertEquals(report.getLatencyMin() / 1000.0, latencyMinMs, 0.0001);
+        }
+    }
+
+    @Test
+    public void zero_measured_latency_gets_into_percentiles() {
+        CallAggregate aggregate = new CallAggregate(
+                new Identity("call"),
+                new AtomicInteger(0),
+                new PercentileSettings().setPercentiles(Arrays.asList(50, 99)),
+                false,
+                TimeUnit.MILLISECONDS);
+
+        AggregatingCall call = new AggregatingCall(new Identity("call"), (identity, action) -> {
+        });
+        for (int i = 0; i < 99; i++) {
+            aggregate.start(call, System.currentTimeMillis());
+            aggregate.stop(call, System.currentTimeMillis(), 0, 0);
+        }
+        aggregate.start(call, System.currentTimeMillis());
+        aggregate.stop(call, System.currentTimeMillis(), 100, 0);
+
+        Map<Integer, Long> percentiles = aggregate.buildReportAndReset(1_000).getLatencyPercentile();
+
+        // zero latency falls into the smallest bucket
+        assertEquals(Long.valueOf(3), percentiles.get(50));
+        assertEquals(Long.valueOf(3), percentiles.get(99));
+    }
+
+    @Test
+    public void zero_latency_of_call_with_start_time_is_measured_in_every_storage_mode() throws Exception {
+        for (int mode = 0; mode < 3; mode++) {
+            ManualProfilerClock clock = new ManualProfilerClock(1_000_000);
+            AggregatingProfiler profiler = new AggregatingProfiler()
+                    .setClock(clock)
+                    .setThreadLocalAggregation(mode == 1)
+                    .setColumnarStorage(mode == 2);
+            try (ProfilerReporter reporter = profiler.createReporter()) {
+                ProfiledCall call = profiler.profiledCall("call");
+                for (int i = 0; i < 99; i++) {
+                    call.call(clock.currentTimeMillis(), 1);
+                }
+                call.call(clock.currentTimeMillis() - 100, 1);
+                // calls without start time and payload get neither into percentiles nor into sums
+                for (int i = 0; i < 1_000; i++) {
+                    call.call();
+                }
+
+                ProfiledCallReport report = reporter.buildReportAndReset().getProfilerCallReports().get(0);
+                String message = "mode " + mode + ": " + report;
+                assertEquals(1_100, report.getStopSum(), message);
+                assertEquals(0, report.getLatencyMin(), message);
+                assertEquals(100, report.getLatencyMax(), message);
+                assertEquals(0, report.getPayloadMin(), 1e-9, message);
+                assertEquals(100, report.getPayloadSum(), 1e-9, message);
+                assertEquals(Long.valueOf(3), report.getLatencyPercentile().get(90), message);
+            }
+        }
+    }
+
+    @Test
+    public void report_converts_latency_metrics_to_requested_unit() {
+        ProfiledCallReport report = new ProfiledCallReport(new Identity("call"))
+                .setLatencyUnit(TimeUnit.NANOSECONDS)
+                .setLatencyMax(1_500_000)
+                .setActiveCallsLatencyMax(500_000)
+                .setStopSum(7);
+
+        Map<String, Number> map = report.asMap(TimeUnit.MILLISECONDS);
+
+        assertEquals(1.5, map.get("latencyMax").doubleValue(), 1e-9);
+        assertEquals(0.5, map.get("activeCallsLatencyMax").doubleValue(), 1e-9);
+        assertEquals(7L, map.get("stopSum").longValue());
+    }
+
+    private static void busyWait(long nanos) {
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < nanos) {
+            Thread.yield();
+        }
+    }
+}
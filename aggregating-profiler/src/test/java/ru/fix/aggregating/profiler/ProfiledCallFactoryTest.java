@@ -0,0 +1,130 @@
+package ru.fix.aggregating.profiler;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ProfiledCallFactoryTest {
+
+    @Test
+    public void calls_created_by_handle_are_reported() throws Exception {
+        AggregatingProfiler profiler = new AggregatingProfiler();
+        try (ProfilerReporter reporter = profiler.createReporter()) {
+            ProfiledCallFactory handle = profiler.handle(new Identity("handle", "tag", "value"));
+
+            handle.call();
+            handle.start().stop();
+            handle.profile(() -> {
+            });
+
+            ProfiledCallReport report = singleReport(reporter.buildReportAndReset());
+            assertEquals(new Identity("handle", "tag", "value"), report.getIdentity());
+            assertEquals(3, report.getStopSum());
+        }
+    }
+
+    @Test
+    public void handle_and_profiled_call_share_same_aggregate() throws Exception {
+        AggregatingProfiler profiler = new AggregatingProfiler();
+        try (ProfilerReporter reporter = profiler.createReporter()) {
+            ProfiledCallFactory handle = profiler.handle("shared");
+
+            handle.call();
+            profiler.call("shared");
+
+            assertEquals(2, singleReport(reporter.buildReportAndReset()).getStopSum());
+        }
+    }
+
+    @Test
+    public void handle_picks_up_reporter_created_after_handle() throws Exception {
+        AggregatingProfiler profiler = new AggregatingProfiler();
+        ProfiledCallFactory handle = profiler.handle("late.reporter");
+        handle.call();
+
+        try (ProfilerReporter firstReporter = profiler.createReporter()) {
+            handle.call();
+
+            try (ProfilerReporter secondReporter = profiler.createReporter()) {
+                handle.call();
+
+                assertEquals(2, singleReport(firstReporter.buildReportAndReset()).getStopSum());
+                assertEquals(1, singleReport(secondReporter.buildReportAndReset()).getStopSum());
+            }
+
+            handle.call();
+            assertEquals(1, singleReport(firstReporter.buildReportAndReset()).getStopSum());
+        }
+    }
+
+    @Test
+    public void handle_resolves_new_aggregate_after_stale_one_was_removed() throws Exception {
+        AggregatingProfiler profiler = new AggregatingProfiler()
+                .setStaleTimeoutAfterWhichProfiledCallAggregatedWillBeRemoved(0);
+
+        try (ProfilerReporter reporter = profiler.createReporter()) {
+            ProfiledCallFactory handle = profiler.handle("stale");
+
+            handle.call();
+            assertEquals(1, singleReport(reporter.buildReportAndReset()).getStopSum());
+
+            // empty and stale aggregate is removed from reporter
+            assertTrue(reporter.buildReportAndReset().getProfilerCallReports().isEmpty());
+
+            handle.call();
+            assertEquals(1, singleReport(reporter.buildReportAndReset()).getStopSum());
+        }
+    }
+
+    @Test
+    public void prefixed_profiler_handle_adds_prefix() throws Exception {
+        AggregatingProfiler profiler = new AggregatingProfiler();
+        try (ProfilerReporter reporter = profiler.createReporter()) {
+            new PrefixedProfiler(profiler, "prefix").handle("name").call();
+            new SuffixedProfiler(profiler, "suffixed").handle("name").call();
+
+            List<ProfiledCallReport> reports = reporter.buildReportAndReset().getProfilerCallReports();
+            assertEquals(2, reports.size());
+            assertEquals("prefix.name", reports.get(0).getIdentity().getName());
+            assertEquals("suffixed.name", reports.get(1).getIdentity().getName());
+        }
+    }
+
+    @Test
+    public void nested_profile_of_same_handle_and_reused_call_are_reported() throws Exception {
+        ManualProfilerClock clock = new ManualProfilerClock(System.currentTimeMillis());
+        AggregatingProfiler profiler = new AggregatingProfiler().setClock(clock);
+        try (ProfilerReporter reporter = profiler.createReporter()) {
+            ProfiledCallFactory handle = profiler.handle("nested");
+
+            handle.profile(() -> {
+                clock.advance(10, TimeUnit.MILLISECONDS);
+                handle.profile(() -> clock.advance(20, TimeUnit.MILLISECONDS));
+            });
+
+            ProfiledCall call = handle.profiledCall();
+            for (int i = 0; i < 3; i++) {
+                call.start();
+                clock.advance(5, TimeUnit.MILLISECONDS);
+                call.stop(2);
+            }
+            handle.call(clock.currentTimeMillis() - 40, 1);
+
+            ProfiledCallReport report = singleReport(reporter.buildReportAndReset());
+            assertEquals(6, report.getStopSum());
+            assertEquals(5, report.getLatencyMin());
+            assertEquals(40, report.getLatencyMax());
+            assertEquals(7.0, report.getPayloadSum());
+            assertEquals(0, report.getActiveCallsCountMax());
+        }
+    }
+
+    private static ProfiledCallReport singleReport(ProfilerReport report) {
+        assertEquals(1, report.getProfilerCallReports().size(), "Report: " + report);
+        return report.getProfilerCallReports().get(0);
+    }
+}
@@ -0,0 +1,70 @@
+package ru.fix.aggregating.profiler;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProfilerClockTest {
+
+    @Test
+    public void manual_clock_moves_only_when_advanced() {
+        ManualProfilerClock clock = new ManualProfilerClock(1_000);
+        assertEquals(1_000, clock.currentTimeMillis());
+        assertEquals(0, clock.nanoTime());
+
+        clock.advance(700, TimeUnit.MICROSECONDS);
+        assertEquals(1_000, clock.currentTimeMillis());
+        assertEquals(700_000, clock.nanoTime());
+
+        clock.advance(300, TimeUnit.MICROSECONDS);
+        assertEquals(1_001, clock.currentTimeMillis());
+
+        clock.advance(2, TimeUnit.SECONDS);
+        assertEquals(3_001, clock.currentTimeMillis());
+        assertEquals(2_001_000_000, clock.nanoTime());
+    }
+
+    @Test
+    public void cached_clock_follows_system_time() {
+        try (CachedProfilerClock clock = new CachedProfilerClock()) {
+            long before = System.currentTimeMillis();
+            long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+            while (clock.currentTimeMillis() <= before && System.nanoTime() < deadline) {
+                Thread.yield();
+            }
+            assertTrue(clock.currentTimeMillis() > before);
+            assertTrue(clock.currentTimeMillis() <= System.currentTimeMillis());
+        }
+    }
+
+    @Test
+    public void latency_and_stale_timeout_are_measured_by_profiler_clock() throws Exception {
+        ManualProfilerClock clock = new ManualProfilerClock(System.currentTimeMillis());
+        AggregatingProfiler profiler = new AggregatingProfiler()
+                .setClock(clock)
+                .setStaleTimeoutAfterWhichProfiledCallAggregatedWillBeRemoved(TimeUnit.MINUTES.toMillis(1));
+
+        try (ProfilerReporter reporter = profiler.createReporter()) {
+            for (int i = 0; i < 3; i++) {
+                ProfiledCall call = profiler.start("call");
+                clock.advance(250, TimeUnit.MILLISECONDS);
+                call.stop();
+            }
+            clock.advance(250, TimeUnit.MILLISECONDS);
+
+            ProfiledCallReport report = reporter.buildReportAndReset().getProfilerCallReports().get(0);
+            assertEquals(3, report.getStopSum());
+            assertEquals(250, report.getLatencyMin());
+            assertEquals(250, report.getLatencyMax());
+            assertEquals(1_000, report.getReportingTimeAvg());
+
+            clock.advance(59, TimeUnit.SECONDS);
+            assertEquals(1, reporter.buildReportAndReset().getProfilerCallReports().size());
+
+            clock.advance(1, TimeUnit.SECONDS);
+            assertTrue(reporter.buildReportAndReset().getProfilerCallReports().isEmpty());
+        }
+    }
+}
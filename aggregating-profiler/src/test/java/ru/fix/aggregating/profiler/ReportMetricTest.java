@@ -0,0 +1,64 @@
+package ru.fix.aggregating.profiler;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReportMetricTest {
+
+    private static ProfiledCallReport report() {
+        Map<Integer, Long> percentiles = new HashMap<>();
+        percentiles.put(90, 70L);
+        percentiles.put(99, 100L);
+        return new ProfiledCallReport(new Identity("call"))
+                .setStartSum(12)
+                .setStopSum(10)
+                .setLatencyMin(1)
+                .setLatencyMax(100)
+                .setLatencyAvg(50)
+                .setLatencyPercentile(percentiles)
+                .setPayloadSum(7.5)
+                .setStopThroughputAvg(0.25)
+                .setActiveCallsCountMax(2);
+    }
+
+    @Test
+    public void metrics_are_read_by_enum() {
+        ProfiledCallReport report = report();
+        Map<String, Number> map = report.asMap();
+
+        assertEquals(12, report.getLong(ReportMetric.START_SUM));
+        assertEquals(100, report.getLong(ReportMetric.LATENCY_MAX));
+        assertEquals(7.5, report.getDouble(ReportMetric.PAYLOAD_SUM));
+        assertEquals(10.0, report.getDouble(ReportMetric.STOP_SUM));
+        assertThrows(IllegalArgumentException.class, () -> report.getLong(ReportMetric.STOP_THROUGHPUT_AVG));
+
+        for (ReportMetric metric : ReportMetric.values()) {
+            if (metric == ReportMetric.LATENCY_SAMPLE_RATE) {
+                // reported only by sampled aggregates
+                assertFalse(map.containsKey(metric.getMetricName()));
+                continue;
+            }
+            Number value = map.get(metric.getMetricName());
+            if (metric.isDouble()) {
+                assertEquals(report.getDouble(metric), value);
+            } else {
+                assertEquals(report.getLong(metric), value);
+            }
+        }
+        assertEquals(70L, map.get("latencyPercentile90"));
+        assertEquals(ReportMetric.values().length - 1 + 2, map.size());
+    }
+
+    @Test
+    public void metric_names_are_not_built_on_each_report() {
+        assertSame("latencyPercentile99", ReportMetric.latencyPercentileName(99));
+        assertSame(ReportMetric.latencyPercentileName(50), ReportMetric.latencyPercentileName(50));
+        assertTrue(Arrays.stream(ReportMetric.values())
+                .allMatch(metric -> metric.getMetricName() == metric.getMetricName().intern()));
+    }
+}
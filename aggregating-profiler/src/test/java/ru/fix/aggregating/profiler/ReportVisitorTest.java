@@ -0,0 +1,155 @@
+package ru.fix.aggregating.profiler;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReportVisitorTest {
+
+    private static class CollectingVisitor implements ReportVisitor {
+        final Map<Identity, Long> indicators = new HashMap<>();
+        final Map<Identity, Map<String, Number>> calls = new HashMap<>();
+        final TimeUnit latencyUnit;
+
+        CollectingVisitor(TimeUnit latencyUnit) {
+            this.latencyUnit = latencyUnit;
+        }
+
+        @Override
+        public void visitIndicator(Identity identity, long value) {
+            indicators.put(identity, value);
+        }
+
+        @Override
+        public void visitCallMetric(Identity identity, String metric, long value) {
+            calls.computeIfAbsent(identity, key -> new HashMap<>()).put(metric, value);
+        }
+
+        @Override
+        public void visitCallMetric(Identity identity, String metric, double value) {
+            calls.computeIfAbsent(identity, key -> new HashMap<>()).put(metric, value);
+        }
+
+        @Override
+        public TimeUnit getLatencyUnit() {
+            return latencyUnit;
+        }
+    }
+
+    private static void recordEvents(AggregatingProfiler profiler) {
+        profiler.attachIndicator("queue.size", () -> 42L);
+        profiler.profiledCall(new Identity("call", "type", "slow")).call(System.currentTimeMillis() - 5, 3);
+        profiler.handle(new Identity("batch")).call(10, 1_000, 7);
+    }
+
+    @Test
+    public void visited_metrics_are_same_as_metrics_of_built_report() throws Exception {
+        AggregatingProfiler profiler = new AggregatingProfiler().setColumnarStorage(true);
+        AggregatingProfiler expectedProfiler = new AggregatingProfiler().setColumnarStorage(true);
+
+        try (ProfilerReporter reporter = profiler.createReporter();
+             ProfilerReporter expectedReporter = expectedProfiler.createReporter()) {
+            recordEvents(profiler);
+            recordEvents(expectedProfiler);
+
+            CollectingVisitor visitor = new CollectingVisitor(null);
+            reporter.buildReportAndReset(visitor);
+            ProfilerReport expected = expectedReporter.buildReportAndReset();
+
+            assertEquals(expected.getIndicators(), visitor.indicators);
+            assertEquals(2, visitor.calls.size());
+            Map<String, Number> batch = visitor.calls.get(new Identity("batch"));
+            assertEquals(10L, batch.get("stopSum"));
+            assertEquals(100L, batch.get("latencyAvg"));
+            assertEquals(7.0, batch.get("payloadSum"));
+
+            for (ProfiledCallReport expectedReport : expected.getProfilerCallReports()) {
+                Map<String, Number> visited = visitor.calls.get(expectedReport.getIdentity());
+                assertEquals(expectedReport.asMap().keySet(), visited.keySet());
+                assertEquals(expectedReport.getStopSum(), visited.get("stopSum"));
+                assertEquals(expectedReport.getPayloadMax(), visited.get("payloadMax"));
+            }
+
+            // events are reset by visited report
+            CollectingVisitor next = new CollectingVisitor(null);
+            reporter.buildReportAndReset(next);
+            assertEquals(0L, next.calls.get(new Identity("batch")).get("stopSum"));
+        }
+    }
+
+    @Test
+    public void visited_report_is_filtered_and_latencies_are_converted() throws Exception {
+        AggregatingProfiler profiler = new AggregatingProfiler();
+        try (ProfilerReporter reporter = profiler.createReporter()) {
+            recordEvents(profiler);
+
+            CollectingVisitor visitor = new CollectingVisitor(TimeUnit.SECONDS);
+            reporter.buildReportAndReset((identity, labels) -> identity.getName().equals("batch"), visitor);
+
+            assertTrue(visitor.indicators.isEmpty());
+            assertEquals(1, visitor.calls.size());
+            Map<String, Number> batch = visitor.calls.get(new Identity("batch"));
+            assertEquals(0.1, batch.get("latencyAvg").doubleValue(), 0.000001);
+            assertEquals(10L, batch.get("stopSum"));
+        }
+    }
+
+    @Test
+    public void identities_of_several_visited_batches_are_reported_once() throws Exception {
+        for (boolean columnar : new boolean[]{false, true}) {
+            AggregatingProfiler profiler = new AggregatingProfiler().setColumnarStorage(columnar);
+            try (ProfilerReporter reporter = profiler.createReporter()) {
+                for (int i = 0; i < 2_500; i++) {
+                    profiler.handle(new Identity("call" + i)).call();
+                }
+
+                CollectingVisitor visitor = new CollectingVisitor(null);
+                reporter.buildReportAndReset(visitor);
+
+                assertEquals(2_500, visitor.calls.size());
+                assertTrue(visitor.calls.values().stream().allMatch(metrics -> metrics.get("stopSum").equals(1L)));
+            }
+        }
+    }
+
+    @Test
+    public void blocked_visitor_does_not_block_other_reporters() throws Exception {
+        AggregatingProfiler profiler = new AggregatingProfiler();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch visiting = new CountDownLatch(1);
+        CountDownLatch blocked = new CountDownLatch(1);
+
+        try (ProfilerReporter blockedReporter = profiler.createReporter();
+             ProfilerReporter reporter = profiler.createReporter()) {
+            profiler.call("call");
+
+            Future<?> blockedReport = executor.submit(() -> blockedReporter.buildReportAndReset(
+                    new CollectingVisitor(null) {
+                        @Override
+                        public void visitCallMetric(Identity identity, String metric, long value) {
+                            visiting.countDown();
+                            try {
+                                blocked.await();
+                            } catch (InterruptedException exc) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                    }));
+            assertTrue(visiting.await(10, TimeUnit.SECONDS));
+
+            profiler.call("call");
+            Future<ProfilerReport> report = CompletableFuture.supplyAsync(reporter::buildReportAndReset);
+            assertEquals(2, report.get(10, TimeUnit.SECONDS).getProfilerCallReports().get(0).getStopSum());
+
+            blocked.countDown();
+            blockedReport.get(10, TimeUnit.SECONDS);
+        } finally {
+            blocked.countDown();
+            executor.shutdownNow();
+        }
+    }
+}
@@ -3,6 +3,12 @@ package ru.fix.aggregating.profiler;
 import org.junit.jupiter.api.Test;
 
 import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class TagsTest {
     @Test
@@ -30,4 +36,28 @@ class TagsTest {
         ProfilerReport report = profiler.createReporter().buildReportAndReset();
         System.out.println(report);
     }
+
+    @Test
+    void null_tag_key_is_rejected_with_explanation() {
+        Map<String, String> tags = new HashMap<>();
+        tags.put(null, "12");
+
+        NullPointerException exception = assertThrows(NullPointerException.class, () -> new Identity("name", tags));
+        assertTrue(exception.getMessage().contains("null keys"), exception.getMessage());
+
+        exception = assertThrows(NullPointerException.class, () -> new Identity("name", "filial", "12", null, "13"));
+        assertTrue(exception.getMessage().contains("nulls"), exception.getMessage());
+    }
+
+    @Test
+    void tags_from_sorted_map_are_checked_for_null_values() {
+        Map<String, String> tags = new TreeMap<>();
+        tags.put("filial", null);
+
+        NullPointerException exception = assertThrows(NullPointerException.class, () -> new Identity("name", tags));
+        assertTrue(exception.getMessage().contains("null keys or values"), exception.getMessage());
+
+        tags.put("filial", "12");
+        assertEquals("name{filial=12}", new Identity("name", tags).identityString());
+    }
 }
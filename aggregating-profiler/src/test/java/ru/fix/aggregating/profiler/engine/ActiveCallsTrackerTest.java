@@ -0,0 +1,70 @@
+package ru.fix.aggregating.profiler.engine;
+
+import org.junit.jupiter.api.Test;
+import ru.fix.aggregating.profiler.Identity;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ActiveCallsTrackerTest {
+
+    private static AggregatingCall startedCall() {
+        AggregatingCall call = new AggregatingCall(new Identity("call"), (identity, action) -> {
+        });
+        call.start();
+        return call;
+    }
+
+    @Test
+    public void tracks_calls_up_to_capacity_and_frees_slot_on_remove() {
+        ActiveCallsTracker tracker = new ActiveCallsTracker(3);
+        List<AggregatingCall> calls = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            AggregatingCall call = startedCall();
+            calls.add(call);
+            assertTrue(tracker.add(call));
+        }
+        AggregatingCall untracked = startedCall();
+        assertFalse(tracker.add(untracked));
+        assertFalse(tracker.remove(untracked));
+        assertEquals(3, tracker.size());
+        assertTrue(tracker.containsAll(calls));
+
+        assertTrue(tracker.remove(calls.get(1)));
+        assertEquals(-1, calls.get(1).activeCallSlot);
+
+        AggregatingCall next = startedCall();
+        assertTrue(tracker.add(next));
+        assertTrue(tracker.contains(next));
+        assertEquals(3, tracker.size());
+    }
+
+    @Test
+    public void resize_keeps_tracked_calls_and_purges_finished_ones() {
+        ActiveCallsTracker tracker = new ActiveCallsTracker(4);
+        AggregatingCall first = startedCall();
+        AggregatingCall finished = startedCall();
+        AggregatingCall second = startedCall();
+        tracker.add(first);
+        tracker.add(finished);
+        tracker.add(second);
+
+        // call stopped without removal from this tracker
+        finished.close();
+
+        tracker.resize(2);
+        assertEquals(2, tracker.capacity());
+        assertEquals(2, tracker.size());
+        assertTrue(tracker.contains(first));
+        assertTrue(tracker.contains(second));
+
+        assertTrue(tracker.remove(first));
+        assertTrue(tracker.remove(second));
+        assertTrue(tracker.isEmpty());
+
+        tracker.resize(0);
+        assertFalse(tracker.add(startedCall()));
+    }
+}
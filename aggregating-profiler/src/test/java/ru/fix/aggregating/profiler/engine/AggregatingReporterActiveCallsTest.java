@@ -7,6 +7,7 @@ import ru.fix.aggregating.profiler.*;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -15,6 +16,7 @@ import static org.junit.jupiter.api.Assertions.*;
  */
 public class AggregatingReporterActiveCallsTest {
 
+    private final ManualProfilerClock clock = new ManualProfilerClock(System.currentTimeMillis());
     private AggregatingProfiler profiler;
     private AggregatingReporter reporter;
 
@@ -23,7 +25,8 @@ public class AggregatingReporterActiveCallsTest {
     @BeforeEach
     public void setup() {
         profiler = new AggregatingProfiler()
-                        .setNumberOfLongestActiveCallsToTrack(25);
+                        .setNumberOfLongestActiveCallsToTrack(25)
+                        .setClock(clock);
         reporter = (AggregatingReporter) profiler.createReporter();
     }
 
@@ -59,11 +62,11 @@ public class AggregatingReporterActiveCallsTest {
     }
 
     @Test
-    public void hasActiveAndEndedCalls_usesCorrectCallForActiveCallsMaxLatency() throws InterruptedException {
+    public void hasActiveAndEndedCalls_usesCorrectCallForActiveCallsMaxLatency() {
         AggregatingCall call1 = (AggregatingCall) profiler.start("Test");
-        Thread.sleep(100);
+        clock.advance(100, TimeUnit.MILLISECONDS);
         AggregatingCall call2 = (AggregatingCall) profiler.start("Test");
-        Thread.sleep(100);
+        clock.advance(100, TimeUnit.MILLISECONDS);
         AggregatingCall call3 = (AggregatingCall) profiler.start("Test");
 
         call1.stop();
@@ -76,6 +79,7 @@ public class AggregatingReporterActiveCallsTest {
 
         long call2AfterReportTime = call2.timeFromCallStart();
 
+        assertEquals(100, report.getActiveCallsLatencyMax());
         assertTrue(call3Time < report.getActiveCallsLatencyMax() &&
                 report.getActiveCallsLatencyMax() < call1Time
         );
@@ -91,7 +95,7 @@ public class AggregatingReporterActiveCallsTest {
             longestCalls.add(profiler.start("Test"));
         }
 
-        Thread.sleep(100);
+        clock.advance(100, TimeUnit.MILLISECONDS);
 
         profiler.start("Test");
         profiler.start("Test");
@@ -112,7 +116,7 @@ public class AggregatingReporterActiveCallsTest {
             longestCalls.add(profiler.start("Test"));
         }
 
-        Thread.sleep(100);
+        clock.advance(100, TimeUnit.MILLISECONDS);
 
         profiler.start("Test");
         profiler.start("Test");
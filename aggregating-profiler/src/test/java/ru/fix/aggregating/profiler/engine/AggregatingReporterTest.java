@@ -9,6 +9,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -115,6 +116,59 @@ public class AggregatingReporterTest {
         assertEquals(1, profilerReport.getIndicators().size());
     }
 
+    @Test
+    public void reporters_share_aggregate_and_report_events_since_their_own_previous_report() throws Exception {
+        try (ProfilerReporter secondReporter = profiler.createReporter()) {
+            profiler.profiledCall("Test").call(System.currentTimeMillis() - 10);
+
+            assertEquals(1, getCallReport(reporter.buildReportAndReset()).getStopSum());
+
+            profiler.profiledCall("Test").call(System.currentTimeMillis() - 20);
+
+            ProfiledCallReport first = getCallReport(reporter.buildReportAndReset());
+            assertEquals(1, first.getStopSum());
+            assertTrue(first.getLatencyMin() >= 20);
+
+            ProfiledCallReport second = getCallReport(secondReporter.buildReportAndReset());
+            assertEquals(2, second.getStopSum());
+            assertTrue(second.getLatencyMin() >= 10 && second.getLatencyMin() < 20);
+            assertTrue(second.getLatencyMax() >= 20);
+
+            assertEquals(0, getCallReport(secondReporter.buildReportAndReset()).getStopSum());
+        }
+    }
+
+    @Test
+    public void identity_rejected_by_filter_during_stale_timeout_is_not_kept_by_reporter() throws Exception {
+        ManualProfilerClock clock = new ManualProfilerClock(System.currentTimeMillis());
+        AggregatingProfiler profiler = new AggregatingProfiler()
+                .setStaleTimeoutAfterWhichProfiledCallAggregatedWillBeRemoved(60_000)
+                .setClock(clock);
+        ReportFilter onlySelected = (identity, labels) -> identity.getName().equals("selected");
+
+        try (ProfilerReporter reporter = profiler.createReporter()) {
+            ProfiledCallFactory selected = profiler.handle(new Identity("selected"));
+            ProfiledCallFactory rejected = profiler.handle(new Identity("rejected"));
+
+            selected.call();
+            rejected.call();
+            assertEquals(1, getCallReport(reporter.buildReportAndReset(onlySelected)).getStopSum());
+
+            clock.advance(1, TimeUnit.MINUTES);
+            selected.call();
+            rejected.call();
+            assertEquals(1, getCallReport(reporter.buildReportAndReset(onlySelected)).getStopSum());
+
+            // pending events of rejected identity are dropped, report without filter selects it again
+            rejected.call();
+            Map<String, Long> stopSums = new HashMap<>();
+            reporter.buildReportAndReset().getProfilerCallReports().forEach(report ->
+                    stopSums.put(report.getIdentity().getName(), report.getStopSum()));
+            assertEquals(0, (long) stopSums.get("selected"));
+            assertEquals(1, (long) stopSums.get("rejected"));
+        }
+    }
+
     private ProfiledCallReport getCallReport(ProfilerReport profilerReport) {
         assertNotNull(profilerReport.getProfilerCallReports());
         assertEquals(1, profilerReport.getProfilerCallReports().size());
@@ -0,0 +1,85 @@
+package ru.fix.aggregating.profiler.engine;
+
+import org.junit.jupiter.api.Test;
+import ru.fix.aggregating.profiler.Identity;
+import ru.fix.aggregating.profiler.PercentileSettings;
+import ru.fix.aggregating.profiler.ProfiledCallReport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CallAggregateConsistencyTest {
+
+    private static final int WRITERS = 4;
+    private static final int EVENTS_PER_WRITER = 300_000;
+    private static final long LATENCY = 7;
+
+    @Test
+    public void each_report_is_built_from_same_set_of_events_in_shared_mode() throws Exception {
+        recordAndReportConcurrently(false);
+    }
+
+    @Test
+    public void each_report_is_built_from_same_set_of_events_in_thread_local_mode() throws Exception {
+        recordAndReportConcurrently(true);
+    }
+
+    private void recordAndReportConcurrently(boolean threadLocalAggregation) throws Exception {
+        CallAggregate aggregate = new CallAggregate(
+                new Identity("call"),
+                new AtomicInteger(0),
+                new PercentileSettings(),
+                threadLocalAggregation);
+
+        ExecutorService writers = Executors.newFixedThreadPool(WRITERS);
+        List<Future<?>> writes = new ArrayList<>();
+        for (int writer = 0; writer < WRITERS; writer++) {
+            writes.add(writers.submit(() -> {
+                long timestamp = System.currentTimeMillis();
+                for (int event = 0; event < EVENTS_PER_WRITER; event++) {
+                    // payload equals latency, so payloadSum of consistent report equals latencySum
+                    aggregate.call(timestamp, LATENCY, LATENCY);
+                }
+            }));
+        }
+
+        long reportedEvents = 0;
+        int reportsWithEvents = 0;
+        while (!writes.stream().allMatch(Future::isDone)) {
+            ProfiledCallReport report = aggregate.buildReportAndReset(1);
+            if (report.getStopSum() > 0) {
+                assertConsistent(report);
+                reportsWithEvents++;
+            }
+            reportedEvents += report.getStopSum();
+        }
+        for (Future<?> write : writes) {
+            write.get();
+        }
+        writers.shutdown();
+
+        ProfiledCallReport lastReport = aggregate.buildReportAndReset(1);
+        if (lastReport.getStopSum() > 0) {
+            assertConsistent(lastReport);
+        }
+        reportedEvents += lastReport.getStopSum();
+
+        assertEquals((long) WRITERS * EVENTS_PER_WRITER, reportedEvents);
+        assertTrue(reportsWithEvents > 0);
+    }
+
+    private static void assertConsistent(ProfiledCallReport report) {
+        assertEquals(report.getStopSum(), report.getStartSum(), report::toString);
+        assertEquals(LATENCY, report.getLatencyAvg(), report::toString);
+        assertEquals(LATENCY, report.getLatencyMin(), report::toString);
+        assertEquals(LATENCY, report.getLatencyMax(), report::toString);
+        assertEquals((double) report.getLatencyAvg() * report.getStopSum(), report.getPayloadSum(), report::toString);
+    }
+}
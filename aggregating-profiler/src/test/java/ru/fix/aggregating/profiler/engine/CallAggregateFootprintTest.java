@@ -0,0 +1,129 @@
+package ru.fix.aggregating.profiler.engine;
+
+import org.junit.jupiter.api.Test;
+import org.openjdk.jol.info.GraphLayout;
+import ru.fix.aggregating.profiler.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CallAggregateFootprintTest {
+
+    private final PercentileSettings percentileSettings = new PercentileSettings();
+    private final AtomicInteger numberOfLongestActiveCallsToTrack = new AtomicInteger(10);
+    private final Identity identity = new Identity("call");
+
+    private CallAggregate newAggregate() {
+        return new CallAggregate(identity, numberOfLongestActiveCallsToTrack, percentileSettings);
+    }
+
+    /**
+     * Objects retained by the aggregate without objects that are shared with the profiler
+     */
+    private GraphLayout layout(CallAggregate aggregate) {
+        return GraphLayout.parseInstance(aggregate)
+                .subtract(GraphLayout.parseInstance(
+                        identity, numberOfLongestActiveCallsToTrack, percentileSettings, aggregate.clock));
+    }
+
+    private long footprint(CallAggregate aggregate) {
+        return layout(aggregate).totalSize();
+    }
+
+    private static void assertFeaturesNotAllocated(AggregateGeneration generation) {
+        assertNull(generation.latencies);
+        assertNull(generation.payloads);
+        assertNull(generation.latencyPercentile);
+    }
+
+    @Test
+    public void counter_only_aggregate_does_not_allocate_feature_accumulators() {
+        CallAggregate aggregate = newAggregate();
+        PendingCallAggregate pending = new PendingCallAggregate(identity, percentileSettings, aggregate.latencyUnit);
+
+        for (int period = 0; period < 2; period++) {
+            aggregate.call(System.currentTimeMillis(), CallAggregate.NO_LATENCY, 0);
+            aggregate.call(System.currentTimeMillis(), 10, 0, 0);
+            aggregate.drainInto(pending);
+        }
+        ProfiledCallReport report = pending.buildReportAndReset(1_000, 0, 0);
+
+        assertEquals(22, report.getStopSum());
+        assertEquals(0, report.getLatencyMax());
+        assertEquals(0, report.getPayloadMin());
+        assertEquals(0L, (long) report.getLatencyPercentile().get(99));
+
+        assertFeaturesNotAllocated(aggregate.currentGeneration);
+        assertFeaturesNotAllocated(aggregate.spareGeneration);
+        assertFeaturesNotAllocated(pending.events);
+        assertNull(aggregate.activeCalls);
+        assertTrue(pending.getAutoLabels().isEmpty());
+    }
+
+    @Test
+    public void calls_without_latency_and_payload_get_into_min() {
+        CallAggregate aggregate = newAggregate();
+        PendingCallAggregate pending = new PendingCallAggregate(identity, percentileSettings, aggregate.latencyUnit);
+
+        aggregate.call(System.currentTimeMillis(), 20, 5);
+        aggregate.call(System.currentTimeMillis(), CallAggregate.NO_LATENCY, 0);
+        aggregate.drainInto(pending);
+        ProfiledCallReport mixed = pending.buildReportAndReset(1_000, 0, 0);
+        assertEquals(0, mixed.getLatencyMin());
+        assertEquals(20, mixed.getLatencyMax());
+        assertEquals(0, mixed.getPayloadMin());
+        assertEquals(5, mixed.getPayloadMax());
+
+        aggregate.call(System.currentTimeMillis(), 30, 7);
+        aggregate.drainInto(pending);
+        ProfiledCallReport withLatency = pending.buildReportAndReset(1_000, 0, 0);
+        assertEquals(30, withLatency.getLatencyMin());
+        assertEquals(7, withLatency.getPayloadMin());
+    }
+
+    @Test
+    public void counter_only_aggregate_is_several_times_smaller_than_aggregate_of_all_features() {
+        CallAggregate counter = newAggregate();
+        for (int i = 0; i < 100; i++) {
+            counter.call(System.currentTimeMillis(), CallAggregate.NO_LATENCY, 0);
+        }
+        counter.drainInto();
+
+        CallAggregate full = newAggregate();
+        for (int period = 0; period < 2; period++) {
+            AggregatingCall call = new AggregatingCall(identity, (name, action) -> action.accept(full));
+            full.start(call, System.currentTimeMillis());
+            full.stop(call, System.currentTimeMillis(), 10, 5);
+            full.drainInto();
+        }
+
+        long counterFootprint = footprint(counter);
+        long fullFootprint = footprint(full);
+
+        // sizes in bytes depend on object layout of JVM, their ratio does not
+        assertTrue(fullFootprint >= 2.5 * counterFootprint,
+                "aggregate takes " + fullFootprint + " bytes, counter-only " + counterFootprint);
+    }
+
+    @Test
+    public void aggregate_without_events_keeps_only_counters_of_generations_and_empty_throughput_rings() {
+        CallAggregate aggregate = newAggregate();
+
+        Set<Class<?>> allowed = new HashSet<>(Arrays.asList(
+                CallAggregate.class,
+                AggregateGeneration.class,
+                LongAdder.class,
+                ThroughputPerSecondRing.class,
+                // empty arrays shared by all rings
+                long[].class));
+        for (Class<?> type : layout(aggregate).getClasses()) {
+            assertTrue(allowed.contains(type), "new aggregate allocates " + type.getName());
+        }
+        assertNull(aggregate.cardinalitySlots);
+    }
+}
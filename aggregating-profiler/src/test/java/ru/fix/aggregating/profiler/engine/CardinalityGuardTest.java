@@ -0,0 +1,158 @@
+package ru.fix.aggregating.profiler.engine;
+
+import org.junit.jupiter.api.Test;
+import ru.fix.aggregating.profiler.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CardinalityGuardTest {
+
+    private static Map<String, Long> stopSums(ProfilerReport report) {
+        return report.getProfilerCallReports().stream()
+                .collect(Collectors.toMap(
+                        callReport -> callReport.getIdentity().identityString(),
+                        ProfiledCallReport::getStopSum));
+    }
+
+    @Test
+    public void identities_above_name_limit_are_recorded_into_overflow_aggregate() throws Exception {
+        AggregatingProfiler profiler = new AggregatingProfiler()
+                .setCardinalityLimit("requests", 2);
+
+        try (ProfilerReporter reporter = profiler.createReporter()) {
+            for (int requestId = 0; requestId < 5; requestId++) {
+                profiler.profiledCall(new Identity("requests", "requestId", "" + requestId)).call();
+                profiler.profiledCall(new Identity("requests", "requestId", "" + requestId)).call();
+            }
+            profiler.profiledCall(new Identity("other", "requestId", "42")).call();
+
+            Map<String, Long> stopSums = stopSums(reporter.buildReportAndReset());
+            assertEquals(4, stopSums.size());
+            assertEquals(2, (long) stopSums.get("requests{requestId=0}"));
+            assertEquals(2, (long) stopSums.get("requests{requestId=1}"));
+            assertEquals(6, (long) stopSums.get("requests.__overflow__"));
+            assertEquals(1, (long) stopSums.get("other{requestId=42}"));
+            assertEquals(3, profiler.getCardinalityRejectedCount());
+        }
+    }
+
+    @Test
+    public void prefix_limit_covers_all_names_of_prefixed_profiler() throws Exception {
+        AggregatingProfiler profiler = new AggregatingProfiler()
+                .setPrefixCardinalityLimit("service", 3);
+        Profiler prefixed = new PrefixedProfiler(profiler, "service");
+
+        try (ProfilerReporter reporter = profiler.createReporter()) {
+            for (int i = 0; i < 10; i++) {
+                prefixed.profiledCall("method" + i).call();
+            }
+            profiler.profiledCall("serviceless").call();
+
+            Map<String, Long> stopSums = stopSums(reporter.buildReportAndReset());
+            assertEquals(3, stopSums.keySet().stream().filter(name -> name.matches("service\\.method\\d")).count());
+            assertEquals(7, (long) stopSums.get("service.__overflow__"));
+            assertEquals(1, (long) stopSums.get("serviceless"));
+        }
+    }
+
+    @Test
+    public void evicted_aggregates_release_their_slots() throws Exception {
+        ManualProfilerClock clock = new ManualProfilerClock(1_000_000);
+        AggregatingProfiler profiler = new AggregatingProfiler()
+                .setClock(clock)
+                .setCardinalityLimit(1)
+                .setStaleTimeoutAfterWhichProfiledCallAggregatedWillBeRemoved(60_000);
+
+        try (ProfilerReporter reporter = profiler.createReporter()) {
+            profiler.profiledCall(new Identity("requests", "requestId", "1")).call();
+            reporter.buildReportAndReset();
+
+            // stale aggregate is evicted by report
+            clock.advance(2, TimeUnit.MINUTES);
+            reporter.buildReportAndReset();
+
+            profiler.profiledCall(new Identity("requests", "requestId", "2")).call();
+            assertEquals(1, (long) stopSums(reporter.buildReportAndReset()).get("requests{requestId=2}"));
+            assertEquals(0, profiler.getCardinalityRejectedCount());
+        }
+    }
+
+    @Test
+    public void rejected_identity_is_remembered_until_limit_changes() throws Exception {
+        CardinalityGuard guard = new CardinalityGuard();
+        guard.setNameLimit("requests", 1);
+
+        CardinalityGuard.Admission admitted = guard.admit(new Identity("requests", "requestId", "1"));
+        assertNull(admitted.overflowIdentity);
+
+        CardinalityGuard.Admission rejected = guard.admit(new Identity("requests", "requestId", "2"));
+        assertEquals(new Identity("requests.__overflow__"), rejected.overflowIdentity);
+        for (int i = 0; i < 10; i++) {
+            assertSame(rejected, guard.admit(new Identity("requests", "requestId", "2")));
+        }
+        assertEquals(1, guard.getRejectedCount());
+
+        guard.setNameLimit("requests", 2);
+        assertNull(guard.admit(new Identity("requests", "requestId", "2")).overflowIdentity);
+        assertEquals(1, guard.getRejectedCount());
+    }
+
+    @Test
+    public void rejected_identity_is_admitted_when_slot_is_released() throws Exception {
+        CardinalityGuard guard = new CardinalityGuard();
+        guard.setDefaultNameLimit(1);
+
+        CardinalityGuard.Admission admitted = guard.admit(new Identity("requests", "requestId", "1"));
+        assertNotNull(guard.admit(new Identity("requests", "requestId", "2")).overflowIdentity);
+
+        guard.release(admitted.acquired);
+        assertNull(guard.admit(new Identity("requests", "requestId", "2")).overflowIdentity);
+    }
+
+    @Test
+    public void released_slot_keeps_rejections_of_other_limits() throws Exception {
+        CardinalityGuard guard = new CardinalityGuard();
+        guard.setDefaultNameLimit(1);
+
+        CardinalityGuard.Admission admittedRequest = guard.admit(new Identity("requests", "requestId", "1"));
+        guard.admit(new Identity("sessions", "sessionId", "1"));
+        CardinalityGuard.Admission rejectedRequest = guard.admit(new Identity("requests", "requestId", "2"));
+        CardinalityGuard.Admission rejectedSession = guard.admit(new Identity("sessions", "sessionId", "2"));
+        assertEquals(2, guard.getRejectedCount());
+
+        guard.release(admittedRequest.acquired);
+
+        assertNotSame(rejectedRequest, guard.admit(new Identity("requests", "requestId", "2")));
+        assertSame(rejectedSession, guard.admit(new Identity("sessions", "sessionId", "2")));
+        assertEquals(2, guard.getRejectedCount());
+    }
+
+    @Test
+    public void least_recently_used_rejections_are_forgotten_when_cache_is_full() throws Exception {
+        CardinalityGuard guard = new CardinalityGuard();
+        guard.setNameLimit("requests", 1);
+        guard.admit(new Identity("requests", "requestId", "admitted"));
+
+        Identity used = new Identity("requests", "requestId", "used");
+        Identity unused = new Identity("requests", "requestId", "unused");
+        guard.admit(used);
+        guard.admit(unused);
+        for (int i = 0; i < CardinalityGuard.REJECTED_IDENTITIES_CACHE_SIZE; i++) {
+            guard.admit(new Identity("requests", "requestId", "" + i));
+            guard.admit(used);
+        }
+        long rejectedCount = guard.getRejectedCount();
+
+        // remembered rejection is not counted again
+        assertNotNull(guard.admit(used).overflowIdentity);
+        assertEquals(rejectedCount, guard.getRejectedCount());
+
+        // forgotten rejection is rejected and counted again
+        assertNotNull(guard.admit(unused).overflowIdentity);
+        assertEquals(rejectedCount + 1, guard.getRejectedCount());
+    }
+}
@@ -0,0 +1,116 @@
+package ru.fix.aggregating.profiler.engine;
+
+import org.junit.jupiter.api.Test;
+import ru.fix.aggregating.profiler.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ColumnarStorageTest {
+
+    private static void recordEvents(AggregatingProfiler profiler, ManualProfilerClock clock) throws Exception {
+        for (int i = 0; i < 3; i++) {
+            ProfiledCallFactory handle = profiler.handle(new Identity("requests", "shard", "" + i));
+            handle.call(clock.currentTimeMillis() - 5, 2);
+            handle.call(10, 1_000, 3);
+            handle.recordLatencies(new long[]{1, 20, 300}, 3);
+
+            ProfiledCall call = profiler.profiledCall(new Identity("requests", "shard", "" + i)).start();
+            clock.advance(7, TimeUnit.MILLISECONDS);
+            call.stop(4);
+        }
+        profiler.profiledCall("active").start();
+    }
+
+    @Test
+    public void columnar_and_object_storages_report_same_metrics() throws Exception {
+        ManualProfilerClock clock = new ManualProfilerClock(1_000_000);
+        AggregatingProfiler objectProfiler = new AggregatingProfiler().setClock(clock);
+        AggregatingProfiler columnarProfiler = new AggregatingProfiler().setClock(clock).setColumnarStorage(true);
+
+        try (ProfilerReporter objectReporter = objectProfiler.createReporter();
+             ProfilerReporter columnarReporter = columnarProfiler.createReporter()) {
+
+            recordEvents(objectProfiler, clock);
+            recordEvents(columnarProfiler, clock);
+
+            List<ProfiledCallReport> expected = objectReporter.buildReportAndReset().getProfilerCallReports();
+            List<ProfiledCallReport> actual = columnarReporter.buildReportAndReset().getProfilerCallReports();
+
+            assertEquals(4, actual.size());
+            for (ProfiledCallReport expectedReport : expected) {
+                ProfiledCallReport actualReport = actual.stream()
+                        .filter(report -> report.getIdentity().equals(expectedReport.getIdentity()))
+                        .findAny()
+                        .orElseThrow(AssertionError::new);
+
+                assertEquals(expectedReport.getStartSum(), actualReport.getStartSum());
+                assertEquals(expectedReport.getStopSum(), actualReport.getStopSum());
+                assertEquals(expectedReport.getActiveCallsCountMax(), actualReport.getActiveCallsCountMax());
+                assertEquals(expectedReport.getLatencyMin(), actualReport.getLatencyMin());
+                assertEquals(expectedReport.getLatencyMax(), actualReport.getLatencyMax());
+                assertEquals(expectedReport.getLatencyAvg(), actualReport.getLatencyAvg());
+                assertEquals(expectedReport.getLatencyPercentile(), actualReport.getLatencyPercentile());
+                assertEquals(expectedReport.getPayloadMin(), actualReport.getPayloadMin());
+                assertEquals(expectedReport.getPayloadMax(), actualReport.getPayloadMax());
+                assertEquals(expectedReport.getPayloadSum(), actualReport.getPayloadSum());
+            }
+
+            // events are reset by report
+            ProfiledCallReport next = columnarReporter.buildReportAndReset().getProfilerCallReports().stream()
+                    .filter(report -> report.getIdentity().getName().equals("requests"))
+                    .findAny()
+                    .orElseThrow(AssertionError::new);
+            assertEquals(0, next.getStopSum());
+        }
+    }
+
+    @Test
+    public void columnar_rows_are_reported_by_cumulative_reporter() throws Exception {
+        AggregatingProfiler profiler = new AggregatingProfiler(
+                new PercentileSettings().setBuckets(Arrays.asList(10, 100, 1000)))
+                .setColumnarStorage(true);
+
+        try (CumulativeProfilerReporter reporter = profiler.createCumulativeReporter()) {
+            ProfiledCallFactory handle = profiler.handle(new Identity("call"));
+            handle.recordLatencies(new long[]{5, 50, 5_000}, 3);
+
+            for (int i = 0; i < 2; i++) {
+                List<CumulativeCallReport> reports = reporter.buildReport().getCallReports();
+                assertEquals(1, reports.size());
+                assertEquals(3, reports.get(0).getStopSum());
+                assertEquals(5_055, reports.get(0).getLatencySum());
+                assertEquals(3, reports.get(0).getLatencyCount());
+                assertArrayEquals(new long[]{1, 2, 2}, reports.get(0).getLatencyBucketCounts());
+            }
+        }
+    }
+
+    @Test
+    public void stale_rows_are_not_reported() throws Exception {
+        ManualProfilerClock clock = new ManualProfilerClock(1_000_000);
+        AggregatingProfiler profiler = new AggregatingProfiler()
+                .setClock(clock)
+                .setColumnarStorage(true)
+                .setStaleTimeoutAfterWhichProfiledCallAggregatedWillBeRemoved(60_000);
+
+        try (ProfilerReporter reporter = profiler.createReporter()) {
+            ProfiledCallFactory handle = profiler.handle(new Identity("call"));
+            handle.call();
+            assertEquals(1, reporter.buildReportAndReset().getProfilerCallReports().size());
+
+            clock.advance(30, TimeUnit.SECONDS);
+            assertEquals(1, reporter.buildReportAndReset().getProfilerCallReports().size());
+
+            clock.advance(2, TimeUnit.MINUTES);
+            assertEquals(0, reporter.buildReportAndReset().getProfilerCallReports().size());
+
+            // cached row is still valid after identity became stale
+            handle.call();
+            assertEquals(1, reporter.buildReportAndReset().getProfilerCallReports().get(0).getStopSum());
+        }
+    }
+}
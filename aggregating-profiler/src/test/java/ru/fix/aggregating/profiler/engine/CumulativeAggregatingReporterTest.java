@@ -0,0 +1,108 @@
+package ru.fix.aggregating.profiler.engine;
+
+import org.junit.jupiter.api.Test;
+import ru.fix.aggregating.profiler.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CumulativeAggregatingReporterTest {
+
+    private static CumulativeCallReport callReport(CumulativeProfilerReporter reporter) {
+        CumulativeProfilerReport report = reporter.buildReport();
+        assertEquals(1, report.getCallReports().size());
+        return report.getCallReports().get(0);
+    }
+
+    @Test
+    public void reading_report_does_not_reset_totals() throws Exception {
+        ManualProfilerClock clock = new ManualProfilerClock(System.currentTimeMillis());
+        AggregatingProfiler profiler = new AggregatingProfiler(
+                new PercentileSettings().setBuckets(Arrays.asList(10, 100, 1000)))
+                .setClock(clock);
+
+        try (CumulativeProfilerReporter cumulativeReporter = profiler.createCumulativeReporter();
+             ProfilerReporter reporter = profiler.createReporter()) {
+
+            ProfiledCallFactory handle = profiler.handle(new Identity("call"));
+            ProfiledCall call = handle.start();
+            clock.advance(3, TimeUnit.MILLISECONDS);
+            call.stop(3);
+            handle.call(clock.currentTimeMillis() - 50, 2);
+            handle.call(clock.currentTimeMillis() - 5_000);
+
+            assertEquals(3, reporter.buildReportAndReset().getProfilerCallReports().get(0).getStopSum());
+
+            CumulativeCallReport first = callReport(cumulativeReporter);
+            CumulativeCallReport second = callReport(cumulativeReporter);
+
+            for (CumulativeCallReport report : Arrays.asList(first, second)) {
+                assertEquals(3, report.getStartSum());
+                assertEquals(3, report.getStopSum());
+                assertEquals(5, report.getPayloadSum());
+                assertEquals(3, report.getLatencyCount());
+                assertEquals(5_053, report.getLatencySum());
+                assertArrayEquals(new long[]{10, 100, 1000}, report.getLatencyBucketLevels());
+                assertArrayEquals(new long[]{1, 2, 2}, report.getLatencyBucketCounts());
+            }
+
+            handle.call();
+            assertEquals(4, callReport(cumulativeReporter).getStopSum());
+            assertEquals(1, reporter.buildReportAndReset().getProfilerCallReports().get(0).getStopSum());
+        }
+    }
+
+    @Test
+    public void totals_are_kept_after_stale_aggregate_is_removed() throws Exception {
+        AggregatingProfiler profiler = new AggregatingProfiler()
+                .setStaleTimeoutAfterWhichProfiledCallAggregatedWillBeRemoved(0);
+
+        try (CumulativeProfilerReporter reporter = profiler.createCumulativeReporter()) {
+            profiler.call("call");
+            assertEquals(1, callReport(reporter).getStopSum());
+            assertEquals(1, callReport(reporter).getStopSum());
+
+            profiler.call("call");
+            assertEquals(2, callReport(reporter).getStopSum());
+        }
+    }
+
+    @Test
+    public void idle_totals_are_removed_after_stale_aggregate_is_removed() throws Exception {
+        ManualProfilerClock clock = new ManualProfilerClock(System.currentTimeMillis());
+        AggregatingProfiler profiler = new AggregatingProfiler()
+                .setStaleTimeoutAfterWhichProfiledCallAggregatedWillBeRemoved(0)
+                .setClock(clock);
+
+        try (CumulativeProfilerReporter reporter = profiler.createCumulativeReporter(60_000)) {
+            profiler.call("call");
+            assertEquals(1, callReport(reporter).getStopSum());
+
+            clock.advance(30, TimeUnit.SECONDS);
+            assertEquals(1, callReport(reporter).getStopSum());
+
+            clock.advance(30, TimeUnit.SECONDS);
+            assertTrue(reporter.buildReport().getCallReports().isEmpty());
+
+            profiler.call("call");
+            assertEquals(1, callReport(reporter).getStopSum());
+        }
+    }
+
+    @Test
+    public void active_calls_are_reported_as_current_value() throws Exception {
+        AggregatingProfiler profiler = new AggregatingProfiler();
+
+        try (CumulativeProfilerReporter reporter = profiler.createCumulativeReporter()) {
+            ProfiledCall call = profiler.start("call");
+            assertEquals(1, callReport(reporter).getActiveCallsCount());
+
+            call.stop();
+            CumulativeCallReport report = callReport(reporter);
+            assertEquals(0, report.getActiveCallsCount());
+            assertEquals(1, report.getStopSum());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package ru.fix.aggregating.profiler.engine;
+
+import org.junit.jupiter.api.Test;
+import ru.fix.aggregating.profiler.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IndicatorEvaluationTest {
+
+    private static void awaitCachedValue(AggregatingProfiler profiler, String indicator) throws Exception {
+        AggregatingIndicationProvider provider = profiler.getIndicators().get(new Identity(indicator));
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (provider.getCachedValue() == null) {
+            assertTrue(System.currentTimeMillis() < deadline, "Indicator " + indicator + " is not evaluated");
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void report_contains_cached_value_and_its_age() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        ManualProfilerClock clock = new ManualProfilerClock(1_000_000);
+        AggregatingProfiler profiler = new AggregatingProfiler()
+                .setClock(clock)
+                .setIndicatorEvaluationExecutor(executor, 1_000);
+
+        try (ProfilerReporter reporter = profiler.createReporter()) {
+            profiler.attachIndicator("queue.size", () -> 42L);
+            awaitCachedValue(profiler, "queue.size");
+
+            clock.advance(5, TimeUnit.SECONDS);
+            ProfilerReport report = reporter.buildReportAndReset();
+
+            assertEquals(Long.valueOf(42), report.getIndicators().get(new Identity("queue.size")));
+            assertEquals(Long.valueOf(5_000), report.getIndicatorValueAges().get(new Identity("queue.size")));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void blocking_indicator_does_not_stall_report_and_is_skipped_after_timeout() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        ManualProfilerClock clock = new ManualProfilerClock(1_000_000);
+        AggregatingProfiler profiler = new AggregatingProfiler()
+                .setClock(clock)
+                .setIndicatorEvaluationExecutor(executor, 1_000);
+
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        try (ProfilerReporter reporter = profiler.createReporter()) {
+            profiler.attachIndicator("fast", () -> 1L);
+            profiler.attachIndicator("blocking", () -> {
+                entered.countDown();
+                blocked.await();
+                return 2L;
+            });
+            awaitCachedValue(profiler, "fast");
+            assertTrue(entered.await(10, TimeUnit.SECONDS));
+
+            long start = System.nanoTime();
+            ProfilerReport report = reporter.buildReportAndReset();
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+            assertEquals(Long.valueOf(1), report.getIndicators().get(new Identity("fast")));
+            assertFalse(report.getIndicators().containsKey(new Identity("blocking")));
+
+            // single free thread of executor completes evaluation of fast indicator submitted by the report
+            // before manual clock jumps, otherwise that evaluation would take 2 seconds by the clock
+            executor.submit(() -> { }).get(10, TimeUnit.SECONDS);
+            clock.advance(2, TimeUnit.SECONDS);
+            reporter.buildReportAndReset();
+            assertTrue(profiler.getIndicators().get(new Identity("blocking")).isSlow());
+            assertFalse(profiler.getIndicators().get(new Identity("fast")).isSlow());
+
+            // interrupted provider is evaluated again and reported when it gets faster
+            blocked.countDown();
+            clock.advance(2, TimeUnit.SECONDS);
+            long deadline = System.currentTimeMillis() + 10_000;
+            Long value;
+            do {
+                assertTrue(System.currentTimeMillis() < deadline);
+                Thread.sleep(5);
+                value = reporter.buildReportAndReset().getIndicators().get(new Identity("blocking"));
+            } while (value == null);
+            assertEquals(Long.valueOf(2), value);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package ru.fix.aggregating.profiler.engine;
+
+import org.junit.jupiter.api.Test;
+import ru.fix.aggregating.profiler.Identity;
+import ru.fix.aggregating.profiler.PercentileSettings;
+import ru.fix.aggregating.profiler.ProfiledCallReport;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyHistogramTest {
+
+    private static final long MAX = Long.MAX_VALUE;
+
+    @Test
+    public void hdr_histogram_keeps_significant_digits() {
+        HdrLatencyHistogram histogram = new HdrLatencyHistogram(new PercentileSettings(), 2, 3_600_000);
+
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            long latency = (long) Math.exp(random.nextDouble() * Math.log(3_600_000));
+            long reported = histogram.bucketLatency(histogram.bucketIndex(latency), MAX);
+
+            assertTrue(reported >= latency, latency + " reported as " + reported);
+            assertTrue(reported - latency <= latency / 100, latency + " reported as " + reported);
+        }
+    }
+
+    @Test
+    public void hdr_histogram_bucket_index_is_monotonic() {
+        HdrLatencyHistogram histogram = new HdrLatencyHistogram(new PercentileSettings(), 1, 100_000);
+
+        int previousIndex = histogram.bucketIndex(0);
+        assertEquals(0, previousIndex);
+        for (long latency = 1; latency < 200_000; latency++) {
+            int index = histogram.bucketIndex(latency);
+            assertTrue(index == previousIndex || index == previousIndex + 1, "latency " + latency);
+            previousIndex = index;
+        }
+        assertEquals(histogram.bucketIndexCount() - 1, previousIndex);
+        assertEquals(histogram.bucketIndexCount() - 1, histogram.bucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void hdr_histogram_reports_latency_bigger_than_highest_trackable_as_maximum() {
+        HdrLatencyHistogram histogram = new HdrLatencyHistogram(
+                new PercentileSettings().setPercentiles(Arrays.asList(50, 99)), 2, 1_000);
+
+        for (int i = 0; i < 90; i++) {
+            histogram.accumulate(10);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.accumulate(5_000);
+        }
+        Map<Integer, Long> report = histogram.buildAndReset(5_000);
+
+        assertEquals(Long.valueOf(10), report.get(50));
+        assertEquals(Long.valueOf(5_000), report.get(99));
+    }
+
+    @Test
+    public void exponential_histogram_keeps_relative_error() {
+        for (double relativeError : new double[]{0.1, 0.05, 0.01}) {
+            ExponentialLatencyHistogram histogram = new ExponentialLatencyHistogram(
+                    new PercentileSettings(), relativeError);
+            assertTrue(histogram.relativeError() <= relativeError);
+
+            Random random = new Random(42);
+            for (int i = 0; i < 100_000; i++) {
+                long latency = (long) Math.exp(random.nextDouble() * Math.log(Long.MAX_VALUE));
+                long reported = histogram.bucketLatency(histogram.bucketIndex(latency), MAX);
+
+                // rounding of reported value to long adds error for small latencies
+                double error = Math.abs(reported - latency) / (double) latency - 0.5 / latency;
+                assertTrue(error <= relativeError, latency + " reported as " + reported);
+            }
+        }
+    }
+
+    @Test
+    public void exponential_histogram_bucket_index_is_monotonic() {
+        ExponentialLatencyHistogram histogram = new ExponentialLatencyHistogram(new PercentileSettings(), 0.05);
+
+        assertEquals(0, histogram.bucketIndex(-1));
+        assertEquals(0, histogram.bucketIndex(0));
+
+        int previousIndex = 0;
+        for (long latency = 1; latency < 100_000; latency++) {
+            int index = histogram.bucketIndex(latency);
+            assertTrue(index >= previousIndex, "latency " + latency);
+            previousIndex = index;
+        }
+        for (int power = 1; power < 63; power++) {
+            long latency = 1L << power;
+            assertTrue(histogram.bucketIndex(latency) < histogram.bucketIndex(latency + 1), "latency " + latency);
+        }
+        assertEquals(histogram.bucketIndexCount() - 1, histogram.bucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void exponential_histogram_allocates_counters_only_around_observed_latencies() {
+        ExponentialLatencyHistogram histogram = new ExponentialLatencyHistogram(
+                new PercentileSettings().setPercentiles(Arrays.asList(50, 90)), 0.05);
+        assertEquals(0, histogram.counters.allocatedLength());
+
+        for (long latency = 1_000; latency > 0; latency--) {
+            histogram.accumulate(latency);
+        }
+        // 10 power of two ranges of 8 buckets, windows grow at least by half
+        int window = histogram.counters.toIndex() - histogram.counters.fromIndex();
+        assertTrue(window < 200, "window " + window);
+        assertTrue(histogram.counters.allocatedLength() <= 3 * window);
+
+        Map<Integer, Long> report = histogram.buildAndReset(1_000);
+        assertEquals(500, report.get(50), 500 * histogram.relativeError());
+        assertEquals(900, report.get(90), 900 * histogram.relativeError());
+    }
+
+    @Test
+    public void exponential_histogram_does_not_lose_latencies_while_window_grows() throws Exception {
+        ExponentialLatencyHistogram histogram = new ExponentialLatencyHistogram(new PercentileSettings(), 0.01);
+        final int THREADS = 4;
+        final int LATENCIES_PER_THREAD = 100_000;
+
+        Thread[] threads = new Thread[THREADS];
+        for (int thread = 0; thread < THREADS; thread++) {
+            Random random = new Random(thread);
+            threads[thread] = new Thread(() -> {
+                for (int i = 0; i < LATENCIES_PER_THREAD; i++) {
+                    histogram.accumulate((long) Math.exp(random.nextDouble() * Math.log(Long.MAX_VALUE)));
+                }
+            });
+            threads[thread].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long count = 0;
+        for (int bucketIndex = 0; bucketIndex < histogram.bucketIndexCount(); bucketIndex++) {
+            count += histogram.drainBucket(bucketIndex);
+        }
+        assertEquals((long) THREADS * LATENCIES_PER_THREAD, count);
+    }
+
+    @Test
+    public void call_aggregate_uses_histogram_from_settings() {
+        for (PercentileSettings settings : Arrays.asList(
+                new PercentileSettings().useHdrHistogram(3, 3_600_000),
+                new PercentileSettings().useExponentialHistogram(0.001))) {
+
+            CallAggregate aggregate = new CallAggregate(
+                    new Identity("call"),
+                    new AtomicInteger(0),
+                    settings.setPercentiles(Arrays.asList(50, 99)));
+
+            for (int i = 0; i < 98; i++) {
+                aggregate.call(System.currentTimeMillis(), 1_000, 0);
+            }
+            aggregate.call(System.currentTimeMillis(), 120_000, 0);
+            aggregate.call(System.currentTimeMillis(), 120_000, 0);
+
+            ProfiledCallReport report = aggregate.buildReportAndReset(1_000);
+            assertEquals(1_000, report.getLatencyPercentile().get(50), 1);
+            assertEquals(120_000, report.getLatencyPercentile().get(99), 120);
+        }
+    }
+
+    @Test
+    public void bucket_upper_bound_is_not_less_than_latencies_of_bucket() {
+        PercentileSettings settings = new PercentileSettings();
+        for (LatencyHistogram histogram : Arrays.asList(
+                new PercentileAccumulator(settings),
+                new HdrLatencyHistogram(settings, 2, 3_600_000),
+                new ExponentialLatencyHistogram(settings, 0.01))) {
+
+            for (int index = 1; index < histogram.bucketIndexCount(); index++) {
+                assertTrue(histogram.bucketUpperBound(index - 1) <= histogram.bucketUpperBound(index),
+                        histogram.getClass().getSimpleName() + " bucket " + index);
+            }
+
+            Random random = new Random(42);
+            for (int i = 0; i < 100_000; i++) {
+                long latency = (long) Math.exp(random.nextDouble() * Math.log(36_000_000));
+                int index = histogram.bucketIndex(latency);
+                assertTrue(latency <= histogram.bucketUpperBound(index),
+                        histogram.getClass().getSimpleName() + " latency " + latency);
+                if (index > 0) {
+                    assertTrue(latency > histogram.bucketUpperBound(index - 1),
+                            histogram.getClass().getSimpleName() + " latency " + latency);
+                }
+            }
+        }
+    }
+}
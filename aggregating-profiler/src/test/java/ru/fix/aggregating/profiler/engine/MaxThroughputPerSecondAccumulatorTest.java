@@ -3,15 +3,12 @@ package ru.fix.aggregating.profiler.engine;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import ru.fix.aggregating.profiler.ManualProfilerClock;
 
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -36,76 +33,66 @@ public class MaxThroughputPerSecondAccumulatorTest {
     }
 
     @Test
-    public void generate_fixed_rate_events_and_check_max_throughput() throws Exception {
-        final int COUNT_OF_THREADS = 5;
+    public void generate_fixed_rate_events_and_check_max_throughput() {
+        final int COUNT_OF_PRODUCERS = 5;
+        final int REPORTING_PERIOD_SECONDS = 5;
         final int BUILD_REPORT_ITERATION_COUNT = 3;
 
-        // One thread events per second rate = 1000 / ACCURACY
-        // One thread will generate ~ 100 events in a second for ACCURACY = 10
+        // Each producer generates one event every ACCURACY milliseconds, 100 events in a second for ACCURACY = 10
         final int ACCURACY = 10;
 
-        final int EXPECTED_MAX_THROUGHPUT = COUNT_OF_THREADS * 1000 / ACCURACY;
+        final int EXPECTED_MAX_THROUGHPUT = COUNT_OF_PRODUCERS * 1000 / ACCURACY;
 
+        ManualProfilerClock clock = new ManualProfilerClock(System.currentTimeMillis());
         MaxThroughputPerSecondAccumulator calculator = new MaxThroughputPerSecondAccumulator();
-        ExecutorService pool = Executors.newFixedThreadPool(COUNT_OF_THREADS);
-
-        AtomicBoolean shutdownFlag = new AtomicBoolean();
 
-        for (int i = 0; i < COUNT_OF_THREADS; i++) {
-            pool.submit(() -> {
-
-                long startTime = System.currentTimeMillis();
-                long startTicks = System.currentTimeMillis() / ACCURACY;
+        for (int report = 0; report < BUILD_REPORT_ITERATION_COUNT; report++) {
+            for (int tick = 0; tick < REPORTING_PERIOD_SECONDS * 1000 / ACCURACY; tick++) {
+                for (int producer = 0; producer < COUNT_OF_PRODUCERS; producer++) {
+                    calculator.call(clock.currentTimeMillis(), 1);
+                }
+                clock.advance(ACCURACY, TimeUnit.MILLISECONDS);
+            }
 
-                // Test will run no more than 30 seconds until shutdownFlag is set
-                while (System.currentTimeMillis() < startTime + TimeUnit.SECONDS.toMillis(30) && !shutdownFlag.get()) {
-                    long currentTicks = System.currentTimeMillis() / ACCURACY;
+            long result = calculator.getAndReset(clock.currentTimeMillis());
+            log.info("MaxThroughput: {}", result);
+            assertEquals(EXPECTED_MAX_THROUGHPUT, result);
+        }
+    }
 
-                    long ticksDiff = currentTicks - startTicks;
+    @Test
+    public void concurrent_events_within_same_seconds_are_summed() throws Exception {
+        final int COUNT_OF_THREADS = 5;
+        final int EVENTS_PER_THREAD_PER_SECOND = 10_000;
 
-                    if (ticksDiff > 0) {
-                        calculator.call(System.currentTimeMillis(), ticksDiff);
-                    } else {
-                        Thread.yield();
-                    }
+        ManualProfilerClock clock = new ManualProfilerClock(System.currentTimeMillis());
+        MaxThroughputPerSecondAccumulator calculator = new MaxThroughputPerSecondAccumulator();
+        calculator.call(clock.currentTimeMillis(), 0);
 
-                    startTicks = currentTicks;
+        ExecutorService pool = Executors.newFixedThreadPool(COUNT_OF_THREADS);
+        try {
+            for (int second = 1; second <= 3; second++) {
+                long timestamp = clock.currentTimeMillis();
+                int eventsPerThread = second * EVENTS_PER_THREAD_PER_SECOND;
+
+                CountDownLatch producersCompleted = new CountDownLatch(COUNT_OF_THREADS);
+                for (int i = 0; i < COUNT_OF_THREADS; i++) {
+                    pool.submit(() -> {
+                        for (int event = 0; event < eventsPerThread; event++) {
+                            calculator.call(timestamp, 1);
+                        }
+                        producersCompleted.countDown();
+                    });
                 }
-            });
+                assertTrue(producersCompleted.await(1, TimeUnit.MINUTES));
+                clock.advance(1, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdown();
         }
 
-
-        // Build and print report BUILD_REPORT_ITERATION_COUNT times.
-        // Check last report result
-
-        AtomicInteger buildReportAttempt = new AtomicInteger();
-        AtomicReference<ScheduledFuture> reportBuildingSchedule = new AtomicReference<>();
-        AtomicLong lastReportResult = new AtomicLong();
-
-        reportBuildingSchedule.set(Executors.newSingleThreadScheduledExecutor().scheduleAtFixedRate(
-                () -> {
-                    long result = calculator.getAndReset(System.currentTimeMillis());
-                    log.info("MaxThroughput: {}", result);
-                    int reportBuildAttemptNumber = buildReportAttempt.incrementAndGet();
-
-                    if (reportBuildAttemptNumber == BUILD_REPORT_ITERATION_COUNT) {
-                        lastReportResult.set(result);
-                        reportBuildingSchedule.get().cancel(false);
-                        shutdownFlag.set(true);
-                    }
-                },
-                0,
-                5,
-                TimeUnit.SECONDS));
-
-        pool.shutdown();
-        pool.awaitTermination(2, TimeUnit.MINUTES);
-
-
-        log.info("Expected max throughput: {}, Actual: {}", EXPECTED_MAX_THROUGHPUT, lastReportResult.get());
-        assertTrue(lastReportResult.get() > EXPECTED_MAX_THROUGHPUT * 0.9);
-        assertTrue(lastReportResult.get() < EXPECTED_MAX_THROUGHPUT * 1.1);
-
+        assertEquals(3 * COUNT_OF_THREADS * EVENTS_PER_THREAD_PER_SECOND,
+                calculator.getAndReset(clock.currentTimeMillis()));
     }
 
 }
\ No newline at end of file
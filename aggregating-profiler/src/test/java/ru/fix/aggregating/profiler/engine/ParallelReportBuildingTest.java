@@ -0,0 +1,97 @@
+package ru.fix.aggregating.profiler.engine;
+
+import org.junit.jupiter.api.Test;
+import ru.fix.aggregating.profiler.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ParallelReportBuildingTest {
+
+    private static final int IDENTITIES_COUNT = 5 * ReportPartitioner.MIN_PARTITION_SIZE;
+
+    private static void recordCalls(AggregatingProfiler profiler) {
+        for (int i = 0; i < IDENTITIES_COUNT; i++) {
+            profiler.handle(new Identity("call" + i)).call(1, i % 100, i);
+        }
+    }
+
+    @Test
+    public void partitioned_report_is_sorted_and_complete() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        AggregatingProfiler profiler = new AggregatingProfiler()
+                .setReportBuildParallelism(4)
+                .setReportBuildPool(pool);
+
+        try (ProfilerReporter reporter = profiler.createReporter()) {
+            recordCalls(profiler);
+
+            List<ProfiledCallReport> reports = reporter.buildReportAndReset().getProfilerCallReports();
+            assertEquals(IDENTITIES_COUNT, reports.size());
+
+            List<String> names = reports.stream()
+                    .map(report -> report.getIdentity().getName())
+                    .collect(Collectors.toList());
+            List<String> sortedNames = names.stream().sorted().collect(Collectors.toList());
+            assertEquals(sortedNames, names);
+
+            for (ProfiledCallReport report : reports) {
+                int index = Integer.parseInt(report.getIdentity().getName().substring("call".length()));
+                assertEquals(1, report.getStopSum());
+                assertEquals(index % 100, report.getLatencyMax());
+                assertEquals(index, report.getPayloadSum());
+            }
+
+            // events are reset in all partitions
+            assertTrue(reporter.buildReportAndReset().getProfilerCallReports().stream()
+                    .allMatch(report -> report.getStopSum() == 0));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void stale_aggregates_are_removed_by_parallel_drain() throws Exception {
+        ManualProfilerClock clock = new ManualProfilerClock(1_000_000);
+        AggregatingProfiler profiler = new AggregatingProfiler()
+                .setClock(clock)
+                .setReportBuildParallelism(3)
+                .setStaleTimeoutAfterWhichProfiledCallAggregatedWillBeRemoved(60_000);
+
+        try (ProfilerReporter reporter = profiler.createReporter();
+             CumulativeProfilerReporter cumulativeReporter = profiler.createCumulativeReporter()) {
+            recordCalls(profiler);
+            assertEquals(IDENTITIES_COUNT, reporter.buildReportAndReset().getProfilerCallReports().size());
+            assertEquals(IDENTITIES_COUNT, cumulativeReporter.buildReport().getCallReports().size());
+
+            clock.advance(2, TimeUnit.MINUTES);
+            assertEquals(0, reporter.buildReportAndReset().getProfilerCallReports().size());
+
+            // identity recorded after removal gets new aggregate
+            profiler.handle(new Identity("call0")).call();
+            assertEquals(1, reporter.buildReportAndReset().getProfilerCallReports().size());
+
+            // cumulative totals are kept after removal of stale aggregates
+            assertEquals(IDENTITIES_COUNT, cumulativeReporter.buildReport().getCallReports().size());
+        }
+    }
+
+    @Test
+    public void sorted_runs_are_merged() {
+        assertEquals(
+                Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8),
+                ReportPartitioner.mergeSorted(
+                        Arrays.asList(
+                                Arrays.asList(1, 5, 8),
+                                Collections.emptyList(),
+                                Arrays.asList(2, 3, 7),
+                                Arrays.asList(4, 6)),
+                        Integer::compare));
+    }
+}
@@ -0,0 +1,129 @@
+package ru.fix.aggregating.profiler.engine;
+
+import org.junit.jupiter.api.Test;
+import ru.fix.aggregating.profiler.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StaleAggregateEvictionTest {
+
+    private static CallAggregate newAggregate() {
+        return new CallAggregate(new Identity("call"), new AtomicInteger(10), new PercentileSettings());
+    }
+
+    @Test
+    public void writer_inside_generation_during_eviction_hands_over_its_events() throws Exception {
+        CallAggregate evicted = newAggregate();
+        CallAggregate successor = newAggregate();
+
+        CountDownLatch writerEntered = new CountDownLatch(1);
+        Thread writer = new Thread(() -> {
+            // writer obtained generation before eviction
+            AggregateGeneration generation = evicted.enterGeneration(2);
+            writerEntered.countDown();
+
+            // and records event after eviction started
+            while (!evicted.isRemoved()) {
+                Thread.yield();
+            }
+            generation.recordStop(42, 1);
+            generation.exitWithStart();
+            generation.exitWithStop();
+        });
+        writer.start();
+        assertTrue(writerEntered.await(1, TimeUnit.MINUTES));
+
+        // eviction waits for the writer and hands over its event
+        evicted.evict(identity -> successor);
+        writer.join();
+
+        ProfiledCallReport report = successor.buildReportAndReset(1_000);
+        assertEquals(1, report.getStartSum());
+        assertEquals(1, report.getStopSum());
+        assertEquals(42, report.getLatencyMax());
+        assertEquals(1.0, report.getPayloadSum());
+        assertEquals(0, evicted.buildReportAndReset(1_000).getStopSum());
+    }
+
+    @Test
+    public void writer_that_notices_eviction_forwards_events_to_successor() {
+        CallAggregate evicted = newAggregate();
+        CallAggregate successor = newAggregate();
+
+        AggregatingCall call = new AggregatingCall(new Identity("call"), (identity, action) -> {
+        });
+        evicted.start(call, System.currentTimeMillis());
+
+        evicted.evict(identity -> successor);
+
+        // started call is handed over to successor
+        ProfiledCallReport report = successor.buildReportAndReset(1_000);
+        assertEquals(1, report.getStartSum());
+        assertEquals(1, report.getActiveCallsCountMax());
+
+        evicted.stop(call, System.currentTimeMillis(), 7, 0);
+        evicted.call(System.currentTimeMillis(), 3, 0);
+
+        report = successor.buildReportAndReset(1_000);
+        assertEquals(1, report.getStartSum());
+        assertEquals(2, report.getStopSum());
+        assertEquals(0, report.getActiveCallsCountMax());
+        assertEquals(7, report.getLatencyMax());
+    }
+
+    @Test
+    public void late_writer_of_evicted_aggregate_does_not_lose_events() throws Exception {
+        AggregatingProfiler profiler = new AggregatingProfiler()
+                .setStaleTimeoutAfterWhichProfiledCallAggregatedWillBeRemoved(0);
+        AggregatingReporter reporter = (AggregatingReporter) profiler.createReporter();
+
+        profiler.call("call");
+        // late writer holds reference to aggregate
+        CallAggregate aggregate = reporter.resolveCallAggregate(new Identity("call"));
+
+        assertEquals(1, reporter.buildReportAndReset().getProfilerCallReports().get(0).getStopSum());
+        // empty and stale aggregate is evicted
+        assertTrue(reporter.buildReportAndReset().getProfilerCallReports().isEmpty());
+        assertTrue(aggregate.isRemoved());
+
+        aggregate.call(System.currentTimeMillis(), 5, 0);
+
+        ProfilerReport report = reporter.buildReportAndReset();
+        assertEquals(1, report.getProfilerCallReports().size());
+        assertEquals(1, report.getProfilerCallReports().get(0).getStopSum());
+
+        reporter.close();
+    }
+
+    @Test
+    public void activity_is_derived_from_reported_events_and_active_calls() throws Exception {
+        ManualProfilerClock clock = new ManualProfilerClock(System.currentTimeMillis());
+        AggregatingProfiler profiler = new AggregatingProfiler()
+                .setClock(clock)
+                .setStaleTimeoutAfterWhichProfiledCallAggregatedWillBeRemoved(TimeUnit.MINUTES.toMillis(1));
+
+        try (ProfilerReporter reporter = profiler.createReporter()) {
+            ProfiledCall longCall = profiler.start("long");
+            profiler.call("short");
+
+            reporter.buildReportAndReset();
+            clock.advance(2, TimeUnit.MINUTES);
+
+            // short call was active two minutes ago, long call is still running
+            ProfilerReport report = reporter.buildReportAndReset();
+            assertEquals(1, report.getProfilerCallReports().size());
+            assertEquals("long", report.getProfilerCallReports().get(0).getIdentity().getName());
+
+            longCall.stop();
+            clock.advance(2, TimeUnit.MINUTES);
+            assertEquals(1, reporter.buildReportAndReset().getProfilerCallReports().size());
+
+            clock.advance(2, TimeUnit.MINUTES);
+            assertTrue(reporter.buildReportAndReset().getProfilerCallReports().isEmpty());
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package ru.fix.aggregating.profiler.engine;
+
+import org.junit.jupiter.api.Test;
+import ru.fix.aggregating.profiler.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ThreadLocalCallAggregationTest {
+
+    @Test
+    public void thread_local_and_shared_modes_build_same_report() throws Exception {
+        ProfiledCallReport shared = recordSameEvents(false);
+        ProfiledCallReport threadLocal = recordSameEvents(true);
+
+        assertEquals(shared.getStartSum(), threadLocal.getStartSum());
+        assertEquals(shared.getStopSum(), threadLocal.getStopSum());
+        assertEquals(shared.getLatencyMin(), threadLocal.getLatencyMin());
+        assertEquals(shared.getLatencyMax(), threadLocal.getLatencyMax());
+        assertEquals(shared.getLatencyAvg(), threadLocal.getLatencyAvg());
+        assertEquals(shared.getLatencyPercentile(), threadLocal.getLatencyPercentile());
+        assertEquals(shared.getPayloadMin(), threadLocal.getPayloadMin());
+        assertEquals(shared.getPayloadMax(), threadLocal.getPayloadMax());
+        assertEquals(shared.getPayloadSum(), threadLocal.getPayloadSum());
+    }
+
+    private ProfiledCallReport recordSameEvents(boolean threadLocalAggregation) throws Exception {
+        CallAggregate aggregate = new CallAggregate(
+                new Identity("call"),
+                new AtomicInteger(10),
+                new PercentileSettings(),
+                threadLocalAggregation);
+        long timestamp = System.currentTimeMillis();
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        for (int thread = 0; thread < 4; thread++) {
+            int threadNumber = thread;
+            pool.submit(() -> {
+                for (int i = 1; i <= 100; i++) {
+                    aggregate.call(timestamp, i * 10 + threadNumber, i + threadNumber);
+                }
+                aggregate.start(new AggregatingCall(new Identity("call"), (identity, action) -> {
+                }), timestamp);
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+
+        return aggregate.buildReportAndReset(60_000);
+    }
+
+    @Test
+    public void events_of_terminated_thread_are_reported_and_slab_is_dropped() throws Exception {
+        AggregatingProfiler profiler = new AggregatingProfiler().setThreadLocalAggregation(true);
+        AggregatingReporter reporter = (AggregatingReporter) profiler.createReporter();
+
+        AtomicInteger calls = new AtomicInteger();
+        Thread thread = new Thread(() -> {
+            for (int i = 0; i < 10; i++) {
+                profiler.call("call");
+                calls.incrementAndGet();
+            }
+        });
+        thread.start();
+        thread.join();
+
+        profiler.call("call");
+
+        CallAggregate aggregate = reporter.resolveCallAggregate(new Identity("call"));
+        assertEquals(2, aggregate.threadLocalAggregation.slabsCount());
+
+        ProfiledCallReport report = reporter.buildReportAndReset().getProfilerCallReports().get(0);
+        assertEquals(calls.get() + 1, report.getStopSum());
+        assertEquals(1, aggregate.threadLocalAggregation.slabsCount());
+
+        profiler.call("call");
+        assertEquals(1, reporter.buildReportAndReset().getProfilerCallReports().get(0).getStopSum());
+
+        reporter.close();
+    }
+
+    @Test
+    public void throughput_per_second_is_counted_in_thread_slabs() throws Exception {
+        ManualProfilerClock clock = new ManualProfilerClock(1_500_000_000_000L);
+        AggregatingProfiler profiler = new AggregatingProfiler().setClock(clock).setThreadLocalAggregation(true);
+
+        try (AggregatingReporter reporter = (AggregatingReporter) profiler.createReporter()) {
+            reporter.setThroughputPerSecondSeriesEnabled(true);
+
+            profiler.call("call");
+            profiler.call("call");
+            profiler.call("call");
+            clock.advance(1, TimeUnit.SECONDS);
+            profiler.profiledCall("call").start().stop();
+
+            // second in progress stays in the slab until it completes
+            ProfiledCallReport report = reporter.buildReportAndReset().getProfilerCallReports().get(0);
+            assertEquals(4, report.getStopSum());
+            assertArrayEquals(new long[]{3}, report.getStopThroughputPerSecond().toArray());
+            assertEquals(3, report.getStartThroughputPerSecondMax());
+
+            clock.advance(1, TimeUnit.SECONDS);
+            report = reporter.buildReportAndReset().getProfilerCallReports().get(0);
+            assertArrayEquals(new long[]{1}, report.getStopThroughputPerSecond().toArray());
+            assertEquals(1, report.getStopThroughputPerSecondMax());
+        }
+    }
+
+    @Test
+    public void idle_slab_is_detached_and_attached_again_by_next_event() throws Exception {
+        ManualProfilerClock clock = new ManualProfilerClock(1_500_000_000_000L);
+        AggregatingProfiler profiler = new AggregatingProfiler().setClock(clock).setThreadLocalAggregation(true);
+
+        try (AggregatingReporter reporter = (AggregatingReporter) profiler.createReporter()) {
+            profiler.call("call");
+            CallAggregate aggregate = reporter.resolveCallAggregate(new Identity("call"));
+            clock.advance(1, TimeUnit.SECONDS);
+            assertEquals(1, reporter.buildReportAndReset().getProfilerCallReports().get(0).getStopSum());
+
+            for (int report = 0; report < ThreadLocalCallAggregation.IDLE_MERGES_BEFORE_DETACH; report++) {
+                assertEquals(1, aggregate.threadLocalAggregation.slabsCount());
+                reporter.buildReportAndReset();
+            }
+            assertEquals(0, aggregate.threadLocalAggregation.slabsCount());
+
+            profiler.call("call");
+            assertEquals(1, aggregate.threadLocalAggregation.slabsCount());
+            assertEquals(1, reporter.buildReportAndReset().getProfilerCallReports().get(0).getStopSum());
+        }
+    }
+
+    @Test
+    public void events_of_thread_slabs_are_handed_over_to_successor_on_eviction() {
+        CallAggregate evicted = new CallAggregate(
+                new Identity("call"), new AtomicInteger(10), new PercentileSettings(), true);
+        CallAggregate successor = new CallAggregate(
+                new Identity("call"), new AtomicInteger(10), new PercentileSettings(), true);
+
+        evicted.call(System.currentTimeMillis(), 5, 0);
+        evicted.evict(identity -> successor);
+        assertEquals(0, evicted.threadLocalAggregation.slabsCount());
+
+        // writer that still holds evicted aggregate records into successor
+        evicted.call(System.currentTimeMillis(), 7, 0);
+
+        ProfiledCallReport report = successor.buildReportAndReset(1_000);
+        assertEquals(2, report.getStopSum());
+        assertEquals(5, report.getLatencyMin());
+        assertEquals(7, report.getLatencyMax());
+        assertEquals(0, evicted.threadLocalAggregation.slabsCount());
+    }
+
+    @Test
+    public void events_recorded_during_report_building_are_not_lost() throws Exception {
+        CallAggregate aggregate = new CallAggregate(
+                new Identity("call"), new AtomicInteger(10), new PercentileSettings(), true);
+        final int THREADS = 4;
+        final int CALLS_PER_THREAD = 200_000;
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        for (int thread = 0; thread < THREADS; thread++) {
+            pool.submit(() -> {
+                for (int i = 1; i <= CALLS_PER_THREAD; i++) {
+                    aggregate.call(System.currentTimeMillis(), i % 100, 1);
+                }
+            });
+        }
+        pool.shutdown();
+
+        long stopSum = 0;
+        long latencyMax = 0;
+        while (!pool.awaitTermination(1, TimeUnit.MILLISECONDS)) {
+            ProfiledCallReport report = aggregate.buildReportAndReset(1);
+            stopSum += report.getStopSum();
+            latencyMax = Math.max(latencyMax, report.getLatencyMax());
+        }
+        ProfiledCallReport report = aggregate.buildReportAndReset(1);
+        stopSum += report.getStopSum();
+        latencyMax = Math.max(latencyMax, report.getLatencyMax());
+
+        assertEquals((long) THREADS * CALLS_PER_THREAD, stopSum);
+        assertEquals(99, latencyMax);
+    }
+
+    @Test
+    public void events_recorded_during_eviction_are_handed_over_to_successor() throws Exception {
+        CallAggregate evicted = new CallAggregate(
+                new Identity("call"), new AtomicInteger(10), new PercentileSettings(), true);
+        CallAggregate successor = new CallAggregate(
+                new Identity("call"), new AtomicInteger(10), new PercentileSettings(), true);
+        final int THREADS = 4;
+        final int CALLS_PER_THREAD = 100_000;
+
+        CountDownLatch started = new CountDownLatch(THREADS);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        for (int thread = 0; thread < THREADS; thread++) {
+            pool.submit(() -> {
+                started.countDown();
+                for (int i = 0; i < CALLS_PER_THREAD; i++) {
+                    evicted.call(System.currentTimeMillis(), 5, 0);
+                }
+            });
+        }
+        started.await();
+        evicted.evict(identity -> successor);
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+
+        assertEquals((long) THREADS * CALLS_PER_THREAD, successor.buildReportAndReset(1_000).getStopSum());
+        assertEquals(0, evicted.threadLocalAggregation.slabsCount());
+    }
+}
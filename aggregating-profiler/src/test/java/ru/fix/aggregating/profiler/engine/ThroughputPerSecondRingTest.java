@@ -0,0 +1,186 @@
+package ru.fix.aggregating.profiler.engine;
+
+import org.junit.jupiter.api.Test;
+import ru.fix.aggregating.profiler.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ThroughputPerSecondRingTest {
+
+    private static final long START = 1_500_000_000_000L;
+
+    @Test
+    public void events_are_counted_in_aligned_seconds() {
+        ThroughputPerSecondRing ring = new ThroughputPerSecondRing();
+
+        ring.call(START + 900, 1);
+        ring.call(START + 999, 3);
+        ring.call(START + 1_000, 5);
+        ring.call(START + 3_500, 13);
+        ring.call(START + 4_200, 2);
+
+        ThroughputPerSecondSeries series = ring.buildAndReset(START + 4_500);
+        assertEquals(START, series.getStartTimestamp());
+        assertArrayEquals(new long[]{4, 5, 0, 13}, series.toArray());
+        assertEquals(13, series.max());
+
+        // second that was in progress goes to the next report
+        series = ring.buildAndReset(START + 6_000);
+        assertEquals(START + 4_000, series.getStartTimestamp());
+        assertArrayEquals(new long[]{2, 0}, series.toArray());
+    }
+
+    @Test
+    public void completed_seconds_are_kept_until_report_and_late_events_are_counted_in_their_second() {
+        ThroughputPerSecondRing ring = new ThroughputPerSecondRing();
+        for (int second = 0; second < 10; second++) {
+            ring.call(START + second * 1_000, second + 1);
+        }
+        ring.call(START + 2_500, 100);
+
+        ThroughputPerSecondSeries series = ring.buildAndReset(START + 10_000);
+        assertArrayEquals(new long[]{1, 2, 103, 4, 5, 6, 7, 8, 9, 10}, series.toArray());
+    }
+
+    @Test
+    public void report_without_events_is_empty() {
+        ThroughputPerSecondRing ring = new ThroughputPerSecondRing();
+        assertEquals(0, ring.buildAndReset(START).size());
+
+        ring.call(START, 1);
+        assertEquals(1, ring.buildAndReset(START + 1_000).max());
+        assertEquals(0, ring.buildAndReset(START + 60_000).size());
+
+        ring.call(START + 60_000, 1);
+        ThroughputPerSecondSeries series = ring.buildAndReset(START + 62_000);
+        assertEquals(START + 60_000, series.getStartTimestamp());
+        assertArrayEquals(new long[]{1, 0}, series.toArray());
+    }
+
+    @Test
+    public void max_is_calculated_without_series() {
+        ThroughputPerSecondRing ring = new ThroughputPerSecondRing();
+        assertEquals(0, ring.maxAndReset(START));
+
+        ring.call(START + 900, 4);
+        ring.call(START + 1_000, 5);
+        ring.call(START + 3_500, 13);
+        ring.call(START + 4_200, 20);
+        assertEquals(13, ring.maxAndReset(START + 4_500));
+
+        // second that was in progress goes to the next report, smaller report reuses buffer of previous one
+        ring.call(START + 5_100, 1);
+        assertEquals(20, ring.maxAndReset(START + 5_500));
+        assertEquals(1, ring.buildAndReset(START + 7_000).max());
+        assertEquals(0, ring.maxAndReset(START + 8_000));
+    }
+
+    @Test
+    public void series_are_reported_only_by_reporter_that_enables_them() throws Exception {
+        ManualProfilerClock clock = new ManualProfilerClock(START);
+        AggregatingProfiler profiler = new AggregatingProfiler().setClock(clock);
+
+        try (AggregatingReporter seriesReporter = (AggregatingReporter) profiler.createReporter();
+             ProfilerReporter maxReporter = profiler.createReporter()) {
+            seriesReporter.setThroughputPerSecondSeriesEnabled(true);
+
+            profiler.call("call");
+            profiler.call("call");
+            clock.advance(1, TimeUnit.SECONDS);
+            profiler.call("call");
+            clock.advance(1, TimeUnit.SECONDS);
+
+            ProfiledCallReport withSeries = seriesReporter.buildReportAndReset().getProfilerCallReports().get(0);
+            assertArrayEquals(new long[]{2, 1}, withSeries.getStopThroughputPerSecond().toArray());
+            assertEquals(2, withSeries.getStopThroughputPerSecondMax());
+
+            ProfiledCallReport withoutSeries = maxReporter.buildReportAndReset().getProfilerCallReports().get(0);
+            assertEquals(0, withoutSeries.getStopThroughputPerSecond().size());
+            assertEquals(2, withoutSeries.getStopThroughputPerSecondMax());
+            assertEquals(2, withoutSeries.getStartThroughputPerSecondMax());
+        }
+    }
+
+    @Test
+    public void concurrent_events_are_not_lost() throws Exception {
+        final int COUNT_OF_THREADS = 4;
+        final int SECONDS = 20;
+        final int EVENTS_PER_THREAD_PER_MILLISECOND = 10;
+
+        ThroughputPerSecondRing ring = new ThroughputPerSecondRing();
+        ExecutorService pool = Executors.newFixedThreadPool(COUNT_OF_THREADS);
+        CountDownLatch completed = new CountDownLatch(COUNT_OF_THREADS);
+        try {
+            for (int thread = 0; thread < COUNT_OF_THREADS; thread++) {
+                pool.submit(() -> {
+                    for (long timestamp = START; timestamp < START + SECONDS * 1_000; timestamp++) {
+                        for (int event = 0; event < EVENTS_PER_THREAD_PER_MILLISECOND; event++) {
+                            ring.call(timestamp, 1);
+                        }
+                    }
+                    completed.countDown();
+                });
+            }
+            assertTrue(completed.await(1, TimeUnit.MINUTES));
+        } finally {
+            pool.shutdown();
+        }
+
+        ThroughputPerSecondSeries series = ring.buildAndReset(START + SECONDS * 1_000);
+        long total = 0;
+        for (int second = 0; second < series.size(); second++) {
+            total += series.get(second);
+        }
+        assertEquals((long) COUNT_OF_THREADS * SECONDS * 1_000 * EVENTS_PER_THREAD_PER_MILLISECOND, total);
+        assertEquals(SECONDS, series.size());
+    }
+
+    @Test
+    public void events_are_not_lost_while_reporter_builds_reports_concurrently() throws Exception {
+        final int COUNT_OF_THREADS = 4;
+        final int SECONDS = 20;
+        final int EVENTS_PER_THREAD_PER_MILLISECOND = 10;
+
+        ThroughputPerSecondRing ring = new ThroughputPerSecondRing();
+        AtomicLong clock = new AtomicLong(START);
+        ExecutorService pool = Executors.newFixedThreadPool(COUNT_OF_THREADS);
+        CountDownLatch completed = new CountDownLatch(COUNT_OF_THREADS);
+        long reported = 0;
+        try {
+            for (int thread = 0; thread < COUNT_OF_THREADS; thread++) {
+                pool.submit(() -> {
+                    for (int millisecond = 0; millisecond < SECONDS * 1_000; millisecond++) {
+                        // writers share clock that moves forward, so they race with each other and with reporter
+                        long timestamp = clock.updateAndGet(current -> current + 1) - 1;
+                        for (int event = 0; event < EVENTS_PER_THREAD_PER_MILLISECOND; event++) {
+                            ring.call(timestamp, 1);
+                        }
+                    }
+                    completed.countDown();
+                });
+            }
+            while (!completed.await(1, TimeUnit.MILLISECONDS)) {
+                reported += sum(ring.buildAndReset(clock.get()));
+            }
+        } finally {
+            pool.shutdown();
+        }
+        reported += sum(ring.buildAndReset(clock.get() + 1_000));
+
+        assertEquals((long) COUNT_OF_THREADS * SECONDS * 1_000 * EVENTS_PER_THREAD_PER_MILLISECOND, reported);
+    }
+
+    private static long sum(ThroughputPerSecondSeries series) {
+        long total = 0;
+        for (int second = 0; second < series.size(); second++) {
+            total += series.get(second);
+        }
+        return total;
+    }
+}
@@ -1,10 +1,11 @@
 package ru.fix.aggregating.profiler.engine
 
 import org.hamcrest.MatcherAssert.assertThat
-import org.hamcrest.Matchers.equalTo
+import org.hamcrest.Matchers.*
 import org.junit.jupiter.api.Test
 import org.junit.jupiter.api.assertThrows
 import ru.fix.aggregating.profiler.Identity
+import ru.fix.aggregating.profiler.IdentityPool
 
 class IdentityTest {
     @Test
@@ -49,4 +50,40 @@ class IdentityTest {
             (identity.tags as MutableMap<String, String>)["foo"] = "mut"
         }
     }
+
+    @Test
+    fun `identities with same tags in different order are equal`() {
+        val fromPairs = Identity("name", "method", "pay", "service", "billing", "filial", "12")
+        val fromMap = Identity("name", mapOf("service" to "billing", "filial" to "12", "method" to "pay"))
+
+        assertThat(fromPairs, equalTo(fromMap))
+        assertThat(fromPairs.hashCode(), equalTo(fromMap.hashCode()))
+        assertThat(fromPairs.identityString(), equalTo("name{filial=12,method=pay,service=billing}"))
+        assertThat(fromPairs, not(equalTo(Identity("name", "method", "pay", "service", "billing"))))
+    }
+
+    @Test
+    fun `last value of repeated tag is kept`() {
+        val identity = Identity("name", "filial", "1", "method", "pay", "filial", "2")
+
+        assertThat(identity.tagsCount, equalTo(2))
+        assertThat(identity.getTag("filial"), equalTo("2"))
+        assertThat(identity.hasTag("method", "pay"), equalTo(true))
+        assertThat(identity.hasTag("filial", "1"), equalTo(false))
+        assertThat(identity.getTag("service"), nullValue())
+    }
+
+    @Test
+    fun `pool returns same instance for equal identities until it is full`() {
+        val pool = IdentityPool(2)
+
+        val first = pool.intern(Identity("name", "filial", "1"))
+        assertThat(pool.intern(Identity("name", "filial", "1")), sameInstance(first))
+        assertThat(pool.intern("name"), sameInstance(pool.intern(Identity("name"))))
+
+        val overflow = Identity("name", "filial", "2")
+        assertThat(pool.intern(overflow), sameInstance(overflow))
+        assertThat(pool.intern(Identity("name", "filial", "2")), not(sameInstance(overflow)))
+        assertThat(pool.size(), equalTo(2))
+    }
 }
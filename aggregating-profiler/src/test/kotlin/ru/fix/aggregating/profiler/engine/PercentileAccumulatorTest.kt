@@ -3,6 +3,7 @@ package ru.fix.aggregating.profiler.engine
 import org.junit.jupiter.api.Assertions
 import org.junit.jupiter.api.Test
 import ru.fix.aggregating.profiler.PercentileSettings
+import java.util.Random
 
 class PercentileAccumulatorTest {
 
@@ -126,4 +127,22 @@ class PercentileAccumulatorTest {
                 ),
                 report)
     }
-}
\ No newline at end of file
+
+    @Test
+    fun `bucket index points to smallest level that is greater or equal to latency`() {
+        val random = Random(42)
+        repeat(100) {
+            val levels = (0 until random.nextInt(40)).map { random.nextInt(1000) }
+            val accumulator = PercentileAccumulator(PercentileSettings().apply { buckets = levels })
+            val sortedLevels = levels.map { it.toLong() }.toSortedSet()
+
+            repeat(100) {
+                val latency = random.nextInt(1200).toLong()
+                val ceiling = sortedLevels.firstOrNull { level -> level >= latency }
+                val expectedIndex = if (ceiling == null) sortedLevels.size else sortedLevels.headSet(ceiling).size
+
+                Assertions.assertEquals(expectedIndex, accumulator.bucketIndex(latency), "levels: $levels, latency: $latency")
+            }
+        }
+    }
+}
@@ -10,6 +10,7 @@ object Vers {
     val junit = "5.2.0"
     val kotlintest = "3.4.2"
     val jmh = "1.23"
+    val jol = "0.10"
 
 }
 
@@ -43,6 +44,7 @@ object Libs {
     val jmh = "org.openjdk.jmh:jmh-core:${Vers.jmh}"
     val jmhGeneratorAnn = "org.openjdk.jmh:jmh-generator-annprocess:${Vers.jmh}"
     val jmhGeneratorBytecode = "org.openjdk.jmh:jmh-generator-bytecode:${Vers.jmh}"
+    val jol = "org.openjdk.jol:jol-core:${Vers.jol}"
     val shadowPlugin = "com.github.jengelman.gradle.plugins:shadow:2.0.4"
 
     val testcontainers_core = "org.testcontainers:testcontainers:1.13.0"